@@ -0,0 +1,357 @@
+package com.matthewcasperson.validation.config;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+
+/**
+ * Reorders the rules of each chain of a configuration as requests are processed, so the rules
+ * that are cheap and likely to fail run first. Only runs of adjacent read only rules are
+ * reordered, as read only rules never change the values they are given, so a param passes or
+ * fails, and ends up with the same values, whatever order they run in. When a rule fails, the
+ * rules that were declared before it but have been moved after it are run too, and the first of
+ * them to fail is reported, so a failure is reported against the same rule as in the declared
+ * order.
+ *
+ * The time each rule takes and how often it fails are counted with LongAdders for a sample of the
+ * runs, and now and then a request folds the counts into a moving average and works out a new
+ * order. Within a run, rules
+ * are sorted by their average time divided by their failure rate, which minimises the expected
+ * time spent on a param when the rules fail independently.
+ *
+ * An instance belongs to a single configuration, so a reloaded configuration starts from the
+ * declared order again.
+ */
+public final class AdaptiveRuleOrder {
+
+	/**
+	 * How many recorded rule runs there are, on average, between attempts to reorder a chain
+	 */
+	public static final int DEFAULT_REORDER_INTERVAL = 1024;
+
+	/**
+	 * How many rule runs there are, on average, for each run that is timed and recorded
+	 */
+	public static final int SAMPLE_INTERVAL = 16;
+
+	/**
+	 * The runs a rule needs to have been seen for before its run is reordered
+	 */
+	private static final long MIN_RUNS = 64;
+
+	/**
+	 * How much of the previous average is kept when new counts are folded in
+	 */
+	private static final double DECAY = 0.5;
+
+	/**
+	 * Stands in for the failure rate of rules that have not failed, so they are sorted by time
+	 */
+	private static final double MIN_FAILURE_RATE = 1e-6;
+
+	private static final int[] NO_RULES = new int[0];
+
+	/**
+	 * Marks a chain that has nothing to reorder
+	 */
+	private static final ChainOrder FIXED = new ChainOrder(new boolean[0]);
+
+	private final CompiledValidationConfig config;
+	private final int reorderInterval;
+	private final AtomicReferenceArray<ChainOrder> chainOrders;
+	private final AtomicLong reorderCount = new AtomicLong();
+
+	/**
+	 * @param config The configuration whose chains are reordered
+	 * @param reorderInterval How many recorded rule runs there are, on average, between attempts to
+	 *                        reorder a chain
+	 */
+	public AdaptiveRuleOrder(final CompiledValidationConfig config, final int reorderInterval) {
+		checkNotNull(config);
+		checkArgument(reorderInterval > 0);
+
+		this.config = config;
+		this.reorderInterval = reorderInterval;
+		this.chainOrders = new AtomicReferenceArray<ChainOrder>(config.getChainCount());
+	}
+
+	/**
+	 * @return The configuration whose chains are reordered
+	 */
+	public CompiledValidationConfig getConfig() {
+		return config;
+	}
+
+	/**
+	 * @return The number of times the order of a chain has changed
+	 */
+	public long getReorderCount() {
+		return reorderCount.get();
+	}
+
+	/**
+	 * @param chainIndex The position of a chain in the configuration
+	 * @return The indexes of the rules of the chain in the order they should be run, or null if the
+	 * chain has nothing to reorder and its rules should be run in the declared order. A lazy chain
+	 * is compiled by this call.
+	 */
+	public int[] getOrder(final int chainIndex) {
+		return chainOrder(chainIndex).order;
+	}
+
+	/**
+	 * @return true if the next run of a rule should be timed and recorded, which is the case for
+	 * one run in {@link #SAMPLE_INTERVAL} on average, so most runs are not timed at all
+	 */
+	public boolean isSampled() {
+		return ThreadLocalRandom.current().nextInt(SAMPLE_INTERVAL) == 0;
+	}
+
+	/**
+	 * @param order The order a chain has been run in, from {@link #getOrder(int)}
+	 * @param position The position in the order of the rule that failed
+	 * @return The declared positions, in declared order, of the rules that the declared order would
+	 * have run before the rule that failed but this order has not run yet. Running these rules, and
+	 * reporting the first of them that fails, reports the failure the declared order would have.
+	 */
+	public static int[] getMovedAfter(final int[] order, final int position) {
+		checkNotNull(order);
+		checkArgument(position >= 0 && position < order.length);
+
+		final int ruleIndex = order[position];
+		int count = 0;
+		for (int later = position + 1; later < order.length; ++later) {
+			if (order[later] < ruleIndex) {
+				++count;
+			}
+		}
+		if (count == 0) {
+			return NO_RULES;
+		}
+
+		final int[] movedAfter = new int[count];
+		count = 0;
+		for (int later = position + 1; later < order.length; ++later) {
+			if (order[later] < ruleIndex) {
+				movedAfter[count++] = order[later];
+			}
+		}
+		Arrays.sort(movedAfter);
+		return movedAfter;
+	}
+
+	/**
+	 * Records a run of a rule that passed
+	 *
+	 * @param chainIndex The position of the chain in the configuration
+	 * @param ruleIndex The declared position of the rule in the chain
+	 * @param nanos How long the rule took
+	 */
+	public void recordPass(final int chainIndex, final int ruleIndex, final long nanos) {
+		record(chainIndex, ruleIndex, nanos, false);
+	}
+
+	/**
+	 * Records a run of a rule that failed
+	 *
+	 * @param chainIndex The position of the chain in the configuration
+	 * @param ruleIndex The declared position of the rule in the chain
+	 * @param nanos How long the rule took
+	 */
+	public void recordFailure(final int chainIndex, final int ruleIndex, final long nanos) {
+		record(chainIndex, ruleIndex, nanos, true);
+	}
+
+	/**
+	 * Works out the order of the chain from the runs recorded so far. This is called now and
+	 * then by the requests that record runs, and does nothing if another thread is already
+	 * reordering the chain.
+	 *
+	 * @param chainIndex The position of the chain in the configuration
+	 */
+	public void reorder(final int chainIndex) {
+		final ChainOrder chainOrder = chainOrder(chainIndex);
+		if (chainOrder.order == null || !chainOrder.reordering.compareAndSet(false, true)) {
+			return;
+		}
+
+		try {
+			if (chainOrder.reorder()) {
+				reorderCount.incrementAndGet();
+			}
+		} finally {
+			chainOrder.reordering.set(false);
+		}
+	}
+
+	private void record(final int chainIndex, final int ruleIndex, final long nanos, final boolean failed) {
+		final ChainOrder chainOrder = chainOrder(chainIndex);
+		if (chainOrder.order == null || !chainOrder.reorderable[ruleIndex]) {
+			return;
+		}
+
+		chainOrder.runs[ruleIndex].increment();
+		chainOrder.nanos[ruleIndex].add(nanos);
+		if (failed) {
+			chainOrder.failures[ruleIndex].increment();
+		}
+
+		if (ThreadLocalRandom.current().nextInt(reorderInterval) == 0) {
+			reorder(chainIndex);
+		}
+	}
+
+	private ChainOrder chainOrder(final int chainIndex) {
+		final ChainOrder existing = chainOrders.get(chainIndex);
+		if (existing != null) {
+			return existing;
+		}
+
+		final int ruleCount = config.getRuleCount(chainIndex);
+		final boolean[] reorderable = new boolean[ruleCount];
+		boolean any = false;
+		for (int ruleIndex = 0; ruleIndex < ruleCount; ++ruleIndex) {
+			reorderable[ruleIndex] = config.getCompiledRule(chainIndex, ruleIndex).getTraits().readOnly();
+			// A read only rule can only be moved if its neighbour is read only too
+			any |= reorderable[ruleIndex] && ruleIndex > 0 && reorderable[ruleIndex - 1];
+		}
+
+		final ChainOrder created = any ? new ChainOrder(reorderable) : FIXED;
+		return chainOrders.compareAndSet(chainIndex, null, created) ? created : chainOrders.get(chainIndex);
+	}
+
+	/**
+	 * The order of a single chain, and the counts it is worked out from
+	 */
+	private static final class ChainOrder {
+		private final boolean[] reorderable;
+		private final LongAdder[] runs;
+		private final LongAdder[] failures;
+		private final LongAdder[] nanos;
+
+		/**
+		 * The moving averages, which are only used by the thread that holds reordering
+		 */
+		private final double[] averageNanos;
+		private final double[] failureRates;
+		private final long[] totalRuns;
+
+		private final AtomicBoolean reordering = new AtomicBoolean();
+
+		/**
+		 * Replaced rather than changed, so a request always sees a complete order
+		 */
+		private volatile int[] order;
+
+		ChainOrder(final boolean[] reorderable) {
+			final int ruleCount = reorderable.length;
+
+			this.reorderable = reorderable;
+			this.runs = new LongAdder[ruleCount];
+			this.failures = new LongAdder[ruleCount];
+			this.nanos = new LongAdder[ruleCount];
+			this.averageNanos = new double[ruleCount];
+			this.failureRates = new double[ruleCount];
+			this.totalRuns = new long[ruleCount];
+
+			for (int ruleIndex = 0; ruleIndex < ruleCount; ++ruleIndex) {
+				runs[ruleIndex] = new LongAdder();
+				failures[ruleIndex] = new LongAdder();
+				nanos[ruleIndex] = new LongAdder();
+			}
+
+			if (ruleCount != 0) {
+				final int[] declared = new int[ruleCount];
+				for (int ruleIndex = 0; ruleIndex < ruleCount; ++ruleIndex) {
+					declared[ruleIndex] = ruleIndex;
+				}
+				this.order = declared;
+			}
+		}
+
+		/**
+		 * @return true if the order changed
+		 */
+		boolean reorder() {
+			for (int ruleIndex = 0; ruleIndex < reorderable.length; ++ruleIndex) {
+				if (!reorderable[ruleIndex]) {
+					continue;
+				}
+
+				final long newRuns = runs[ruleIndex].sumThenReset();
+				final long newFailures = failures[ruleIndex].sumThenReset();
+				final long newNanos = nanos[ruleIndex].sumThenReset();
+				if (newRuns == 0) {
+					continue;
+				}
+
+				final double weight = totalRuns[ruleIndex] == 0 ? 1 : 1 - DECAY;
+				averageNanos[ruleIndex] += weight * ((double)newNanos / newRuns - averageNanos[ruleIndex]);
+				failureRates[ruleIndex] += weight * ((double)newFailures / newRuns - failureRates[ruleIndex]);
+				totalRuns[ruleIndex] += newRuns;
+			}
+
+			final int[] current = order;
+			final int[] next = current.clone();
+
+			// Sort each run of adjacent read only rules on its own, leaving every other rule in place
+			for (int start = 0; start < next.length; ) {
+				int end = start;
+				while (end < next.length && reorderable[next[end]]) {
+					++end;
+				}
+				if (end - start > 1 && hasEnoughRuns(next, start, end)) {
+					sortRun(next, start, end);
+				}
+				start = Math.max(end, start + 1);
+			}
+
+			if (Arrays.equals(current, next)) {
+				return false;
+			}
+
+			order = next;
+			return true;
+		}
+
+		private boolean hasEnoughRuns(final int[] ruleIndexes, final int start, final int end) {
+			for (int position = start; position < end; ++position) {
+				if (totalRuns[ruleIndexes[position]] < MIN_RUNS) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * An insertion sort, as runs are short and are usually in order already
+		 */
+		private void sortRun(final int[] ruleIndexes, final int start, final int end) {
+			for (int position = start + 1; position < end; ++position) {
+				final int ruleIndex = ruleIndexes[position];
+				final double cost = cost(ruleIndex);
+
+				int insert = position;
+				while (insert > start && cost(ruleIndexes[insert - 1]) > cost) {
+					ruleIndexes[insert] = ruleIndexes[insert - 1];
+					--insert;
+				}
+				ruleIndexes[insert] = ruleIndex;
+			}
+		}
+
+		/**
+		 * @return The expected time the rule takes for each failure it finds
+		 */
+		private double cost(final int ruleIndex) {
+			return averageNanos[ruleIndex] / Math.max(failureRates[ruleIndex], MIN_FAILURE_RATE);
+		}
+	}
+}
@@ -0,0 +1,65 @@
+package com.matthewcasperson.validation.config;
+
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * The patterns and rules of a chain, as they appear in the configuration file
+ */
+final class ChainDefinition {
+
+	private final String paramNamePattern;
+	private final boolean paramNamePatternNegated;
+	private final String requestURIPattern;
+	private final boolean requestURIPatternNegated;
+	private final String regexEngine;
+	private final List<RuleDefinition> rules;
+
+	/**
+	 * @param paramNamePattern The regex matched against parameter names, or null if it is missing
+	 * @param paramNamePatternNegated true if the chain applies to the names that do not match
+	 * @param requestURIPattern The regex matched against request URIs, or null if it is missing
+	 * @param requestURIPatternNegated true if the chain applies to the URIs that do not match
+	 * @param regexEngine The name of the regex engine selected for the chain, or null
+	 * @param rules The rules of the chain, which may contain nulls for empty elements
+	 */
+	ChainDefinition(
+			final String paramNamePattern,
+			final boolean paramNamePatternNegated,
+			final String requestURIPattern,
+			final boolean requestURIPatternNegated,
+			final String regexEngine,
+			final List<RuleDefinition> rules) {
+		this.paramNamePattern = paramNamePattern;
+		this.paramNamePatternNegated = paramNamePatternNegated;
+		this.requestURIPattern = requestURIPattern;
+		this.requestURIPatternNegated = requestURIPatternNegated;
+		this.regexEngine = regexEngine;
+		this.rules = rules == null ? Collections.<RuleDefinition>emptyList() : Collections.unmodifiableList(rules);
+	}
+
+	String getParamNamePattern() {
+		return paramNamePattern;
+	}
+
+	boolean isParamNamePatternNegated() {
+		return paramNamePatternNegated;
+	}
+
+	String getRequestURIPattern() {
+		return requestURIPattern;
+	}
+
+	boolean isRequestURIPatternNegated() {
+		return requestURIPatternNegated;
+	}
+
+	String getRegexEngine() {
+		return regexEngine;
+	}
+
+	List<RuleDefinition> getRules() {
+		return rules;
+	}
+}
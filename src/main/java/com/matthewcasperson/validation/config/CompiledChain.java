@@ -0,0 +1,220 @@
+package com.matthewcasperson.validation.config;
+
+import com.matthewcasperson.validation.exception.InvalidConfigurationException;
+import com.matthewcasperson.validation.regex.CompiledRegex;
+import com.matthewcasperson.validation.rule.ParameterValidationRule;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+
+/**
+ * The immutable, compiled form of a ParameterValidationChain. The patterns are compiled and the
+ * rules are instantiated and configured up front, so a request never has to do either.
+ *
+ * In lazy mode only the request uri regex is compiled up front. The param name regex and the
+ * rules are compiled the first time they are needed, i.e. once a request has matched the uri,
+ * and are then published to every thread through a volatile field.
+ */
+public final class CompiledChain {
+
+	private final CompiledRegex requestURIRegex;
+	private final boolean requestURIPatternNegated;
+
+	/**
+	 * Null until a lazy chain has been compiled
+	 */
+	private volatile Body body;
+
+	/**
+	 * Compiles a lazy chain, and is cleared once that has been done
+	 */
+	private BodyCompiler bodyCompiler;
+
+	/**
+	 * Why a lazy chain could not be compiled, so it is not retried on every request
+	 */
+	private RuntimeException bodyFailure;
+
+	/**
+	 * @param paramNameRegex The regex that is matched against the name of the param
+	 * @param paramNamePatternNegated true if the chain applies to params that do not match
+	 * @param requestURIRegex The regex that is matched against the page being loaded
+	 * @param requestURIPatternNegated true if the chain applies to uris that do not match
+	 * @param rules The rules to apply, in order
+	 */
+	public CompiledChain(final CompiledRegex paramNameRegex,
+						 final boolean paramNamePatternNegated,
+						 final CompiledRegex requestURIRegex,
+						 final boolean requestURIPatternNegated,
+						 final CompiledRule[] rules) {
+		this(requestURIRegex, requestURIPatternNegated, new Body(paramNameRegex, paramNamePatternNegated, rules));
+	}
+
+	/**
+	 * @param requestURIRegex The regex that is matched against the page being loaded
+	 * @param requestURIPatternNegated true if the chain applies to uris that do not match
+	 * @param body The param name regex and the rules
+	 */
+	CompiledChain(final CompiledRegex requestURIRegex,
+				  final boolean requestURIPatternNegated,
+				  final Body body) {
+		checkNotNull(requestURIRegex);
+		checkNotNull(body);
+
+		this.requestURIRegex = requestURIRegex;
+		this.requestURIPatternNegated = requestURIPatternNegated;
+		this.body = body;
+	}
+
+	/**
+	 * @param requestURIRegex The regex that is matched against the page being loaded
+	 * @param requestURIPatternNegated true if the chain applies to uris that do not match
+	 * @param bodyCompiler Compiles the param name regex and the rules when they are first needed
+	 */
+	CompiledChain(final CompiledRegex requestURIRegex,
+				  final boolean requestURIPatternNegated,
+				  final BodyCompiler bodyCompiler) {
+		checkNotNull(requestURIRegex);
+		checkNotNull(bodyCompiler);
+
+		this.requestURIRegex = requestURIRegex;
+		this.requestURIPatternNegated = requestURIPatternNegated;
+		this.bodyCompiler = bodyCompiler;
+	}
+
+	/**
+	 * @return true if the param name regex and the rules have been compiled, which is always the
+	 * case unless the chain is lazy
+	 */
+	public boolean isCompiled() {
+		return body != null;
+	}
+
+	private Body body() {
+		final Body existing = body;
+		return existing == null ? compileBody() : existing;
+	}
+
+	private synchronized Body compileBody() {
+		if (body == null) {
+			if (bodyFailure != null) {
+				throw bodyFailure;
+			}
+
+			try {
+				body = bodyCompiler.compile();
+				bodyCompiler = null;
+			} catch (final InvalidConfigurationException | RuntimeException ex) {
+				bodyFailure = new IllegalStateException("PVF-CONFIGURATION-0006: A lazily compiled validation chain is not valid", ex);
+				throw bodyFailure;
+			}
+		}
+
+		return body;
+	}
+
+	/**
+	 * @param paramName The name of the param
+	 * @return true if the chain applies to the param, after taking negation into account
+	 */
+	public boolean matchesParamName(final String paramName) {
+		final Body compiled = body();
+		return compiled.paramNameRegex.find(paramName) ^ compiled.paramNamePatternNegated;
+	}
+
+	/**
+	 * @param requestURI The page being loaded
+	 * @return true if the chain applies to the page, after taking negation into account
+	 */
+	public boolean matchesRequestURI(final String requestURI) {
+		return requestURIRegex.find(requestURI) ^ requestURIPatternNegated;
+	}
+
+	/**
+	 * @return The regex that is matched against the name of the param
+	 */
+	public CompiledRegex getParamNameRegex() {
+		return body().paramNameRegex;
+	}
+
+	/**
+	 * @return The regex that is matched against the page being loaded
+	 */
+	public CompiledRegex getRequestURIRegex() {
+		return requestURIRegex;
+	}
+
+	/**
+	 * @return true if the chain applies to params that do not match the param name regex
+	 */
+	public boolean isParamNamePatternNegated() {
+		return body().paramNamePatternNegated;
+	}
+
+	/**
+	 * @return true if the chain applies to uris that do not match the request uri regex
+	 */
+	public boolean isRequestURIPatternNegated() {
+		return requestURIPatternNegated;
+	}
+
+	/**
+	 * @return The number of rules in the chain
+	 */
+	public int getRuleCount() {
+		return body().rules.length;
+	}
+
+	/**
+	 * @param index The position of the rule in the chain
+	 * @return The rule
+	 */
+	public ParameterValidationRule getRule(final int index) {
+		return body().rules[index].getRule();
+	}
+
+	/**
+	 * @param index The position of the rule in the chain
+	 * @return The rule, along with the name and settings it was created from
+	 */
+	public CompiledRule getCompiledRule(final int index) {
+		return body().rules[index];
+	}
+
+	/**
+	 * @param index The position of the rule in the chain
+	 * @return The class name of the rule, as it appears in the configuration
+	 */
+	public String getRuleName(final int index) {
+		return body().rules[index].getName();
+	}
+
+	/**
+	 * The parts of a chain that are only needed once the uri has matched
+	 */
+	static final class Body {
+		private final CompiledRegex paramNameRegex;
+		private final boolean paramNamePatternNegated;
+		private final CompiledRule[] rules;
+
+		Body(final CompiledRegex paramNameRegex, final boolean paramNamePatternNegated, final CompiledRule[] rules) {
+			checkNotNull(paramNameRegex);
+			checkNotNull(rules);
+
+			this.paramNameRegex = paramNameRegex;
+			this.paramNamePatternNegated = paramNamePatternNegated;
+			this.rules = rules.clone();
+
+			for (final CompiledRule rule : this.rules) {
+				checkNotNull(rule);
+			}
+		}
+	}
+
+	/**
+	 * Compiles the body of a lazy chain
+	 */
+	interface BodyCompiler {
+		Body compile() throws InvalidConfigurationException;
+	}
+}
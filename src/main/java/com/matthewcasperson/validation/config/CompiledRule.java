@@ -0,0 +1,167 @@
+package com.matthewcasperson.validation.config;
+
+import com.matthewcasperson.validation.rule.ParameterValidationRule;
+import com.matthewcasperson.validation.rule.RuleTraits;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+
+/**
+ * A configured rule instance, along with the class name and settings it was created from. The
+ * name and settings identify the rule, so an unchanged rule can be carried over when the
+ * configuration is reloaded.
+ */
+public final class CompiledRule {
+
+	/**
+	 * The traits of a rule class that is not annotated
+	 */
+	static final RuleTraits NO_TRAITS = NoTraits.class.getAnnotation(RuleTraits.class);
+
+	private final String name;
+	private final Map<String, String> settings;
+	private final ParameterValidationRule rule;
+	private final RuleTraits traits;
+
+	/**
+	 * The safe characters of the rule as a bitmap of the ASCII characters, split over two longs
+	 */
+	private final long safeLow;
+	private final long safeHigh;
+	private final boolean hasSafeCharacters;
+
+	private final boolean cacheableOutput;
+
+	/**
+	 * @param name The class name of the rule, as it appears in the configuration
+	 * @param settings The settings the rule was configured with, or null if it has none
+	 * @param rule The configured rule
+	 */
+	public CompiledRule(final String name, final Map<String, String> settings, final ParameterValidationRule rule) {
+		checkNotNull(name);
+		checkNotNull(rule);
+
+		this.name = name;
+		this.settings = settings == null ? null : Collections.unmodifiableMap(new HashMap<String, String>(settings));
+		this.rule = rule;
+
+		this.traits = traitsOf(rule.getClass());
+
+		long low = 0;
+		long high = 0;
+		for (final char character : traits.safeCharacters().toCharArray()) {
+			if (character < 64) {
+				low |= 1L << character;
+			} else if (character < 128) {
+				high |= 1L << character;
+			}
+		}
+		this.safeLow = low;
+		this.safeHigh = high;
+		this.hasSafeCharacters = (low | high) != 0;
+
+		this.cacheableOutput = traits.pure() && traits.expensive() && !traits.readOnly();
+	}
+
+	/**
+	 * @param ruleClass The class of a rule
+	 * @return The traits the class is annotated with, or the default traits if it has none
+	 */
+	static RuleTraits traitsOf(final Class<?> ruleClass) {
+		final RuleTraits traits = ruleClass.getAnnotation(RuleTraits.class);
+		return traits == null ? NO_TRAITS : traits;
+	}
+
+	/**
+	 * @return The class name of the rule, as it appears in the configuration
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return The settings the rule was configured with, or null if it has none
+	 */
+	public Map<String, String> getSettings() {
+		return settings;
+	}
+
+	/**
+	 * @return The configured rule
+	 */
+	public ParameterValidationRule getRule() {
+		return rule;
+	}
+
+	/**
+	 * @return true if the rule class is marked as shareable with RuleTraits, so the rule can be
+	 * used by every chain that defines it in the same way
+	 */
+	public boolean isShareable() {
+		return traits.shareable();
+	}
+
+	/**
+	 * @return The traits of the rule class, which are all false if it is not annotated
+	 */
+	public RuleTraits getTraits() {
+		return traits;
+	}
+
+	/**
+	 * @return true if the rule is an expensive, pure transformer, so what it turns a value into is
+	 * worth remembering for the next time the value is seen
+	 */
+	public boolean hasCacheableOutput() {
+		return cacheableOutput;
+	}
+
+	/**
+	 * @param values The values of a param
+	 * @return true if every value is made up of the safe characters of the rule, so running the rule
+	 * would leave the values as they are. This is always false for a rule without safe characters,
+	 * or for a missing value or no values, which the rule has to be given to reject.
+	 */
+	public boolean passesUnchanged(final String[] values) {
+		if (!hasSafeCharacters || values == null || values.length == 0) {
+			return false;
+		}
+
+		for (final String value : values) {
+			if (value == null) {
+				return false;
+			}
+			for (int index = 0, length = value.length(); index < length; ++index) {
+				final char character = value.charAt(index);
+				// Shifts only use the low 6 bits, so character picks its bit in either word
+				final long word = character < 64 ? safeLow : character < 128 ? safeHigh : 0;
+				if ((word & (1L << character)) == 0) {
+					return false;
+				}
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * @param otherName The class name of another rule
+	 * @param otherSettings The settings of another rule
+	 * @return true if a rule created from the other name and settings would be the same as this one
+	 */
+	public boolean isDefinedBy(final String otherName, final Map<String, String> otherSettings) {
+		return name.equals(otherName) && (settings == null ? otherSettings == null : settings.equals(otherSettings));
+	}
+
+	/**
+	 * Holds the default traits
+	 */
+	@RuleTraits
+	private static final class NoTraits {
+
+	}
+}
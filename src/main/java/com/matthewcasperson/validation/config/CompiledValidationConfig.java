@@ -0,0 +1,417 @@
+package com.matthewcasperson.validation.config;
+
+import com.matthewcasperson.validation.regex.CompiledRegex;
+import com.matthewcasperson.validation.regex.PatternKind;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+
+/**
+ * An immutable snapshot of the validation configuration, compiled from the JAXB model by the
+ * ValidationConfigCompiler. The filter only ever reads from a snapshot, so it can be shared
+ * between request threads without any locking.
+ *
+ * Alongside the chains, the snapshot keeps everything a request needs in flat arrays indexed by
+ * chain: the kind and literal of each pattern, the negation flags as bitsets, and the rules as
+ * offsets into a single table of distinct rules. A request matches its uri against every chain
+ * once, and then only visits the chains that matched for each param.
+ *
+ * The flags of a lazy chain, i.e. whether it is pure, whether it only validates, and the identities
+ * of its rules, are worked out and published the first time they are asked for after the chain
+ * has been compiled, so lazy chains get the same optimisations as the others once they are used.
+ */
+public final class CompiledValidationConfig {
+
+	/**
+	 * Used when no configuration file has been supplied
+	 */
+	public static final CompiledValidationConfig EMPTY = new CompiledValidationConfig(new CompiledChain[0], false, 0);
+
+	private final CompiledChain[] chains;
+	private final boolean enforcingMode;
+	private final long version;
+
+	private final byte[] requestURIKinds;
+	private final String[] requestURILiterals;
+	private final CompiledRegex[] requestURIRegexes;
+	private final long[] requestURINegated;
+
+	private final byte[] paramNameKinds;
+	private final String[] paramNameLiterals;
+	private final CompiledRegex[] paramNameRegexes;
+	private final long[] paramNameNegated;
+
+	/**
+	 * The chains that had not been compiled when the snapshot was created, which have to be asked
+	 * for their param name regex and rules
+	 */
+	private final long[] lazyChains;
+
+	/**
+	 * The flags of each lazy chain, which are null until the chain has been compiled and the flags
+	 * have been asked for
+	 */
+	private final AtomicReferenceArray<LazyChain> lazyChainFlags;
+
+	/**
+	 * The compiled chains whose rules are all pure, so what they do to a value depends only on
+	 * the value
+	 */
+	private final long[] pureChains;
+
+	/**
+	 * The pure chains whose rules are also all read only, so they never change a value and only
+	 * give a verdict on it
+	 */
+	private final long[] validatorChains;
+
+	/**
+	 * The rules of chain i are ruleTable[ruleIndexes[ruleOffsets[i]]] to
+	 * ruleTable[ruleIndexes[ruleOffsets[i + 1] - 1]]
+	 */
+	private final CompiledRule[] ruleTable;
+	private final int[] ruleOffsets;
+	private final int[] ruleIndexes;
+
+	/**
+	 * For each entry in the rule table that gives the same result when repeated on the same value
+	 * (an idempotent or read only rule), an index shared by every entry with the same class name
+	 * and settings. Every other entry has -1.
+	 */
+	private final int[] ruleIdentities;
+
+	/**
+	 * The index of each distinct class name and settings, which grows as lazy chains are compiled
+	 */
+	private final Map<List<Object>, Integer> identities = new HashMap<List<Object>, Integer>();
+	private volatile int ruleIdentityCount;
+
+	/**
+	 * @param chains The chains, in the order they are applied
+	 * @param enforcingMode true if the filter should return an error code when validation fails
+	 * @param version The version of the configuration, which goes up by one each time it is reloaded
+	 */
+	public CompiledValidationConfig(final CompiledChain[] chains, final boolean enforcingMode, final long version) {
+		checkNotNull(chains);
+
+		this.chains = chains.clone();
+		this.enforcingMode = enforcingMode;
+		this.version = version;
+
+		for (final CompiledChain chain : this.chains) {
+			checkNotNull(chain);
+		}
+
+		final int chainCount = this.chains.length;
+		final int bitsetLength = (chainCount + 63) >>> 6;
+
+		requestURIKinds = new byte[chainCount];
+		requestURILiterals = new String[chainCount];
+		requestURIRegexes = new CompiledRegex[chainCount];
+		requestURINegated = new long[bitsetLength];
+		paramNameKinds = new byte[chainCount];
+		paramNameLiterals = new String[chainCount];
+		paramNameRegexes = new CompiledRegex[chainCount];
+		paramNameNegated = new long[bitsetLength];
+		lazyChains = new long[bitsetLength];
+		lazyChainFlags = new AtomicReferenceArray<LazyChain>(chainCount);
+		pureChains = new long[bitsetLength];
+		validatorChains = new long[bitsetLength];
+		ruleOffsets = new int[chainCount + 1];
+
+		final Map<CompiledRule, Integer> ruleTableIndexes = new IdentityHashMap<CompiledRule, Integer>();
+		final List<Integer> ruleIndexList = new ArrayList<Integer>();
+
+		for (int chainIndex = 0; chainIndex < chainCount; ++chainIndex) {
+			final CompiledChain chain = this.chains[chainIndex];
+			final long bit = 1L << chainIndex;
+			final int word = chainIndex >>> 6;
+
+			requestURIRegexes[chainIndex] = chain.getRequestURIRegex();
+			requestURIKinds[chainIndex] = PatternKind.classify(chain.getRequestURIRegex().pattern());
+			requestURILiterals[chainIndex] = PatternKind.literal(chain.getRequestURIRegex().pattern());
+			if (chain.isRequestURIPatternNegated()) {
+				requestURINegated[word] |= bit;
+			}
+
+			ruleOffsets[chainIndex] = ruleIndexList.size();
+
+			// Asking a lazy chain for the rest of its definition would compile it
+			if (!chain.isCompiled()) {
+				lazyChains[word] |= bit;
+				continue;
+			}
+
+			paramNameRegexes[chainIndex] = chain.getParamNameRegex();
+			paramNameKinds[chainIndex] = PatternKind.classify(chain.getParamNameRegex().pattern());
+			paramNameLiterals[chainIndex] = PatternKind.literal(chain.getParamNameRegex().pattern());
+			if (chain.isParamNamePatternNegated()) {
+				paramNameNegated[word] |= bit;
+			}
+
+			boolean pure = true;
+			boolean readOnly = true;
+			for (int ruleIndex = 0; ruleIndex < chain.getRuleCount(); ++ruleIndex) {
+				final CompiledRule rule = chain.getCompiledRule(ruleIndex);
+				pure &= rule.getTraits().pure();
+				readOnly &= rule.getTraits().readOnly();
+				Integer tableIndex = ruleTableIndexes.get(rule);
+				if (tableIndex == null) {
+					tableIndex = ruleTableIndexes.size();
+					ruleTableIndexes.put(rule, tableIndex);
+				}
+				ruleIndexList.add(tableIndex);
+			}
+			if (pure && chain.getRuleCount() != 0) {
+				pureChains[word] |= bit;
+				if (readOnly) {
+					validatorChains[word] |= bit;
+				}
+			}
+		}
+		ruleOffsets[chainCount] = ruleIndexList.size();
+
+		ruleTable = new CompiledRule[ruleTableIndexes.size()];
+		for (final Map.Entry<CompiledRule, Integer> entry : ruleTableIndexes.entrySet()) {
+			ruleTable[entry.getValue()] = entry.getKey();
+		}
+
+		ruleIndexes = new int[ruleIndexList.size()];
+		for (int index = 0; index < ruleIndexes.length; ++index) {
+			ruleIndexes[index] = ruleIndexList.get(index);
+		}
+
+		// Rules that are not shareable are not merged into one entry, so they are matched by definition
+		ruleIdentities = new int[ruleTable.length];
+		for (int tableIndex = 0; tableIndex < ruleTable.length; ++tableIndex) {
+			ruleIdentities[tableIndex] = identityOf(ruleTable[tableIndex]);
+		}
+	}
+
+	/**
+	 * @return The identity of the rule's class name and settings, or -1 if the rule may give a
+	 * different result when it is run again on its own output
+	 */
+	private int identityOf(final CompiledRule rule) {
+		if (!rule.getTraits().idempotent() && !rule.getTraits().readOnly()) {
+			return -1;
+		}
+
+		synchronized (identities) {
+			final List<Object> key = Arrays.<Object>asList(rule.getName(), rule.getSettings());
+			final Integer existing = identities.putIfAbsent(key, identities.size());
+			if (existing != null) {
+				return existing;
+			}
+			ruleIdentityCount = identities.size();
+			return identities.size() - 1;
+		}
+	}
+
+	/**
+	 * @return The flags of a lazy chain, or null if it has not been compiled yet
+	 */
+	private LazyChain lazyChain(final int chainIndex) {
+		final LazyChain existing = lazyChainFlags.get(chainIndex);
+		final CompiledChain chain = chains[chainIndex];
+		if (existing != null || !chain.isCompiled()) {
+			return existing;
+		}
+
+		boolean pure = true;
+		boolean readOnly = true;
+		final int[] chainRuleIdentities = new int[chain.getRuleCount()];
+		for (int ruleIndex = 0; ruleIndex < chainRuleIdentities.length; ++ruleIndex) {
+			final CompiledRule rule = chain.getCompiledRule(ruleIndex);
+			pure &= rule.getTraits().pure();
+			readOnly &= rule.getTraits().readOnly();
+			chainRuleIdentities[ruleIndex] = identityOf(rule);
+		}
+		pure &= chainRuleIdentities.length != 0;
+
+		// Threads that race here work out the same flags, so whichever is published first is kept
+		lazyChainFlags.compareAndSet(chainIndex, null, new LazyChain(pure, pure && readOnly, chainRuleIdentities));
+		return lazyChainFlags.get(chainIndex);
+	}
+
+	/**
+	 * @return The number of chains
+	 */
+	public int getChainCount() {
+		return chains.length;
+	}
+
+	/**
+	 * @param index The position of the chain
+	 * @return The chain
+	 */
+	public CompiledChain getChain(final int index) {
+		return chains[index];
+	}
+
+	/**
+	 * @param requestURI The page being loaded
+	 * @return A bitset of the chains that apply to the page, after taking negation into account,
+	 * where chain i is bit (i % 64) of element (i / 64)
+	 */
+	public long[] matchRequestURI(final String requestURI) {
+		final long[] matches = new long[requestURINegated.length];
+
+		for (int chainIndex = 0; chainIndex < requestURIKinds.length; ++chainIndex) {
+			final boolean found = requestURIKinds[chainIndex] == PatternKind.REGEX
+					? requestURIRegexes[chainIndex].find(requestURI)
+					: PatternKind.matches(requestURIKinds[chainIndex], requestURILiterals[chainIndex], requestURI);
+
+			if (found) {
+				matches[chainIndex >>> 6] |= 1L << chainIndex;
+			}
+		}
+
+		for (int word = 0; word < matches.length; ++word) {
+			matches[word] ^= requestURINegated[word];
+		}
+
+		return matches;
+	}
+
+	/**
+	 * @param chainIndex The position of the chain
+	 * @param paramName The name of the param
+	 * @return true if the chain applies to the param, after taking negation into account
+	 */
+	public boolean matchesParamName(final int chainIndex, final String paramName) {
+		final long bit = 1L << chainIndex;
+		final int word = chainIndex >>> 6;
+
+		if ((lazyChains[word] & bit) != 0) {
+			return chains[chainIndex].matchesParamName(paramName);
+		}
+
+		final boolean found = paramNameKinds[chainIndex] == PatternKind.REGEX
+				? paramNameRegexes[chainIndex].find(paramName)
+				: PatternKind.matches(paramNameKinds[chainIndex], paramNameLiterals[chainIndex], paramName);
+
+		return found ^ ((paramNameNegated[word] & bit) != 0);
+	}
+
+	/**
+	 * @param chainIndex The position of the chain
+	 * @return The number of rules in the chain
+	 */
+	public int getRuleCount(final int chainIndex) {
+		if ((lazyChains[chainIndex >>> 6] & (1L << chainIndex)) != 0) {
+			return chains[chainIndex].getRuleCount();
+		}
+
+		return ruleOffsets[chainIndex + 1] - ruleOffsets[chainIndex];
+	}
+
+	/**
+	 * @param chainIndex The position of the chain
+	 * @param ruleIndex The position of the rule in the chain
+	 * @return The rule, along with the name and settings it was created from
+	 */
+	public CompiledRule getCompiledRule(final int chainIndex, final int ruleIndex) {
+		if ((lazyChains[chainIndex >>> 6] & (1L << chainIndex)) != 0) {
+			return chains[chainIndex].getCompiledRule(ruleIndex);
+		}
+
+		return ruleTable[ruleIndexes[ruleOffsets[chainIndex] + ruleIndex]];
+	}
+
+	/**
+	 * @param chainIndex The position of the chain
+	 * @return true if the chain has been compiled and all of its rules are pure, so the values it
+	 * leaves a param with, and whether it fails, depend only on the values it is given
+	 */
+	public boolean isPureChain(final int chainIndex) {
+		if ((lazyChains[chainIndex >>> 6] & (1L << chainIndex)) != 0) {
+			final LazyChain lazy = lazyChain(chainIndex);
+			return lazy != null && lazy.pure;
+		}
+
+		return (pureChains[chainIndex >>> 6] & (1L << chainIndex)) != 0;
+	}
+
+	/**
+	 * @param chainIndex The position of the chain
+	 * @return true if the chain is pure and all of its rules are read only, so whether a value
+	 * passes it depends only on the value, and a value that passes is never changed
+	 */
+	public boolean isValidatorChain(final int chainIndex) {
+		if ((lazyChains[chainIndex >>> 6] & (1L << chainIndex)) != 0) {
+			final LazyChain lazy = lazyChain(chainIndex);
+			return lazy != null && lazy.validator;
+		}
+
+		return (validatorChains[chainIndex >>> 6] & (1L << chainIndex)) != 0;
+	}
+
+	/**
+	 * @param chainIndex The position of the chain
+	 * @param ruleIndex The position of the rule in the chain
+	 * @return An index, below getRuleIdentityCount(), that is the same for every rule with the same
+	 * class name and settings, or -1 if the rule may give a different result when it is run again
+	 * on its own output. Rules in lazy chains that have not been compiled yet have -1.
+	 */
+	public int getRuleIdentity(final int chainIndex, final int ruleIndex) {
+		if ((lazyChains[chainIndex >>> 6] & (1L << chainIndex)) != 0) {
+			final LazyChain lazy = lazyChain(chainIndex);
+			return lazy == null ? -1 : lazy.ruleIdentities[ruleIndex];
+		}
+
+		return ruleIdentities[ruleIndexes[ruleOffsets[chainIndex] + ruleIndex]];
+	}
+
+	/**
+	 * @return The number of distinct rule identities, which goes up as lazy chains are compiled
+	 */
+	public int getRuleIdentityCount() {
+		return ruleIdentityCount;
+	}
+
+	/**
+	 * @return The number of distinct rule instances used by the chains that have been compiled
+	 */
+	public int getDistinctRuleCount() {
+		return ruleTable.length;
+	}
+
+	/**
+	 * @return true if the filter should return an error code when validation fails, and false
+	 * if failures are only logged
+	 */
+	public boolean isEnforcingMode() {
+		return enforcingMode;
+	}
+
+	/**
+	 * @return The version of the configuration, which goes up by one each time it is reloaded
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * The flags of a lazy chain that has been compiled
+	 */
+	private static final class LazyChain {
+		private final boolean pure;
+		private final boolean validator;
+		private final int[] ruleIdentities;
+
+		LazyChain(final boolean pure, final boolean validator, final int[] ruleIdentities) {
+			this.pure = pure;
+			this.validator = validator;
+			this.ruleIdentities = ruleIdentities;
+		}
+	}
+}
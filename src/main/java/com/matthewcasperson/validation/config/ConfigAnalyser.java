@@ -0,0 +1,207 @@
+package com.matthewcasperson.validation.config;
+
+import com.matthewcasperson.validation.regex.BacktrackingRisk;
+import com.matthewcasperson.validation.regex.CompiledRegex;
+import com.matthewcasperson.validation.regex.PatternKind;
+import com.matthewcasperson.validation.rule.ParameterValidationRule;
+import com.matthewcasperson.validation.ruleimpl.FailIfNotRegexMatchValidationRule;
+import com.matthewcasperson.validation.ruleimpl.RemoveRegexMatches;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+
+/**
+ * Looks over a compiled configuration for the things that quietly multiply the work done per
+ * request: chains that can never apply, chains that repeat each other, expensive rules applied to
+ * every param and regexes that may backtrack. It also works out how many rules a param can be
+ * run through for a set of sample uris.
+ *
+ * Nothing is run against the rules, and lazy chains are not compiled, so only their request uri
+ * patterns are analysed.
+ */
+public final class ConfigAnalyser {
+
+	private ConfigAnalyser() {
+
+	}
+
+	/**
+	 * @param config The compiled configuration
+	 * @return The report, using sample uris made up from the request uri patterns
+	 */
+	public static ConfigReport analyse(final CompiledValidationConfig config) {
+		return analyse(config, sampleURIs(config));
+	}
+
+	/**
+	 * @param config The compiled configuration
+	 * @param sampleURIs The uris to estimate the rule executions per param for
+	 * @return The report
+	 */
+	public static ConfigReport analyse(final CompiledValidationConfig config, final Collection<String> sampleURIs) {
+		checkNotNull(config);
+		checkNotNull(sampleURIs);
+
+		final List<ConfigReport.Finding> findings = new ArrayList<ConfigReport.Finding>();
+		int uncompiledChainCount = 0;
+
+		for (int chainIndex = 0; chainIndex < config.getChainCount(); ++chainIndex) {
+			final CompiledChain chain = config.getChain(chainIndex);
+
+			if (chain.isRequestURIPatternNegated() && isMatchAll(chain.getRequestURIRegex())) {
+				findings.add(new ConfigReport.Finding(ConfigReport.FindingKind.NEVER_MATCHES, chainIndex,
+						"negates the request uri pattern " + chain.getRequestURIRegex().pattern() + ", which matches every uri"));
+			}
+			checkBacktracking(findings, chainIndex, "request uri pattern", chain.getRequestURIRegex());
+
+			if (!chain.isCompiled()) {
+				++uncompiledChainCount;
+				continue;
+			}
+
+			if (chain.isParamNamePatternNegated() && isMatchAll(chain.getParamNameRegex())) {
+				findings.add(new ConfigReport.Finding(ConfigReport.FindingKind.NEVER_MATCHES, chainIndex,
+						"negates the param name pattern " + chain.getParamNameRegex().pattern() + ", which matches every param"));
+			}
+			checkBacktracking(findings, chainIndex, "param name pattern", chain.getParamNameRegex());
+
+			final int duplicateOf = findDuplicate(config, chainIndex);
+			if (duplicateOf >= 0) {
+				findings.add(new ConfigReport.Finding(ConfigReport.FindingKind.DUPLICATE_CHAIN, chainIndex,
+						"has the same patterns as chain " + duplicateOf + ", but the chains in between stop them being merged"));
+			}
+
+			final boolean appliesToEverything = !chain.isParamNamePatternNegated() && isMatchAll(chain.getParamNameRegex())
+					&& !chain.isRequestURIPatternNegated() && isMatchAll(chain.getRequestURIRegex());
+
+			for (int ruleIndex = 0; ruleIndex < chain.getRuleCount(); ++ruleIndex) {
+				final CompiledRule rule = chain.getCompiledRule(ruleIndex);
+
+				if (appliesToEverything && rule.getTraits().expensive()) {
+					findings.add(new ConfigReport.Finding(ConfigReport.FindingKind.EXPENSIVE_RULE_ON_EVERY_PARAM, chainIndex,
+							"applies " + rule.getName() + " to every param of every request"));
+				}
+
+				final CompiledRegex ruleRegex = ruleRegex(rule);
+				if (ruleRegex != null) {
+					checkBacktracking(findings, chainIndex, "pattern of " + rule.getName(), ruleRegex);
+				}
+			}
+		}
+
+		final Map<String, Integer> ruleExecutionsPerParam = new LinkedHashMap<String, Integer>();
+		for (final String uri : sampleURIs) {
+			ruleExecutionsPerParam.put(uri, ruleExecutionsPerParam(config, uri));
+		}
+
+		return new ConfigReport(findings, ruleExecutionsPerParam, uncompiledChainCount);
+	}
+
+	/**
+	 * @return "/", along with a uri that matches each literal request uri pattern
+	 */
+	static Set<String> sampleURIs(final CompiledValidationConfig config) {
+		final Set<String> uris = new LinkedHashSet<String>();
+		uris.add("/");
+
+		for (int chainIndex = 0; chainIndex < config.getChainCount(); ++chainIndex) {
+			final String pattern = config.getChain(chainIndex).getRequestURIRegex().pattern();
+			final String literal = PatternKind.literal(pattern);
+
+			switch (PatternKind.classify(pattern)) {
+				case PatternKind.PREFIX:
+				case PatternKind.EXACT:
+					uris.add(literal);
+					break;
+				case PatternKind.CONTAINS:
+					uris.add(literal.startsWith("/") ? literal : "/" + literal);
+					break;
+				case PatternKind.SUFFIX:
+					uris.add("/sample" + literal);
+					break;
+				default:
+					break;
+			}
+		}
+
+		return uris;
+	}
+
+	/**
+	 * @return The total number of rules in the chains that apply to the uri, which is what a param
+	 * whose name matches all of them is run through. Lazy chains are not counted.
+	 */
+	private static int ruleExecutionsPerParam(final CompiledValidationConfig config, final String uri) {
+		final long[] chains = config.matchRequestURI(uri);
+		int executions = 0;
+
+		for (int word = 0; word < chains.length; ++word) {
+			for (long bits = chains[word]; bits != 0; bits &= bits - 1) {
+				final int chainIndex = (word << 6) + Long.numberOfTrailingZeros(bits);
+				if (config.getChain(chainIndex).isCompiled()) {
+					executions += config.getRuleCount(chainIndex);
+				}
+			}
+		}
+
+		return executions;
+	}
+
+	private static boolean isMatchAll(final CompiledRegex regex) {
+		return PatternKind.classify(regex.pattern()) == PatternKind.ANY;
+	}
+
+	/**
+	 * @return The first earlier chain with the same patterns as the chain, or -1 if there is none
+	 */
+	private static int findDuplicate(final CompiledValidationConfig config, final int chainIndex) {
+		final CompiledChain chain = config.getChain(chainIndex);
+
+		for (int earlierIndex = 0; earlierIndex < chainIndex; ++earlierIndex) {
+			final CompiledChain earlier = config.getChain(earlierIndex);
+			if (earlier.isCompiled()
+					&& earlier.isRequestURIPatternNegated() == chain.isRequestURIPatternNegated()
+					&& earlier.isParamNamePatternNegated() == chain.isParamNamePatternNegated()
+					&& isSameRegex(earlier.getRequestURIRegex(), chain.getRequestURIRegex())
+					&& isSameRegex(earlier.getParamNameRegex(), chain.getParamNameRegex())) {
+				return earlierIndex;
+			}
+		}
+
+		return -1;
+	}
+
+	private static boolean isSameRegex(final CompiledRegex first, final CompiledRegex second) {
+		return first.getEngine() == second.getEngine() && first.pattern().equals(second.pattern());
+	}
+
+	private static void checkBacktracking(final List<ConfigReport.Finding> findings, final int chainIndex, final String description, final CompiledRegex regex) {
+		if (BacktrackingRisk.isAtRisk(regex)) {
+			findings.add(new ConfigReport.Finding(ConfigReport.FindingKind.BACKTRACKING_RISK, chainIndex,
+					"has a " + description + " " + regex.pattern() + " that may backtrack exponentially. Consider the linear regex engine."));
+		}
+	}
+
+	/**
+	 * @return The regex the rule was compiled with, or null if it is not one of the built in regex
+	 * rules. Other rules may have a pattern setting, but it is up to them what it means.
+	 */
+	private static CompiledRegex ruleRegex(final CompiledRule rule) {
+		final ParameterValidationRule instance = rule.getRule();
+		if (instance instanceof FailIfNotRegexMatchValidationRule) {
+			return ((FailIfNotRegexMatchValidationRule)instance).getRegex();
+		}
+		if (instance instanceof RemoveRegexMatches) {
+			return ((RemoveRegexMatches)instance).getRegex();
+		}
+		return null;
+	}
+}
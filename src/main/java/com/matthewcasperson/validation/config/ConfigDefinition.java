@@ -0,0 +1,79 @@
+package com.matthewcasperson.validation.config;
+
+import com.matthewcasperson.validation.ruledefinitionimpl.ParameterValidationChain;
+import com.matthewcasperson.validation.ruledefinitionimpl.ParameterValidationDefinitionImpl;
+import com.matthewcasperson.validation.ruledefinitionimpl.ParameterValidationDefinitionsImpl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * The whole configuration file as plain strings, which is what the ValidationConfigCompiler
+ * works from. It can be read from the JAXB model or streamed straight from the XML by the
+ * StaxConfigLoader.
+ */
+final class ConfigDefinition {
+
+	private final List<ChainDefinition> chains;
+	private final boolean enforcingMode;
+	private final String regexEngine;
+
+	/**
+	 * @param chains The chains, which may contain nulls for empty elements
+	 * @param enforcingMode true if the filter should return an error code when validation fails
+	 * @param regexEngine The name of the regex engine selected for the whole database, or null
+	 */
+	ConfigDefinition(final List<ChainDefinition> chains, final boolean enforcingMode, final String regexEngine) {
+		this.chains = chains == null ? Collections.<ChainDefinition>emptyList() : Collections.unmodifiableList(chains);
+		this.enforcingMode = enforcingMode;
+		this.regexEngine = regexEngine;
+	}
+
+	/**
+	 * @param definitions The JAXB model of the configuration
+	 * @return The same configuration as plain strings
+	 */
+	static ConfigDefinition of(final ParameterValidationDefinitionsImpl definitions) {
+		final List<ChainDefinition> chains = new ArrayList<ChainDefinition>();
+
+		if (definitions.getParameterValidationDefinitions() != null) {
+			for (final ParameterValidationChain chain : definitions.getParameterValidationDefinitions()) {
+				chains.add(chain == null ? null : of(chain));
+			}
+		}
+
+		return new ConfigDefinition(chains, definitions.getEnforcingMode(), definitions.getRegexEngine());
+	}
+
+	private static ChainDefinition of(final ParameterValidationChain chain) {
+		final List<RuleDefinition> rules = new ArrayList<RuleDefinition>();
+
+		if (chain.getList() != null) {
+			for (final ParameterValidationDefinitionImpl definition : chain.getList()) {
+				rules.add(definition == null ? null : new RuleDefinition(definition.getValidationRuleName(), definition.getSettings()));
+			}
+		}
+
+		return new ChainDefinition(
+				chain.getParamNamePatternString(),
+				chain.isParamNamePatternNegated(),
+				chain.getRequestURIPatternString(),
+				chain.isRequestURIPatternNegated(),
+				chain.getRegexEngine(),
+				rules);
+	}
+
+	List<ChainDefinition> getChains() {
+		return chains;
+	}
+
+	boolean isEnforcingMode() {
+		return enforcingMode;
+	}
+
+	String getRegexEngine() {
+		return regexEngine;
+	}
+}
@@ -0,0 +1,210 @@
+package com.matthewcasperson.validation.config;
+
+import com.matthewcasperson.validation.regex.PatternKind;
+import com.matthewcasperson.validation.regex.RegexEngine;
+import com.matthewcasperson.validation.rule.RuleTraits;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+
+/**
+ * Rewrites a configuration so it does less work per request, without changing what any request
+ * sees. Configurations maintained by several teams tend to repeat chains and rules, so:
+ *
+ * <ul>
+ *     <li>A chain is merged into an earlier chain with exactly the same patterns, negation and
+ *     regex engine, as long as every chain in between provably never applies to the same
+ *     params, so the rules still run in the same order for every param.</li>
+ *     <li>A read only rule is removed if the same rule has already checked the value, with
+ *     nothing but read only rules run since.</li>
+ *     <li>An idempotent rule is removed if the same rule has already run, with nothing but read
+ *     only rules run since.</li>
+ * </ul>
+ *
+ * The traits come from the RuleTraits annotation of each rule class, so a rule without it is
+ * never removed. A configuration with an empty chain, rule or pattern is left alone, so the
+ * compiler reports the problem against the chain as it appears in the file.
+ */
+@Slf4j
+final class ConfigOptimiser {
+
+	private ConfigOptimiser() {
+
+	}
+
+	/**
+	 * @param definition The configuration, as read by one of the loaders
+	 * @return The optimised configuration, which may be the same instance
+	 */
+	static ConfigDefinition optimise(final ConfigDefinition definition) {
+		checkNotNull(definition);
+
+		if (!isWellFormed(definition)) {
+			return definition;
+		}
+
+		final List<ChainDefinition> chains = definition.getChains();
+		final List<ChainDefinition> merged = new ArrayList<ChainDefinition>();
+		final List<List<RuleDefinition>> mergedRules = new ArrayList<List<RuleDefinition>>();
+
+		for (final ChainDefinition chain : chains) {
+			final int target = findMergeTarget(merged, chain);
+			if (target < 0) {
+				merged.add(chain);
+				mergedRules.add(new ArrayList<RuleDefinition>(chain.getRules()));
+			} else {
+				mergedRules.get(target).addAll(chain.getRules());
+			}
+		}
+
+		final Map<String, RuleTraits> traits = new HashMap<String, RuleTraits>();
+		final List<ChainDefinition> optimised = new ArrayList<ChainDefinition>(merged.size());
+		int rulesBefore = 0;
+		int rulesAfter = 0;
+
+		for (int chainIndex = 0; chainIndex < merged.size(); ++chainIndex) {
+			final ChainDefinition chain = merged.get(chainIndex);
+			final List<RuleDefinition> rules = removeRedundantRules(mergedRules.get(chainIndex), traits);
+
+			rulesBefore += mergedRules.get(chainIndex).size();
+			rulesAfter += rules.size();
+
+			optimised.add(new ChainDefinition(
+					chain.getParamNamePattern(),
+					chain.isParamNamePatternNegated(),
+					chain.getRequestURIPattern(),
+					chain.isRequestURIPatternNegated(),
+					chain.getRegexEngine(),
+					rules));
+		}
+
+		final int mergedChains = chains.size() - optimised.size();
+		final int removedRules = rulesBefore - rulesAfter;
+		if (mergedChains == 0 && removedRules == 0) {
+			return definition;
+		}
+
+		final List<String> changes = new ArrayList<String>();
+		if (mergedChains != 0) {
+			changes.add("merged " + mergedChains + " chains into earlier chains with the same patterns");
+		}
+		if (removedRules != 0) {
+			changes.add("removed " + removedRules + " rules that repeated an earlier check");
+		}
+		log.info("PVF-INFO-0005: Optimised the configuration: " + String.join(" and ", changes) + ", leaving "
+				+ optimised.size() + " chains with " + rulesAfter + " rules.");
+
+		return new ConfigDefinition(optimised, definition.isEnforcingMode(), definition.getRegexEngine());
+	}
+
+	private static boolean isWellFormed(final ConfigDefinition definition) {
+		try {
+			RegexEngine.fromSetting(definition.getRegexEngine());
+
+			for (final ChainDefinition chain : definition.getChains()) {
+				if (chain == null || chain.getParamNamePattern() == null || chain.getRequestURIPattern() == null) {
+					return false;
+				}
+				for (final RuleDefinition rule : chain.getRules()) {
+					if (rule == null || rule.getName() == null) {
+						return false;
+					}
+				}
+				RegexEngine.fromSetting(chain.getRegexEngine());
+			}
+		} catch (final IllegalArgumentException ex) {
+			return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * @return The index of the chain that the chain can be merged into, or -1 if there is none
+	 */
+	private static int findMergeTarget(final List<ChainDefinition> merged, final ChainDefinition chain) {
+		for (int index = merged.size() - 1; index >= 0; --index) {
+			final ChainDefinition candidate = merged.get(index);
+			if (hasSamePredicate(candidate, chain)) {
+				return index;
+			}
+
+			// The rules of the chain can only move up past chains that never run for the same params
+			if (!isDisjoint(candidate, chain)) {
+				return -1;
+			}
+		}
+
+		return -1;
+	}
+
+	private static boolean hasSamePredicate(final ChainDefinition first, final ChainDefinition second) {
+		return first.getParamNamePattern().equals(second.getParamNamePattern())
+				&& first.isParamNamePatternNegated() == second.isParamNamePatternNegated()
+				&& first.getRequestURIPattern().equals(second.getRequestURIPattern())
+				&& first.isRequestURIPatternNegated() == second.isRequestURIPatternNegated()
+				&& RegexEngine.fromSetting(first.getRegexEngine()) == RegexEngine.fromSetting(second.getRegexEngine());
+	}
+
+	/**
+	 * @return true if no request can have a param that both chains apply to, which is only proven
+	 * for patterns that each match a single, different literal
+	 */
+	private static boolean isDisjoint(final ChainDefinition first, final ChainDefinition second) {
+		return isDisjoint(first.getParamNamePattern(), first.isParamNamePatternNegated(), second.getParamNamePattern(), second.isParamNamePatternNegated())
+				|| isDisjoint(first.getRequestURIPattern(), first.isRequestURIPatternNegated(), second.getRequestURIPattern(), second.isRequestURIPatternNegated());
+	}
+
+	private static boolean isDisjoint(final String first, final boolean firstNegated, final String second, final boolean secondNegated) {
+		return !firstNegated && !secondNegated
+				&& PatternKind.classify(first) == PatternKind.EXACT
+				&& PatternKind.classify(second) == PatternKind.EXACT
+				&& !PatternKind.literal(first).equals(PatternKind.literal(second));
+	}
+
+	private static List<RuleDefinition> removeRedundantRules(final List<RuleDefinition> rules, final Map<String, RuleTraits> traits) {
+		final List<RuleDefinition> kept = new ArrayList<RuleDefinition>(rules.size());
+
+		// What has happened to the value since it was last changed
+		RuleDefinition lastTransformer = null;
+		final Set<RuleDefinition> checks = new HashSet<RuleDefinition>();
+
+		for (final RuleDefinition rule : rules) {
+			final RuleTraits ruleTraits = traits.computeIfAbsent(rule.getName(), ConfigOptimiser::traits);
+
+			if (ruleTraits.readOnly()) {
+				if (checks.add(rule)) {
+					kept.add(rule);
+				}
+			} else if (ruleTraits.idempotent() && rule.equals(lastTransformer)) {
+				log.debug("Removing " + rule.getName() + " as it has just been run with the same settings");
+			} else {
+				kept.add(rule);
+				lastTransformer = rule;
+				checks.clear();
+			}
+		}
+
+		return kept;
+	}
+
+	/**
+	 * @return The traits of the rule class, or no traits if it can not be loaded, in which case the
+	 * compiler reports it. The class is not initialised, as a lazy chain may never need it.
+	 */
+	private static RuleTraits traits(final String name) {
+		try {
+			return CompiledRule.traitsOf(Class.forName(name, false, ConfigOptimiser.class.getClassLoader()));
+		} catch (final ClassNotFoundException | LinkageError ex) {
+			return CompiledRule.NO_TRAITS;
+		}
+	}
+}
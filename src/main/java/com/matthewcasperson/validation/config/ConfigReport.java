@@ -0,0 +1,162 @@
+package com.matthewcasperson.validation.config;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+
+/**
+ * The result of running the ConfigAnalyser over a compiled configuration. Chains are identified
+ * by their position in the compiled configuration, i.e. after the ConfigOptimiser has merged any
+ * duplicates.
+ */
+public final class ConfigReport {
+
+	/**
+	 * The kinds of problem the analyser looks for
+	 */
+	public enum FindingKind {
+		/**
+		 * The chain can never apply to a param, e.g. because a pattern that matches everything
+		 * has been negated
+		 */
+		NEVER_MATCHES,
+
+		/**
+		 * The chain has the same patterns as an earlier chain, but could not be merged with it
+		 */
+		DUPLICATE_CHAIN,
+
+		/**
+		 * An expensive rule is applied to every param of every request
+		 */
+		EXPENSIVE_RULE_ON_EVERY_PARAM,
+
+		/**
+		 * A regex evaluated by java.util.regex may backtrack exponentially
+		 */
+		BACKTRACKING_RISK
+	}
+
+	/**
+	 * A single problem found by the analyser
+	 */
+	public static final class Finding {
+		private final FindingKind kind;
+		private final int chainIndex;
+		private final String message;
+
+		Finding(final FindingKind kind, final int chainIndex, final String message) {
+			checkNotNull(kind);
+			checkNotNull(message);
+
+			this.kind = kind;
+			this.chainIndex = chainIndex;
+			this.message = message;
+		}
+
+		/**
+		 * @return The kind of problem
+		 */
+		public FindingKind getKind() {
+			return kind;
+		}
+
+		/**
+		 * @return The position of the chain the problem was found in
+		 */
+		public int getChainIndex() {
+			return chainIndex;
+		}
+
+		/**
+		 * @return A description of the problem
+		 */
+		public String getMessage() {
+			return message;
+		}
+
+		@Override
+		public String toString() {
+			return kind + ": chain " + chainIndex + " " + message;
+		}
+	}
+
+	private final List<Finding> findings;
+	private final Map<String, Integer> ruleExecutionsPerParam;
+	private final int uncompiledChainCount;
+
+	/**
+	 * @param findings The problems that were found
+	 * @param ruleExecutionsPerParam The most rules a single param can be run through, for each
+	 *                               sample uri
+	 * @param uncompiledChainCount The number of lazy chains that had not been compiled, and so
+	 *                             were only partly analysed
+	 */
+	ConfigReport(final List<Finding> findings, final Map<String, Integer> ruleExecutionsPerParam, final int uncompiledChainCount) {
+		checkNotNull(findings);
+		checkNotNull(ruleExecutionsPerParam);
+
+		this.findings = Collections.unmodifiableList(new ArrayList<Finding>(findings));
+		this.ruleExecutionsPerParam = Collections.unmodifiableMap(new LinkedHashMap<String, Integer>(ruleExecutionsPerParam));
+		this.uncompiledChainCount = uncompiledChainCount;
+	}
+
+	/**
+	 * @return The problems that were found
+	 */
+	public List<Finding> getFindings() {
+		return findings;
+	}
+
+	/**
+	 * @return The most rules a single param can be run through, i.e. for a param whose name
+	 * matches every chain, for each of the sample uris
+	 */
+	public Map<String, Integer> getRuleExecutionsPerParam() {
+		return ruleExecutionsPerParam;
+	}
+
+	/**
+	 * @return The highest of the rule executions per param over all the sample uris
+	 */
+	public int getMaxRuleExecutionsPerParam() {
+		int max = 0;
+		for (final int executions : ruleExecutionsPerParam.values()) {
+			max = Math.max(max, executions);
+		}
+		return max;
+	}
+
+	/**
+	 * @return The number of lazy chains that had not been compiled, whose param name patterns and
+	 * rules were not analysed
+	 */
+	public int getUncompiledChainCount() {
+		return uncompiledChainCount;
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder report = new StringBuilder();
+		report.append("Rule executions per param:");
+		for (final Map.Entry<String, Integer> entry : ruleExecutionsPerParam.entrySet()) {
+			report.append("\n    ").append(entry.getKey()).append(": ").append(entry.getValue());
+		}
+
+		report.append("\nFindings: ").append(findings.size());
+		for (final Finding finding : findings) {
+			report.append("\n    ").append(finding);
+		}
+
+		if (uncompiledChainCount != 0) {
+			report.append("\n").append(uncompiledChainCount).append(" lazy chains have not been compiled, and were only partly analysed");
+		}
+
+		return report.toString();
+	}
+}
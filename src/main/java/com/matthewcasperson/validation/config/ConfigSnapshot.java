@@ -0,0 +1,296 @@
+package com.matthewcasperson.validation.config;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.matthewcasperson.validation.exception.InvalidConfigurationException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+
+/**
+ * A compact binary form of a configuration file, which is created at build time by the
+ * ConfigSnapshotTool so the XML does not have to be parsed when the filter starts.
+ *
+ * The snapshot starts with a header holding a magic number, the format version, the SHA-256
+ * hash of the XML it was created from, and the length and CRC32 checksum of the body. A
+ * snapshot is only used if the checksum is correct and the hash matches the XML that is
+ * deployed alongside it, so a stale snapshot is never loaded.
+ *
+ * The rules and regexes are live objects, so they are still created and compiled when the
+ * snapshot is loaded, as are the kinds of the patterns, which are cheaper to work out again than
+ * to check. ConfigLoadBenchmark measures what the snapshot saves.
+ */
+public final class ConfigSnapshot {
+
+	/**
+	 * "PVFS"
+	 */
+	private static final int MAGIC = 0x50564653;
+
+	/**
+	 * Goes up by one whenever the layout of the snapshot changes
+	 */
+	private static final int FORMAT_VERSION = 1;
+
+	private static final int HASH_LENGTH = 32;
+
+	private static final int HEADER_LENGTH = 4 + 4 + HASH_LENGTH + 4 + 4;
+
+	private ConfigSnapshot() {
+
+	}
+
+	/**
+	 * @param configXml The configuration file
+	 * @return The snapshot of the configuration
+	 * @throws InvalidConfigurationException If the file is not a valid configuration
+	 */
+	public static byte[] create(final byte[] configXml) throws InvalidConfigurationException {
+		checkNotNull(configXml);
+
+		final ConfigDefinition definition = StaxConfigLoader.read(new ByteArrayInputStream(configXml));
+
+		// Compiling it makes sure a bad configuration is found when the snapshot is created
+		ValidationConfigCompiler.compile(definition, null, false);
+
+		try {
+			final byte[] body = writeBody(definition);
+
+			final CRC32 crc = new CRC32();
+			crc.update(body);
+
+			final ByteBuffer snapshot = ByteBuffer.allocate(HEADER_LENGTH + body.length).order(ByteOrder.BIG_ENDIAN);
+			snapshot.putInt(MAGIC);
+			snapshot.putInt(FORMAT_VERSION);
+			snapshot.put(hash(configXml).asBytes());
+			snapshot.putInt(body.length);
+			snapshot.putInt((int)crc.getValue());
+			snapshot.put(body);
+			return snapshot.array();
+		} catch (final IOException ex) {
+			// Nothing is written anywhere except memory
+			throw new IllegalStateException(ex);
+		}
+	}
+
+	/**
+	 * @param snapshot The snapshot, which is not modified
+	 * @param configXml The configuration file the snapshot has to have been created from
+	 * @param previous The snapshot being replaced, whose unchanged rules and regexes are reused,
+	 *                 or null
+	 * @return The compiled snapshot
+	 * @throws InvalidConfigurationException If the snapshot is corrupt, was created from a different
+	 * file or by an incompatible version, or the configuration is not valid
+	 */
+	public static CompiledValidationConfig load(final ByteBuffer snapshot, final byte[] configXml, final CompiledValidationConfig previous) throws InvalidConfigurationException {
+		return load(snapshot, configXml, previous, false);
+	}
+
+	/**
+	 * @param snapshot The snapshot, which is not modified
+	 * @param configXml The configuration file the snapshot has to have been created from
+	 * @param previous The snapshot being replaced, whose unchanged rules and regexes are reused,
+	 *                 or null
+	 * @param lazy true to only compile the request uri patterns up front
+	 * @return The compiled snapshot
+	 * @throws InvalidConfigurationException If the snapshot is corrupt, was created from a different
+	 * file or by an incompatible version, or the configuration is not valid
+	 */
+	public static CompiledValidationConfig load(final ByteBuffer snapshot, final byte[] configXml, final CompiledValidationConfig previous, final boolean lazy) throws InvalidConfigurationException {
+		checkNotNull(snapshot);
+		checkNotNull(configXml);
+
+		return ValidationConfigCompiler.compile(read(snapshot, hash(configXml)), previous, lazy);
+	}
+
+	static ConfigDefinition read(final ByteBuffer snapshot, final HashCode sourceHash) throws InvalidConfigurationException {
+		final ByteBuffer buffer = snapshot.duplicate().order(ByteOrder.BIG_ENDIAN);
+
+		try {
+			if (buffer.remaining() < HEADER_LENGTH || buffer.getInt() != MAGIC) {
+				throw new InvalidConfigurationException("PVF-CONFIGURATION-0005: This is not a configuration snapshot");
+			}
+
+			final int formatVersion = buffer.getInt();
+			if (formatVersion != FORMAT_VERSION) {
+				throw new InvalidConfigurationException("PVF-CONFIGURATION-0005: The snapshot has format version " + formatVersion + " rather than " + FORMAT_VERSION);
+			}
+
+			final byte[] hash = new byte[HASH_LENGTH];
+			buffer.get(hash);
+			if (!HashCode.fromBytes(hash).equals(sourceHash)) {
+				throw new InvalidConfigurationException("PVF-CONFIGURATION-0005: The snapshot was created from a different configuration file");
+			}
+
+			final int length = buffer.getInt();
+			final int checksum = buffer.getInt();
+			if (length < 0 || length != buffer.remaining()) {
+				throw new InvalidConfigurationException("PVF-CONFIGURATION-0005: The snapshot is truncated");
+			}
+
+			final CRC32 crc = new CRC32();
+			crc.update(buffer.duplicate());
+			if ((int)crc.getValue() != checksum) {
+				throw new InvalidConfigurationException("PVF-CONFIGURATION-0005: The snapshot checksum does not match");
+			}
+
+			return readBody(buffer);
+		} catch (final BufferUnderflowException ex) {
+			throw new InvalidConfigurationException("PVF-CONFIGURATION-0005: The snapshot is truncated");
+		}
+	}
+
+	private static HashCode hash(final byte[] configXml) {
+		return Hashing.sha256().hashBytes(configXml);
+	}
+
+	private static byte[] writeBody(final ConfigDefinition definition) throws IOException {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final DataOutputStream out = new DataOutputStream(bytes);
+
+		out.writeBoolean(definition.isEnforcingMode());
+		writeString(out, definition.getRegexEngine());
+		out.writeInt(definition.getChains().size());
+
+		for (final ChainDefinition chain : definition.getChains()) {
+			// Empty chains are kept so they are still reported when the snapshot is compiled
+			out.writeBoolean(chain != null);
+			if (chain == null) {
+				continue;
+			}
+
+			writeString(out, chain.getParamNamePattern());
+			out.writeBoolean(chain.isParamNamePatternNegated());
+			writeString(out, chain.getRequestURIPattern());
+			out.writeBoolean(chain.isRequestURIPatternNegated());
+			writeString(out, chain.getRegexEngine());
+			out.writeInt(chain.getRules().size());
+
+			for (final RuleDefinition rule : chain.getRules()) {
+				out.writeBoolean(rule != null);
+				if (rule == null) {
+					continue;
+				}
+
+				writeString(out, rule.getName());
+				if (rule.getSettings() == null) {
+					out.writeInt(-1);
+				} else {
+					out.writeInt(rule.getSettings().size());
+					for (final Map.Entry<String, String> setting : rule.getSettings().entrySet()) {
+						writeString(out, setting.getKey());
+						writeString(out, setting.getValue());
+					}
+				}
+			}
+		}
+
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	private static ConfigDefinition readBody(final ByteBuffer buffer) throws InvalidConfigurationException {
+		final boolean enforcingMode = readBoolean(buffer);
+		final String regexEngine = readString(buffer);
+		final int chainCount = readCount(buffer);
+		final List<ChainDefinition> chains = new ArrayList<ChainDefinition>(chainCount);
+
+		for (int chainIndex = 0; chainIndex < chainCount; ++chainIndex) {
+			if (!readBoolean(buffer)) {
+				chains.add(null);
+				continue;
+			}
+
+			final String paramNamePattern = readString(buffer);
+			final boolean paramNamePatternNegated = readBoolean(buffer);
+			final String requestURIPattern = readString(buffer);
+			final boolean requestURIPatternNegated = readBoolean(buffer);
+			final String chainRegexEngine = readString(buffer);
+			final int ruleCount = readCount(buffer);
+			final List<RuleDefinition> rules = new ArrayList<RuleDefinition>(ruleCount);
+
+			for (int ruleIndex = 0; ruleIndex < ruleCount; ++ruleIndex) {
+				if (!readBoolean(buffer)) {
+					rules.add(null);
+					continue;
+				}
+
+				final String name = readString(buffer);
+				final int settingCount = buffer.getInt();
+				Map<String, String> settings = null;
+				if (settingCount >= 0) {
+					settings = new LinkedHashMap<String, String>();
+					for (int settingIndex = 0; settingIndex < settingCount; ++settingIndex) {
+						settings.put(readString(buffer), readString(buffer));
+					}
+				}
+				rules.add(new RuleDefinition(name, settings));
+			}
+
+			chains.add(new ChainDefinition(paramNamePattern, paramNamePatternNegated, requestURIPattern, requestURIPatternNegated, chainRegexEngine, rules));
+		}
+
+		if (buffer.hasRemaining()) {
+			throw new InvalidConfigurationException("PVF-CONFIGURATION-0005: The snapshot has unexpected data at the end");
+		}
+
+		return new ConfigDefinition(chains, enforcingMode, regexEngine);
+	}
+
+	/**
+	 * Strings are written as their length in UTF-8 bytes, or -1 for null, followed by the bytes
+	 */
+	private static void writeString(final DataOutputStream out, final String value) throws IOException {
+		if (value == null) {
+			out.writeInt(-1);
+		} else {
+			final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+	}
+
+	private static String readString(final ByteBuffer buffer) throws InvalidConfigurationException {
+		final int length = buffer.getInt();
+		if (length == -1) {
+			return null;
+		}
+		if (length < 0 || length > buffer.remaining()) {
+			throw new InvalidConfigurationException("PVF-CONFIGURATION-0005: The snapshot is truncated");
+		}
+
+		final byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static boolean readBoolean(final ByteBuffer buffer) {
+		return buffer.get() != 0;
+	}
+
+	/**
+	 * Every item takes at least one byte, so a count larger than what is left can only come from a
+	 * corrupt snapshot, and is not used to size a list
+	 */
+	private static int readCount(final ByteBuffer buffer) throws InvalidConfigurationException {
+		final int count = buffer.getInt();
+		if (count < 0 || count > buffer.remaining()) {
+			throw new InvalidConfigurationException("PVF-CONFIGURATION-0005: The snapshot is truncated");
+		}
+		return count;
+	}
+}
@@ -0,0 +1,72 @@
+package com.matthewcasperson.validation.config;
+
+import com.matthewcasperson.validation.exception.InvalidConfigurationException;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+
+
+/**
+ * Creates a ConfigSnapshot from a configuration file. This is meant to be run as part of the
+ * build, e.g. with the exec-maven-plugin:
+ *
+ * <pre>
+ * java -cp parameter-validation-filter.jar com.matthewcasperson.validation.config.ConfigSnapshotTool pvf.xml pvf.bin
+ * </pre>
+ *
+ * The configuration is fully compiled first, so an invalid configuration fails the build.
+ */
+public final class ConfigSnapshotTool {
+
+	private ConfigSnapshotTool() {
+
+	}
+
+	/**
+	 * @param args The configuration file to read and the snapshot file to write
+	 */
+	public static void main(final String[] args) {
+		final int status = run(args, System.err);
+		if (status != 0) {
+			System.exit(status);
+		}
+	}
+
+	/**
+	 * @param args The configuration file to read and the snapshot file to write
+	 * @param err Where errors are reported
+	 * @return 0 on success, 1 if the snapshot could not be created or 2 if the arguments are wrong
+	 */
+	public static int run(final String[] args, final PrintStream err) {
+		if (args.length != 2) {
+			err.println("Usage: ConfigSnapshotTool <configuration xml> <snapshot file>");
+			return 2;
+		}
+
+		final Path configFile = Paths.get(args[0]);
+		final Path snapshotFile = Paths.get(args[1]);
+
+		try {
+			final byte[] snapshot = ConfigSnapshot.create(Files.readAllBytes(configFile));
+
+			// Write to a temporary file first so a half written snapshot is never deployed
+			final Path parent = snapshotFile.toAbsolutePath().getParent();
+			Files.createDirectories(parent);
+			final Path tempFile = Files.createTempFile(parent, snapshotFile.getFileName().toString(), ".tmp");
+			try {
+				Files.write(tempFile, snapshot);
+				Files.move(tempFile, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} finally {
+				Files.deleteIfExists(tempFile);
+			}
+			return 0;
+		} catch (final IOException | InvalidConfigurationException ex) {
+			err.println("Could not create a snapshot of " + configFile + ": " + ex);
+			return 1;
+		}
+	}
+}
@@ -0,0 +1,58 @@
+package com.matthewcasperson.validation.config;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+
+/**
+ * The class name and settings of a rule, as they appear in the configuration file. Unlike
+ * the JAXB model, nothing is compiled or instantiated when this is created.
+ */
+final class RuleDefinition {
+
+	private final String name;
+	private final Map<String, String> settings;
+
+	/**
+	 * @param name The class name of the rule, or null if it is missing
+	 * @param settings The settings of the rule, or null if it has none
+	 */
+	RuleDefinition(final String name, final Map<String, String> settings) {
+		this.name = name;
+		this.settings = settings == null ? null : Collections.unmodifiableMap(new LinkedHashMap<String, String>(settings));
+	}
+
+	/**
+	 * @return The class name of the rule, or null if it is missing
+	 */
+	String getName() {
+		return name;
+	}
+
+	/**
+	 * @return The settings of the rule, or null if it has none
+	 */
+	Map<String, String> getSettings() {
+		return settings;
+	}
+
+	@Override
+	public boolean equals(final Object other) {
+		if (this == other) {
+			return true;
+		}
+		if (!(other instanceof RuleDefinition)) {
+			return false;
+		}
+
+		final RuleDefinition rule = (RuleDefinition)other;
+		return Objects.equals(name, rule.name) && Objects.equals(settings, rule.settings);
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(name, settings);
+	}
+}
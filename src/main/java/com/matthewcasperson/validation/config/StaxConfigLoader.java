@@ -0,0 +1,238 @@
+package com.matthewcasperson.validation.config;
+
+import com.matthewcasperson.validation.exception.InvalidConfigurationException;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+
+/**
+ * Reads a ParameterValidationChainDatabase configuration file with a single pass of a StAX
+ * parser, and compiles it without building the JAXB model first. The file is read as bytes,
+ * so the parser decodes it with the encoding given in the XML declaration.
+ *
+ * Elements that are not part of the format are skipped, as they are by JAXB. DTDs and
+ * external entities are not supported.
+ */
+public final class StaxConfigLoader {
+
+	private static final String ROOT = "ParameterValidationChainDatabase";
+
+	private static final XMLInputFactory INPUT_FACTORY = createInputFactory();
+
+	private StaxConfigLoader() {
+
+	}
+
+	/**
+	 * @param stream The configuration file. The stream is not closed.
+	 * @param previous The snapshot being replaced, whose unchanged rules and regexes are reused,
+	 *                 or null
+	 * @return The compiled snapshot
+	 * @throws InvalidConfigurationException If the file is not a valid configuration
+	 */
+	public static CompiledValidationConfig load(final InputStream stream, final CompiledValidationConfig previous) throws InvalidConfigurationException {
+		return load(stream, previous, false);
+	}
+
+	/**
+	 * @param stream The configuration file. The stream is not closed.
+	 * @param previous The snapshot being replaced, whose unchanged rules and regexes are reused,
+	 *                 or null
+	 * @param lazy true to only compile the request uri patterns up front
+	 * @return The compiled snapshot
+	 * @throws InvalidConfigurationException If the file is not a valid configuration
+	 */
+	public static CompiledValidationConfig load(final InputStream stream, final CompiledValidationConfig previous, final boolean lazy) throws InvalidConfigurationException {
+		return ValidationConfigCompiler.compile(read(stream), previous, lazy);
+	}
+
+	/**
+	 * @param stream The configuration file. The stream is not closed.
+	 * @return The configuration as plain strings
+	 * @throws InvalidConfigurationException If the file is not a valid configuration
+	 */
+	static ConfigDefinition read(final InputStream stream) throws InvalidConfigurationException {
+		checkNotNull(stream);
+
+		try {
+			final XMLStreamReader reader = INPUT_FACTORY.createXMLStreamReader(stream);
+			try {
+				reader.nextTag();
+				if (!ROOT.equals(reader.getLocalName())) {
+					throw new InvalidConfigurationException("PVF-CONFIGURATION-0003: The root element is " + reader.getLocalName() + " rather than " + ROOT);
+				}
+				return readDatabase(reader);
+			} finally {
+				reader.close();
+			}
+		} catch (final XMLStreamException ex) {
+			throw new InvalidConfigurationException(ex);
+		}
+	}
+
+	private static ConfigDefinition readDatabase(final XMLStreamReader reader) throws XMLStreamException {
+		final List<ChainDefinition> chains = new ArrayList<ChainDefinition>();
+		boolean enforcingMode = false;
+		String regexEngine = null;
+
+		while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+			switch (reader.getLocalName()) {
+				case "EnforcingMode":
+					enforcingMode = readBoolean(reader);
+					break;
+				case "RegexEngine":
+					regexEngine = reader.getElementText();
+					break;
+				case "ParameterValidationChains":
+					while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+						if ("ParameterValidationDefinition".equals(reader.getLocalName())) {
+							chains.add(readChain(reader));
+						} else {
+							skipElement(reader);
+						}
+					}
+					break;
+				default:
+					skipElement(reader);
+			}
+		}
+
+		return new ConfigDefinition(chains, enforcingMode, regexEngine);
+	}
+
+	private static ChainDefinition readChain(final XMLStreamReader reader) throws XMLStreamException {
+		final List<RuleDefinition> rules = new ArrayList<RuleDefinition>();
+		String paramNamePattern = null;
+		boolean paramNamePatternNegated = false;
+		String requestURIPattern = null;
+		boolean requestURIPatternNegated = false;
+		String regexEngine = null;
+
+		while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+			switch (reader.getLocalName()) {
+				case "paramNamePatternString":
+					paramNamePattern = reader.getElementText();
+					break;
+				case "paramNamePatternNegated":
+					paramNamePatternNegated = readBoolean(reader);
+					break;
+				case "requestURIPatternString":
+					requestURIPattern = reader.getElementText();
+					break;
+				case "requestURIPatternNegated":
+					requestURIPatternNegated = readBoolean(reader);
+					break;
+				case "regexEngine":
+					regexEngine = reader.getElementText();
+					break;
+				case "ParameterValidationRuleList":
+					while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+						if ("ParameterValidationRule".equals(reader.getLocalName())) {
+							rules.add(readRule(reader));
+						} else {
+							skipElement(reader);
+						}
+					}
+					break;
+				default:
+					skipElement(reader);
+			}
+		}
+
+		return new ChainDefinition(paramNamePattern, paramNamePatternNegated, requestURIPattern, requestURIPatternNegated, regexEngine, rules);
+	}
+
+	private static RuleDefinition readRule(final XMLStreamReader reader) throws XMLStreamException {
+		String name = null;
+		Map<String, String> settings = null;
+
+		while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+			switch (reader.getLocalName()) {
+				case "validationRuleName":
+					name = reader.getElementText().trim();
+					break;
+				case "settings":
+					settings = readSettings(reader);
+					break;
+				default:
+					skipElement(reader);
+			}
+		}
+
+		return new RuleDefinition(name, settings);
+	}
+
+	/**
+	 * Reads a map in the format JAXB writes it, i.e. entry elements holding a key and a value
+	 */
+	private static Map<String, String> readSettings(final XMLStreamReader reader) throws XMLStreamException {
+		final Map<String, String> settings = new LinkedHashMap<String, String>();
+
+		while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+			if (!"entry".equals(reader.getLocalName())) {
+				skipElement(reader);
+				continue;
+			}
+
+			String key = null;
+			String value = null;
+			while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+				switch (reader.getLocalName()) {
+					case "key":
+						key = reader.getElementText();
+						break;
+					case "value":
+						value = reader.getElementText();
+						break;
+					default:
+						skipElement(reader);
+				}
+			}
+			settings.put(key, value);
+		}
+
+		return settings;
+	}
+
+	/**
+	 * Reads an xs:boolean, which is either true, false, 1 or 0
+	 */
+	private static boolean readBoolean(final XMLStreamReader reader) throws XMLStreamException {
+		final String value = reader.getElementText().trim();
+		return "true".equals(value) || "1".equals(value);
+	}
+
+	/**
+	 * Moves the reader to the end of the current element, along with everything inside it
+	 */
+	private static void skipElement(final XMLStreamReader reader) throws XMLStreamException {
+		int depth = 1;
+		while (depth != 0) {
+			final int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				++depth;
+			} else if (event == XMLStreamConstants.END_ELEMENT) {
+				--depth;
+			}
+		}
+	}
+
+	private static XMLInputFactory createInputFactory() {
+		final XMLInputFactory factory = XMLInputFactory.newFactory();
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+		factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+		return factory;
+	}
+}
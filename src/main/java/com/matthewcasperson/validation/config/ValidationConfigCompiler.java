@@ -0,0 +1,225 @@
+package com.matthewcasperson.validation.config;
+
+import com.matthewcasperson.validation.exception.InvalidConfigurationException;
+import com.matthewcasperson.validation.regex.CompiledRegex;
+import com.matthewcasperson.validation.regex.RegexEngine;
+import com.matthewcasperson.validation.ruledefinitionimpl.ParameterValidationDefinitionImpl;
+import com.matthewcasperson.validation.ruledefinitionimpl.ParameterValidationDefinitionsImpl;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+
+/**
+ * Compiles the configuration, either from the JAXB model or as read by the StaxConfigLoader,
+ * into a CompiledValidationConfig. All the rule
+ * classes are loaded, instantiated and configured here, so a bad class name or setting is
+ * reported when the filter starts rather than on the first request that needs it.
+ */
+public final class ValidationConfigCompiler {
+
+	private ValidationConfigCompiler() {
+
+	}
+
+	/**
+	 * @param definitions The configuration, as loaded from the XML file
+	 * @return The compiled snapshot
+	 * @throws InvalidConfigurationException If a chain is missing a pattern or a rule could not be
+	 * created
+	 */
+	public static CompiledValidationConfig compile(final ParameterValidationDefinitionsImpl definitions) throws InvalidConfigurationException {
+		return compile(definitions, null);
+	}
+
+	/**
+	 * @param definitions The configuration, as loaded from the XML file
+	 * @param previous The snapshot being replaced, whose unchanged rules and regexes are reused,
+	 *                 or null
+	 * @return The compiled snapshot
+	 * @throws InvalidConfigurationException If a chain is missing a pattern or a rule could not be
+	 * created
+	 */
+	public static CompiledValidationConfig compile(final ParameterValidationDefinitionsImpl definitions, final CompiledValidationConfig previous) throws InvalidConfigurationException {
+		checkNotNull(definitions);
+
+		return compile(ConfigDefinition.of(definitions), previous, false);
+	}
+
+	/**
+	 * @param source The configuration, as read by one of the loaders, which is optimised by the
+	 *               ConfigOptimiser before it is compiled
+	 * @param previous The snapshot being replaced, or null
+	 * @param lazy true to only compile the request uri patterns, and leave the rest of each chain
+	 *             until a request matches its uri
+	 * @return The compiled snapshot
+	 * @throws InvalidConfigurationException If the configuration is not valid
+	 */
+	static CompiledValidationConfig compile(final ConfigDefinition source, final CompiledValidationConfig previous, final boolean lazy) throws InvalidConfigurationException {
+		checkNotNull(source);
+
+		final ConfigDefinition definition = ConfigOptimiser.optimise(source);
+
+		final long version = previous == null ? 1 : previous.getVersion() + 1;
+		final Reusable reusable = new Reusable(previous);
+
+		// Lazy chains share their own pool, so the previous snapshot is not kept alive by chains
+		// that may never be compiled
+		final Reusable lazyReusable = lazy ? new Reusable(null) : null;
+		final RegexEngine defaultEngine = regexEngine(definition.getRegexEngine());
+
+		final List<ChainDefinition> chains = definition.getChains();
+		final CompiledChain[] compiledChains = new CompiledChain[chains.size()];
+		for (int chainIndex = 0; chainIndex < compiledChains.length; ++chainIndex) {
+			compiledChains[chainIndex] = compileChain(chains.get(chainIndex), chainIndex, defaultEngine, reusable, lazyReusable);
+		}
+
+		return new CompiledValidationConfig(compiledChains, definition.isEnforcingMode(), version);
+	}
+
+	private static CompiledChain compileChain(final ChainDefinition chain, final int chainIndex, final RegexEngine defaultEngine, final Reusable reusable, final Reusable lazyReusable) throws InvalidConfigurationException {
+		if (chain == null) {
+			throw new InvalidConfigurationException("PVF-CONFIGURATION-0003: Validation chain " + chainIndex + " is empty");
+		}
+
+		if (chain.getParamNamePattern() == null || chain.getRequestURIPattern() == null) {
+			throw new InvalidConfigurationException("PVF-CONFIGURATION-0003: Validation chain " + chainIndex + " needs both a paramNamePatternString and a requestURIPatternString");
+		}
+
+		// The engine of the chain is passed on to its rules, and falls back to the one for the whole database
+		final RegexEngine chainEngine = regexEngine(chain.getRegexEngine());
+		final RegexEngine ruleEngine = chainEngine == null ? defaultEngine : chainEngine;
+		final RegexEngine patternEngine = ruleEngine == null ? RegexEngine.DEFAULT : ruleEngine;
+
+		final CompiledRegex requestURIRegex = reusable.regex(patternEngine, chain.getRequestURIPattern());
+
+		if (lazyReusable != null) {
+			return new CompiledChain(requestURIRegex, chain.isRequestURIPatternNegated(),
+					() -> compileBody(chain, chainIndex, ruleEngine, patternEngine, lazyReusable));
+		}
+
+		return new CompiledChain(requestURIRegex, chain.isRequestURIPatternNegated(),
+				compileBody(chain, chainIndex, ruleEngine, patternEngine, reusable));
+	}
+
+	private static CompiledChain.Body compileBody(final ChainDefinition chain, final int chainIndex, final RegexEngine ruleEngine, final RegexEngine patternEngine, final Reusable reusable) throws InvalidConfigurationException {
+		final List<RuleDefinition> definitions = chain.getRules();
+		final CompiledRule[] rules = new CompiledRule[definitions.size()];
+
+		for (int ruleIndex = 0; ruleIndex < rules.length; ++ruleIndex) {
+			final RuleDefinition definition = definitions.get(ruleIndex);
+			if (definition == null) {
+				throw new InvalidConfigurationException("PVF-CONFIGURATION-0003: Rule " + ruleIndex + " of validation chain " + chainIndex + " is empty");
+			}
+
+			rules[ruleIndex] = reusable.rule(definition.getName(), ParameterValidationDefinitionImpl.getEffectiveSettings(definition.getName(), definition.getSettings(), ruleEngine));
+		}
+
+		return new CompiledChain.Body(
+				reusable.regex(patternEngine, chain.getParamNamePattern()),
+				chain.isParamNamePatternNegated(),
+				rules);
+	}
+
+	private static RegexEngine regexEngine(final String setting) throws InvalidConfigurationException {
+		try {
+			return RegexEngine.fromSetting(setting);
+		} catch (final IllegalArgumentException ex) {
+			throw new InvalidConfigurationException(ex);
+		}
+	}
+
+	/**
+	 * Makes sure identical definitions share a single instance. Regexes are shared by engine and
+	 * pattern, and rules by class name and settings if the rule class is shareable. The pool
+	 * starts with the rules and regexes of the previous snapshot, which are each carried over to
+	 * the new one. A rule that is not shareable is only carried over once.
+	 *
+	 * The pool is used by lazy chains as they are compiled, so it is thread safe.
+	 */
+	private static final class Reusable {
+		private final Map<String, List<CompiledRule>> rules = new HashMap<String, List<CompiledRule>>();
+		private final Map<String, CompiledRegex> regexes = new HashMap<String, CompiledRegex>();
+
+		Reusable(final CompiledValidationConfig previous) {
+			if (previous == null) {
+				return;
+			}
+
+			for (int chainIndex = 0; chainIndex < previous.getChainCount(); ++chainIndex) {
+				final CompiledChain chain = previous.getChain(chainIndex);
+				regexes.put(regexKey(chain.getRequestURIRegex()), chain.getRequestURIRegex());
+
+				// Asking a lazy chain for its rules would compile it
+				if (!chain.isCompiled()) {
+					continue;
+				}
+
+				regexes.put(regexKey(chain.getParamNameRegex()), chain.getParamNameRegex());
+
+				for (int ruleIndex = 0; ruleIndex < chain.getRuleCount(); ++ruleIndex) {
+					final CompiledRule rule = chain.getCompiledRule(ruleIndex);
+					final List<CompiledRule> candidates = rules.computeIfAbsent(rule.getName(), name -> new ArrayList<CompiledRule>());
+					if (!rule.isShareable() || !candidates.contains(rule)) {
+						candidates.add(rule);
+					}
+				}
+			}
+		}
+
+		synchronized CompiledRule rule(final String name, final Map<String, String> settings) throws InvalidConfigurationException {
+			final List<CompiledRule> candidates = rules.get(name);
+
+			if (candidates != null) {
+				for (final Iterator<CompiledRule> iter = candidates.iterator(); iter.hasNext(); ) {
+					final CompiledRule candidate = iter.next();
+					if (candidate.isDefinedBy(name, settings)) {
+						if (!candidate.isShareable()) {
+							iter.remove();
+						}
+						return candidate;
+					}
+				}
+			}
+
+			final CompiledRule rule = new CompiledRule(name, settings, ParameterValidationDefinitionImpl.createRule(name, settings));
+			if (rule.isShareable()) {
+				rules.computeIfAbsent(name, key -> new ArrayList<CompiledRule>()).add(rule);
+			}
+			return rule;
+		}
+
+		synchronized CompiledRegex regex(final RegexEngine engine, final String pattern) throws InvalidConfigurationException {
+			final String key = regexKey(engine, pattern);
+			final CompiledRegex existing = regexes.get(key);
+			if (existing != null) {
+				return existing;
+			}
+
+			try {
+				final CompiledRegex regex = engine.compile(pattern);
+				regexes.put(key, regex);
+				return regex;
+			} catch (final IllegalArgumentException ex) {
+				throw new InvalidConfigurationException(ex);
+			}
+		}
+
+		/**
+		 * Regexes are looked up by the engine they were compiled for, so a regex the linear engine
+		 * handed over to java.util.regex is keyed in the same way it is looked up
+		 */
+		private static String regexKey(final CompiledRegex regex) {
+			return regexKey(regex.getRequestedEngine(), regex.pattern());
+		}
+
+		private static String regexKey(final RegexEngine engine, final String pattern) {
+			return engine + ":" + pattern;
+		}
+	}
+}
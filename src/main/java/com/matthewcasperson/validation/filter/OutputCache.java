@@ -0,0 +1,301 @@
+package com.matthewcasperson.validation.filter;
+
+import com.matthewcasperson.validation.config.CompiledRule;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+
+/**
+ * Remembers what expensive, pure transformer rules (e.g. SanitizeHTMLValidationRule) turned values
+ * into, across requests, so a value that is submitted again is not run through the rule again. An
+ * entry is keyed by the rule instance and the input, and the cache is bounded by the bytes taken
+ * by the strings it holds rather than by the number of entries, as values such as rich text
+ * bodies vary a great deal in size.
+ *
+ * New entries go into a small window that is evicted in least recently used order. An entry that
+ * falls out of the window only makes it into the main space if it has been looked up more often
+ * than each of the entries it would push out, as estimated by a count min sketch that is halved
+ * now and then so old popularity fades. This is the admission policy of W-TinyLFU, and stops a
+ * stream of large values that are only seen once from flushing out the values that keep coming
+ * back. The main space is a single least recently used list rather than the segmented one of
+ * W-TinyLFU, which is enough for the handful of rules that are cached.
+ *
+ * Every method takes the lock of the cache, which is cheap next to the rules it saves running.
+ * Entries of rules from an earlier configuration are never looked up again, and so are evicted
+ * like any other entry that is no longer used.
+ */
+final class OutputCache {
+
+    /**
+     * The share of the bytes given to the window
+     */
+    private static final int WINDOW_PERCENT = 1;
+
+    /**
+     * The bytes an entry is assumed to take on top of its strings
+     */
+    private static final int ENTRY_OVERHEAD = 96;
+
+    /**
+     * The entry size the sketch is sized for
+     */
+    private static final int AVERAGE_ENTRY_BYTES = 512;
+
+    private final long maxBytes;
+    private final long maxWindowBytes;
+    private final long maxMainBytes;
+    private final FrequencySketch sketch;
+
+    private final LinkedHashMap<Key, Entry> window = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+    private final LinkedHashMap<Key, Entry> main = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+    private long windowBytes;
+    private long mainBytes;
+
+    /**
+     * @param maxBytes The most bytes the strings held by the cache may take
+     */
+    OutputCache(final long maxBytes) {
+        checkArgument(maxBytes > 0, "PVF-CONFIGURATION-0011: The output cache has to be given a positive number of bytes");
+
+        this.maxBytes = maxBytes;
+        this.maxWindowBytes = maxBytes * WINDOW_PERCENT / 100;
+        this.maxMainBytes = maxBytes - maxWindowBytes;
+        this.sketch = new FrequencySketch((int)Math.min(Math.max(maxBytes / AVERAGE_ENTRY_BYTES, 64), 1 << 20));
+    }
+
+    /**
+     * @return The most bytes the strings held by the cache may take
+     */
+    long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * @return The bytes taken by the entries in the cache
+     */
+    synchronized long getBytes() {
+        return windowBytes + mainBytes;
+    }
+
+    /**
+     * @return The number of entries in the cache
+     */
+    synchronized int getEntryCount() {
+        return window.size() + main.size();
+    }
+
+    /**
+     * @param rule The rule the values are to be run through
+     * @param values The values of a param, none of which may be null
+     * @return What the rule turns the values into, or null if the output of any of them is not
+     * known
+     */
+    synchronized String[] get(final CompiledRule rule, final String[] values) {
+        String[] outputs = null;
+
+        for (int index = 0; index < values.length; ++index) {
+            final Key key = new Key(rule, values[index]);
+            sketch.increment(key.hash);
+
+            Entry entry = window.get(key);
+            if (entry == null) {
+                entry = main.get(key);
+            }
+            if (entry == null) {
+                return null;
+            }
+
+            if (outputs == null) {
+                outputs = new String[values.length];
+            }
+            outputs[index] = entry.output;
+        }
+
+        return outputs;
+    }
+
+    /**
+     * @param rule The rule the values were run through
+     * @param inputs The values the rule was given, none of which may be null
+     * @param outputs The values the rule returned
+     */
+    synchronized void put(final CompiledRule rule, final String[] inputs, final String[] outputs) {
+        if (inputs.length != outputs.length) {
+            return;
+        }
+
+        for (int index = 0; index < inputs.length; ++index) {
+            if (outputs[index] != null) {
+                put(new Key(rule, inputs[index]), outputs[index]);
+            }
+        }
+    }
+
+    private void put(final Key key, final String output) {
+        if (window.containsKey(key) || main.containsKey(key)) {
+            return;
+        }
+
+        // An unchanged value shares the input string, so it is only counted once
+        final Entry entry = output.equals(key.input)
+                ? new Entry(key, key.input, ENTRY_OVERHEAD + 2L * key.input.length())
+                : new Entry(key, output, ENTRY_OVERHEAD + 2L * (key.input.length() + output.length()));
+
+        if (entry.bytes > maxWindowBytes) {
+            // Too big for the window, so it has to earn its place in the main space straight away
+            admit(entry);
+            return;
+        }
+
+        window.put(key, entry);
+        windowBytes += entry.bytes;
+
+        while (windowBytes > maxWindowBytes) {
+            final Iterator<Entry> eldest = window.values().iterator();
+            final Entry candidate = eldest.next();
+            eldest.remove();
+            windowBytes -= candidate.bytes;
+            admit(candidate);
+        }
+    }
+
+    /**
+     * Moves an entry into the main space if it is used more often than every entry it would evict
+     */
+    private void admit(final Entry candidate) {
+        if (candidate.bytes > maxMainBytes) {
+            return;
+        }
+
+        final int candidateFrequency = sketch.frequency(candidate.key.hash);
+
+        // Find the least recently used entries that would have to go, without removing them yet
+        long freed = 0;
+        int victims = 0;
+        for (final Iterator<Entry> iterator = main.values().iterator(); mainBytes - freed + candidate.bytes > maxMainBytes; ++victims) {
+            final Entry victim = iterator.next();
+            if (sketch.frequency(victim.key.hash) >= candidateFrequency) {
+                return;
+            }
+            freed += victim.bytes;
+        }
+
+        final Iterator<Entry> iterator = main.values().iterator();
+        for (int victim = 0; victim < victims; ++victim) {
+            iterator.next();
+            iterator.remove();
+        }
+        mainBytes -= freed;
+
+        main.put(candidate.key, candidate);
+        mainBytes += candidate.bytes;
+    }
+
+    /**
+     * A rule instance and a value it was given
+     */
+    private static final class Key {
+        private final CompiledRule rule;
+        private final String input;
+        private final int hash;
+
+        Key(final CompiledRule rule, final String input) {
+            this.rule = rule;
+            this.input = input;
+            this.hash = System.identityHashCode(rule) * 31 + input.hashCode();
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(final Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            final Key key = (Key)other;
+            return key.rule == rule && key.hash == hash && key.input.equals(input);
+        }
+    }
+
+    private static final class Entry {
+        private final Key key;
+        private final String output;
+        private final long bytes;
+
+        Entry(final Key key, final String output, final long bytes) {
+            this.key = key;
+            this.output = output;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * Estimates how often each key has been looked up with four rows of 4 bit counters, packed 16
+     * to a long. Once there have been ten times as many lookups as there are rows of counters, every
+     * counter is halved.
+     */
+    private static final class FrequencySketch {
+        private static final long[] SEEDS = {0x97cb3127L, 0xb9e37d5fL, 0x3c6ef372L, 0xa54ff53aL};
+        private static final long RESET_MASK = 0x7777777777777777L;
+        private static final int MAX_COUNT = 15;
+
+        private final long[] table;
+        private final int mask;
+        private final int sampleSize;
+        private int additions;
+
+        FrequencySketch(final int expectedEntries) {
+            final int length = Integer.highestOneBit(expectedEntries - 1) << 1;
+            this.table = new long[length];
+            this.mask = length - 1;
+            this.sampleSize = 10 * length;
+        }
+
+        int frequency(final int hash) {
+            int frequency = MAX_COUNT;
+            for (int row = 0; row < SEEDS.length; ++row) {
+                final long spread = spread(hash, row);
+                frequency = Math.min(frequency, (int)(table[index(spread)] >>> shift(spread)) & MAX_COUNT);
+            }
+            return frequency;
+        }
+
+        void increment(final int hash) {
+            for (int row = 0; row < SEEDS.length; ++row) {
+                final long spread = spread(hash, row);
+                final int index = index(spread);
+                final int shift = shift(spread);
+                if (((table[index] >>> shift) & MAX_COUNT) < MAX_COUNT) {
+                    table[index] += 1L << shift;
+                }
+            }
+
+            if (++additions >= sampleSize) {
+                for (int index = 0; index < table.length; ++index) {
+                    table[index] = (table[index] >>> 1) & RESET_MASK;
+                }
+                additions /= 2;
+            }
+        }
+
+        private static long spread(final int hash, final int row) {
+            final long spread = (hash + SEEDS[row]) * 0x9e3779b97f4a7c15L;
+            return spread ^ (spread >>> 29);
+        }
+
+        private int index(final long spread) {
+            return (int)spread & mask;
+        }
+
+        private static int shift(final long spread) {
+            return ((int)(spread >>> 40) & 15) << 2;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.matthewcasperson.validation.filter;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletRequestWrapper;
+
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+
+/**
+ * Returns new values for several params, in the same way as a stack of the wrappers created by
+ * ParameterValidationRuleTemplate. The filter uses it to replay the outcome of an earlier request.
+ */
+final class ParamOverlayRequestWrapper extends HttpServletRequestWrapper {
+
+    private final Map<String, String[]> overlay;
+
+    /**
+     * @param request The request to wrap
+     * @param overlay The params to replace, and the values they should have
+     */
+    ParamOverlayRequestWrapper(final HttpServletRequest request, final Map<String, String[]> overlay) {
+        super(request);
+
+        checkNotNull(overlay);
+
+        this.overlay = overlay;
+    }
+
+    @Override
+    public String[] getParameterValues(final String newName) {
+        final String[] values = overlay.get(newName);
+        if (values != null) {
+            // Every request gets its own copy, as the array can be changed
+            return values.clone();
+        }
+
+        return super.getParameterValues(newName);
+    }
+
+    @Override
+    public String getParameter(final String newName) {
+        final String[] values = overlay.get(newName);
+        if (values != null) {
+            return values.length == 0 ? null : values[0];
+        }
+
+        return super.getParameter(newName);
+    }
+}
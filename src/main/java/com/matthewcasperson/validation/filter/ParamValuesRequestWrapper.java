@@ -0,0 +1,51 @@
+package com.matthewcasperson.validation.filter;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletRequestWrapper;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+
+/**
+ * Returns new values for one param, in the same way as the wrapper created by
+ * ParameterValidationRuleTemplate. The filter uses it to apply a result it has remembered
+ * without running the rules again.
+ */
+final class ParamValuesRequestWrapper extends HttpServletRequestWrapper {
+
+    private final String name;
+    private final String[] values;
+
+    /**
+     * @param request The request to wrap
+     * @param name The name of the param
+     * @param values The values the param should have
+     */
+    ParamValuesRequestWrapper(final HttpServletRequest request, final String name, final String[] values) {
+        super(request);
+
+        checkNotNull(name);
+        checkNotNull(values);
+
+        this.name = name;
+        this.values = values;
+    }
+
+    @Override
+    public String[] getParameterValues(final String newName) {
+        if (name.equals(newName)) {
+            return values;
+        }
+
+        return super.getParameterValues(newName);
+    }
+
+    @Override
+    public String getParameter(final String newName) {
+        if (name.equals(newName)) {
+            return values.length == 0 ? null : values[0];
+        }
+
+        return super.getParameter(newName);
+    }
+}
@@ -23,16 +23,24 @@
  */
 package com.matthewcasperson.validation.filter;
 
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.matthewcasperson.validation.config.AdaptiveRuleOrder;
+import com.matthewcasperson.validation.config.CompiledRule;
+import com.matthewcasperson.validation.config.CompiledValidationConfig;
+import com.matthewcasperson.validation.config.ConfigAnalyser;
+import com.matthewcasperson.validation.config.ConfigReport;
+import com.matthewcasperson.validation.config.ConfigSnapshot;
+import com.matthewcasperson.validation.config.StaxConfigLoader;
+import com.matthewcasperson.validation.exception.InvalidConfigurationException;
 import com.matthewcasperson.validation.exception.ValidationFailedException;
+import com.matthewcasperson.validation.regex.InstancePool;
 import com.matthewcasperson.validation.rule.ParameterValidationRule;
-import com.matthewcasperson.validation.ruledefinitionimpl.ParameterValidationChain;
-import com.matthewcasperson.validation.ruledefinitionimpl.ParameterValidationDefinitionImpl;
-import com.matthewcasperson.validation.ruledefinitionimpl.ParameterValidationDefinitionsImpl;
-import com.matthewcasperson.validation.utils.SerialisationUtils;
-import com.matthewcasperson.validation.utilsimpl.JaxBSerialisationUtilsImpl;
+import com.matthewcasperson.validation.rule.ValidationContext;
 import jakarta.servlet.Filter;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.FilterConfig;
+import jakarta.servlet.ServletContext;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.ServletRequest;
 import jakarta.servlet.ServletResponse;
@@ -41,10 +49,24 @@ import jakarta.servlet.http.HttpServletResponse;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.io.IOUtils;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
@@ -60,21 +82,161 @@ import static com.google.common.base.Preconditions.checkState;
 @Slf4j
 public class ParameterValidationFilter implements Filter {
 
-    private static final SerialisationUtils SERIALISATION_UTILS = new JaxBSerialisationUtilsImpl();
-
     /**
      * This is the init-param name that we expect to hold a reference to the config xml file.
      */
     private static final String CONFIG_PARAMETER_NAME = "configFile";
 
     /**
-     * The list of validation rules that are to be applied
+     * This is the optional init-param name that holds how often, in seconds, the config file is
+     * checked for changes. The file is not reloaded if this is missing or 0.
+     */
+    private static final String CONFIG_RELOAD_INTERVAL_PARAMETER_NAME = "configReloadIntervalSeconds";
+
+    /**
+     * This is the optional init-param name that holds a reference to a snapshot of the config file
+     * created by the ConfigSnapshotTool. The config file is loaded instead if the snapshot is
+     * missing, corrupt or was not created from the current config file.
+     */
+    private static final String CONFIG_SNAPSHOT_PARAMETER_NAME = "configSnapshotFile";
+
+    /**
+     * This is the optional init-param name that, when set to true, only compiles the request uri
+     * patterns at startup. The rest of each chain is compiled when a request first matches its uri,
+     * so a rule that can not be created is only reported then.
+     */
+    private static final String LAZY_COMPILATION_PARAMETER_NAME = "lazyCompilation";
+
+    /**
+     * This is the optional init-param name that holds how many times the compiled chains are run
+     * against a synthetic corpus before the filter starts, so the libraries the rules use are
+     * loaded and the rules are compiled by the JIT. There is no warm up if this is missing or 0.
+     */
+    private static final String WARM_UP_ITERATIONS_PARAMETER_NAME = "warmUpIterations";
+
+    /**
+     * This is the optional init-param name that, when true, lets the filter reorder adjacent read
+     * only rules in each chain so the rules that are cheap and likely to fail run first.
+     */
+    private static final String ADAPTIVE_RULE_ORDER_PARAMETER_NAME = "adaptiveRuleOrder";
+
+    /**
+     * This is the optional init-param name that holds how many verdicts to keep for the chains that
+     * only validate (i.e. are made up of pure, read only rules), so values seen by earlier requests
+     * are not validated again. There is no cache if this is missing or 0.
+     */
+    private static final String VERDICT_CACHE_SIZE_PARAMETER_NAME = "verdictCacheSize";
+
+    /**
+     * This is the optional init-param name that holds how many bytes of values to keep for the
+     * expensive, pure transformer rules (e.g. SanitizeHTMLValidationRule), so a value seen by an
+     * earlier request is not run through them again. There is no cache if this is missing or 0.
+     */
+    private static final String OUTPUT_CACHE_BYTES_PARAMETER_NAME = "outputCacheBytes";
+
+    /**
+     * This is the optional init-param name that holds how many outcomes of GET requests to keep,
+     * so a request with the same uri and query string as an earlier one is handled without running
+     * any rules. It only applies in enforcing mode, to requests whose chains are all pure, and not
+     * to requests an earlier filter has wrapped, as their params may not all come from the query
+     * string. The size is approximate, as outcomes are evicted in batches once it is reached.
+     * There is no cache if this is missing or 0.
+     */
+    private static final String REQUEST_CACHE_SIZE_PARAMETER_NAME = "requestCacheSize";
+
+    /**
+     * This is the optional init-param name that holds how long, in seconds, the outcome of a GET
+     * request is kept for. The default is 60 seconds.
+     */
+    private static final String REQUEST_CACHE_TTL_PARAMETER_NAME = "requestCacheTTLSeconds";
+
+    private static final long DEFAULT_REQUEST_CACHE_TTL_SECONDS = 60;
+
+    /**
+     * This is the optional init-param name that holds a comma separated list of the uris the
+     * ConfigAnalyser estimates the rule executions per param for. By default the uris are made up
+     * from the request uri patterns.
+     */
+    private static final String ANALYSIS_SAMPLE_URIS_PARAMETER_NAME = "analysisSampleURIs";
+
+    /**
+     * This is the optional init-param name that holds the most rules a single param may be run
+     * through for any of the sample uris. A config that goes over this is not loaded.
+     */
+    private static final String MAX_RULE_EXECUTIONS_PER_PARAM_PARAMETER_NAME = "maxRuleExecutionsPerParam";
+
+    /**
+     * This is the optional init-param name that holds how many problems the ConfigAnalyser may find
+     * in a config. A config with more is not loaded.
+     */
+    private static final String MAX_CONFIG_FINDINGS_PARAMETER_NAME = "maxConfigFindings";
+
+    /**
+     * The memos that are lent to requests. A pool rather than a ThreadLocal, so the memos are not
+     * kept by the container's threads once the webapp is undeployed, and there is no memo per
+     * virtual thread.
+     */
+    private static final InstancePool<RequestMemo> REQUEST_MEMOS = new InstancePool<RequestMemo>(RequestMemo::new);
+
+    /**
+     * The compiled validation rules that are to be applied, or null if no config file was supplied.
+     * Requests only ever read this reference once, and then work with that immutable snapshot.
+     */
+    private volatile CompiledValidationConfig compiledConfig;
+
+    private final ParameterValidationFilterMetrics metrics = new ParameterValidationFilterMetrics();
+
+    private boolean lazyCompilation;
+
+    /**
+     * The order the rules of the current configuration run in, or null if adaptive rule order is
+     * not enabled. It is replaced along with the configuration.
      */
-    private ParameterValidationDefinitionsImpl parameterValidationDefinitions;
+    private boolean adaptiveRuleOrder;
+    private volatile AdaptiveRuleOrder ruleOrder;
+
+    /**
+     * The verdicts of the validator chains, or null if there is no cache. The configuration
+     * version is part of every fingerprint, so verdicts from an earlier configuration never match.
+     */
+    private VerdictCache verdictCache;
+
+    /**
+     * The outputs of the expensive, pure transformer rules, or null if there is no cache. Entries
+     * are keyed by the rule instance, so a reloaded configuration only reuses the outputs of the
+     * rules it carried over.
+     */
+    private OutputCache outputCache;
+
+    /**
+     * The outcomes of earlier GET requests, or null if there is no cache. The configuration
+     * version is part of every key, so outcomes from an earlier configuration never match.
+     */
+    private RequestOutcomeCache requestCache;
+
+    /**
+     * The analysis of the configuration in use, and the limits a configuration has to be within
+     * to be loaded. A limit of -1 means there is none.
+     */
+    private volatile ConfigReport configReport;
+    private List<String> analysisSampleURIs;
+    private int maxRuleExecutionsPerParam = -1;
+    private int maxConfigFindings = -1;
+
+    /**
+     * Checks the config file for changes, if reloading is enabled. The hashes are only used by
+     * init and then the reload thread.
+     */
+    private ScheduledExecutorService reloadExecutor;
+    private volatile HashCode configHash;
+    private volatile HashCode failedConfigHash;
 
     @Override
     public void destroy() {
-        // Nothing to do here
+        if (reloadExecutor != null) {
+            reloadExecutor.shutdownNow();
+        }
+        metrics.unregister();
     }
 
     /**
@@ -88,8 +250,39 @@ public class ParameterValidationFilter implements Filter {
 
         ServletRequest requestWrapper = request;
 
+        // Take a single snapshot of the configuration for the whole request
+        final CompiledValidationConfig config = compiledConfig;
+
+        // A GET with the same query string as an earlier one has the same outcome
+        final RequestOutcomeCache.Key outcomeKey = requestCache != null && config != null && config.isEnforcingMode() && request instanceof HttpServletRequest
+                ? RequestOutcomeCache.key(config.getVersion(), (HttpServletRequest)request)
+                : null;
+        if (outcomeKey != null) {
+            final RequestOutcomeCache.Outcome outcome = requestCache.get(outcomeKey);
+            metrics.requestCacheLookup(outcome != null);
+            if (outcome != null) {
+                replayOutcome(outcome, (HttpServletRequest)request, response, chain);
+                return;
+            }
+        }
+
+        // The names of the params, if the outcome of the request may be remembered
+        final List<String> paramNames = outcomeKey == null ? null : new ArrayList<String>();
+
+        // Remembers what the pure chains did to each value, for this request only
+        final RequestMemo memo = config == null ? null : REQUEST_MEMOS.acquire();
+
+        // Lets the rules share the forms of the values they work out, for this request only
+        if (config != null) {
+            ValidationContext.begin();
+        }
+
+        // The order is published before the configuration, so it may belong to a newer one
+        final AdaptiveRuleOrder currentRuleOrder = ruleOrder;
+        final AdaptiveRuleOrder configRuleOrder = currentRuleOrder != null && currentRuleOrder.getConfig() == config ? currentRuleOrder : null;
+
         try {
-            if (parameterValidationDefinitions != null && parameterValidationDefinitions.getParameterValidationDefinitions() != null) {
+            if (config != null) {
 
                 log.debug("Parameter Validation Filter has loaded the config file");
 
@@ -107,75 +300,246 @@ public class ParameterValidationFilter implements Filter {
                      */
                     final Enumeration<String> iter = httpServletRequest.getParameterNames();
 
+                    // The uri is the same for every param, so it is only matched against the chains once
+                    final long[] uriChains = iter.hasMoreElements()
+                            ? config.matchRequestURI(httpServletRequest.getRequestURI())
+                            : null;
+
+                    // The rules that have already run on the current values of a param, by rule identity
+                    final long[] ranRules = uriChains != null && config.getRuleIdentityCount() != 0
+                            ? new long[(config.getRuleIdentityCount() + 63) >>> 6]
+                            : null;
+
                     paramaterNameLoop:
                     while (iter.hasMoreElements()) {
                         // Get the param name and move the enumerator along
                         final String paramName = iter.nextElement();
+                        if (paramNames != null) {
+                            paramNames.add(paramName);
+                        }
 
                         boolean paramValidated = false;
 
-                        log.debug("Parameter Validation Filter processing " + paramName);
-
-                        // Loop over each validation rule in the chain
-                        final List<ParameterValidationChain> validationChains = parameterValidationDefinitions.getParameterValidationDefinitions();
-                        for (final ParameterValidationChain validationChain : validationChains) {
+                        // The values as the last rule left them, which are only read again once a rule changes them
+                        String[] values = null;
+                        ServletRequest valuesRequest = null;
 
-                            checkState(validationChain != null, "A validation rule should never be null");
+                        // The request whose values the rules in ranRules have run on
+                        ServletRequest ranRulesRequest = null;
 
-                            // Test this validation rule against the param name
-
-                            final boolean paramMatches = validationChain.getParamNamePattern().matcher(paramName).find();
-                            final boolean uriMatches = validationChain.getRequestURIPattern().matcher(httpServletRequest.getRequestURI()).find();
+                        log.debug("Parameter Validation Filter processing " + paramName);
 
-                            final boolean paramMatchesAfterNegation = paramMatches ^ validationChain.isParamNamePatternNegated();
-                            final boolean uriMatchesAfterNegation = uriMatches ^ validationChain.isRequestURIPatternNegated();
+                        // Loop over each validation chain that applies to the uri, in order
+                        for (int word = 0; word < uriChains.length; ++word) {
+                            for (long bits = uriChains[word]; bits != 0; bits &= bits - 1) {
+                                final int chainIndex = (word << 6) + Long.numberOfTrailingZeros(bits);
 
-                            if (paramMatchesAfterNegation && uriMatchesAfterNegation) {
+                                // Test this validation chain against the param name
+                                if (!config.matchesParamName(chainIndex, paramName)) {
+                                    continue;
+                                }
 
                                 log.debug("Parameter Validation Filter found matching chain");
 
                                 // Make a note that this parameter has been validated by at least one rule
                                 paramValidated = true;
 
-                                // Loop over each rule in the chain
-                                for (final ParameterValidationDefinitionImpl validationRule : validationChain.getList()) {
-                                    log.debug("Processing " + paramName + " with " + validationRule.getValidationRuleName());
+                                // The fingerprint of the values, if the verdict of the chain is to be cached
+                                long verdictFingerprint = 0;
+
+                                try {
+                                    // A chain that only validates gives the same verdict on values it has seen before
+                                    if (verdictCache != null && config.isValidatorChain(chainIndex)) {
+                                        if (valuesRequest != requestWrapper) {
+                                            valuesRequest = requestWrapper;
+                                            values = requestWrapper instanceof HttpServletRequest
+                                                    ? ((HttpServletRequest)requestWrapper).getParameterValues(paramName)
+                                                    : null;
+                                        }
+
+                                        if (isCacheable(values)) {
+                                            final long fingerprint = verdictCache.fingerprint(config.getVersion(), chainIndex, values);
+                                            final int verdict = verdictCache.get(fingerprint);
+                                            metrics.verdictCacheLookup(verdict != VerdictCache.UNKNOWN);
+
+                                            if (verdict == VerdictCache.PASS) {
+                                                log.debug("Skipping chain " + chainIndex + " for " + paramName + " as its values are known to pass it");
+                                                continue;
+                                            }
+                                            if (verdict == VerdictCache.FAIL) {
+                                                throw new ValidationFailedException("PVF-SECURITY-0004: Param was found to fail validation chain " + chainIndex + " by an earlier request."
+                                                        + "\nNAME: " + paramName + "\nVALUE: " + String.join(", ", values) + "\nURL: " + httpServletRequest.getRequestURL());
+                                            }
+                                            verdictFingerprint = fingerprint;
+                                        }
+                                    }
 
-                                    // Get the object that will actually do the validation
-                                    final ParameterValidationRule rule = validationRule.getRule();
+                                    // A pure chain does the same to a value it has already seen in this request
+                                    String memoInput = null;
+                                    if (memo != null && verdictFingerprint == 0 && config.isPureChain(chainIndex)) {
+                                        if (valuesRequest != requestWrapper) {
+                                            valuesRequest = requestWrapper;
+                                            values = requestWrapper instanceof HttpServletRequest
+                                                    ? ((HttpServletRequest)requestWrapper).getParameterValues(paramName)
+                                                    : null;
+                                        }
 
-                                    // It is possible that a bad configuration will result in rule being null
-                                    checkState(rule != null, "A validation rule should never be null. Check the class name defined in the configuration xml file.");
+                                        if (values != null && values.length == 1 && RequestMemo.accepts(values[0])) {
+                                            final String memoOutput = memo.get(chainIndex, values[0]);
+                                            if (memoOutput != null) {
+                                                log.debug("Reusing the result of chain " + chainIndex + " for " + paramName);
+                                                if (!memoOutput.equals(values[0])) {
+                                                    requestWrapper = new ParamValuesRequestWrapper((HttpServletRequest)requestWrapper, paramName, new String[] {memoOutput});
+                                                }
+                                                continue;
+                                            }
+                                            memoInput = values[0];
+                                        }
+                                    }
+                                    final ServletRequest chainRequest = requestWrapper;
 
-                                    try {
-                                        // Process the parameter
-                                        final ServletRequest processRequest = rule.processParameter(requestWrapper, paramName);
+                                    // The order to run the rules in, or null for the declared order
+                                    final int[] order = configRuleOrder == null ? null : configRuleOrder.getOrder(chainIndex);
+
+                                    // Loop over each rule in the chain
+                                    for (int position = 0, ruleCount = config.getRuleCount(chainIndex); position < ruleCount; ++position) {
+                                        final int ruleIndex = order == null ? position : order[position];
+                                        final CompiledRule compiledRule = config.getCompiledRule(chainIndex, ruleIndex);
+
+                                        if (valuesRequest != requestWrapper) {
+                                            valuesRequest = requestWrapper;
+                                            values = requestWrapper instanceof HttpServletRequest
+                                                    ? ((HttpServletRequest)requestWrapper).getParameterValues(paramName)
+                                                    : null;
+                                        }
+
+                                        // An idempotent or read only rule that has run on these values, e.g. in an
+                                        // earlier chain, would leave them as they are. A lazy chain compiled after
+                                        // ranRules was created may have identities it has no room for.
+                                        final int identity = config.getRuleIdentity(chainIndex, ruleIndex);
+                                        final int ruleIdentity = ranRules != null && identity < ranRules.length << 6 ? identity : -1;
+                                        if (ruleIdentity >= 0 && ranRulesRequest == requestWrapper
+                                                && (ranRules[ruleIdentity >>> 6] & (1L << ruleIdentity)) != 0) {
+                                            log.debug("Skipping " + compiledRule.getName() + " for " + paramName + " as it has already run on the value");
+                                            continue;
+                                        }
+
+                                        // A rule has nothing to do for values made up of the characters it never reacts to
+                                        if (compiledRule.passesUnchanged(values)) {
+                                            log.debug("Skipping " + compiledRule.getName() + " for " + paramName + " as it only has safe characters");
+                                            continue;
+                                        }
+
+                                        // An expensive transformer turns a value into what it did the last time it saw it
+                                        final boolean cacheOutput = outputCache != null && compiledRule.hasCacheableOutput() && isCacheable(values);
+                                        final String[] cachedOutputs = cacheOutput ? outputCache.get(compiledRule, values) : null;
+                                        if (cacheOutput) {
+                                            metrics.outputCacheLookup(cachedOutputs != null);
+                                        }
+
+                                        final ServletRequest processRequest;
+                                        if (cachedOutputs != null) {
+                                            log.debug("Reusing the output of " + compiledRule.getName() + " for " + paramName);
+
+                                            // The values came from requestWrapper, so it is a HttpServletRequest
+                                            processRequest = Arrays.equals(cachedOutputs, values)
+                                                    ? requestWrapper
+                                                    : new ParamValuesRequestWrapper((HttpServletRequest)requestWrapper, paramName, cachedOutputs);
+                                        }
+                                        else {
+                                            log.debug("Processing " + paramName + " with " + compiledRule.getName());
+
+                                            // Get the object that will actually do the validation
+                                            final ParameterValidationRule rule = compiledRule.getRule();
+
+                                            // Process the parameter, timing a sample of the runs if the chain is being reordered
+                                            final boolean timed = order != null && configRuleOrder.isSampled();
+                                            final long ruleStart = timed ? System.nanoTime() : 0;
+                                            try {
+                                                processRequest = rule.processParameter(requestWrapper, paramName);
+                                            }
+                                            catch (final ValidationFailedException ex) {
+                                                if (timed) {
+                                                    configRuleOrder.recordFailure(chainIndex, ruleIndex, System.nanoTime() - ruleStart);
+                                                }
+                                                if (order != null) {
+                                                    // The read only rules declared before this one, but moved after it, report
+                                                    // the failure if they fail too, as they would in the declared order
+                                                    for (final int movedIndex : AdaptiveRuleOrder.getMovedAfter(order, position)) {
+                                                        config.getCompiledRule(chainIndex, movedIndex).getRule().processParameter(requestWrapper, paramName);
+                                                    }
+                                                }
+                                                throw ex;
+                                            }
+
+                                            if (timed) {
+                                                configRuleOrder.recordPass(chainIndex, ruleIndex, System.nanoTime() - ruleStart);
+                                            }
+
+                                            if (cacheOutput && processRequest != null) {
+                                                final String[] outputs = processRequest == requestWrapper
+                                                        ? values
+                                                        : processRequest instanceof HttpServletRequest
+                                                                ? ((HttpServletRequest)processRequest).getParameterValues(paramName)
+                                                                : null;
+                                                if (outputs != null) {
+                                                    outputCache.put(compiledRule, values, outputs);
+                                                }
+                                            }
+                                        }
 
                                         checkState(processRequest != null, "A validation rule should never return null when processing a paramemter");
 
                                         // The validation rule is expected to return a valid request regardless of the
                                         // processing that should or should not be done.
                                         requestWrapper = processRequest;
+
+                                        if (ruleIdentity >= 0) {
+                                            if (ranRulesRequest != requestWrapper) {
+                                                // The values have changed since the rules in ranRules ran
+                                                ranRulesRequest = requestWrapper;
+                                                Arrays.fill(ranRules, 0);
+                                            }
+                                            ranRules[ruleIdentity >>> 6] |= 1L << ruleIdentity;
+                                        }
                                     }
-                                    catch (final ValidationFailedException ex) {
-                                        // Log this as a warning as we are probably interested in knowing when our apps
-                                        // are getting hit with invalid data.
-                                        log.warn(ex.toString());
 
+                                    if (verdictFingerprint != 0 && verdictCache.put(verdictFingerprint, true)) {
+                                        metrics.verdictCacheEviction();
+                                    }
 
-                                        if (parameterValidationDefinitions.getEnforcingMode()) {
-                                            // If we are enforcing, rethrow so the outer catch block can block the
-                                            // request
-                                            throw ex;
-                                        }
-                                        else {
-                                            // Otherwise move to the next parameter name. This allows us to be notified
-                                            // of every param that will fail instead of just bailing with the first
-                                            // one that fails.
-                                            continue paramaterNameLoop;
+                                    if (memoInput != null) {
+                                        final String[] chainValues = requestWrapper == chainRequest
+                                                ? values
+                                                : requestWrapper instanceof HttpServletRequest
+                                                        ? ((HttpServletRequest)requestWrapper).getParameterValues(paramName)
+                                                        : null;
+                                        if (chainValues != null && chainValues.length == 1 && chainValues[0] != null) {
+                                            memo.put(chainIndex, memoInput, chainValues[0]);
                                         }
                                     }
+                                }
+                                catch (final ValidationFailedException ex) {
+                                    if (verdictFingerprint != 0 && verdictCache.put(verdictFingerprint, false)) {
+                                        metrics.verdictCacheEviction();
+                                    }
+
+                                    // Log this as a warning as we are probably interested in knowing when our apps
+                                    // are getting hit with invalid data.
+                                    log.warn(ex.toString());
 
+
+                                    if (config.isEnforcingMode()) {
+                                        // If we are enforcing, rethrow so the outer catch block can block the
+                                        // request
+                                        throw ex;
+                                    }
+                                    else {
+                                        // Otherwise move to the next parameter name. This allows us to be notified
+                                        // of every param that will fail instead of just bailing with the first
+                                        // one that fails.
+                                        continue paramaterNameLoop;
+                                    }
                                 }
                             }
                         }
@@ -190,7 +554,10 @@ public class ParameterValidationFilter implements Filter {
         }
         catch (final ValidationFailedException ex) {
             // Stop processing and return a HTTP error code if we are enforcing the rules
-            if (parameterValidationDefinitions != null && parameterValidationDefinitions.getEnforcingMode()) {
+            if (config != null && config.isEnforcingMode()) {
+                if (outcomeKey != null) {
+                    rememberOutcome(config, outcomeKey, (HttpServletRequest)request, RequestOutcomeCache.Outcome.rejected(ex.getMessage()));
+                }
                 handleBadRequest(ex, request, response);
                 return;
             }
@@ -202,16 +569,30 @@ public class ParameterValidationFilter implements Filter {
             log.error("Error in parameter validation filter processing", ex);
 
             // Don't allow apps to process raw parameters if this filter has failed, and we are enforcing the rules
-            if (parameterValidationDefinitions != null &&
-                    parameterValidationDefinitions.getEnforcingMode()) {
+            if (config != null && config.isEnforcingMode()) {
                 respondWithBadRequest(response);
                 return;
             }
         }
+        finally {
+            if (config != null) {
+                ValidationContext.end();
+            }
+            if (memo != null) {
+                memo.end();
+                REQUEST_MEMOS.release(memo);
+            }
+        }
 
         // Continue to the next filter
-        if (parameterValidationDefinitions != null && parameterValidationDefinitions.getEnforcingMode()) {
+        if (config != null && config.isEnforcingMode()) {
             // In enforcing mode we pass the wrapper onto the next filter
+            if (outcomeKey != null) {
+                final RequestOutcomeCache.Outcome outcome = passedOutcome((HttpServletRequest)request, requestWrapper, paramNames);
+                if (outcome != null) {
+                    rememberOutcome(config, outcomeKey, (HttpServletRequest)request, outcome);
+                }
+            }
             chain.doFilter(requestWrapper, response);
         }
         else {
@@ -220,6 +601,70 @@ public class ParameterValidationFilter implements Filter {
         }
     }
 
+    /**
+     * Handles a request in the same way as an earlier request with the same uri and query string
+     */
+    private void replayOutcome(final RequestOutcomeCache.Outcome outcome, final HttpServletRequest request,
+                               final ServletResponse response, final FilterChain chain) throws IOException, ServletException {
+        if (outcome.isRejected()) {
+            final ValidationFailedException ex = new ValidationFailedException("PVF-SECURITY-0005: The request was rejected in the same way as an earlier request with the same query string.\n"
+                    + outcome.getFailure());
+            log.warn(ex.toString());
+            handleBadRequest(ex, request, response);
+        }
+        else if (outcome.getOverlay().isEmpty()) {
+            log.debug("Passing on " + request.getRequestURI() + " as an earlier request with the same query string was");
+            chain.doFilter(request, response);
+        }
+        else {
+            log.debug("Passing on " + request.getRequestURI() + " with the params an earlier request with the same query string was given");
+            chain.doFilter(new ParamOverlayRequestWrapper(request, outcome.getOverlay()), response);
+        }
+    }
+
+    /**
+     * @return The outcome of a request that is being passed on, or null if it can not be replayed
+     */
+    private static RequestOutcomeCache.Outcome passedOutcome(final HttpServletRequest request, final ServletRequest requestWrapper, final List<String> paramNames) {
+        final Map<String, String[]> overlay = new HashMap<String, String[]>();
+
+        if (requestWrapper != request) {
+            if (!(requestWrapper instanceof HttpServletRequest)) {
+                return null;
+            }
+
+            for (final String paramName : paramNames) {
+                final String[] values = ((HttpServletRequest)requestWrapper).getParameterValues(paramName);
+                if (!Arrays.equals(values, request.getParameterValues(paramName))) {
+                    if (values == null) {
+                        // A param that was taken away can not be replayed by an overlay
+                        return null;
+                    }
+                    overlay.put(paramName, values.clone());
+                }
+            }
+        }
+
+        return RequestOutcomeCache.Outcome.passed(overlay);
+    }
+
+    /**
+     * Remembers the outcome of a request, as long as every chain that applies to its uri is pure
+     */
+    private void rememberOutcome(final CompiledValidationConfig config, final RequestOutcomeCache.Key outcomeKey,
+                                 final HttpServletRequest request, final RequestOutcomeCache.Outcome outcome) {
+        final long[] chains = config.matchRequestURI(request.getRequestURI());
+        for (int word = 0; word < chains.length; ++word) {
+            for (long bits = chains[word]; bits != 0; bits &= bits - 1) {
+                if (!config.isPureChain((word << 6) + Long.numberOfTrailingZeros(bits))) {
+                    return;
+                }
+            }
+        }
+
+        requestCache.put(outcomeKey, outcome);
+    }
+
     /**
      * This method may be overridden to customise the response to invalid parameters.
      *
@@ -260,7 +705,9 @@ public class ParameterValidationFilter implements Filter {
 
     /**
      * Attempts to parse the XML config file. The config file is a JaxB serialisation of a
-     * ParameterValidationDefinitionsImpl object.
+     * ParameterValidationDefinitionsImpl object, which is streamed straight into an immutable
+     * snapshot by the StaxConfigLoader. All the rules are created here, so a bad configuration
+     * stops the filter from starting.
      */
     @Override
     public void init(final FilterConfig config) throws ServletException {
@@ -269,18 +716,272 @@ public class ParameterValidationFilter implements Filter {
             final String configFile = config.getInitParameter(CONFIG_PARAMETER_NAME);
             if (configFile != null) {
                 log.debug("Attempting to unmarshall " + configFile);
-                final String configXml = IOUtils.toString(config.getServletContext().getResourceAsStream(configFile), StandardCharsets.UTF_8);
-                log.debug("configXml is \n" + configXml);
-                parameterValidationDefinitions = SERIALISATION_UTILS.readFromXML(configXml, ParameterValidationDefinitionsImpl.class);
+                final ServletContext servletContext = config.getServletContext();
+                lazyCompilation = Boolean.parseBoolean(config.getInitParameter(LAZY_COMPILATION_PARAMETER_NAME));
+                adaptiveRuleOrder = Boolean.parseBoolean(config.getInitParameter(ADAPTIVE_RULE_ORDER_PARAMETER_NAME));
+                final String verdictCacheSize = config.getInitParameter(VERDICT_CACHE_SIZE_PARAMETER_NAME);
+                if (verdictCacheSize != null && Integer.parseInt(verdictCacheSize.trim()) > 0) {
+                    verdictCache = new VerdictCache(Integer.parseInt(verdictCacheSize.trim()));
+                }
+                final String outputCacheBytes = config.getInitParameter(OUTPUT_CACHE_BYTES_PARAMETER_NAME);
+                if (outputCacheBytes != null && Long.parseLong(outputCacheBytes.trim()) > 0) {
+                    outputCache = new OutputCache(Long.parseLong(outputCacheBytes.trim()));
+                    metrics.outputCacheCreated(outputCache);
+                }
+                final String requestCacheSize = config.getInitParameter(REQUEST_CACHE_SIZE_PARAMETER_NAME);
+                if (requestCacheSize != null && Integer.parseInt(requestCacheSize.trim()) > 0) {
+                    final String requestCacheTTL = config.getInitParameter(REQUEST_CACHE_TTL_PARAMETER_NAME);
+                    final long ttlSeconds = requestCacheTTL == null ? DEFAULT_REQUEST_CACHE_TTL_SECONDS : Long.parseLong(requestCacheTTL.trim());
+                    requestCache = new RequestOutcomeCache(Integer.parseInt(requestCacheSize.trim()), TimeUnit.SECONDS.toNanos(ttlSeconds));
+                    metrics.requestCacheCreated(requestCache);
+                }
+                readAnalysisParameters(config);
+                final byte[] configBytes = readConfig(servletContext, configFile);
+
+                final String snapshotFile = config.getInitParameter(CONFIG_SNAPSHOT_PARAMETER_NAME);
+                if (snapshotFile == null || !loadSnapshot(servletContext, snapshotFile, configFile, configBytes)) {
+                    loadConfig(configBytes);
+                }
+
+                final String warmUpIterations = config.getInitParameter(WARM_UP_ITERATIONS_PARAMETER_NAME);
+                if (warmUpIterations != null && Integer.parseInt(warmUpIterations.trim()) > 0) {
+                    warmUp(Integer.parseInt(warmUpIterations.trim()));
+                }
+
+                final String reloadInterval = config.getInitParameter(CONFIG_RELOAD_INTERVAL_PARAMETER_NAME);
+                if (reloadInterval != null && Long.parseLong(reloadInterval.trim()) > 0) {
+                    startConfigReload(servletContext, configFile, Long.parseLong(reloadInterval.trim()));
+                }
             }
+
+            // The metrics are only published once the filter is known to start, as the container
+            // does not call destroy() if init() fails
+            final ServletContext servletContext = config.getServletContext();
+            metrics.register(servletContext == null ? null : servletContext.getContextPath(), config.getFilterName());
         }
         catch (final Exception ex) {
             // This will happen if the supplied XML is invalid. Log the error
             log.error("Error in parameter validation filter config parsing", ex);
 
+            // Nothing else will stop the reload thread or remove the metrics
+            destroy();
+
             // Rethrow as we don't want to proceed with invalid configuration
             throw new ServletException(ex);
         }
     }
 
+    /**
+     * @return The metrics of this filter, which are also published over JMX
+     */
+    public ParameterValidationFilterMXBean getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return The analysis of the configuration in use, or null if no config file was supplied
+     */
+    public ConfigReport getConfigReport() {
+        return configReport;
+    }
+
+    private void readAnalysisParameters(final FilterConfig config) {
+        final String sampleURIs = config.getInitParameter(ANALYSIS_SAMPLE_URIS_PARAMETER_NAME);
+        if (sampleURIs != null) {
+            analysisSampleURIs = new ArrayList<String>();
+            for (final String uri : sampleURIs.split(",")) {
+                if (!uri.trim().isEmpty()) {
+                    analysisSampleURIs.add(uri.trim());
+                }
+            }
+        }
+
+        final String maxRuleExecutions = config.getInitParameter(MAX_RULE_EXECUTIONS_PER_PARAM_PARAMETER_NAME);
+        if (maxRuleExecutions != null) {
+            maxRuleExecutionsPerParam = Integer.parseInt(maxRuleExecutions.trim());
+        }
+
+        final String maxFindings = config.getInitParameter(MAX_CONFIG_FINDINGS_PARAMETER_NAME);
+        if (maxFindings != null) {
+            maxConfigFindings = Integer.parseInt(maxFindings.trim());
+        }
+    }
+
+    /**
+     * @return true if there are values, and none of them are null
+     */
+    private static boolean isCacheable(final String[] values) {
+        if (values == null) {
+            return false;
+        }
+        for (final String value : values) {
+            if (value == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] readConfig(final ServletContext servletContext, final String configFile) throws IOException {
+        try (InputStream stream = servletContext.getResourceAsStream(configFile)) {
+            if (stream == null) {
+                throw new IOException("PVF-CONFIGURATION-0003: " + configFile + " could not be found");
+            }
+            return IOUtils.toByteArray(stream);
+        }
+    }
+
+    /**
+     * Maps the snapshot file into memory if it is a file on disk, and reads it through the servlet
+     * context otherwise.
+     *
+     * @return The snapshot, or null if it could not be found
+     */
+    private static ByteBuffer readSnapshot(final ServletContext servletContext, final String snapshotFile) throws IOException {
+        final String realPath = servletContext.getRealPath(snapshotFile);
+        if (realPath != null && Files.isRegularFile(Paths.get(realPath))) {
+            try (FileChannel channel = FileChannel.open(Paths.get(realPath), StandardOpenOption.READ)) {
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+        }
+
+        try (InputStream stream = servletContext.getResourceAsStream(snapshotFile)) {
+            return stream == null ? null : ByteBuffer.wrap(IOUtils.toByteArray(stream));
+        }
+    }
+
+    /**
+     * Compiles the configuration from the snapshot, as long as it was created from the current
+     * config file.
+     *
+     * @return true if the snapshot was loaded, and false if the config file has to be loaded instead
+     */
+    private boolean loadSnapshot(final ServletContext servletContext, final String snapshotFile, final String configFile, final byte[] configBytes) {
+        final long start = System.nanoTime();
+
+        try {
+            final ByteBuffer snapshot = readSnapshot(servletContext, snapshotFile);
+            if (snapshot == null) {
+                log.warn("PVF-CONFIGURATION-0005: " + snapshotFile + " could not be found, so " + configFile + " will be loaded instead");
+                return false;
+            }
+
+            publishConfig(ConfigSnapshot.load(snapshot, configBytes, compiledConfig, lazyCompilation), configBytes, start);
+            log.info("PVF-INFO-0003: Loaded the configuration from " + snapshotFile + " in " + metrics.getLastConfigLoadMillis() + "ms");
+            return true;
+        }
+        catch (final IOException | InvalidConfigurationException ex) {
+            log.warn("PVF-CONFIGURATION-0005: " + snapshotFile + " could not be used, so " + configFile + " will be loaded instead. " + ex.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Compiles the configuration and publishes it for the following requests. Requests that are
+     * already running carry on with the snapshot they started with.
+     */
+    private void loadConfig(final byte[] configBytes) throws InvalidConfigurationException {
+        final long start = System.nanoTime();
+
+        if (log.isDebugEnabled()) {
+            log.debug("configXml is \n" + new String(configBytes, StandardCharsets.UTF_8));
+        }
+
+        publishConfig(StaxConfigLoader.load(new ByteArrayInputStream(configBytes), compiledConfig, lazyCompilation), configBytes, start);
+    }
+
+    private void publishConfig(final CompiledValidationConfig next, final byte[] configBytes, final long start) throws InvalidConfigurationException {
+        final ConfigReport report = analyseConfig(next);
+
+        final boolean reload = compiledConfig != null;
+        if (adaptiveRuleOrder) {
+            ruleOrder = new AdaptiveRuleOrder(next, AdaptiveRuleOrder.DEFAULT_REORDER_INTERVAL);
+        }
+        compiledConfig = next;
+        configReport = report;
+        metrics.configAnalysed(report);
+        configHash = Hashing.sha256().hashBytes(configBytes);
+
+        metrics.configLoaded(next.getVersion(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), reload);
+    }
+
+    /**
+     * Logs the analysis of the configuration, and rejects it if it goes over the limits
+     */
+    private ConfigReport analyseConfig(final CompiledValidationConfig next) throws InvalidConfigurationException {
+        final ConfigReport report = analysisSampleURIs == null
+                ? ConfigAnalyser.analyse(next)
+                : ConfigAnalyser.analyse(next, analysisSampleURIs);
+
+        log.info("PVF-INFO-0006: Analysed the configuration\n" + report);
+        for (final ConfigReport.Finding finding : report.getFindings()) {
+            log.warn("PVF-CONFIGURATION-0009: " + finding);
+        }
+
+        if (maxRuleExecutionsPerParam >= 0 && report.getMaxRuleExecutionsPerParam() > maxRuleExecutionsPerParam) {
+            throw new InvalidConfigurationException("PVF-CONFIGURATION-0008: A param can be run through " + report.getMaxRuleExecutionsPerParam()
+                    + " rules, which is more than the " + maxRuleExecutionsPerParam + " allowed by " + MAX_RULE_EXECUTIONS_PER_PARAM_PARAMETER_NAME);
+        }
+
+        if (maxConfigFindings >= 0 && report.getFindings().size() > maxConfigFindings) {
+            throw new InvalidConfigurationException("PVF-CONFIGURATION-0008: The configuration has " + report.getFindings().size()
+                    + " problems, which is more than the " + maxConfigFindings + " allowed by " + MAX_CONFIG_FINDINGS_PARAMETER_NAME);
+        }
+
+        return report;
+    }
+
+    private void warmUp(final int iterations) {
+        final long start = System.nanoTime();
+        final long ruleRuns = ParameterValidationFilterWarmUp.run(compiledConfig, iterations);
+        log.info("PVF-INFO-0004: Warmed up the validation rules with " + ruleRuns + " runs in "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms");
+    }
+
+    /**
+     * Polls the config file for changes. The file is read through the servlet context, as it may
+     * not be a file on disk (e.g. in an unexploded war), so a WatchService can not be relied on.
+     */
+    private void startConfigReload(final ServletContext servletContext, final String configFile, final long intervalSeconds) {
+        reloadExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "pvf-config-reload");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        reloadExecutor.scheduleWithFixedDelay(
+                () -> reloadConfigIfChanged(servletContext, configFile),
+                intervalSeconds,
+                intervalSeconds,
+                TimeUnit.SECONDS);
+
+        log.info("Checking " + configFile + " for changes every " + intervalSeconds + " seconds");
+    }
+
+    private void reloadConfigIfChanged(final ServletContext servletContext, final String configFile) {
+        try {
+            final byte[] configBytes = readConfig(servletContext, configFile);
+            final HashCode hash = Hashing.sha256().hashBytes(configBytes);
+
+            // Don't retry a broken file until it changes again
+            if (hash.equals(configHash) || hash.equals(failedConfigHash)) {
+                return;
+            }
+
+            try {
+                loadConfig(configBytes);
+                failedConfigHash = null;
+                log.info("PVF-INFO-0002: Reloaded " + configFile + " as version " + metrics.getConfigVersion() + " in " + metrics.getLastConfigLoadMillis() + "ms");
+            }
+            catch (final Exception ex) {
+                failedConfigHash = hash;
+                throw ex;
+            }
+        }
+        catch (final Exception ex) {
+            metrics.configReloadFailed(ex);
+            log.error("PVF-CONFIGURATION-0004: Could not reload " + configFile + ". The previous configuration is still in use.", ex);
+        }
+    }
+
 }
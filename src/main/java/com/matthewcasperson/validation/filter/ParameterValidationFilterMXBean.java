@@ -0,0 +1,110 @@
+package com.matthewcasperson.validation.filter;
+
+
+/**
+ * The metrics published over JMX by each ParameterValidationFilter, under the object name
+ * com.matthewcasperson.validation:type=ParameterValidationFilter,context=&lt;context path&gt;,name=&lt;filter name&gt;
+ */
+public interface ParameterValidationFilterMXBean {
+
+    /**
+     * @return The version of the configuration in use, which goes up by one each time it is reloaded
+     */
+    long getConfigVersion();
+
+    /**
+     * @return The number of times the configuration file has been reloaded after a change
+     */
+    long getConfigReloadCount();
+
+    /**
+     * @return The number of times a changed configuration file could not be loaded, in which case
+     * the previous configuration was kept
+     */
+    long getConfigReloadFailureCount();
+
+    /**
+     * @return How long the last load of the configuration took, in milliseconds
+     */
+    long getLastConfigLoadMillis();
+
+    /**
+     * @return When the last successful load of the configuration finished, in milliseconds since
+     * the epoch
+     */
+    long getLastConfigLoadTimestamp();
+
+    /**
+     * @return The error from the last failed reload, or null if the last reload succeeded
+     */
+    String getLastConfigReloadError();
+
+    /**
+     * @return The most rules a single param can be run through for any of the sample uris, as
+     * worked out by the ConfigAnalyser when the configuration was loaded
+     */
+    int getMaxRuleExecutionsPerParam();
+
+    /**
+     * @return The problems the ConfigAnalyser found in the configuration when it was loaded
+     */
+    String[] getConfigFindings();
+
+    /**
+     * @return The number of times a chain was skipped because the verdict cache knew whether the
+     * values passed it
+     */
+    long getVerdictCacheHits();
+
+    /**
+     * @return The number of times the verdict cache was asked about values it had not seen
+     */
+    long getVerdictCacheMisses();
+
+    /**
+     * @return The number of verdicts that were evicted to make room for new ones
+     */
+    long getVerdictCacheEvictions();
+
+    /**
+     * @return The share of lookups in the verdict cache that were hits, between 0 and 1
+     */
+    double getVerdictCacheHitRate();
+
+    /**
+     * @return The number of times an expensive transformer rule was skipped because the output
+     * cache knew what it would turn the values into
+     */
+    long getOutputCacheHits();
+
+    /**
+     * @return The number of times the output cache was asked about values it did not have
+     */
+    long getOutputCacheMisses();
+
+    /**
+     * @return The bytes taken by the values held in the output cache
+     */
+    long getOutputCacheBytes();
+
+    /**
+     * @return The number of values held in the output cache
+     */
+    int getOutputCacheEntryCount();
+
+    /**
+     * @return The number of GET requests that were handled in the same way as an earlier request
+     * with the same uri and query string, without running any rules
+     */
+    long getRequestCacheHits();
+
+    /**
+     * @return The number of GET requests whose outcome was not known
+     */
+    long getRequestCacheMisses();
+
+    /**
+     * @return The number of outcomes held in the request cache
+     */
+    int getRequestCacheEntryCount();
+}
@@ -0,0 +1,289 @@
+package com.matthewcasperson.validation.filter;
+
+import com.matthewcasperson.validation.config.ConfigReport;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Holds the metrics of a filter, and registers them with the platform MBean server
+ */
+@Slf4j
+public class ParameterValidationFilterMetrics implements ParameterValidationFilterMXBean {
+
+    private static final String OBJECT_NAME_PREFIX = "com.matthewcasperson.validation:type=ParameterValidationFilter,";
+
+    private final AtomicLong configVersion = new AtomicLong();
+    private final AtomicLong configReloadCount = new AtomicLong();
+    private final AtomicLong configReloadFailureCount = new AtomicLong();
+    private volatile long lastConfigLoadMillis;
+    private volatile long lastConfigLoadTimestamp;
+    private volatile String lastConfigReloadError;
+    private volatile ConfigReport configReport;
+    private final LongAdder verdictCacheHits = new LongAdder();
+    private final LongAdder verdictCacheMisses = new LongAdder();
+    private final LongAdder verdictCacheEvictions = new LongAdder();
+    private final LongAdder outputCacheHits = new LongAdder();
+    private final LongAdder outputCacheMisses = new LongAdder();
+    private volatile OutputCache outputCache;
+    private final LongAdder requestCacheHits = new LongAdder();
+    private final LongAdder requestCacheMisses = new LongAdder();
+    private volatile RequestOutcomeCache requestCache;
+
+    private ObjectName objectName;
+
+    @Override
+    public long getConfigVersion() {
+        return configVersion.get();
+    }
+
+    @Override
+    public long getConfigReloadCount() {
+        return configReloadCount.get();
+    }
+
+    @Override
+    public long getConfigReloadFailureCount() {
+        return configReloadFailureCount.get();
+    }
+
+    @Override
+    public long getLastConfigLoadMillis() {
+        return lastConfigLoadMillis;
+    }
+
+    @Override
+    public long getLastConfigLoadTimestamp() {
+        return lastConfigLoadTimestamp;
+    }
+
+    @Override
+    public String getLastConfigReloadError() {
+        return lastConfigReloadError;
+    }
+
+    @Override
+    public int getMaxRuleExecutionsPerParam() {
+        final ConfigReport report = configReport;
+        return report == null ? 0 : report.getMaxRuleExecutionsPerParam();
+    }
+
+    @Override
+    public String[] getConfigFindings() {
+        final ConfigReport report = configReport;
+        if (report == null) {
+            return new String[0];
+        }
+
+        final String[] findings = new String[report.getFindings().size()];
+        for (int index = 0; index < findings.length; ++index) {
+            findings[index] = report.getFindings().get(index).toString();
+        }
+        return findings;
+    }
+
+    @Override
+    public long getVerdictCacheHits() {
+        return verdictCacheHits.sum();
+    }
+
+    @Override
+    public long getVerdictCacheMisses() {
+        return verdictCacheMisses.sum();
+    }
+
+    @Override
+    public long getVerdictCacheEvictions() {
+        return verdictCacheEvictions.sum();
+    }
+
+    @Override
+    public double getVerdictCacheHitRate() {
+        final long hits = verdictCacheHits.sum();
+        final long lookups = hits + verdictCacheMisses.sum();
+        return lookups == 0 ? 0 : (double)hits / lookups;
+    }
+
+    @Override
+    public long getOutputCacheHits() {
+        return outputCacheHits.sum();
+    }
+
+    @Override
+    public long getOutputCacheMisses() {
+        return outputCacheMisses.sum();
+    }
+
+    @Override
+    public long getOutputCacheBytes() {
+        final OutputCache cache = outputCache;
+        return cache == null ? 0 : cache.getBytes();
+    }
+
+    @Override
+    public int getOutputCacheEntryCount() {
+        final OutputCache cache = outputCache;
+        return cache == null ? 0 : cache.getEntryCount();
+    }
+
+    @Override
+    public long getRequestCacheHits() {
+        return requestCacheHits.sum();
+    }
+
+    @Override
+    public long getRequestCacheMisses() {
+        return requestCacheMisses.sum();
+    }
+
+    @Override
+    public int getRequestCacheEntryCount() {
+        final RequestOutcomeCache cache = requestCache;
+        return cache == null ? 0 : cache.getEntryCount();
+    }
+
+    /**
+     * Records a lookup in the verdict cache
+     *
+     * @param hit true if the verdict was known
+     */
+    void verdictCacheLookup(final boolean hit) {
+        (hit ? verdictCacheHits : verdictCacheMisses).increment();
+    }
+
+    /**
+     * Records that a verdict was evicted from the verdict cache
+     */
+    void verdictCacheEviction() {
+        verdictCacheEvictions.increment();
+    }
+
+    /**
+     * Records the output cache of the filter, whose size is read along with the other metrics
+     *
+     * @param cache The output cache
+     */
+    void outputCacheCreated(final OutputCache cache) {
+        outputCache = cache;
+    }
+
+    /**
+     * Records a lookup in the output cache
+     *
+     * @param hit true if the output of the rule was known
+     */
+    void outputCacheLookup(final boolean hit) {
+        (hit ? outputCacheHits : outputCacheMisses).increment();
+    }
+
+    /**
+     * Records the request cache of the filter, whose size is read along with the other metrics
+     *
+     * @param cache The request cache
+     */
+    void requestCacheCreated(final RequestOutcomeCache cache) {
+        requestCache = cache;
+    }
+
+    /**
+     * Records a lookup in the request cache
+     *
+     * @param hit true if the outcome of the request was known
+     */
+    void requestCacheLookup(final boolean hit) {
+        (hit ? requestCacheHits : requestCacheMisses).increment();
+    }
+
+    /**
+     * Records the analysis of a configuration that is about to be published
+     *
+     * @param report The report of the ConfigAnalyser
+     */
+    void configAnalysed(final ConfigReport report) {
+        configReport = report;
+    }
+
+    /**
+     * Records a successful load of the configuration
+     *
+     * @param version The version of the new configuration
+     * @param millis How long the load took
+     * @param reload true if this replaced an earlier configuration
+     */
+    void configLoaded(final long version, final long millis, final boolean reload) {
+        configVersion.set(version);
+        lastConfigLoadMillis = millis;
+        lastConfigLoadTimestamp = System.currentTimeMillis();
+        if (reload) {
+            configReloadCount.incrementAndGet();
+            lastConfigReloadError = null;
+        }
+    }
+
+    /**
+     * Records a failed reload of the configuration
+     *
+     * @param ex The reason the reload failed
+     */
+    void configReloadFailed(final Exception ex) {
+        configReloadFailureCount.incrementAndGet();
+        lastConfigReloadError = ex.toString();
+    }
+
+    /**
+     * Publishes the metrics over JMX. Failing to do so is not fatal, as the filter works without it.
+     *
+     * The name includes the context path, so filters with the same name in different web
+     * applications have their own metrics. A bean that is already registered under the name
+     * belongs to another filter, so it is left alone and these metrics are registered with an
+     * instance number instead.
+     *
+     * @param contextPath The context path of the web application
+     * @param filterName The name of the filter in web.xml
+     */
+    synchronized void register(final String contextPath, final String filterName) {
+        try {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            for (int instance = 1; objectName == null; ++instance) {
+                final ObjectName name = objectName(contextPath, filterName, instance);
+                try {
+                    server.registerMBean(this, name);
+                    objectName = name;
+                } catch (final InstanceAlreadyExistsException ex) {
+                    log.debug("The parameter validation filter metrics are already registered as " + name);
+                }
+            }
+        } catch (final JMException | RuntimeException ex) {
+            log.warn("Could not register the parameter validation filter metrics with JMX", ex);
+        }
+    }
+
+    private static ObjectName objectName(final String contextPath, final String filterName, final int instance) throws MalformedObjectNameException {
+        return new ObjectName(OBJECT_NAME_PREFIX
+                + "context=" + ObjectName.quote(contextPath == null || contextPath.isEmpty() ? "/" : contextPath)
+                + ",name=" + ObjectName.quote(filterName == null ? "ParameterValidationFilter" : filterName)
+                + (instance == 1 ? "" : ",instance=" + instance));
+    }
+
+    /**
+     * Removes the metrics from JMX
+     */
+    synchronized void unregister() {
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (final JMException | RuntimeException ex) {
+                log.warn("Could not unregister the parameter validation filter metrics from JMX", ex);
+            }
+            objectName = null;
+        }
+    }
+}
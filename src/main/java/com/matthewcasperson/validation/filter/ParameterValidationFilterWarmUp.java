@@ -0,0 +1,163 @@
+package com.matthewcasperson.validation.filter;
+
+import com.matthewcasperson.validation.config.CompiledValidationConfig;
+import com.matthewcasperson.validation.exception.ValidationFailedException;
+import com.matthewcasperson.validation.rule.ValidationContext;
+import jakarta.servlet.ServletRequest;
+import jakarta.servlet.http.HttpServletRequest;
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+
+/**
+ * Runs the compiled chains against a synthetic corpus before the filter starts taking requests.
+ * This loads the libraries the rules use (e.g. ESAPI reads its properties on first use) and gives
+ * the JIT a chance to compile the rules, so the first real requests are not slow.
+ */
+@Slf4j
+final class ParameterValidationFilterWarmUp {
+
+    private static final String PARAM_NAME = "warmUp";
+    private static final String URI = "/warmUp";
+    private static final String URL = "http://localhost" + URI;
+
+    /**
+     * A spread of the values a rule is likely to see, including ones that fail validation
+     */
+    private static final String[] VALUES = {
+            "",
+            "text",
+            "  padded text  ",
+            "1234567890",
+            "-12.50",
+            "someone@example.com",
+            "O'Reilly said \"hello\"",
+            "caf\u00e9 na\u00efve \u00a0non breaking\u00a0space",
+            "<b>bold</b> and <i>italic</i>",
+            "<a href=\"https://example.com\">link</a>",
+            "<script>alert(1)</script>",
+            "&lt;script&gt;",
+            "%3Cscript%3E",
+            "https://example.com/path?a=1&b=two#fragment",
+            "C:\\Windows\\System32",
+            "aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa"
+    };
+
+    private static final String[] URIS = {
+            "/",
+            "/index.jsp",
+            "/app/page.jsp",
+            "/app/api/v1/items/12345"
+    };
+
+    private ParameterValidationFilterWarmUp() {
+
+    }
+
+    /**
+     * Each value is run through the chains as the param of a request, in the same way as the filter
+     * does: the uri is matched against every chain with matchRequestURI, the param name is matched
+     * with matchesParamName, and the rules of each chain are run in order with processParameter
+     * until one fails. The corpus is run through every compiled chain, whether or not a uri in the
+     * corpus would have matched it, so every rule is warmed up.
+     *
+     * @param config The configuration to warm up. Lazy chains that have not been compiled are
+     *               skipped, as compiling them would defeat the point of lazy compilation.
+     * @param iterations The number of times to run through the corpus
+     * @return The number of times a rule was run
+     */
+    static long run(final CompiledValidationConfig config, final int iterations) {
+        checkNotNull(config);
+        checkArgument(iterations >= 0);
+
+        final HttpServletRequest request = request();
+
+        long ruleRuns = 0;
+        for (int iteration = 0; iteration < iterations; ++iteration) {
+            for (final String uri : URIS) {
+                config.matchRequestURI(uri);
+            }
+
+            for (final String value : VALUES) {
+                final HttpServletRequest valueRequest = new ParamValuesRequestWrapper(request, PARAM_NAME, new String[] {value});
+
+                ValidationContext.begin();
+                try {
+                    for (int chainIndex = 0; chainIndex < config.getChainCount(); ++chainIndex) {
+                        if (config.getChain(chainIndex).isCompiled()) {
+                            config.matchesParamName(chainIndex, value);
+                            ruleRuns += runChain(config, chainIndex, valueRequest);
+                        }
+                    }
+                }
+                finally {
+                    ValidationContext.end();
+                }
+            }
+        }
+
+        return ruleRuns;
+    }
+
+    /**
+     * @return The number of rules that were run before the chain passed or failed
+     */
+    private static int runChain(final CompiledValidationConfig config, final int chainIndex, final ServletRequest request) {
+        ServletRequest chainRequest = request;
+        int ruleIndex = 0;
+        try {
+            while (ruleIndex < config.getRuleCount(chainIndex)) {
+                chainRequest = config.getCompiledRule(chainIndex, ruleIndex++).getRule().processParameter(chainRequest, PARAM_NAME);
+            }
+        }
+        catch (final ValidationFailedException ex) {
+            // Expected, as some of the corpus is meant to fail
+        }
+        catch (final RuntimeException ex) {
+            // A rule that fails here would also fail on a real request, which is where it is reported
+            log.debug("Chain " + chainIndex + " failed during warm up", ex);
+        }
+
+        return ruleIndex;
+    }
+
+    /**
+     * @return A request for the warm up url that has no params of its own, which is wrapped to
+     * give it the param being run through the chains
+     */
+    private static HttpServletRequest request() {
+        final InvocationHandler handler = (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getRequestURL":
+                    return new StringBuffer(URL);
+                case "getRequestURI":
+                    return URI;
+                case "getParameterMap":
+                    return Collections.emptyMap();
+                case "getParameterNames":
+                    return Collections.emptyEnumeration();
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                case "toString":
+                    return "Warm up request for " + URL;
+                default:
+                    // The request has nothing else to give, so a rule that needs more fails and is logged
+                    if (method.getReturnType().isPrimitive() && method.getReturnType() != void.class) {
+                        throw new UnsupportedOperationException(method.getName() + " is not supported during warm up");
+                    }
+                    return null;
+            }
+        };
+
+        return (HttpServletRequest)Proxy.newProxyInstance(ParameterValidationFilterWarmUp.class.getClassLoader(),
+                new Class<?>[] {HttpServletRequest.class}, handler);
+    }
+}
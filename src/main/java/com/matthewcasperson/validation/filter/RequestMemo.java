@@ -0,0 +1,93 @@
+package com.matthewcasperson.validation.filter;
+
+import java.util.Arrays;
+
+
+/**
+ * Remembers the value each pure chain turned a param value into during a single request, so a
+ * value that turns up in several params (e.g. "", "true", "0" or the same id) is only run through
+ * a chain once. Only values that passed are remembered, so a failure is always reported against
+ * the param it was found in.
+ *
+ * The memo is a fixed size open addressing table that is taken from a pool at the start of a
+ * request and given back at the end, and a full probe sequence overwrites the first slot it looked
+ * at, so there is no allocation once the pool has its memos. Ending a request clears the table, so
+ * a pooled memo never holds on to the values of a request that has finished. Only short values are
+ * remembered, which bounds the work of clearing it.
+ */
+final class RequestMemo {
+
+    /**
+     * The longest value that is remembered. Repeated values are nearly always short.
+     */
+    static final int MAX_VALUE_LENGTH = 256;
+
+    private static final int CAPACITY = 64;
+    private static final int MASK = CAPACITY - 1;
+    private static final int MAX_PROBES = 4;
+
+    private final int[] chainIndexes = new int[CAPACITY];
+    private final String[] inputs = new String[CAPACITY];
+    private final String[] outputs = new String[CAPACITY];
+
+    /**
+     * Forgets everything remembered during the request, which has to be called before the memo is
+     * given back to the pool
+     */
+    void end() {
+        Arrays.fill(inputs, null);
+        Arrays.fill(outputs, null);
+    }
+
+    /**
+     * @param value A param value
+     * @return true if the value is short enough to be remembered
+     */
+    static boolean accepts(final String value) {
+        return value != null && value.length() <= MAX_VALUE_LENGTH;
+    }
+
+    /**
+     * @param chainIndex The position of a pure chain
+     * @param input The value the chain was given
+     * @return The value the chain turned the input into, or null if it is not remembered
+     */
+    String get(final int chainIndex, final String input) {
+        for (int probe = 0, slot = slot(chainIndex, input); probe < MAX_PROBES; ++probe, slot = (slot + 1) & MASK) {
+            if (inputs[slot] == null) {
+                return null;
+            }
+            if (chainIndexes[slot] == chainIndex && (inputs[slot] == input || inputs[slot].equals(input))) {
+                return outputs[slot];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param chainIndex The position of a pure chain
+     * @param input The value the chain was given
+     * @param output The value the chain turned it into
+     */
+    void put(final int chainIndex, final String input, final String output) {
+        final int first = slot(chainIndex, input);
+
+        int target = first;
+        for (int probe = 0, slot = first; probe < MAX_PROBES; ++probe, slot = (slot + 1) & MASK) {
+            if (inputs[slot] == null
+                    || (chainIndexes[slot] == chainIndex && inputs[slot].equals(input))) {
+                target = slot;
+                break;
+            }
+        }
+
+        chainIndexes[target] = chainIndex;
+        inputs[target] = input;
+        outputs[target] = output;
+    }
+
+    private static int slot(final int chainIndex, final String input) {
+        final int hash = input.hashCode() * 31 + chainIndex;
+        return (hash ^ (hash >>> 16)) & MASK;
+    }
+}
@@ -0,0 +1,230 @@
+package com.matthewcasperson.validation.filter;
+
+import jakarta.servlet.ServletRequestWrapper;
+import jakarta.servlet.http.HttpServletRequest;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+
+/**
+ * Remembers what happened to GET requests, so a request with the same uri and query string as an
+ * earlier one (e.g. polling or paging) gets the same outcome without its params being enumerated
+ * or run through any rules. A request is only remembered if every chain that applies to its uri
+ * is pure, as the params of a GET without a body come from the query string alone, and a pure
+ * chain does the same to the same values every time. A request that an earlier filter has wrapped
+ * is never remembered, as the wrapper may have added or changed params.
+ *
+ * The outcome is one of passing the request on as it is, passing it on with some params replaced,
+ * or rejecting it. Outcomes are keyed by the configuration version, uri and query string, so a
+ * reloaded configuration starts again. The whole uri and query string are compared, rather than
+ * only a hash of them, so a query string can not be crafted to take the outcome of another.
+ *
+ * The cache is a concurrent map, so looking up an outcome takes no lock. An outcome is forgotten
+ * once it is found to be older than the time to live. The number of outcomes is bounded
+ * approximately: once the map is full, one thread at a time removes the expired outcomes, and then
+ * an eighth of the rest in the order the map holds them, which has nothing to do with how
+ * recently they were used.
+ */
+final class RequestOutcomeCache {
+
+    /**
+     * The longest query string that is remembered, which bounds the memory taken by the keys
+     */
+    static final int MAX_QUERY_LENGTH = 2048;
+
+    private static final String GET = "GET";
+
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final ConcurrentHashMap<Key, Outcome> outcomes = new ConcurrentHashMap<Key, Outcome>();
+
+    /**
+     * true while a thread is making room in the map
+     */
+    private final AtomicBoolean evicting = new AtomicBoolean();
+
+    /**
+     * @param maxEntries The most outcomes to remember
+     * @param ttlNanos How long an outcome is remembered for, in nanoseconds
+     */
+    RequestOutcomeCache(final int maxEntries, final long ttlNanos) {
+        checkArgument(maxEntries > 0 && ttlNanos > 0, "PVF-CONFIGURATION-0012: The request cache size and time to live have to be positive");
+
+        this.maxEntries = maxEntries;
+        this.ttlNanos = ttlNanos;
+    }
+
+    /**
+     * @param version The version of the configuration
+     * @param request The request
+     * @return The key of the outcome of the request, or null if it is not a GET without a body, has
+     * no query string or too long a query string, or has been wrapped by an earlier filter
+     */
+    static Key key(final long version, final HttpServletRequest request) {
+        if (request instanceof ServletRequestWrapper) {
+            return null;
+        }
+
+        if (!GET.equals(request.getMethod()) || request.getContentLength() > 0) {
+            return null;
+        }
+
+        final String queryString = request.getQueryString();
+        if (queryString == null || queryString.isEmpty() || queryString.length() > MAX_QUERY_LENGTH) {
+            return null;
+        }
+
+        final String requestURI = request.getRequestURI();
+        return requestURI == null ? null : new Key(version, requestURI, queryString);
+    }
+
+    /**
+     * @return The number of outcomes in the cache, including any that have expired
+     */
+    int getEntryCount() {
+        return outcomes.size();
+    }
+
+    /**
+     * @param key The key of a request
+     * @return The outcome of an earlier request with the same key, or null if there is none that
+     * has not expired
+     */
+    Outcome get(final Key key) {
+        final Outcome outcome = outcomes.get(key);
+        if (outcome == null) {
+            return null;
+        }
+
+        if (isExpired(outcome, System.nanoTime())) {
+            outcomes.remove(key, outcome);
+            return null;
+        }
+
+        return outcome;
+    }
+
+    /**
+     * @param key The key of a request
+     * @param outcome What happened to the request
+     */
+    void put(final Key key, final Outcome outcome) {
+        if (outcomes.size() >= maxEntries) {
+            evict();
+        }
+        outcomes.put(key, outcome);
+    }
+
+    /**
+     * Makes room for more outcomes, unless another thread already is
+     */
+    private void evict() {
+        if (!evicting.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            final long now = System.nanoTime();
+            outcomes.values().removeIf(outcome -> isExpired(outcome, now));
+
+            final int target = maxEntries - Math.max(1, maxEntries / 8);
+            for (final Iterator<Key> keys = outcomes.keySet().iterator(); keys.hasNext() && outcomes.size() > target; ) {
+                keys.next();
+                keys.remove();
+            }
+        }
+        finally {
+            evicting.set(false);
+        }
+    }
+
+    private boolean isExpired(final Outcome outcome, final long now) {
+        return now - outcome.created > ttlNanos;
+    }
+
+    /**
+     * The configuration version, uri and query string of a GET request
+     */
+    static final class Key {
+        private final long version;
+        private final String requestURI;
+        private final String queryString;
+        private final int hash;
+
+        Key(final long version, final String requestURI, final String queryString) {
+            this.version = version;
+            this.requestURI = requestURI;
+            this.queryString = queryString;
+            this.hash = (Long.hashCode(version) * 31 + requestURI.hashCode()) * 31 + queryString.hashCode();
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(final Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            final Key key = (Key)other;
+            return key.hash == hash && key.version == version
+                    && key.requestURI.equals(requestURI) && key.queryString.equals(queryString);
+        }
+    }
+
+    /**
+     * What happened to a request: either it was rejected, in which case the failure is kept, or it
+     * was passed on with the params in the overlay replaced
+     */
+    static final class Outcome {
+        private final String failure;
+        private final Map<String, String[]> overlay;
+        private final long created = System.nanoTime();
+
+        private Outcome(final String failure, final Map<String, String[]> overlay) {
+            this.failure = failure;
+            this.overlay = overlay;
+        }
+
+        /**
+         * @param overlay The params the filter changed, and the values it changed them to
+         * @return The outcome of a request that was passed on
+         */
+        static Outcome passed(final Map<String, String[]> overlay) {
+            checkNotNull(overlay);
+            return new Outcome(null, Collections.unmodifiableMap(overlay));
+        }
+
+        /**
+         * @param failure The message of the ValidationFailedException that rejected the request
+         * @return The outcome of a request that was rejected
+         */
+        static Outcome rejected(final String failure) {
+            return new Outcome(failure == null ? "" : failure, null);
+        }
+
+        boolean isRejected() {
+            return overlay == null;
+        }
+
+        String getFailure() {
+            return failure;
+        }
+
+        /**
+         * @return The params to replace, which is empty if the request was passed on as it was
+         */
+        Map<String, String[]> getOverlay() {
+            return overlay;
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package com.matthewcasperson.validation.filter;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.SecureRandom;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+
+/**
+ * Remembers whether values passed or failed the chains that only validate, across requests. The
+ * chains have to be made up of pure, read only rules, as a verdict is all that is kept.
+ *
+ * Each entry is a single long in an off heap buffer: the top 62 bits of a fingerprint of the
+ * configuration version, chain and values, along with a bit for the verdict and a referenced bit
+ * for the clock. Entries are read and written with volatile accesses and compare and set, so no
+ * locks are taken. The table is split into buckets of 8 entries, one cache line each, and a full
+ * bucket evicts the first entry the clock finds that has not been referenced since it last went
+ * past.
+ *
+ * The fingerprint is a SipHash with a key chosen at random when the filter starts, so values can
+ * not be crafted to share the fingerprint of a value that passed.
+ */
+final class VerdictCache {
+
+    private static final VarHandle ENTRIES = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    private static final int BUCKET_SIZE = 8;
+
+    /**
+     * The largest cache, which takes 512MB
+     */
+    static final int MAX_CAPACITY = 1 << 26;
+
+    private static final long PASSED = 1;
+    private static final long REFERENCED = 2;
+    private static final long FLAGS = PASSED | REFERENCED;
+
+    /**
+     * Returned by get when the values have not been seen
+     */
+    static final int UNKNOWN = 0;
+    static final int PASS = 1;
+    static final int FAIL = 2;
+
+    private final ByteBuffer entries;
+    private final int bucketMask;
+    private final HashFunction hashFunction;
+
+    /**
+     * @param capacity The most entries the cache holds, which is rounded up to a power of two
+     */
+    VerdictCache(final int capacity) {
+        checkArgument(capacity > 0 && capacity <= MAX_CAPACITY, "PVF-CONFIGURATION-0010: The verdict cache size has to be between 1 and " + MAX_CAPACITY);
+
+        final int needed = (capacity + BUCKET_SIZE - 1) / BUCKET_SIZE;
+        final int buckets = needed == 1 ? 1 : Integer.highestOneBit(needed - 1) << 1;
+        this.entries = ByteBuffer.allocateDirect(buckets * BUCKET_SIZE * Long.BYTES).order(ByteOrder.nativeOrder());
+        this.bucketMask = buckets - 1;
+
+        final SecureRandom random = new SecureRandom();
+        this.hashFunction = Hashing.sipHash24(random.nextLong(), random.nextLong());
+    }
+
+    /**
+     * @return The number of entries the cache can hold
+     */
+    int getCapacity() {
+        return (bucketMask + 1) * BUCKET_SIZE;
+    }
+
+    /**
+     * @param version The version of the configuration
+     * @param chainIndex The position of the chain
+     * @param values The values of the param, none of which may be null
+     * @return The fingerprint to look the verdict up with
+     */
+    long fingerprint(final long version, final int chainIndex, final String[] values) {
+        final Hasher hasher = hashFunction.newHasher()
+                .putLong(version)
+                .putInt(chainIndex)
+                .putInt(values.length);
+        for (final String value : values) {
+            hasher.putInt(value.length()).putUnencodedChars(value);
+        }
+
+        final long key = hasher.hash().asLong() & ~FLAGS;
+        // Zero marks an empty entry
+        return key == 0 ? FLAGS + 1 : key;
+    }
+
+    /**
+     * @param fingerprint The fingerprint of the values
+     * @return PASS or FAIL if the verdict is known, and UNKNOWN otherwise
+     */
+    int get(final long fingerprint) {
+        final int bucket = bucket(fingerprint);
+        for (int slot = 0; slot < BUCKET_SIZE; ++slot) {
+            final int offset = offset(bucket, slot);
+            final long entry = (long)ENTRIES.getVolatile(entries, offset);
+            if ((entry & ~FLAGS) == fingerprint) {
+                if ((entry & REFERENCED) == 0) {
+                    // Losing this race only means the entry may be evicted a little early
+                    ENTRIES.compareAndSet(entries, offset, entry, entry | REFERENCED);
+                }
+                return (entry & PASSED) != 0 ? PASS : FAIL;
+            }
+        }
+        return UNKNOWN;
+    }
+
+    /**
+     * @param fingerprint The fingerprint of the values
+     * @param passed true if the values passed the chain
+     * @return true if another entry was evicted to make room
+     */
+    boolean put(final long fingerprint, final boolean passed) {
+        final long entry = fingerprint | (passed ? PASSED : 0);
+        final int bucket = bucket(fingerprint);
+
+        for (int slot = 0; slot < BUCKET_SIZE; ++slot) {
+            final int offset = offset(bucket, slot);
+            final long existing = (long)ENTRIES.getVolatile(entries, offset);
+            if ((existing & ~FLAGS) == fingerprint) {
+                return false;
+            }
+            if (existing == 0 && ENTRIES.compareAndSet(entries, offset, 0L, entry)) {
+                return false;
+            }
+        }
+
+        // The bucket is full, so sweep it from a point picked by the fingerprint, clearing the
+        // referenced bits, until an entry that has not been referenced turns up
+        final int start = (int)(fingerprint >>> 32) & (BUCKET_SIZE - 1);
+        for (int step = 0; step < BUCKET_SIZE * 2; ++step) {
+            final int offset = offset(bucket, (start + step) & (BUCKET_SIZE - 1));
+            final long existing = (long)ENTRIES.getVolatile(entries, offset);
+            if ((existing & REFERENCED) != 0) {
+                ENTRIES.compareAndSet(entries, offset, existing, existing & ~REFERENCED);
+            } else if (ENTRIES.compareAndSet(entries, offset, existing, entry)) {
+                return existing != 0;
+            }
+        }
+
+        // Every entry was referenced again while sweeping, so this verdict is not kept
+        return false;
+    }
+
+    private int bucket(final long fingerprint) {
+        return (int)(fingerprint >>> 2) & bucketMask;
+    }
+
+    private static int offset(final int bucket, final int slot) {
+        return (bucket * BUCKET_SIZE + slot) * Long.BYTES;
+    }
+}
@@ -0,0 +1,143 @@
+package com.matthewcasperson.validation.regex;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+
+/**
+ * Spots the shapes of regex that make java.util.regex backtrack exponentially on inputs that
+ * almost match, like "(a+)+$" or "(a|ab)*c". A regex is at risk if it has an unbounded repeat
+ * that contains either another unbounded repeat, or an alternation whose branches can start
+ * with the same char. This is a heuristic: it finds the common cases, and can flag regexes that
+ * are safe in practice.
+ *
+ * Regexes evaluated by the linear engine are never at risk.
+ */
+public final class BacktrackingRisk {
+
+	private BacktrackingRisk() {
+
+	}
+
+	/**
+	 * @param regex The compiled regex
+	 * @return true if the regex is evaluated by java.util.regex and may backtrack exponentially
+	 */
+	public static boolean isAtRisk(final CompiledRegex regex) {
+		checkNotNull(regex);
+
+		if (regex.getEngine() == RegexEngine.LINEAR) {
+			return false;
+		}
+
+		try {
+			return isAtRisk(new RegexParser(regex.pattern()).parse(), false);
+		} catch (final UnsupportedRegexException ex) {
+			// Back references and lookaround can not be analysed
+			return false;
+		}
+	}
+
+	/**
+	 * @param insideRepeat true if the node is inside an unbounded repeat
+	 */
+	private static boolean isAtRisk(final RegexNode node, final boolean insideRepeat) {
+		switch (node.kind) {
+			case REPEAT: {
+				final boolean unbounded = node.max == RegexNode.UNBOUNDED;
+				if (unbounded && insideRepeat) {
+					return true;
+				}
+				return isAtRisk(node.children.get(0), insideRepeat || unbounded);
+			}
+			case ALTERNATE:
+				if (insideRepeat && hasOverlappingBranches(node)) {
+					return true;
+				}
+				// Fall through to check the branches
+			case CONCAT:
+				for (final RegexNode child : node.children) {
+					if (isAtRisk(child, insideRepeat)) {
+						return true;
+					}
+				}
+				return false;
+			default:
+				return false;
+		}
+	}
+
+	private static boolean hasOverlappingBranches(final RegexNode alternate) {
+		CharRanges seen = CharRanges.empty();
+		for (final RegexNode branch : alternate.children) {
+			final CharRanges first = firstChars(branch);
+			if (intersects(seen, first)) {
+				return true;
+			}
+			seen = seen.union(first);
+		}
+		return false;
+	}
+
+	/**
+	 * @return The chars that a match of the node can start with
+	 */
+	private static CharRanges firstChars(final RegexNode node) {
+		switch (node.kind) {
+			case CHARS:
+				return node.chars;
+			case REPEAT:
+				return firstChars(node.children.get(0));
+			case ALTERNATE: {
+				CharRanges first = CharRanges.empty();
+				for (final RegexNode child : node.children) {
+					first = first.union(firstChars(child));
+				}
+				return first;
+			}
+			case CONCAT: {
+				CharRanges first = CharRanges.empty();
+				for (final RegexNode child : node.children) {
+					first = first.union(firstChars(child));
+					if (!isNullable(child)) {
+						break;
+					}
+				}
+				return first;
+			}
+			default:
+				return CharRanges.empty();
+		}
+	}
+
+	/**
+	 * @return true if the node can match the empty string
+	 */
+	private static boolean isNullable(final RegexNode node) {
+		switch (node.kind) {
+			case CHARS:
+				return false;
+			case REPEAT:
+				return node.min == 0 || isNullable(node.children.get(0));
+			case ALTERNATE:
+				for (final RegexNode child : node.children) {
+					if (isNullable(child)) {
+						return true;
+					}
+				}
+				return false;
+			case CONCAT:
+				for (final RegexNode child : node.children) {
+					if (!isNullable(child)) {
+						return false;
+					}
+				}
+				return true;
+			default:
+				return true;
+		}
+	}
+
+	private static boolean intersects(final CharRanges first, final CharRanges second) {
+		return first.complement().union(second.complement()).complement().rangeCount() > 0;
+	}
+}
@@ -0,0 +1,144 @@
+package com.matthewcasperson.validation.regex;
+
+import java.util.Arrays;
+
+
+/**
+ * An immutable set of chars, held as sorted and non-overlapping inclusive ranges. The linear
+ * engine only works with chars from the basic multilingual plane, so the universe is 0 to 0xFFFF.
+ */
+final class CharRanges {
+
+	static final int MAX_CHAR = 0xFFFF;
+
+	static final CharRanges DIGIT = new CharRanges(new int[] {'0', '9'});
+	static final CharRanges WORD = new CharRanges(new int[] {'0', '9', 'A', 'Z', '_', '_', 'a', 'z'});
+	static final CharRanges SPACE = new CharRanges(new int[] {'\t', '\r', ' ', ' '});
+	static final CharRanges DOT = new CharRanges(new int[] {'\n', '\n', '\r', '\r', 0x85, 0x85, 0x2028, 0x2029}).complement();
+
+	/**
+	 * Pairs of inclusive lower and upper bounds
+	 */
+	private final int[] ranges;
+
+	private CharRanges(final int[] ranges) {
+		this.ranges = ranges;
+	}
+
+	static CharRanges of(final int c) {
+		return new CharRanges(new int[] {c, c});
+	}
+
+	static CharRanges range(final int from, final int to) {
+		return new CharRanges(new int[] {from, to});
+	}
+
+	static CharRanges empty() {
+		return new CharRanges(new int[0]);
+	}
+
+	/**
+	 * @return The number of ranges in the set
+	 */
+	int rangeCount() {
+		return ranges.length / 2;
+	}
+
+	int rangeStart(final int index) {
+		return ranges[index * 2];
+	}
+
+	int rangeEnd(final int index) {
+		return ranges[index * 2 + 1];
+	}
+
+	/**
+	 * @return The only char in this set, or -1 if the set does not contain exactly one char
+	 */
+	int singleChar() {
+		return ranges.length == 2 && ranges[0] == ranges[1] ? ranges[0] : -1;
+	}
+
+	boolean contains(final int c) {
+		int low = 0;
+		int high = ranges.length / 2 - 1;
+
+		while (low <= high) {
+			final int mid = (low + high) >>> 1;
+			if (c < ranges[mid * 2]) {
+				high = mid - 1;
+			} else if (c > ranges[mid * 2 + 1]) {
+				low = mid + 1;
+			} else {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	CharRanges union(final CharRanges other) {
+		final int[] all = Arrays.copyOf(ranges, ranges.length + other.ranges.length);
+		System.arraycopy(other.ranges, 0, all, ranges.length, other.ranges.length);
+		return normalise(all);
+	}
+
+	CharRanges complement() {
+		final int[] result = new int[ranges.length + 2];
+		int size = 0;
+		int next = 0;
+
+		for (int index = 0; index < ranges.length; index += 2) {
+			if (ranges[index] > next) {
+				result[size++] = next;
+				result[size++] = ranges[index] - 1;
+			}
+			next = ranges[index + 1] + 1;
+		}
+
+		if (next <= MAX_CHAR) {
+			result[size++] = next;
+			result[size++] = MAX_CHAR;
+		}
+
+		return new CharRanges(Arrays.copyOf(result, size));
+	}
+
+	/**
+	 * Sorts and merges an array of range pairs
+	 */
+	private static CharRanges normalise(final int[] pairs) {
+		final long[] packed = new long[pairs.length / 2];
+		for (int index = 0; index < packed.length; ++index) {
+			packed[index] = ((long)pairs[index * 2] << 32) | pairs[index * 2 + 1];
+		}
+		Arrays.sort(packed);
+
+		final int[] result = new int[pairs.length];
+		int size = 0;
+
+		for (final long range : packed) {
+			final int from = (int)(range >>> 32);
+			final int to = (int)range;
+
+			if (size != 0 && from <= result[size - 1] + 1) {
+				result[size - 1] = Math.max(result[size - 1], to);
+			} else {
+				result[size++] = from;
+				result[size++] = to;
+			}
+		}
+
+		return new CharRanges(Arrays.copyOf(result, size));
+	}
+
+	@Override
+	public boolean equals(final Object other) {
+		return other instanceof CharRanges && Arrays.equals(ranges, ((CharRanges)other).ranges);
+	}
+
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(ranges);
+	}
+}
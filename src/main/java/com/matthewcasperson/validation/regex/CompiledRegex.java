@@ -0,0 +1,44 @@
+package com.matthewcasperson.validation.regex;
+
+import java.util.regex.Pattern;
+
+
+/**
+ * A compiled regex. Implementations are immutable and can be shared between threads.
+ */
+public interface CompiledRegex {
+
+	/**
+	 * @return The source of the regex
+	 */
+	String pattern();
+
+	/**
+	 * @return The engine that evaluates this regex
+	 */
+	RegexEngine getEngine();
+
+	/**
+	 * @return The engine the regex was compiled for, which is LINEAR for a regex the linear engine
+	 * can not evaluate, even though it is evaluated by java.util.regex
+	 */
+	RegexEngine getRequestedEngine();
+
+	/**
+	 * @return The java.util.regex version of this regex
+	 */
+	Pattern toPattern();
+
+	/**
+	 * @param input The text to search
+	 * @return true if the regex matches any part of the input, in the same way as Matcher.find()
+	 */
+	boolean find(final CharSequence input);
+
+	/**
+	 * @param input The text to search
+	 * @return The text of the first match in the input, in the same way as Matcher.find() followed
+	 * by Matcher.group(), or null if there is no match
+	 */
+	String findFirst(final CharSequence input);
+}
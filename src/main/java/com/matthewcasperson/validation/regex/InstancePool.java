@@ -0,0 +1,66 @@
+package com.matthewcasperson.validation.regex;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Supplier;
+
+
+/**
+ * A small, bounded, lock-free pool of reusable objects, such as Matchers, Pike VM scratch space
+ * and request memos.
+ *
+ * A ThreadLocal would keep one instance alive per thread, which grows without bound when requests
+ * are served by virtual threads. Instead the pool has a fixed number of slots, sized from the
+ * number of processors. A thread starts looking from a slot picked by its identity, so that
+ * platform threads tend to get the same instance back, and only checks a few slots before giving
+ * up and creating a new instance. Instances released into a full pool are left for the garbage
+ * collector.
+ */
+public final class InstancePool<T> {
+
+	private static final int SLOTS = Math.min(64, Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors()) * 4));
+
+	private static final int PROBES = 4;
+
+	private final AtomicReferenceArray<T> slots = new AtomicReferenceArray<T>(SLOTS);
+	private final Supplier<T> factory;
+
+	public InstancePool(final Supplier<T> factory) {
+		this.factory = factory;
+	}
+
+	/**
+	 * @return An instance that the caller has exclusive use of until it is released
+	 */
+	public T acquire() {
+		final int start = probeStart();
+
+		for (int probe = 0; probe < PROBES; ++probe) {
+			final int index = (start + probe) & (SLOTS - 1);
+			final T instance = slots.get(index);
+			if (instance != null && slots.compareAndSet(index, instance, null)) {
+				return instance;
+			}
+		}
+
+		return factory.get();
+	}
+
+	/**
+	 * @param instance An instance returned by acquire(), which the caller must not use again
+	 */
+	public void release(final T instance) {
+		final int start = probeStart();
+
+		for (int probe = 0; probe < PROBES; ++probe) {
+			final int index = (start + probe) & (SLOTS - 1);
+			if (slots.get(index) == null && slots.compareAndSet(index, null, instance)) {
+				return;
+			}
+		}
+	}
+
+	private static int probeStart() {
+		final int hash = System.identityHashCode(Thread.currentThread());
+		return hash ^ (hash >>> 16);
+	}
+}
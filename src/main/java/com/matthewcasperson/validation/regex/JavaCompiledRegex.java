@@ -0,0 +1,79 @@
+package com.matthewcasperson.validation.regex;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+
+/**
+ * A regex evaluated by java.util.regex. Matchers are pooled and reset for each input, rather than
+ * allocating a new Matcher (and its group arrays) for every test.
+ */
+class JavaCompiledRegex implements CompiledRegex {
+
+	private final Pattern pattern;
+	private final RegexEngine requestedEngine;
+	private final InstancePool<Matcher> matchers;
+
+	/**
+	 * @param pattern The pattern to evaluate
+	 * @param requestedEngine The engine the pattern was compiled for
+	 */
+	JavaCompiledRegex(final Pattern pattern, final RegexEngine requestedEngine) {
+		this.pattern = pattern;
+		this.requestedEngine = requestedEngine;
+		this.matchers = new InstancePool<Matcher>(() -> pattern.matcher(""));
+	}
+
+	@Override
+	public String pattern() {
+		return pattern.pattern();
+	}
+
+	@Override
+	public RegexEngine getEngine() {
+		return RegexEngine.JAVA;
+	}
+
+	@Override
+	public RegexEngine getRequestedEngine() {
+		return requestedEngine;
+	}
+
+	@Override
+	public Pattern toPattern() {
+		return pattern;
+	}
+
+	@Override
+	public boolean find(final CharSequence input) {
+		final Matcher matcher = matchers.acquire();
+		try {
+			return matcher.reset(input).find();
+		} finally {
+			release(matcher);
+		}
+	}
+
+	@Override
+	public String findFirst(final CharSequence input) {
+		final Matcher matcher = matchers.acquire();
+		try {
+			return matcher.reset(input).find() ? matcher.group() : null;
+		} finally {
+			release(matcher);
+		}
+	}
+
+	/**
+	 * Pooled matchers should not keep the last param value alive
+	 */
+	private void release(final Matcher matcher) {
+		matcher.reset("");
+		matchers.release(matcher);
+	}
+
+	@Override
+	public String toString() {
+		return pattern.toString();
+	}
+}
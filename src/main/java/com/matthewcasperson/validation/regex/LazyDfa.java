@@ -0,0 +1,240 @@
+package com.matthewcasperson.validation.regex;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * A DFA that is built from an NfaProgram on demand, one state at a time, as inputs are matched.
+ * Only answers whether there is a match, which is all that most of the patterns in the
+ * configuration are used for. Once built, a transition costs one array lookup per char.
+ *
+ * Instances are shared between threads. States are immutable apart from their transition caches,
+ * which are filled in racily with fully constructed states, so the worst case is that two threads
+ * compute the same transition.
+ */
+final class LazyDfa {
+
+	/**
+	 * Returned when the state cache is full or the input contains supplementary characters
+	 */
+	static final int UNKNOWN = -1;
+
+	/**
+	 * The cap on the number of states, which stops pathological patterns from using unbounded
+	 * memory. Searches that need more states fall back to the Pike VM.
+	 */
+	private static final int MAX_STATES = 4096;
+
+	private final NfaProgram program;
+	private final ConcurrentHashMap<StateKey, State> states = new ConcurrentHashMap<StateKey, State>();
+	private final State start;
+	private volatile boolean full;
+
+	LazyDfa(final NfaProgram program) {
+		this.program = program;
+		this.start = intern(closure(new int[] {0}, 1, 0));
+	}
+
+	/**
+	 * @return 1 if the program matches somewhere in the input, 0 if it does not, or UNKNOWN
+	 */
+	int find(final CharSequence input) {
+		final int length = input.length();
+		State state = start;
+
+		for (int position = 0; ; ++position) {
+			State resolved = state;
+			if (state.hasAssertions) {
+				final int flags = NfaProgram.contextFlags(input, position);
+				if (flags != 0) {
+					resolved = resolve(state, flags);
+					if (resolved == null) {
+						return UNKNOWN;
+					}
+				}
+			}
+
+			if (resolved.match) {
+				return 1;
+			}
+
+			if (position == length) {
+				return 0;
+			}
+
+			final char c = input.charAt(position);
+			if (Character.isSurrogate(c)) {
+				return UNKNOWN;
+			}
+
+			final int charClass = program.classOf(c);
+			State next = resolved.next[charClass];
+			if (next == null) {
+				next = step(resolved, charClass);
+				if (next == null) {
+					return UNKNOWN;
+				}
+			}
+
+			if (next.dead) {
+				return 0;
+			}
+			state = next;
+		}
+	}
+
+	private State resolve(final State state, final int flags) {
+		final State cached = state.resolved[flags];
+		if (cached != null) {
+			return cached;
+		}
+
+		// The assertions are still in the set, so following them from the existing pcs is enough
+		final State result = intern(closure(state.pcs, -1, flags));
+		if (result != null) {
+			state.resolved[flags] = result;
+		}
+		return result;
+	}
+
+	private State step(final State state, final int charClass) {
+		final int c = program.classStarts[charClass];
+		final int[] seeds = new int[state.pcs.length + 1];
+		int count = 0;
+
+		for (final int pc : state.pcs) {
+			if (program.ops[pc] == NfaProgram.CHARS && program.chars[pc].contains(c)) {
+				seeds[count++] = pc + 1;
+			}
+		}
+
+		if (!program.anchored) {
+			seeds[count++] = 0;
+		}
+
+		final State result = intern(closure(seeds, count, 0));
+		if (result != null) {
+			state.next[charClass] = result;
+		}
+		return result;
+	}
+
+	/**
+	 * Follows the jumps and splits from the seed instructions. Assertions are followed only if
+	 * they are in flags, otherwise they are kept in the set to be resolved once the position is
+	 * known.
+	 *
+	 * @param count The number of seeds to use, or -1 for all of them
+	 * @return The sorted set of instructions that the state is made of
+	 */
+	private int[] closure(final int[] seeds, final int count, final int flags) {
+		final int seedCount = count < 0 ? seeds.length : count;
+		final boolean[] visited = new boolean[program.size()];
+		final int[] work = new int[program.size() * 2 + seedCount];
+		final int[] result = new int[program.size()];
+		int size = 0;
+		int top = 0;
+
+		for (int index = seedCount - 1; index >= 0; --index) {
+			work[top++] = seeds[index];
+		}
+
+		while (top > 0) {
+			final int pc = work[--top];
+			if (visited[pc]) {
+				continue;
+			}
+			visited[pc] = true;
+
+			switch (program.ops[pc]) {
+				case NfaProgram.JUMP:
+					work[top++] = program.x[pc];
+					break;
+				case NfaProgram.SPLIT:
+					work[top++] = program.y[pc];
+					work[top++] = program.x[pc];
+					break;
+				case NfaProgram.ASSERT:
+					result[size++] = pc;
+					if ((program.x[pc] & flags) != 0) {
+						work[top++] = pc + 1;
+					}
+					break;
+				default:
+					result[size++] = pc;
+					break;
+			}
+		}
+
+		final int[] pcs = Arrays.copyOf(result, size);
+		Arrays.sort(pcs);
+		return pcs;
+	}
+
+	/**
+	 * @return The canonical state for the set of instructions, or null if the cache is full
+	 */
+	private State intern(final int[] pcs) {
+		final StateKey key = new StateKey(pcs);
+		final State existing = states.get(key);
+		if (existing != null) {
+			return existing;
+		}
+
+		if (full || states.size() >= MAX_STATES) {
+			full = true;
+			return null;
+		}
+
+		final State created = new State(program, pcs);
+		final State raced = states.putIfAbsent(key, created);
+		return raced == null ? created : raced;
+	}
+
+	private static final class StateKey {
+		private final int[] pcs;
+		private final int hash;
+
+		StateKey(final int[] pcs) {
+			this.pcs = pcs;
+			this.hash = Arrays.hashCode(pcs);
+		}
+
+		@Override
+		public boolean equals(final Object other) {
+			return other instanceof StateKey && Arrays.equals(pcs, ((StateKey)other).pcs);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+	}
+
+	private static final class State {
+		final int[] pcs;
+		final boolean match;
+		final boolean hasAssertions;
+		final boolean dead;
+		final State[] next;
+		final State[] resolved;
+
+		State(final NfaProgram program, final int[] pcs) {
+			this.pcs = pcs;
+
+			boolean matches = false;
+			boolean assertions = false;
+			for (final int pc : pcs) {
+				matches |= program.ops[pc] == NfaProgram.MATCH;
+				assertions |= program.ops[pc] == NfaProgram.ASSERT;
+			}
+
+			this.match = matches;
+			this.hasAssertions = assertions;
+			this.dead = pcs.length == 0;
+			this.next = new State[program.classStarts.length];
+			this.resolved = new State[(RegexNode.ASSERT_BEGIN | RegexNode.ASSERT_DOLLAR | RegexNode.ASSERT_END) + 1];
+		}
+	}
+}
@@ -0,0 +1,87 @@
+package com.matthewcasperson.validation.regex;
+
+import java.util.regex.Pattern;
+
+
+/**
+ * A regex evaluated by the linear engine. Simple match / no match questions are answered by the
+ * lazy DFA, and the Pike VM is used when the matched text is needed or the DFA gives up. Inputs
+ * with supplementary characters are handed to java.util.regex. The Pike VM scratch space is pooled.
+ */
+class LinearCompiledRegex implements CompiledRegex {
+
+	private final Pattern pattern;
+	private final LazyDfa dfa;
+	private final InstancePool<PikeVm> vms;
+	private final JavaCompiledRegex fallback;
+
+	LinearCompiledRegex(final Pattern pattern, final NfaProgram program) {
+		this.pattern = pattern;
+		this.dfa = new LazyDfa(program);
+		this.vms = new InstancePool<PikeVm>(() -> new PikeVm(program));
+		this.fallback = new JavaCompiledRegex(pattern, RegexEngine.LINEAR);
+	}
+
+	@Override
+	public String pattern() {
+		return pattern.pattern();
+	}
+
+	@Override
+	public RegexEngine getEngine() {
+		return RegexEngine.LINEAR;
+	}
+
+	@Override
+	public RegexEngine getRequestedEngine() {
+		return RegexEngine.LINEAR;
+	}
+
+	@Override
+	public Pattern toPattern() {
+		return pattern;
+	}
+
+	@Override
+	public boolean find(final CharSequence input) {
+		final int result = dfa.find(input);
+		if (result != LazyDfa.UNKNOWN) {
+			return result == 1;
+		}
+
+		final long match = search(input, true);
+		if (match == PikeVm.UNSUPPORTED_INPUT) {
+			return fallback.find(input);
+		}
+		return match != PikeVm.NO_MATCH;
+	}
+
+	@Override
+	public String findFirst(final CharSequence input) {
+		final long match = search(input, false);
+
+		if (match == PikeVm.UNSUPPORTED_INPUT) {
+			return fallback.findFirst(input);
+		}
+
+		if (match == PikeVm.NO_MATCH) {
+			return null;
+		}
+
+		return input.subSequence((int)(match >>> 32), (int)match).toString();
+	}
+
+	private long search(final CharSequence input, final boolean stopAtFirstMatch) {
+		final PikeVm vm = vms.acquire();
+		try {
+			return vm.search(input, stopAtFirstMatch);
+		} finally {
+			vms.release(vm);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return pattern.toString();
+	}
+}
@@ -0,0 +1,324 @@
+package com.matthewcasperson.validation.regex;
+
+import java.util.Arrays;
+import java.util.TreeSet;
+
+
+/**
+ * A Thompson NFA compiled from a RegexNode tree. The instructions are held in parallel arrays
+ * so that the simulations can walk them without chasing pointers.
+ */
+final class NfaProgram {
+
+	/** Consume one char if it is in the set, then continue at the next instruction */
+	static final byte CHARS = 0;
+	/** Continue at x, then (with a lower priority) at y */
+	static final byte SPLIT = 1;
+	/** Continue at x */
+	static final byte JUMP = 2;
+	/** Continue at the next instruction if the assertion in x holds at the current position */
+	static final byte ASSERT = 3;
+	/** The regex has matched */
+	static final byte MATCH = 4;
+
+	/**
+	 * Large counted repetitions can blow up the program, at which point java.util.regex is
+	 * the better choice anyway
+	 */
+	private static final int MAX_INSTRUCTIONS = 20000;
+
+	final byte[] ops;
+	final int[] x;
+	final int[] y;
+	final CharRanges[] chars;
+
+	/**
+	 * true if every match has to start at the beginning of the input
+	 */
+	final boolean anchored;
+
+	/**
+	 * The first char of each equivalence class. Chars in the same class are treated identically by
+	 * every CHARS instruction in the program.
+	 */
+	final int[] classStarts;
+	private final int[] asciiClasses;
+
+	private NfaProgram(final byte[] ops, final int[] x, final int[] y, final CharRanges[] chars, final boolean anchored) {
+		this.ops = ops;
+		this.x = x;
+		this.y = y;
+		this.chars = chars;
+		this.anchored = anchored;
+
+		final TreeSet<Integer> boundaries = new TreeSet<Integer>();
+		boundaries.add(0);
+		for (final CharRanges set : chars) {
+			if (set != null) {
+				for (int index = 0; index < set.rangeCount(); ++index) {
+					boundaries.add(set.rangeStart(index));
+					if (set.rangeEnd(index) < CharRanges.MAX_CHAR) {
+						boundaries.add(set.rangeEnd(index) + 1);
+					}
+				}
+			}
+		}
+
+		this.classStarts = new int[boundaries.size()];
+		int index = 0;
+		for (final Integer boundary : boundaries) {
+			classStarts[index++] = boundary;
+		}
+
+		this.asciiClasses = new int[128];
+		for (int c = 0; c < asciiClasses.length; ++c) {
+			asciiClasses[c] = lookupClass(c);
+		}
+	}
+
+	int size() {
+		return ops.length;
+	}
+
+	/**
+	 * @return The equivalence class of the char
+	 */
+	int classOf(final char c) {
+		return c < 128 ? asciiClasses[c] : lookupClass(c);
+	}
+
+	private int lookupClass(final int c) {
+		final int index = Arrays.binarySearch(classStarts, c);
+		return index >= 0 ? index : -index - 2;
+	}
+
+	/**
+	 * @param assertion One of the RegexNode.ASSERT constants
+	 * @param input The input being matched
+	 * @param position The position in the input
+	 * @return true if the assertion holds at the position, with the same semantics as
+	 * java.util.regex when no flags are set
+	 */
+	static boolean assertionHolds(final int assertion, final CharSequence input, final int position) {
+		return (contextFlags(input, position) & assertion) != 0;
+	}
+
+	/**
+	 * @return The set of RegexNode.ASSERT constants that hold at the position
+	 */
+	static int contextFlags(final CharSequence input, final int position) {
+		final int length = input.length();
+		int flags = 0;
+
+		if (position == 0) {
+			flags |= RegexNode.ASSERT_BEGIN;
+		}
+
+		if (position == length) {
+			flags |= RegexNode.ASSERT_DOLLAR | RegexNode.ASSERT_END;
+		} else if (position == length - 2) {
+			if (input.charAt(position) == '\r' && input.charAt(position + 1) == '\n') {
+				flags |= RegexNode.ASSERT_DOLLAR;
+			}
+		} else if (position == length - 1) {
+			final char c = input.charAt(position);
+			if (c == '\n') {
+				if (position == 0 || input.charAt(position - 1) != '\r') {
+					flags |= RegexNode.ASSERT_DOLLAR;
+				}
+			} else if (c == '\r' || c == 0x85 || (c | 1) == 0x2029) {
+				flags |= RegexNode.ASSERT_DOLLAR;
+			}
+		}
+
+		return flags;
+	}
+
+	static NfaProgram compile(final RegexNode root) throws UnsupportedRegexException {
+		final Builder builder = new Builder();
+		builder.emit(root);
+		builder.add(MATCH, 0, 0, null);
+		return new NfaProgram(
+				Arrays.copyOf(builder.ops, builder.size),
+				Arrays.copyOf(builder.x, builder.size),
+				Arrays.copyOf(builder.y, builder.size),
+				Arrays.copyOf(builder.chars, builder.size),
+				isAnchored(root));
+	}
+
+	private static boolean isAnchored(final RegexNode node) {
+		switch (node.kind) {
+			case ASSERT:
+				return node.assertion == RegexNode.ASSERT_BEGIN;
+			case CONCAT:
+				return isAnchored(node.children.get(0));
+			case ALTERNATE:
+				for (final RegexNode child : node.children) {
+					if (!isAnchored(child)) {
+						return false;
+					}
+				}
+				return true;
+			case REPEAT:
+				return node.min > 0 && isAnchored(node.children.get(0));
+			default:
+				return false;
+		}
+	}
+
+	/**
+	 * @return true if the node can match the empty string
+	 */
+	private static boolean isNullable(final RegexNode node) {
+		switch (node.kind) {
+			case CHARS:
+				return false;
+			case CONCAT:
+				for (final RegexNode child : node.children) {
+					if (!isNullable(child)) {
+						return false;
+					}
+				}
+				return true;
+			case ALTERNATE:
+				for (final RegexNode child : node.children) {
+					if (isNullable(child)) {
+						return true;
+					}
+				}
+				return false;
+			case REPEAT:
+				return node.min == 0 || isNullable(node.children.get(0));
+			default:
+				return true;
+		}
+	}
+
+	/**
+	 * @return true if the node is or contains an assertion such as ^ or $
+	 */
+	private static boolean hasAssertion(final RegexNode node) {
+		if (node.kind == RegexNode.Kind.ASSERT) {
+			return true;
+		}
+		for (final RegexNode child : node.children) {
+			if (hasAssertion(child)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static final class Builder {
+		private byte[] ops = new byte[16];
+		private int[] x = new int[16];
+		private int[] y = new int[16];
+		private CharRanges[] chars = new CharRanges[16];
+		private int size;
+
+		int add(final byte op, final int xValue, final int yValue, final CharRanges set) throws UnsupportedRegexException {
+			if (size == MAX_INSTRUCTIONS) {
+				throw new UnsupportedRegexException("program larger than " + MAX_INSTRUCTIONS + " instructions");
+			}
+
+			if (size == ops.length) {
+				ops = Arrays.copyOf(ops, size * 2);
+				x = Arrays.copyOf(x, size * 2);
+				y = Arrays.copyOf(y, size * 2);
+				chars = Arrays.copyOf(chars, size * 2);
+			}
+
+			ops[size] = op;
+			x[size] = xValue;
+			y[size] = yValue;
+			chars[size] = set;
+			return size++;
+		}
+
+		void emit(final RegexNode node) throws UnsupportedRegexException {
+			switch (node.kind) {
+				case EMPTY:
+					break;
+				case CHARS:
+					add(CHARS, 0, 0, node.chars);
+					break;
+				case ASSERT:
+					add(ASSERT, node.assertion, 0, null);
+					break;
+				case CONCAT:
+					for (final RegexNode child : node.children) {
+						emit(child);
+					}
+					break;
+				case ALTERNATE:
+					emitAlternation(node, 0);
+					break;
+				case REPEAT:
+					emitRepeat(node);
+					break;
+				default:
+					throw new IllegalStateException("PVF-BUG-0004: Unknown regex node " + node.kind);
+			}
+		}
+
+		private void emitAlternation(final RegexNode node, final int index) throws UnsupportedRegexException {
+			if (index == node.children.size() - 1) {
+				emit(node.children.get(index));
+				return;
+			}
+
+			final int split = add(SPLIT, 0, 0, null);
+			x[split] = size;
+			emit(node.children.get(index));
+			final int jump = add(JUMP, 0, 0, null);
+			y[split] = size;
+			emitAlternation(node, index + 1);
+			x[jump] = size;
+		}
+
+		private void emitRepeat(final RegexNode node) throws UnsupportedRegexException {
+			final RegexNode child = node.children.get(0);
+
+			/*
+			 * java.util.regex stops looping as soon as an iteration matches the empty string, and
+			 * treats a group that repeats a fixed number of times in the same way, which gives a
+			 * different match to the leftmost-first simulation. An assertion that is repeated can
+			 * only pass on an iteration that matches nothing, so it is left to java.util.regex too.
+			 */
+			if ((node.max == RegexNode.UNBOUNDED || node.max > 1) && (isNullable(child) || hasAssertion(child))) {
+				throw new UnsupportedRegexException("repetition of an expression that can match the empty string or holds an assertion");
+			}
+
+			for (int count = 0; count < node.min; ++count) {
+				emit(child);
+			}
+
+			if (node.max == RegexNode.UNBOUNDED) {
+				final int split = add(SPLIT, 0, 0, null);
+				final int body = size;
+				emit(child);
+				add(JUMP, split, 0, null);
+				setBranches(split, body, size, node.greedy);
+				return;
+			}
+
+			final int optional = node.max - node.min;
+			final int[] splits = new int[optional];
+			for (int count = 0; count < optional; ++count) {
+				splits[count] = add(SPLIT, 0, 0, null);
+				final int body = size;
+				emit(child);
+				x[splits[count]] = body;
+			}
+
+			for (final int split : splits) {
+				setBranches(split, x[split], size, node.greedy);
+			}
+		}
+
+		private void setBranches(final int split, final int body, final int out, final boolean greedy) {
+			x[split] = greedy ? body : out;
+			y[split] = greedy ? out : body;
+		}
+	}
+}
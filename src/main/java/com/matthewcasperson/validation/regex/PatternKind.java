@@ -0,0 +1,187 @@
+package com.matthewcasperson.validation.regex;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+
+/**
+ * Recognises the simple patterns that make up most chain definitions, like ".*", "^/app/" or
+ * "^name$", so they can be matched with String methods instead of a regex. The kinds are bytes so
+ * they can be kept in a flat array alongside the chains.
+ *
+ * A pattern is only given a simple kind if matching its literal gives exactly the same result as
+ * find() on the compiled pattern. Anything else is REGEX.
+ */
+public final class PatternKind {
+
+	/**
+	 * The pattern has to be matched with the regex
+	 */
+	public static final byte REGEX = 0;
+
+	/**
+	 * The pattern matches every input, e.g. "" or ".*"
+	 */
+	public static final byte ANY = 1;
+
+	/**
+	 * The pattern matches any input containing the literal
+	 */
+	public static final byte CONTAINS = 2;
+
+	/**
+	 * The pattern matches any input starting with the literal, e.g. "^/app/"
+	 */
+	public static final byte PREFIX = 3;
+
+	/**
+	 * The pattern matches any input ending with the literal, e.g. "\.jsp$"
+	 */
+	public static final byte SUFFIX = 4;
+
+	/**
+	 * The pattern matches the literal alone, e.g. "^name$"
+	 */
+	public static final byte EXACT = 5;
+
+	private PatternKind() {
+
+	}
+
+	/**
+	 * @param pattern The source of a regex compiled without flags
+	 * @return The kind of the pattern
+	 */
+	public static byte classify(final String pattern) {
+		checkNotNull(pattern);
+
+		if (pattern.isEmpty() || ".*".equals(pattern) || "^.*".equals(pattern)) {
+			return ANY;
+		}
+
+		final String literal = literal(pattern);
+		if (literal == null || literal.isEmpty()) {
+			return REGEX;
+		}
+
+		final boolean anchoredStart = pattern.startsWith("^");
+		final boolean anchoredEnd = isAnchoredEnd(pattern);
+		if (anchoredStart) {
+			return anchoredEnd ? EXACT : PREFIX;
+		}
+
+		return anchoredEnd ? SUFFIX : CONTAINS;
+	}
+
+	/**
+	 * @param pattern The source of a regex
+	 * @return The text the pattern matches, without any anchors, or null if the pattern is not
+	 * a plain literal
+	 */
+	public static String literal(final String pattern) {
+		checkNotNull(pattern);
+
+		final boolean anchoredStart = pattern.startsWith("^");
+		final boolean anchoredEnd = isAnchoredEnd(pattern);
+		return unescape(pattern.substring(anchoredStart ? 1 : 0, pattern.length() - (anchoredEnd ? 1 : 0)));
+	}
+
+	/**
+	 * @param kind The kind of the pattern, which must not be REGEX
+	 * @param literal The literal of the pattern
+	 * @param input The text to match
+	 * @return The same result as find() on the pattern
+	 */
+	public static boolean matches(final byte kind, final String literal, final String input) {
+		switch (kind) {
+			case ANY:
+				return true;
+			case CONTAINS:
+				return input.contains(literal);
+			case PREFIX:
+				return input.startsWith(literal);
+			case SUFFIX: {
+				// $ also matches before a line terminator at the very end of the input
+				if (input.endsWith(literal)) {
+					return true;
+				}
+				final int terminator = finalTerminator(input);
+				return terminator >= literal.length() && input.regionMatches(terminator - literal.length(), literal, 0, literal.length());
+			}
+			case EXACT:
+				return input.equals(literal) || (finalTerminator(input) == literal.length() && input.startsWith(literal));
+			default:
+				throw new IllegalArgumentException("PVF-BUG-0005: Pattern kind " + kind + " can not be matched without a regex");
+		}
+	}
+
+	/**
+	 * @return The index of the line terminator that ends the input, or -1 if there is none
+	 */
+	private static int finalTerminator(final String input) {
+		final int length = input.length();
+		if (length == 0) {
+			return -1;
+		}
+
+		if (length >= 2 && input.charAt(length - 2) == '\r' && input.charAt(length - 1) == '\n') {
+			return length - 2;
+		}
+
+		return isLineTerminator(input.charAt(length - 1)) ? length - 1 : -1;
+	}
+
+	private static boolean isLineTerminator(final char c) {
+		return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+	}
+
+	/**
+	 * @return true if the pattern ends with a $ that has not been quoted with a backslash
+	 */
+	private static boolean isAnchoredEnd(final String pattern) {
+		if (!pattern.endsWith("$")) {
+			return false;
+		}
+
+		int backslashes = 0;
+		for (int index = pattern.length() - 2; index >= 0 && pattern.charAt(index) == '\\'; --index) {
+			++backslashes;
+		}
+		return backslashes % 2 == 0;
+	}
+
+	/**
+	 * @return The text matched by the regex, or null if it is not a plain literal. Line
+	 * terminators and surrogates are left to the regex, as they change where $ matches and
+	 * what counts as a character.
+	 */
+	private static String unescape(final String regex) {
+		final StringBuilder literal = new StringBuilder(regex.length());
+
+		for (int index = 0; index < regex.length(); ++index) {
+			char c = regex.charAt(index);
+
+			if (c == '\\') {
+				if (++index == regex.length()) {
+					return null;
+				}
+				c = regex.charAt(index);
+
+				// A backslash before a letter or digit is a character class or a back reference,
+				// but before anything else in ASCII it just quotes the character
+				if (c >= 0x80 || Character.isLetterOrDigit(c)) {
+					return null;
+				}
+			} else if ("\\^$.|?*+()[]{}".indexOf(c) >= 0) {
+				return null;
+			}
+
+			if (isLineTerminator(c) || Character.isSurrogate(c)) {
+				return null;
+			}
+
+			literal.append(c);
+		}
+
+		return literal.toString();
+	}
+}
@@ -0,0 +1,173 @@
+package com.matthewcasperson.validation.regex;
+
+
+/**
+ * Simulates an NfaProgram over the input in a single pass, keeping the threads in priority order
+ * so that the match it reports is the same leftmost-first match that java.util.regex would find.
+ * A PikeVm holds the scratch space for one search at a time, so it must not be shared between
+ * threads.
+ */
+final class PikeVm {
+
+	/**
+	 * Returned when the input contains supplementary characters, which the linear engine does not
+	 * handle
+	 */
+	static final long UNSUPPORTED_INPUT = -2;
+
+	static final long NO_MATCH = -1;
+
+	private final NfaProgram program;
+	private ThreadList current;
+	private ThreadList next;
+	private final int[] stack;
+
+	PikeVm(final NfaProgram program) {
+		this.program = program;
+		this.current = new ThreadList(program.size());
+		this.next = new ThreadList(program.size());
+		this.stack = new int[program.size() * 2 + 1];
+	}
+
+	/**
+	 * @param input The text to search
+	 * @param stopAtFirstMatch true if the caller only needs to know whether there is a match,
+	 *                         rather than which text was matched
+	 * @return The start of the match in the high 32 bits and the end in the low 32 bits,
+	 * NO_MATCH, or UNSUPPORTED_INPUT
+	 */
+	long search(final CharSequence input, final boolean stopAtFirstMatch) {
+		final int length = input.length();
+		int matchStart = -1;
+		int matchEnd = -1;
+
+		current.clear();
+		addThread(current, 0, 0, input, 0);
+
+		for (int position = 0; ; ++position) {
+			final boolean atEnd = position == length;
+			final char c = atEnd ? 0 : input.charAt(position);
+
+			if (!atEnd && Character.isSurrogate(c)) {
+				return UNSUPPORTED_INPUT;
+			}
+
+			next.clear();
+
+			for (int index = 0; index < current.size; ++index) {
+				final int pc = current.pcs[index];
+
+				if (program.ops[pc] == NfaProgram.MATCH) {
+					matchStart = current.starts[index];
+					matchEnd = position;
+					if (stopAtFirstMatch) {
+						return ((long)matchStart << 32) | matchEnd;
+					}
+					// Lower priority threads can not produce a preferred match
+					break;
+				}
+
+				if (!atEnd && program.chars[pc].contains(c)) {
+					addThread(next, pc + 1, current.starts[index], input, position + 1);
+				}
+			}
+
+			if (atEnd) {
+				break;
+			}
+
+			if (matchStart < 0 && !program.anchored) {
+				addThread(next, 0, position + 1, input, position + 1);
+			}
+
+			final ThreadList swap = current;
+			current = next;
+			next = swap;
+
+			// Without a match in progress, an unanchored search has to keep starting new threads
+			if (current.size == 0 && (matchStart >= 0 || program.anchored)) {
+				break;
+			}
+		}
+
+		return matchStart < 0 ? NO_MATCH : ((long)matchStart << 32) | matchEnd;
+	}
+
+	/**
+	 * Adds the threads reachable from pc without consuming any input, in priority order
+	 */
+	private void addThread(final ThreadList list, final int pc, final int start, final CharSequence input, final int position) {
+		int top = 0;
+		stack[top++] = pc;
+
+		while (top > 0) {
+			final int instruction = stack[--top];
+
+			if (!list.mark(instruction)) {
+				continue;
+			}
+
+			switch (program.ops[instruction]) {
+				case NfaProgram.JUMP:
+					stack[top++] = program.x[instruction];
+					break;
+				case NfaProgram.SPLIT:
+					stack[top++] = program.y[instruction];
+					stack[top++] = program.x[instruction];
+					break;
+				case NfaProgram.ASSERT:
+					if (NfaProgram.assertionHolds(program.x[instruction], input, position)) {
+						stack[top++] = instruction + 1;
+					}
+					break;
+				default:
+					list.add(instruction, start);
+					break;
+			}
+		}
+	}
+
+	/**
+	 * An ordered set of threads, using the sparse set trick so that clearing is constant time
+	 */
+	private static final class ThreadList {
+		final int[] pcs;
+		final int[] starts;
+		int size;
+
+		private final int[] sparse;
+		private final int[] visited;
+		private int visitedSize;
+
+		ThreadList(final int capacity) {
+			this.pcs = new int[capacity];
+			this.starts = new int[capacity];
+			this.sparse = new int[capacity];
+			this.visited = new int[capacity];
+		}
+
+		void clear() {
+			size = 0;
+			visitedSize = 0;
+		}
+
+		/**
+		 * @return true if the instruction had not been visited before
+		 */
+		boolean mark(final int pc) {
+			final int index = sparse[pc];
+			if (index < visitedSize && visited[index] == pc) {
+				return false;
+			}
+			sparse[pc] = visitedSize;
+			visited[visitedSize++] = pc;
+			return true;
+		}
+
+		void add(final int pc, final int start) {
+			pcs[size] = pc;
+			starts[size] = start;
+			++size;
+		}
+	}
+}
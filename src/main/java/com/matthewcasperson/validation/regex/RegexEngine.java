@@ -0,0 +1,101 @@
+package com.matthewcasperson.validation.regex;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+
+/**
+ * The regex engines that can be used to evaluate the patterns defined in the configuration.
+ * The engine can be selected per rule with the regexEngine setting, per chain with the
+ * regexEngine element, or for the whole database with the RegexEngine element.
+ */
+@Slf4j
+public enum RegexEngine {
+
+	/**
+	 * The backtracking java.util.regex engine. This supports every construct, but matching time
+	 * can grow exponentially with the input for some patterns.
+	 */
+	JAVA,
+
+	/**
+	 * The built in Thompson NFA / lazy DFA engine. Matching time is linear in the length of the
+	 * input. Patterns that use constructs the engine does not support (back references,
+	 * lookaround, inline flags, possessive quantifiers etc.) are evaluated by java.util.regex.
+	 */
+	LINEAR;
+
+	/**
+	 * The name of the rule setting that selects the engine
+	 */
+	public static final String SETTING_NAME = "regexEngine";
+
+	/**
+	 * The engine used when nothing else has been configured
+	 */
+	public static final RegexEngine DEFAULT = JAVA;
+
+	/**
+	 * @param value The name of the engine, as it appears in the configuration
+	 * @return The matching engine, or null if value is null or empty
+	 * @throws IllegalArgumentException if value does not name an engine
+	 */
+	public static RegexEngine fromSetting(final String value) {
+		if (value == null || value.trim().isEmpty()) {
+			return null;
+		}
+
+		try {
+			return valueOf(value.trim().toUpperCase(Locale.ROOT));
+		} catch (final IllegalArgumentException ex) {
+			throw new IllegalArgumentException("PVF-CONFIGURATION-0002: Unknown regex engine " + value + ". Valid values are java and linear.");
+		}
+	}
+
+	/**
+	 * @param settings The rule settings
+	 * @return The engine selected by the regexEngine setting, or the default engine
+	 */
+	public static RegexEngine fromSettings(final Map<String, String> settings) {
+		final RegexEngine engine = settings == null ? null : fromSetting(settings.get(SETTING_NAME));
+		return engine == null ? DEFAULT : engine;
+	}
+
+	/**
+	 * Compiles a pattern with this engine. The pattern is always validated by java.util.regex
+	 * first, so invalid patterns fail in the same way regardless of the engine.
+	 *
+	 * @param regex The regex to compile
+	 * @return The compiled regex
+	 * @throws java.util.regex.PatternSyntaxException if the regex is invalid
+	 */
+	public CompiledRegex compile(final String regex) {
+		checkNotNull(regex);
+
+		final Pattern pattern = Pattern.compile(regex);
+
+		if (this == LINEAR) {
+			try {
+				return new LinearCompiledRegex(pattern, NfaProgram.compile(new RegexParser(regex).parse()));
+			} catch (final UnsupportedRegexException ex) {
+				log.debug("Regex " + regex + " can not be evaluated by the linear engine (" + ex.getMessage() + "). Falling back to java.util.regex.");
+			}
+		}
+
+		return new JavaCompiledRegex(pattern, this);
+	}
+
+	/**
+	 * @param pattern An existing java.util.regex pattern
+	 * @return The pattern wrapped up as a compiled regex evaluated by java.util.regex
+	 */
+	public static CompiledRegex wrap(final Pattern pattern) {
+		checkNotNull(pattern);
+		return new JavaCompiledRegex(pattern, JAVA);
+	}
+}
@@ -0,0 +1,77 @@
+package com.matthewcasperson.validation.regex;
+
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * A node in the syntax tree produced by the RegexParser
+ */
+final class RegexNode {
+
+	enum Kind {
+		/** Matches the empty string */
+		EMPTY,
+		/** Matches a single char from a set */
+		CHARS,
+		/** Matches each child in turn */
+		CONCAT,
+		/** Matches any one of the children, preferring the earlier ones */
+		ALTERNATE,
+		/** Matches the single child between min and max times */
+		REPEAT,
+		/** Matches the empty string at positions that satisfy an assertion */
+		ASSERT
+	}
+
+	/** ^ and \A */
+	static final int ASSERT_BEGIN = 1;
+	/** $ and \Z, which also match before a line terminator at the end of the input */
+	static final int ASSERT_DOLLAR = 2;
+	/** \z */
+	static final int ASSERT_END = 4;
+
+	static final int UNBOUNDED = -1;
+
+	final Kind kind;
+	final CharRanges chars;
+	final List<RegexNode> children;
+	final int min;
+	final int max;
+	final boolean greedy;
+	final int assertion;
+
+	private RegexNode(final Kind kind, final CharRanges chars, final List<RegexNode> children, final int min, final int max, final boolean greedy, final int assertion) {
+		this.kind = kind;
+		this.chars = chars;
+		this.children = children;
+		this.min = min;
+		this.max = max;
+		this.greedy = greedy;
+		this.assertion = assertion;
+	}
+
+	static RegexNode empty() {
+		return new RegexNode(Kind.EMPTY, null, Collections.<RegexNode>emptyList(), 0, 0, true, 0);
+	}
+
+	static RegexNode chars(final CharRanges chars) {
+		return new RegexNode(Kind.CHARS, chars, Collections.<RegexNode>emptyList(), 0, 0, true, 0);
+	}
+
+	static RegexNode concat(final List<RegexNode> children) {
+		return children.size() == 1 ? children.get(0) : new RegexNode(Kind.CONCAT, null, children, 0, 0, true, 0);
+	}
+
+	static RegexNode alternate(final List<RegexNode> children) {
+		return children.size() == 1 ? children.get(0) : new RegexNode(Kind.ALTERNATE, null, children, 0, 0, true, 0);
+	}
+
+	static RegexNode repeat(final RegexNode child, final int min, final int max, final boolean greedy) {
+		return new RegexNode(Kind.REPEAT, null, Collections.singletonList(child), min, max, greedy, 0);
+	}
+
+	static RegexNode assertion(final int assertion) {
+		return new RegexNode(Kind.ASSERT, null, Collections.<RegexNode>emptyList(), 0, 0, true, assertion);
+	}
+}
@@ -0,0 +1,437 @@
+package com.matthewcasperson.validation.regex;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Parses the subset of the java.util.regex syntax that can be evaluated in linear time. The
+ * pattern is expected to have already been accepted by Pattern.compile(), so anything that
+ * does not look like the supported subset is reported as unsupported rather than invalid.
+ */
+final class RegexParser {
+
+	/**
+	 * Counted repetitions are expanded when the program is built, so put a cap on them
+	 */
+	private static final int MAX_REPEAT = 1000;
+
+	private final String regex;
+	private int position;
+
+	RegexParser(final String regex) {
+		this.regex = regex;
+	}
+
+	RegexNode parse() throws UnsupportedRegexException {
+		for (int index = 0; index < regex.length(); ++index) {
+			if (Character.isSurrogate(regex.charAt(index))) {
+				throw new UnsupportedRegexException("supplementary characters");
+			}
+		}
+
+		final RegexNode node = parseAlternation();
+		if (position != regex.length()) {
+			throw new UnsupportedRegexException("unexpected " + regex.charAt(position) + " at index " + position);
+		}
+		return node;
+	}
+
+	private boolean more() {
+		return position < regex.length();
+	}
+
+	private char peek() {
+		return regex.charAt(position);
+	}
+
+	private boolean lookingAt(final String text) {
+		return regex.startsWith(text, position);
+	}
+
+	private RegexNode parseAlternation() throws UnsupportedRegexException {
+		final List<RegexNode> branches = new ArrayList<RegexNode>();
+		branches.add(parseConcatenation());
+
+		while (more() && peek() == '|') {
+			++position;
+			branches.add(parseConcatenation());
+		}
+
+		return RegexNode.alternate(branches);
+	}
+
+	private RegexNode parseConcatenation() throws UnsupportedRegexException {
+		final List<RegexNode> items = new ArrayList<RegexNode>();
+
+		while (more() && peek() != '|' && peek() != ')') {
+			if (lookingAt("\\Q")) {
+				position += 2;
+				final int end = regex.indexOf("\\E", position);
+				final String quoted = regex.substring(position, end < 0 ? regex.length() : end);
+				position = end < 0 ? regex.length() : end + 2;
+
+				for (int index = 0; index < quoted.length(); ++index) {
+					items.add(RegexNode.chars(CharRanges.of(quoted.charAt(index))));
+				}
+
+				// A quantifier after \E applies to the last quoted char
+				if (!quoted.isEmpty()) {
+					items.add(parseQuantifiers(items.remove(items.size() - 1)));
+				}
+				continue;
+			}
+
+			items.add(parseQuantifiers(parseAtom()));
+		}
+
+		return items.isEmpty() ? RegexNode.empty() : RegexNode.concat(items);
+	}
+
+	private RegexNode parseQuantifiers(final RegexNode atom) throws UnsupportedRegexException {
+		if (!more()) {
+			return atom;
+		}
+
+		final int min;
+		final int max;
+		final char c = peek();
+
+		if (c == '*') {
+			min = 0;
+			max = RegexNode.UNBOUNDED;
+			++position;
+		} else if (c == '+') {
+			min = 1;
+			max = RegexNode.UNBOUNDED;
+			++position;
+		} else if (c == '?') {
+			min = 0;
+			max = 1;
+			++position;
+		} else if (c == '{') {
+			final int close = regex.indexOf('}', position);
+			if (close < 0) {
+				throw new UnsupportedRegexException("unterminated repetition");
+			}
+			final String body = regex.substring(position + 1, close);
+			final int comma = body.indexOf(',');
+
+			try {
+				if (comma < 0) {
+					min = Integer.parseInt(body);
+					max = min;
+				} else {
+					min = Integer.parseInt(body.substring(0, comma));
+					max = comma == body.length() - 1 ? RegexNode.UNBOUNDED : Integer.parseInt(body.substring(comma + 1));
+				}
+			} catch (final NumberFormatException ex) {
+				throw new UnsupportedRegexException("repetition " + body);
+			}
+
+			if (min > MAX_REPEAT || max > MAX_REPEAT) {
+				throw new UnsupportedRegexException("repetition count above " + MAX_REPEAT);
+			}
+			position = close + 1;
+		} else {
+			return atom;
+		}
+
+		if (atom.kind == RegexNode.Kind.ASSERT) {
+			throw new UnsupportedRegexException("quantified assertion");
+		}
+
+		boolean greedy = true;
+		if (more() && peek() == '?') {
+			greedy = false;
+			++position;
+		} else if (more() && peek() == '+') {
+			throw new UnsupportedRegexException("possessive quantifier");
+		}
+
+		if (more() && (peek() == '*' || peek() == '+' || peek() == '?' || peek() == '{')) {
+			throw new UnsupportedRegexException("stacked quantifiers");
+		}
+
+		return RegexNode.repeat(atom, min, max, greedy);
+	}
+
+	private RegexNode parseAtom() throws UnsupportedRegexException {
+		final char c = regex.charAt(position++);
+
+		switch (c) {
+			case '(':
+				return parseGroup();
+			case '[':
+				return RegexNode.chars(parseClass());
+			case '.':
+				return RegexNode.chars(CharRanges.DOT);
+			case '^':
+				return RegexNode.assertion(RegexNode.ASSERT_BEGIN);
+			case '$':
+				return RegexNode.assertion(RegexNode.ASSERT_DOLLAR);
+			case '\\':
+				return parseEscape();
+			case '*':
+			case '+':
+			case '?':
+			case '{':
+				throw new UnsupportedRegexException("dangling quantifier");
+			default:
+				return RegexNode.chars(CharRanges.of(c));
+		}
+	}
+
+	private RegexNode parseGroup() throws UnsupportedRegexException {
+		if (lookingAt("?:")) {
+			position += 2;
+		} else if (lookingAt("?<") && position + 2 < regex.length() && Character.isLetter(regex.charAt(position + 2))) {
+			// A named group behaves like any other group when there are no back references
+			final int close = regex.indexOf('>', position);
+			if (close < 0) {
+				throw new UnsupportedRegexException("unterminated group name");
+			}
+			position = close + 1;
+		} else if (lookingAt("?")) {
+			throw new UnsupportedRegexException("special group");
+		}
+
+		final RegexNode node = parseAlternation();
+		if (!more() || peek() != ')') {
+			throw new UnsupportedRegexException("unterminated group");
+		}
+		++position;
+		return node;
+	}
+
+	private RegexNode parseEscape() throws UnsupportedRegexException {
+		if (!more()) {
+			throw new UnsupportedRegexException("trailing backslash");
+		}
+
+		final char c = peek();
+
+		switch (c) {
+			case 'A':
+				++position;
+				return RegexNode.assertion(RegexNode.ASSERT_BEGIN);
+			case 'Z':
+				++position;
+				return RegexNode.assertion(RegexNode.ASSERT_DOLLAR);
+			case 'z':
+				++position;
+				return RegexNode.assertion(RegexNode.ASSERT_END);
+			default:
+				return RegexNode.chars(parseEscapedChars());
+		}
+	}
+
+	/**
+	 * Parses an escape that stands for a char or a predefined class. The backslash has already
+	 * been consumed.
+	 */
+	private CharRanges parseEscapedChars() throws UnsupportedRegexException {
+		final char c = regex.charAt(position++);
+
+		switch (c) {
+			case 'd':
+				return CharRanges.DIGIT;
+			case 'D':
+				return CharRanges.DIGIT.complement();
+			case 'w':
+				return CharRanges.WORD;
+			case 'W':
+				return CharRanges.WORD.complement();
+			case 's':
+				return CharRanges.SPACE;
+			case 'S':
+				return CharRanges.SPACE.complement();
+			default:
+				return CharRanges.of(parseEscapedChar(c));
+		}
+	}
+
+	/**
+	 * @param c The char after the backslash, which has already been consumed
+	 * @return The char that the escape stands for
+	 */
+	private int parseEscapedChar(final char c) throws UnsupportedRegexException {
+		switch (c) {
+			case 't':
+				return '\t';
+			case 'n':
+				return '\n';
+			case 'r':
+				return '\r';
+			case 'f':
+				return '\f';
+			case 'a':
+				return 0x07;
+			case 'e':
+				return 0x1B;
+			case '0':
+				return parseOctal();
+			case 'x':
+				return parseHex();
+			case 'u':
+				return checkChar(parseHexDigits(4));
+			case 'c':
+				if (!more()) {
+					throw new UnsupportedRegexException("incomplete control escape");
+				}
+				return regex.charAt(position++) ^ 64;
+			default:
+				if (Character.isLetterOrDigit(c)) {
+					throw new UnsupportedRegexException("escape \\" + c);
+				}
+				return c;
+		}
+	}
+
+	private int parseOctal() throws UnsupportedRegexException {
+		int value = 0;
+		int digits = 0;
+		final int maxDigits = more() && peek() >= '0' && peek() <= '3' ? 3 : 2;
+
+		while (digits < maxDigits && more() && peek() >= '0' && peek() <= '7') {
+			value = value * 8 + (regex.charAt(position++) - '0');
+			++digits;
+		}
+
+		if (digits == 0) {
+			throw new UnsupportedRegexException("octal escape");
+		}
+		return value;
+	}
+
+	private int parseHex() throws UnsupportedRegexException {
+		if (more() && peek() == '{') {
+			final int close = regex.indexOf('}', position);
+			if (close < 0 || close - position > 7) {
+				throw new UnsupportedRegexException("hex escape");
+			}
+			++position;
+			final int value = checkChar(parseHexDigits(close - position));
+			++position;
+			return value;
+		}
+		return parseHexDigits(2);
+	}
+
+	private int parseHexDigits(final int count) throws UnsupportedRegexException {
+		if (count == 0 || position + count > regex.length()) {
+			throw new UnsupportedRegexException("hex escape");
+		}
+
+		int value = 0;
+		for (int index = 0; index < count; ++index) {
+			final int digit = Character.digit(regex.charAt(position++), 16);
+			if (digit < 0) {
+				throw new UnsupportedRegexException("hex escape");
+			}
+			value = value * 16 + digit;
+		}
+		return value;
+	}
+
+	private static int checkChar(final int value) throws UnsupportedRegexException {
+		if (value > CharRanges.MAX_CHAR || Character.isSurrogate((char)value)) {
+			throw new UnsupportedRegexException("supplementary characters");
+		}
+		return value;
+	}
+
+	/**
+	 * Parses a character class. The opening bracket has already been consumed. Ambiguous forms
+	 * that java.util.regex accepts with surprising meanings (intersections, nested classes, a
+	 * leading close bracket, dashes after ranges) are left to java.util.regex.
+	 */
+	private CharRanges parseClass() throws UnsupportedRegexException {
+		boolean negated = false;
+		if (more() && peek() == '^') {
+			negated = true;
+			++position;
+		}
+
+		CharRanges result = CharRanges.empty();
+		boolean first = true;
+
+		while (true) {
+			if (!more()) {
+				throw new UnsupportedRegexException("unterminated class");
+			}
+
+			final char c = peek();
+
+			if (c == ']') {
+				if (first) {
+					throw new UnsupportedRegexException("leading ] in class");
+				}
+				++position;
+				break;
+			}
+
+			if (c == '[' || lookingAt("&&")) {
+				throw new UnsupportedRegexException("nested class");
+			}
+
+			if (c == '-' && !first && !lookingAt("-]")) {
+				throw new UnsupportedRegexException("ambiguous - in class");
+			}
+
+			++position;
+			first = false;
+
+			final int from;
+			if (c == '\\') {
+				if (!more()) {
+					throw new UnsupportedRegexException("trailing backslash");
+				}
+				final char escaped = peek();
+				if ("dDwWsS".indexOf(escaped) >= 0) {
+					result = result.union(parseEscapedChars());
+					if (more() && peek() == '-' && !lookingAt("-]")) {
+						throw new UnsupportedRegexException("range from a class");
+					}
+					continue;
+				}
+				if (escaped == 'Q' || escaped == 'p' || escaped == 'P') {
+					throw new UnsupportedRegexException("escape \\" + escaped + " in class");
+				}
+				++position;
+				from = parseEscapedChar(escaped);
+			} else {
+				from = c;
+			}
+
+			if (lookingAt("-") && !lookingAt("-]")) {
+				++position;
+				final int to;
+				final char end = regex.charAt(position++);
+				if (end == '\\') {
+					if (!more() || Character.isLetter(peek()) && "tnrfaexuc0".indexOf(peek()) < 0) {
+						throw new UnsupportedRegexException("range to a class");
+					}
+					to = parseEscapedChar(regex.charAt(position++));
+				} else if (end == '[') {
+					throw new UnsupportedRegexException("nested class");
+				} else {
+					to = end;
+				}
+
+				if (to < from) {
+					throw new UnsupportedRegexException("reversed range");
+				}
+				result = result.union(CharRanges.range(from, to));
+
+				if (more() && peek() == '-' && !lookingAt("-]")) {
+					throw new UnsupportedRegexException("ambiguous - in class");
+				}
+			} else {
+				result = result.union(CharRanges.of(from));
+			}
+		}
+
+		return negated ? result.complement() : result;
+	}
+}
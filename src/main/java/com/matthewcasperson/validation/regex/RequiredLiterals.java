@@ -0,0 +1,201 @@
+package com.matthewcasperson.validation.regex;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+
+/**
+ * A set of literals, one of which has to appear in any text that a regex matches. Checking for the
+ * literals with indexOf is much cheaper than running the regex, and most parameter values do not
+ * contain them, so rules use this as a prefilter.
+ *
+ * Instances are immutable and can be shared between threads.
+ */
+public final class RequiredLiterals {
+
+	/**
+	 * Used for regexes that have no required literals, or that can not be analysed. Every input
+	 * may match.
+	 */
+	public static final RequiredLiterals NONE = new RequiredLiterals(Collections.<String>emptyList());
+
+	/**
+	 * Alternations with more branches than this are not worth prefiltering
+	 */
+	private static final int MAX_LITERALS = 16;
+
+	private final List<String> literals;
+	private final String single;
+
+	/**
+	 * A bitmap of the first chars of the literals, used when there is more than one
+	 */
+	private final long[] firstChars;
+
+	private RequiredLiterals(final List<String> literals) {
+		this.literals = Collections.unmodifiableList(literals);
+		this.single = literals.size() == 1 ? literals.get(0) : null;
+
+		if (literals.size() > 1) {
+			firstChars = new long[(CharRanges.MAX_CHAR + 1) / 64];
+			for (final String literal : literals) {
+				final char c = literal.charAt(0);
+				firstChars[c >>> 6] |= 1L << c;
+			}
+		} else {
+			firstChars = null;
+		}
+	}
+
+	/**
+	 * @param pattern The regex to analyse
+	 * @return The literals required by the regex, or NONE
+	 */
+	public static RequiredLiterals of(final Pattern pattern) {
+		checkNotNull(pattern);
+
+		// Flags such as CASE_INSENSITIVE change what the literals match
+		if (pattern.flags() != 0) {
+			return NONE;
+		}
+
+		try {
+			final List<String> literals = extract(new RegexParser(pattern.pattern()).parse());
+			return literals == null ? NONE : new RequiredLiterals(literals);
+		} catch (final UnsupportedRegexException ex) {
+			return NONE;
+		}
+	}
+
+	/**
+	 * @return The literals, one of which has to appear in any match
+	 */
+	public List<String> getLiterals() {
+		return literals;
+	}
+
+	/**
+	 * @return true if there are no required literals, so every input may match
+	 */
+	public boolean isEmpty() {
+		return literals.isEmpty();
+	}
+
+	/**
+	 * @param input The text that is about to be matched against the regex
+	 * @return false if the regex can not match the input, and true if it may
+	 */
+	public boolean mayMatch(final String input) {
+		if (single != null) {
+			return input.indexOf(single) >= 0;
+		}
+
+		if (firstChars == null) {
+			return true;
+		}
+
+		for (int index = 0, length = input.length(); index < length; ++index) {
+			final char c = input.charAt(index);
+			if ((firstChars[c >>> 6] & (1L << c)) != 0) {
+				for (final String literal : literals) {
+					if (input.startsWith(literal, index)) {
+						return true;
+					}
+				}
+			}
+		}
+
+		return false;
+	}
+
+	@Override
+	public String toString() {
+		return literals.toString();
+	}
+
+	/**
+	 * @return The literals required by the node, or null if there are none
+	 */
+	private static List<String> extract(final RegexNode node) {
+		switch (node.kind) {
+			case CHARS:
+				final int c = node.chars.singleChar();
+				return c < 0 ? null : Collections.singletonList(String.valueOf((char)c));
+			case CONCAT:
+				return extractFromConcatenation(node);
+			case ALTERNATE:
+				final Set<String> union = new LinkedHashSet<String>();
+				for (final RegexNode child : node.children) {
+					final List<String> childLiterals = extract(child);
+					if (childLiterals == null) {
+						return null;
+					}
+					union.addAll(childLiterals);
+				}
+				return union.size() > MAX_LITERALS ? null : new ArrayList<String>(union);
+			case REPEAT:
+				return node.min > 0 ? extract(node.children.get(0)) : null;
+			default:
+				return null;
+		}
+	}
+
+	/**
+	 * Runs of single chars are joined into one literal. The most selective of those runs and of
+	 * the literals required by the other children is used.
+	 */
+	private static List<String> extractFromConcatenation(final RegexNode node) {
+		List<String> best = null;
+		final StringBuilder run = new StringBuilder();
+
+		for (final RegexNode child : node.children) {
+			final int c = child.kind == RegexNode.Kind.CHARS ? child.chars.singleChar() : -1;
+			if (c >= 0) {
+				run.append((char)c);
+				continue;
+			}
+
+			if (run.length() != 0) {
+				best = mostSelective(best, Collections.singletonList(run.toString()));
+				run.setLength(0);
+			}
+			best = mostSelective(best, extract(child));
+		}
+
+		if (run.length() != 0) {
+			best = mostSelective(best, Collections.singletonList(run.toString()));
+		}
+
+		return best;
+	}
+
+	private static List<String> mostSelective(final List<String> first, final List<String> second) {
+		if (first == null) {
+			return second;
+		}
+		if (second == null) {
+			return first;
+		}
+
+		final int firstLength = shortest(first);
+		final int secondLength = shortest(second);
+		if (firstLength != secondLength) {
+			return firstLength > secondLength ? first : second;
+		}
+		return first.size() <= second.size() ? first : second;
+	}
+
+	private static int shortest(final List<String> literals) {
+		int shortest = Integer.MAX_VALUE;
+		for (final String literal : literals) {
+			shortest = Math.min(shortest, literal.length());
+		}
+		return shortest;
+	}
+}
@@ -0,0 +1,18 @@
+package com.matthewcasperson.validation.regex;
+
+
+/**
+ * Thrown when a regex uses a construct that the linear engine can not evaluate. This is not an
+ * error, it just means that java.util.regex will be used instead.
+ */
+class UnsupportedRegexException extends Exception {
+
+	/**
+	 * Generated serial number
+	 */
+	private static final long serialVersionUID = 4725409216153720614L;
+
+	UnsupportedRegexException(final String message) {
+		super(message);
+	}
+}
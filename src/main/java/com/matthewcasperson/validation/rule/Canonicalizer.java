@@ -0,0 +1,450 @@
+package com.matthewcasperson.validation.rule;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.text.translate.EntityArrays;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+
+/**
+ * Decodes the HTML entity, percent and JavaScript encodings of a value, giving the same result as
+ * ESAPI's DefaultEncoder.canonicalize(value, false) with the codecs listed in
+ * Encoder.DefaultCodecList by the ESAPI.properties file shipped with the filter. Like ESAPI, the
+ * codecs are run in turn until none of them changes the value, and a value that had to be decoded
+ * more than once, or with more than one codec, is logged as a multiple or mixed encoding.
+ *
+ * ESAPI decodes a value by feeding it one boxed character at a time through a pushback sequence for
+ * each codec, and loads its configuration the first time it is used. This works over char arrays
+ * instead, skipping straight to the characters that can start an encoding, and decoding named
+ * entities from a table indexed by the first letter of the name. A value with nothing to decode is
+ * returned as it is without being copied.
+ *
+ * The quirks of the ESAPI codecs are kept, e.g. &amp;apos; is not an entity, an unknown JavaScript
+ * escape keeps its backslash, and a named entity without a trailing semicolon is still decoded.
+ */
+@Slf4j
+public final class Canonicalizer {
+
+	private static final int HTML_ENTITY = 0;
+	private static final int PERCENT = 1;
+	private static final int JAVASCRIPT = 2;
+	private static final int CODEC_COUNT = 3;
+
+	private static final int NO_CODEC = -1;
+
+	/**
+	 * The number of code points after the ampersand ESAPI looks at when matching a named entity
+	 */
+	private static final int MAX_ENTITY_LENGTH = 8;
+
+	private static final String HTML_HEX_DIGITS = "0123456789ABCDEFabcdef";
+
+	/**
+	 * The names of the entities starting with each ASCII letter, longest first, and the characters
+	 * they stand for
+	 */
+	private static final char[][][] ENTITY_NAMES = new char[128][][];
+	private static final char[][] ENTITY_VALUES = new char[128][];
+
+	static {
+		// ESAPI knows the same entities as commons-text, less &apos;, which is not an HTML 4 entity
+		final List<Map.Entry<CharSequence, CharSequence>> entities = new ArrayList<>();
+		entities.addAll(EntityArrays.BASIC_ESCAPE.entrySet());
+		entities.addAll(EntityArrays.ISO8859_1_ESCAPE.entrySet());
+		entities.addAll(EntityArrays.HTML40_EXTENDED_ESCAPE.entrySet());
+		entities.sort(Comparator.comparingInt(
+				(Map.Entry<CharSequence, CharSequence> entity) -> entity.getValue().length()).reversed());
+
+		for (final Map.Entry<CharSequence, CharSequence> entity : entities) {
+			final String escaped = entity.getValue().toString();
+			final char[] name = escaped.substring(1, escaped.length() - 1).toCharArray();
+			final char first = name[0];
+
+			final char[][] names = ENTITY_NAMES[first];
+			final char[] values = ENTITY_VALUES[first];
+			final int count = names == null ? 0 : names.length;
+
+			final char[][] newNames = new char[count + 1][];
+			final char[] newValues = new char[count + 1];
+			if (names != null) {
+				System.arraycopy(names, 0, newNames, 0, count);
+				System.arraycopy(values, 0, newValues, 0, count);
+			}
+			newNames[count] = name;
+			newValues[count] = entity.getKey().charAt(0);
+
+			ENTITY_NAMES[first] = newNames;
+			ENTITY_VALUES[first] = newValues;
+		}
+	}
+
+	private Canonicalizer() {
+
+	}
+
+	/**
+	 * Every encoding the codecs know starts with an ampersand, percent sign or backslash, so a
+	 * value without any of them is already canonical. Unlike URL decoding, the percent codec does
+	 * not decode a plus sign. This scan is much cheaper than decoding, and does not allocate.
+	 *
+	 * @param value The value to check
+	 * @param ignoreBackSlash true if backslashes are to be ignored, e.g. because they will be
+	 * removed from the value before it is decoded
+	 * @return false if the value can not be changed by canonicalize()
+	 */
+	public static boolean mayBeEncoded(final String value, final boolean ignoreBackSlash) {
+		checkNotNull(value);
+
+		for (int index = 0, length = value.length(); index < length; ++index) {
+			final char c = value.charAt(index);
+			if (c == '&' || c == '%' || (c == '\\' && !ignoreBackSlash)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @param input The value to decode
+	 * @return The value with every encoding decoded, which is the same string if there was
+	 * nothing to decode
+	 */
+	public static String canonicalize(final String input) {
+		if (!mayBeEncoded(input, false)) {
+			return input;
+		}
+
+		final int length = input.length();
+
+		// Decoding never makes a value longer, so two buffers the size of the input are enough
+		char[] working = input.toCharArray();
+		char[] scratch = new char[length];
+		int workingLength = length;
+
+		int codecFound = NO_CODEC;
+		int mixedCount = 1;
+		int foundCount = 0;
+		boolean clean = false;
+
+		while (!clean) {
+			clean = true;
+
+			for (int codec = 0; codec < CODEC_COUNT; ++codec) {
+				final int decodedLength = decode(codec, working, workingLength, scratch);
+				if (decodedLength < 0) {
+					continue;
+				}
+
+				final char[] swap = working;
+				working = scratch;
+				scratch = swap;
+				workingLength = decodedLength;
+
+				if (codecFound != NO_CODEC && codecFound != codec) {
+					++mixedCount;
+				}
+				codecFound = codec;
+				if (clean) {
+					++foundCount;
+				}
+				clean = false;
+			}
+		}
+
+		if (foundCount >= 2 && mixedCount > 1) {
+			log.warn("Multiple (" + foundCount + "x) and mixed encoding (" + mixedCount + "x) detected in " + input);
+		}
+		else if (foundCount >= 2) {
+			log.warn("Multiple (" + foundCount + "x) encoding detected in " + input);
+		}
+		else if (mixedCount > 1) {
+			log.warn("Mixed encoding (" + mixedCount + "x) detected in " + input);
+		}
+
+		return new String(working, 0, workingLength);
+	}
+
+	/**
+	 * Runs one pass of a codec over the input
+	 *
+	 * @return The length of the decoded output, or -1 if the codec found nothing to decode, in
+	 * which case the output is left as it was
+	 */
+	private static int decode(final int codec, final char[] in, final int length, final char[] out) {
+		final char trigger = codec == HTML_ENTITY ? '&' : codec == PERCENT ? '%' : '\\';
+
+		int start = 0;
+		while (start < length && in[start] != trigger) {
+			++start;
+		}
+		if (start == length) {
+			return -1;
+		}
+
+		System.arraycopy(in, 0, out, 0, start);
+		int outLength = start;
+		boolean decoded = false;
+
+		for (int index = start; index < length; ) {
+			final char c = in[index];
+			if (c != trigger) {
+				out[outLength++] = c;
+				++index;
+				continue;
+			}
+
+			final long result = codec == HTML_ENTITY ? decodeEntity(in, index, length)
+					: codec == PERCENT ? decodePercent(in, index, length)
+					: decodeJavaScript(in, index, length);
+
+			if (result < 0) {
+				out[outLength++] = c;
+				++index;
+			}
+			else {
+				outLength += Character.toChars(decodedCodePoint(result), out, outLength);
+				index = decodedEnd(result);
+				decoded = true;
+			}
+		}
+
+		return decoded ? outLength : -1;
+	}
+
+	/**
+	 * The decoders return the code point they decoded and the index after the encoding packed
+	 * into a long, or -1 if there was no encoding at the index
+	 */
+	private static long decodedAs(final int codePoint, final int end) {
+		return ((long)end << 32) | codePoint;
+	}
+
+	private static int decodedCodePoint(final long result) {
+		return (int)result;
+	}
+
+	private static int decodedEnd(final long result) {
+		return (int)(result >>> 32);
+	}
+
+	/**
+	 * Decodes &amp;#nnn;, &amp;#xhhh; and &amp;name; in the same way as ESAPI's HTMLEntityCodec,
+	 * where the semicolon is optional
+	 */
+	private static long decodeEntity(final char[] in, final int start, final int length) {
+		int index = start + 1;
+		if (index == length) {
+			return -1;
+		}
+
+		if (in[index] == '#') {
+			++index;
+			if (index == length) {
+				return -1;
+			}
+
+			final boolean hex = in[index] == 'x' || in[index] == 'X';
+			if (hex) {
+				++index;
+			}
+
+			long value = 0;
+			int digits = 0;
+			boolean valid = true;
+			while (index < length) {
+				final int codePoint = Character.codePointAt(in, index, length);
+				final int digit;
+				if (hex) {
+					digit = HTML_HEX_DIGITS.indexOf(codePoint) == -1 ? -1 : Character.digit(codePoint, 16);
+				}
+				else if (Character.isDigit(codePoint)) {
+					// ESAPI parses the digits with Integer.parseInt(), which can't read a digit outside the BMP
+					digit = Character.isBmpCodePoint(codePoint) ? Character.digit(codePoint, 10) : 0;
+					valid &= Character.isBmpCodePoint(codePoint);
+				}
+				else {
+					digit = -1;
+				}
+
+				if (digit == -1) {
+					if (codePoint == ';') {
+						++index;
+					}
+					break;
+				}
+
+				++digits;
+				index += Character.charCount(codePoint);
+				if (value <= Character.MAX_CODE_POINT) {
+					value = value * (hex ? 16 : 10) + digit;
+				}
+			}
+
+			return valid && digits != 0 && value <= Character.MAX_CODE_POINT ? decodedAs((int)value, index) : -1;
+		}
+
+		final int first = Character.codePointAt(in, index, length);
+		if (!Character.isLetter(first)) {
+			return -1;
+		}
+
+		int matched = first < ENTITY_NAMES.length ? matchEntity(in, index, length) : -1;
+		if (matched == -1) {
+			matched = matchLowerCaseEntity(in, index, length);
+			if (matched == -1) {
+				return -1;
+			}
+		}
+
+		final int nameLength = ENTITY_NAMES[matched >>> 16][matched & 0xFFFF].length;
+		for (int count = 0; count < nameLength && index < length; ++count) {
+			index += Character.charCount(Character.codePointAt(in, index, length));
+		}
+		if (index < length && in[index] == ';') {
+			++index;
+		}
+
+		return decodedAs(ENTITY_VALUES[matched >>> 16][matched & 0xFFFF], index);
+	}
+
+	/**
+	 * @return The first letter of the longest entity name at the index shifted left by 16, combined
+	 * with its position in the table for that letter, or -1 if no name matches
+	 */
+	private static int matchEntity(final char[] in, final int index, final int length) {
+		final char[][] names = ENTITY_NAMES[in[index]];
+		if (names == null) {
+			return -1;
+		}
+
+		for (int entity = 0; entity < names.length; ++entity) {
+			final char[] name = names[entity];
+			if (name.length <= length - index && regionMatches(in, index, name)) {
+				return (in[index] << 16) | entity;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * ESAPI tries again with the value lower cased if no entity name matches it exactly, e.g. so
+	 * &amp;AMP; is decoded. This is rare, so it is done with strings in the same way as ESAPI.
+	 */
+	private static int matchLowerCaseEntity(final char[] in, final int index, final int length) {
+		final StringBuilder window = new StringBuilder(MAX_ENTITY_LENGTH);
+		for (int count = 0, position = index; count < MAX_ENTITY_LENGTH && position < length; ++count) {
+			final int codePoint = Character.codePointAt(in, position, length);
+			window.appendCodePoint(codePoint);
+			position += Character.charCount(codePoint);
+		}
+
+		final String original = window.toString();
+		final String lowerCase = original.toLowerCase();
+		if (lowerCase.equals(original) || lowerCase.charAt(0) >= ENTITY_NAMES.length) {
+			return -1;
+		}
+
+		final char[] lowerCaseChars = lowerCase.toCharArray();
+		return matchEntity(lowerCaseChars, 0, lowerCaseChars.length);
+	}
+
+	private static boolean regionMatches(final char[] in, final int index, final char[] name) {
+		for (int offset = 0; offset < name.length; ++offset) {
+			if (in[index + offset] != name[offset]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Decodes %hh in the same way as ESAPI's PercentCodec, which decodes each escape to a single
+	 * character rather than as UTF-8
+	 */
+	private static long decodePercent(final char[] in, final int start, final int length) {
+		if (length - start < 3) {
+			return -1;
+		}
+
+		final int high = hexDigit(in[start + 1]);
+		final int low = hexDigit(in[start + 2]);
+		return high == -1 || low == -1 ? -1 : decodedAs(high << 4 | low, start + 3);
+	}
+
+	/**
+	 * Decodes \b, \t, \n, \v, \f, \r, \", \', \\, \xhh, a u followed by four hex digits and up to
+	 * three octal digits after a backslash, in the same way as ESAPI's JavaScriptCodec
+	 */
+	private static long decodeJavaScript(final char[] in, final int start, final int length) {
+		if (length - start < 2) {
+			return -1;
+		}
+
+		final char escaped = in[start + 1];
+		switch (escaped) {
+			case 'b': return decodedAs('\b', start + 2);
+			case 't': return decodedAs('\t', start + 2);
+			case 'n': return decodedAs('\n', start + 2);
+			case 'v': return decodedAs('\u000b', start + 2);
+			case 'f': return decodedAs('\f', start + 2);
+			case 'r': return decodedAs('\r', start + 2);
+			case '"':
+			case '\'':
+			case '\\':
+				return decodedAs(escaped, start + 2);
+			case 'x':
+			case 'X':
+				return decodeJavaScriptHex(in, start + 2, length, 2);
+			case 'u':
+			case 'U':
+				return decodeJavaScriptHex(in, start + 2, length, 4);
+			default:
+				break;
+		}
+
+		if (escaped < '0' || escaped > '7') {
+			return -1;
+		}
+
+		int value = escaped - '0';
+		int index = start + 2;
+		for (int digits = 1; digits < 3 && index < length && in[index] >= '0' && in[index] <= '7'; ++digits, ++index) {
+			value = value * 8 + in[index] - '0';
+		}
+		return decodedAs(value, index);
+	}
+
+	private static long decodeJavaScriptHex(final char[] in, final int start, final int length, final int digits) {
+		if (length - start < digits) {
+			return -1;
+		}
+
+		int value = 0;
+		for (int index = start; index < start + digits; ++index) {
+			final int digit = hexDigit(in[index]);
+			if (digit == -1) {
+				return -1;
+			}
+			value = value << 4 | digit;
+		}
+		return decodedAs(value, start + digits);
+	}
+
+	private static int hexDigit(final char c) {
+		if (c >= '0' && c <= '9') {
+			return c - '0';
+		}
+		if (c >= 'a' && c <= 'f') {
+			return c - 'a' + 10;
+		}
+		if (c >= 'A' && c <= 'F') {
+			return c - 'A' + 10;
+		}
+		return -1;
+	}
+}
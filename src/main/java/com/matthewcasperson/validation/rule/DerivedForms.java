@@ -0,0 +1,192 @@
+package com.matthewcasperson.validation.rule;
+
+import java.text.Normalizer;
+import java.util.Arrays;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+
+/**
+ * The forms of param values that several rules work out, remembered for the rest of the request.
+ * e.g. CanonicalizeTextValidationRule and FailIfNotCanonicalizedValidationRule both need the
+ * canonical form of a value, so when they run on the same value, in the same chain or in
+ * different ones, the form is only worked out once. The HTML escaped form is remembered in the
+ * same way for HTMLEncodeTextValidationRule.
+ *
+ * The forms are held in a fixed size open addressing table in the same way as the memo of the
+ * filter. Starting a request bumps a generation number rather than clearing the table, and a full
+ * probe sequence overwrites the first slot it looked at. Ending a request lets go of the values it
+ * remembered.
+ */
+public final class DerivedForms {
+
+	private static final int CANONICAL = 0;
+	private static final int HTML_ESCAPED = 1;
+	private static final int NFD = 2;
+
+	private static final int CAPACITY = 128;
+	private static final int MASK = CAPACITY - 1;
+	private static final int MAX_PROBES = 4;
+
+	private final int[] generations = new int[CAPACITY];
+	private final int[] forms = new int[CAPACITY];
+	private final String[] inputs = new String[CAPACITY];
+	private final String[] outputs = new String[CAPACITY];
+
+	/**
+	 * Slots from any other generation are empty
+	 */
+	private int generation = 1;
+
+	/**
+	 * true between the start and end of a request, and false when forms are not to be remembered
+	 */
+	private boolean active;
+
+	/**
+	 * true if a form has been remembered since the table was last cleared
+	 */
+	private boolean holdsValues;
+
+	DerivedForms() {
+
+	}
+
+	/**
+	 * @param value A param value
+	 * @return The value with every encoding ESAPI knows of decoded, as returned by
+	 * Encoder.canonicalize(value, false), which is worked out by Canonicalizer
+	 */
+	public String canonical(final String value) {
+		checkNotNull(value);
+
+		// Most values have nothing that could be decoded, which is cheaper to check than to look up
+		if (!Canonicalizer.mayBeEncoded(value, false)) {
+			return value;
+		}
+
+		String canonical = get(CANONICAL, value);
+		if (canonical == null) {
+			canonical = Canonicalizer.canonicalize(value);
+			put(CANONICAL, value, canonical);
+		}
+		return canonical;
+	}
+
+	/**
+	 * @param value A param value
+	 * @return The value with the special HTML characters escaped, as returned by
+	 * StringEscapeUtils.escapeHtml4(value), which is worked out by HTMLEscaper
+	 */
+	public String htmlEscaped(final String value) {
+		checkNotNull(value);
+
+		// Most values have nothing to escape, which is cheaper to check than to look up
+		if (!HTMLEscaper.needsEscaping(value)) {
+			return value;
+		}
+
+		String escaped = get(HTML_ESCAPED, value);
+		if (escaped == null) {
+			escaped = HTMLEscaper.escape(value);
+			put(HTML_ESCAPED, value, escaped);
+		}
+		return escaped;
+	}
+
+	/**
+	 * @param value A param value
+	 * @return The value in Unicode normalization form D, i.e. with accented characters split into
+	 * the base character and the combining accent
+	 */
+	public String nfd(final String value) {
+		checkNotNull(value);
+
+		// Most values are already normalised, which can be checked without building a new string
+		if (Normalizer.isNormalized(value, Normalizer.Form.NFD)) {
+			return value;
+		}
+
+		String normalized = get(NFD, value);
+		if (normalized == null) {
+			normalized = Normalizer.normalize(value, Normalizer.Form.NFD);
+			put(NFD, value, normalized);
+		}
+		return normalized;
+	}
+
+	/**
+	 * Trimming a value is cheaper than looking it up, and returns the same string when there is
+	 * nothing to trim, so this form is worked out every time rather than remembered.
+	 *
+	 * @param value A param value
+	 * @return The value without leading and trailing whitespace, as returned by value.trim()
+	 */
+	public String trimmed(final String value) {
+		checkNotNull(value);
+
+		return value.trim();
+	}
+
+	void begin() {
+		active = true;
+		if (++generation == 0) {
+			// Wrapped around, so old slots could look current again
+			Arrays.fill(generations, 0);
+			generation = 1;
+		}
+	}
+
+	void end() {
+		active = false;
+		if (holdsValues) {
+			Arrays.fill(inputs, null);
+			Arrays.fill(outputs, null);
+			Arrays.fill(generations, 0);
+			holdsValues = false;
+		}
+	}
+
+	private String get(final int form, final String input) {
+		if (!active) {
+			return null;
+		}
+
+		for (int probe = 0, slot = slot(form, input); probe < MAX_PROBES; ++probe, slot = (slot + 1) & MASK) {
+			if (generations[slot] != generation) {
+				return null;
+			}
+			if (forms[slot] == form && (inputs[slot] == input || inputs[slot].equals(input))) {
+				return outputs[slot];
+			}
+		}
+		return null;
+	}
+
+	private void put(final int form, final String input, final String output) {
+		if (!active) {
+			return;
+		}
+
+		final int first = slot(form, input);
+
+		int target = first;
+		for (int probe = 0, slot = first; probe < MAX_PROBES; ++probe, slot = (slot + 1) & MASK) {
+			if (generations[slot] != generation) {
+				target = slot;
+				break;
+			}
+		}
+
+		generations[target] = generation;
+		forms[target] = form;
+		inputs[target] = input;
+		outputs[target] = output;
+		holdsValues = true;
+	}
+
+	private static int slot(final int form, final String input) {
+		final int hash = input.hashCode() * 31 + form;
+		return (hash ^ (hash >>> 16)) & MASK;
+	}
+}
@@ -0,0 +1,110 @@
+package com.matthewcasperson.validation.rule;
+
+import org.apache.commons.text.translate.EntityArrays;
+
+import java.util.List;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+
+/**
+ * Escapes the special HTML characters of a value, giving the same result as
+ * StringEscapeUtils.escapeHtml4(value). commons-text looks up every character of the value in a
+ * chain of maps and writes the result through a StringWriter. This looks each character up in a
+ * table of the same entities indexed by the character, returns a value with nothing to escape as
+ * it is, and otherwise builds the escaped value in an array of exactly the right length.
+ */
+public final class HTMLEscaper {
+
+	/**
+	 * The entity each character is escaped to, or null if it is left as it is
+	 */
+	private static final char[][] REPLACEMENTS;
+
+	static {
+		final List<Map<CharSequence, CharSequence>> entityMaps = List.of(
+				EntityArrays.BASIC_ESCAPE, EntityArrays.ISO8859_1_ESCAPE, EntityArrays.HTML40_EXTENDED_ESCAPE);
+
+		int maxChar = 0;
+		for (final Map<CharSequence, CharSequence> entities : entityMaps) {
+			for (final CharSequence key : entities.keySet()) {
+				maxChar = Math.max(maxChar, key.charAt(0));
+			}
+		}
+
+		REPLACEMENTS = new char[maxChar + 1][];
+		for (final Map<CharSequence, CharSequence> entities : entityMaps) {
+			for (final Map.Entry<CharSequence, CharSequence> entity : entities.entrySet()) {
+				REPLACEMENTS[entity.getKey().charAt(0)] = entity.getValue().toString().toCharArray();
+			}
+		}
+	}
+
+	private HTMLEscaper() {
+
+	}
+
+	/**
+	 * @param value The value to check
+	 * @return true if escape() would change the value
+	 */
+	public static boolean needsEscaping(final String value) {
+		checkNotNull(value);
+
+		return firstToEscape(value) != -1;
+	}
+
+	/**
+	 * @param value The value to escape
+	 * @return The escaped value, which is the same string if there was nothing to escape
+	 */
+	public static String escape(final String value) {
+		checkNotNull(value);
+
+		final int first = firstToEscape(value);
+		if (first == -1) {
+			return value;
+		}
+
+		final int length = value.length();
+		int escapedLength = first;
+		for (int index = first; index < length; ++index) {
+			final char[] replacement = replacement(value.charAt(index));
+			escapedLength += replacement == null ? 1 : replacement.length;
+		}
+
+		final char[] escaped = new char[escapedLength];
+		value.getChars(0, first, escaped, 0);
+
+		for (int index = first, position = first; index < length; ++index) {
+			final char c = value.charAt(index);
+			final char[] replacement = replacement(c);
+			if (replacement == null) {
+				escaped[position++] = c;
+			}
+			else {
+				System.arraycopy(replacement, 0, escaped, position, replacement.length);
+				position += replacement.length;
+			}
+		}
+
+		return new String(escaped);
+	}
+
+	/**
+	 * @return The index of the first character to escape, or -1 if there is none
+	 */
+	private static int firstToEscape(final String value) {
+		for (int index = 0, length = value.length(); index < length; ++index) {
+			if (replacement(value.charAt(index)) != null) {
+				return index;
+			}
+		}
+		return -1;
+	}
+
+	private static char[] replacement(final char c) {
+		return c < REPLACEMENTS.length ? REPLACEMENTS[c] : null;
+	}
+}
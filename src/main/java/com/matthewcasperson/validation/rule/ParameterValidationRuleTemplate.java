@@ -46,6 +46,12 @@ abstract public class ParameterValidationRuleTemplate implements ParameterValida
 
 	private static final RequestParameterUtils REQUEST_PARAMETER_UTILS = new RequestParameterUtilsImpl();
 
+	/**
+	 * true if the class promises with RuleTraits to always return the params it was given, in which
+	 * case there is never a need to compare them or wrap the request
+	 */
+	private final boolean readOnly = isReadOnly(getClass());
+
 	/**
 	 * This method will attempt to process the supplied parameter, and either stop all processing by throwning an
 	 * exception, or continue with other rules.
@@ -73,6 +79,10 @@ abstract public class ParameterValidationRuleTemplate implements ParameterValida
 
 			checkState(processedParams.length == params.length, "PVF-BUG-0001: fixParams should always return the same number of parameters as it was passed");
 
+			if (readOnly) {
+				return request;
+			}
+
 			/*
 			 * Did it make any difference?
 			 */
@@ -124,6 +134,11 @@ abstract public class ParameterValidationRuleTemplate implements ParameterValida
 		return request;
 	}
 
+	private static boolean isReadOnly(final Class<?> ruleClass) {
+		final RuleTraits traits = ruleClass.getAnnotation(RuleTraits.class);
+		return traits != null && traits.readOnly();
+	}
+
 	/**
 	 * Defer to the fixParams method;
 	 */
@@ -0,0 +1,74 @@
+package com.matthewcasperson.validation.rule;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+
+/**
+ * Describes how a ParameterValidationRule behaves, so the configuration compiler can make
+ * better use of it. The traits are not inherited, as a subclass may not keep the promises of
+ * its parent. A rule without this annotation is assumed to have none of the traits.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface RuleTraits {
+
+	/**
+	 * The ASCII digits, for use in safeCharacters
+	 */
+	String DIGITS = "0123456789";
+
+	/**
+	 * The ASCII letters, for use in safeCharacters
+	 */
+	String LETTERS = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ";
+
+	/**
+	 * @return true if the rule keeps no state other than its settings, so every chain that
+	 * configures the rule with the same settings can share a single instance
+	 */
+	boolean shareable() default false;
+
+	/**
+	 * @return true if running the rule a second time on its own output never changes it, so a
+	 * repeat of the rule with the same settings can be removed from a chain
+	 */
+	boolean idempotent() default false;
+
+	/**
+	 * @return true if the rule only validates, and always returns the values it was given
+	 * unchanged when it does not throw a ValidationFailedException. A read only rule is also
+	 * idempotent, and can be moved past any other read only rule.
+	 */
+	boolean readOnly() default false;
+
+	/**
+	 * @return true if the rule does enough work per value (e.g. parsing HTML or decoding every
+	 * encoding it knows of) that it should not be applied to every param of every request
+	 */
+	boolean expensive() default false;
+
+	/**
+	 * @return true if whether the rule fails, and the values it returns, depend only on the values
+	 * it is given and its settings, and not on the param name, the url or anything else, so the
+	 * result for a value can be reused
+	 */
+	boolean pure() default false;
+
+	/**
+	 * @return true if the rule keeps no state between calls other than its settings, so a single
+	 * instance can process several params of the same request at once
+	 */
+	boolean threadSafe() default false;
+
+	/**
+	 * @return The ASCII characters that the rule never reacts to: a value made up of only these
+	 * characters always passes the rule unchanged, so the rule does not need to be run for it. An
+	 * empty string, the default, makes no promise, as does any character outside of ASCII.
+	 */
+	String safeCharacters() default "";
+}
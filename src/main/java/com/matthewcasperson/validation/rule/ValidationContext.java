@@ -0,0 +1,82 @@
+package com.matthewcasperson.validation.rule;
+
+import com.matthewcasperson.validation.regex.InstancePool;
+
+
+/**
+ * The state shared by the rules that run during a single request. The filter starts a context
+ * when a request comes in and ends it once its params have been processed, and rules get hold of
+ * the context of the request on their thread with current().
+ *
+ * Contexts are taken from a pool when a request starts and given back when it ends, and the
+ * thread only refers to its context in between, so the container's threads do not keep contexts
+ * once the webapp is undeployed, and there is no context per virtual thread.
+ *
+ * A rule that is run outside of a request, e.g. by a test, gets a context that has not been
+ * started, which works out everything it is asked for without remembering it.
+ */
+public final class ValidationContext {
+
+	private static final ThreadLocal<ValidationContext> CONTEXT = new ThreadLocal<ValidationContext>();
+
+	private static final InstancePool<ValidationContext> CONTEXTS = new InstancePool<ValidationContext>(ValidationContext::new);
+
+	/**
+	 * Never started, so it remembers nothing and can be shared by every thread outside a request
+	 */
+	private static final ValidationContext NOT_STARTED = new ValidationContext();
+
+	private final DerivedForms derivedForms = new DerivedForms();
+
+	private ValidationContext() {
+
+	}
+
+	/**
+	 * @return The context of the request being processed by this thread
+	 */
+	public static ValidationContext current() {
+		final ValidationContext context = CONTEXT.get();
+		return context == null ? NOT_STARTED : context;
+	}
+
+	/**
+	 * Starts the context of a request on this thread, forgetting anything remembered by the
+	 * previous one. This is called by the filter.
+	 *
+	 * @return The context of the request
+	 */
+	public static ValidationContext begin() {
+		ValidationContext context = CONTEXT.get();
+		if (context == null) {
+			context = CONTEXTS.acquire();
+			CONTEXT.set(context);
+		}
+		context.derivedForms.begin();
+		return context;
+	}
+
+	/**
+	 * Ends the context of the request on this thread, so it no longer holds on to its values, and
+	 * gives it back to the pool. This is called by the filter.
+	 */
+	public static void end() {
+		final ValidationContext context = CONTEXT.get();
+		if (context == null) {
+			return;
+		}
+
+		CONTEXT.remove();
+		context.derivedForms.end();
+		CONTEXTS.release(context);
+	}
+
+	/**
+	 * @return The forms of values the rules of this request have worked out, such as the
+	 * canonical and HTML escaped forms, which each rule should get from here rather than work out
+	 * for itself
+	 */
+	public DerivedForms getDerivedForms() {
+		return derivedForms;
+	}
+}
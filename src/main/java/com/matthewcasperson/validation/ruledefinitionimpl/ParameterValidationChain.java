@@ -23,6 +23,8 @@
  */
 package com.matthewcasperson.validation.ruledefinitionimpl;
 
+import com.matthewcasperson.validation.regex.CompiledRegex;
+import com.matthewcasperson.validation.regex.RegexEngine;
 import jakarta.xml.bind.annotation.XmlElement;
 import jakarta.xml.bind.annotation.XmlElementWrapper;
 
@@ -42,11 +44,13 @@ public class ParameterValidationChain {
 
 	private List<ParameterValidationDefinitionImpl> list = new ArrayList<ParameterValidationDefinitionImpl>();
 
-	transient private Pattern paramNamePattern;
-	transient private Pattern requestURIPattern;
+	transient private CompiledRegex paramNameRegex;
+	transient private CompiledRegex requestURIRegex;
+	transient private RegexEngine defaultRegexEngine = RegexEngine.DEFAULT;
 
 	private String paramNamePatternString;
 	private String requestURIPatternString;
+	private String regexEngine;
 
 	private boolean paramNamePatternNegated;
 	private boolean requestURIPatternNegated;
@@ -107,7 +111,7 @@ public class ParameterValidationChain {
 	 */
 	public void setRequestURIPatternString(final String requestURIPatternString) {
 		this.requestURIPatternString = requestURIPatternString;
-		this.requestURIPattern = Pattern.compile(requestURIPatternString);
+		this.requestURIRegex = getEffectiveRegexEngine().compile(requestURIPatternString);
 	}
 
 	/**
@@ -128,7 +132,7 @@ public class ParameterValidationChain {
 	 */
 	public void setParamNamePatternString(final String paramNamePatternString) {
 		this.paramNamePatternString = paramNamePatternString;
-		this.paramNamePattern = Pattern.compile(paramNamePatternString);
+		this.paramNameRegex = getEffectiveRegexEngine().compile(paramNamePatternString);
 	}
 
 	/**
@@ -136,7 +140,7 @@ public class ParameterValidationChain {
 	 * @return The Regex that is matched against the name of the param
 	 */
 	public Pattern getParamNamePattern() {
-		return paramNamePattern;
+		return paramNameRegex == null ? null : paramNameRegex.toPattern();
 	}
 
 	/**
@@ -144,7 +148,77 @@ public class ParameterValidationChain {
 	 * @return The Regex that is matched against the page being loaded
 	 */
 	public Pattern getRequestURIPattern() {
-		return requestURIPattern;
+		return requestURIRegex == null ? null : requestURIRegex.toPattern();
+	}
+
+	/**
+	 *
+	 * @return The Regex that is matched against the name of the param, compiled with the
+	 *         selected engine
+	 */
+	public CompiledRegex getParamNameRegex() {
+		return paramNameRegex;
+	}
+
+	/**
+	 *
+	 * @return The Regex that is matched against the page being loaded, compiled with the
+	 *         selected engine
+	 */
+	public CompiledRegex getRequestURIRegex() {
+		return requestURIRegex;
+	}
+
+	/**
+	 *
+	 * @return The name of the regex engine used for the patterns of this chain (java or linear),
+	 *         or null to use the engine defined for the whole database
+	 */
+	public String getRegexEngine() {
+		return regexEngine;
+	}
+
+	/**
+	 *
+	 * @param regexEngine
+	 *            The name of the regex engine used for the patterns of this chain (java or
+	 *            linear), or null to use the engine defined for the whole database
+	 */
+	public void setRegexEngine(final String regexEngine) {
+		RegexEngine.fromSetting(regexEngine);
+		this.regexEngine = regexEngine;
+		compilePatterns();
+	}
+
+	/**
+	 * Sets the engine used when this chain and its rules do not select one themselves
+	 *
+	 * @param engine The engine defined for the whole database
+	 */
+	public void applyDefaultRegexEngine(final RegexEngine engine) {
+		this.defaultRegexEngine = engine == null ? RegexEngine.DEFAULT : engine;
+		compilePatterns();
+
+		if (list != null) {
+			final RegexEngine ruleEngine = RegexEngine.fromSetting(regexEngine);
+			for (final ParameterValidationDefinitionImpl definition : list) {
+				definition.applyDefaultRegexEngine(ruleEngine == null ? engine : ruleEngine);
+			}
+		}
+	}
+
+	private RegexEngine getEffectiveRegexEngine() {
+		final RegexEngine engine = RegexEngine.fromSetting(regexEngine);
+		return engine == null ? defaultRegexEngine : engine;
+	}
+
+	private void compilePatterns() {
+		if (paramNamePatternString != null) {
+			paramNameRegex = getEffectiveRegexEngine().compile(paramNamePatternString);
+		}
+		if (requestURIPatternString != null) {
+			requestURIRegex = getEffectiveRegexEngine().compile(requestURIPatternString);
+		}
 	}
 
 	/**
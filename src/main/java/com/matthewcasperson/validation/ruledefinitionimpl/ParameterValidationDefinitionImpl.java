@@ -24,13 +24,21 @@
 package com.matthewcasperson.validation.ruledefinitionimpl;
 
 import com.matthewcasperson.validation.exception.InvalidConfigurationException;
+import com.matthewcasperson.validation.regex.RegexEngine;
 import com.matthewcasperson.validation.rule.ParameterValidationRule;
+import com.matthewcasperson.validation.ruleimpl.FailIfNotRegexMatchValidationRule;
+import com.matthewcasperson.validation.ruleimpl.RemoveRegexMatches;
 import jakarta.xml.bind.annotation.XmlElement;
 import jakarta.xml.bind.annotation.XmlRootElement;
 
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * This represents a validation rule to be applied as part of a chain.
@@ -40,9 +48,17 @@ import java.util.Map;
 @XmlRootElement
 public class ParameterValidationDefinitionImpl {
 
+	/**
+	 * The rules that are passed the default regex engine
+	 */
+	private static final Set<String> REGEX_RULE_NAMES = new HashSet<String>(Arrays.asList(
+			FailIfNotRegexMatchValidationRule.class.getName(),
+			RemoveRegexMatches.class.getName()));
+
 	private String validationRuleName;
 	private Map<String, String> settings;
 	transient private ParameterValidationRule rule;
+	transient private RegexEngine defaultRegexEngine;
 
 	/**
 	 *
@@ -78,27 +94,88 @@ public class ParameterValidationDefinitionImpl {
 	}
 
 	/**
-	 * @return An instance of the class referenced in validationRuleName (or null if the name is
-	 * invalid).
+	 * @return An instance of the class referenced in validationRuleName. The instance is created
+	 * the first time this is called and then reused.
 	 * @throws InvalidConfigurationException If the rule class could not be constructed
 	 */
-	public ParameterValidationRule getRule() throws InvalidConfigurationException {
+	public synchronized ParameterValidationRule getRule() throws InvalidConfigurationException {
 		if (rule == null) {
-			try {
-				final Class<?> klass = Class.forName(validationRuleName);
-				final Constructor<?> ctor = klass.getConstructor();
-				this.rule =  (ParameterValidationRule)ctor.newInstance();
-				if (this.settings != null) {
-					this.rule.configure(this.settings);
-				}
-			} catch (ClassNotFoundException | NoSuchMethodException | SecurityException | InstantiationException | IllegalAccessException | IllegalArgumentException | InvocationTargetException ex) {
-				throw new InvalidConfigurationException(ex);
-			}
+			rule = createRule();
 		}
 
 		return rule;
 	}
 
+	/**
+	 * @return A new instance of the class referenced in validationRuleName, configured with the
+	 * settings
+	 * @throws InvalidConfigurationException If the rule class could not be constructed
+	 */
+	public ParameterValidationRule createRule() throws InvalidConfigurationException {
+		return createRule(validationRuleName, getEffectiveSettings());
+	}
+
+	/**
+	 * @param validationRuleName The fully qualified name of the class that will be used to perform the validation
+	 * @param settings The settings to configure the rule with, or null if it has none
+	 * @return A new instance of the class, configured with the settings
+	 * @throws InvalidConfigurationException If the rule class could not be constructed
+	 */
+	public static ParameterValidationRule createRule(final String validationRuleName, final Map<String, String> settings) throws InvalidConfigurationException {
+		if (validationRuleName == null) {
+			throw new InvalidConfigurationException("PVF-CONFIGURATION-0003: A ParameterValidationRule is missing its validationRuleName");
+		}
+
+		try {
+			final Class<?> klass = Class.forName(validationRuleName);
+			final Constructor<?> ctor = klass.getConstructor();
+			final ParameterValidationRule newRule = (ParameterValidationRule)ctor.newInstance();
+			if (settings != null) {
+				newRule.configure(settings);
+			}
+			return newRule;
+		} catch (ClassNotFoundException | NoSuchMethodException | SecurityException | InstantiationException | IllegalAccessException | IllegalArgumentException | InvocationTargetException | ClassCastException ex) {
+			throw new InvalidConfigurationException(ex);
+		}
+	}
+
+	/**
+	 * Sets the regex engine passed to the rule when its settings do not select one. This has to
+	 * be called before the rule is first created.
+	 *
+	 * @param engine The engine defined for the chain or the whole database
+	 */
+	public void applyDefaultRegexEngine(final RegexEngine engine) {
+		this.defaultRegexEngine = engine;
+	}
+
+	/**
+	 * @return The settings that are passed to the rule, which include the default regex engine
+	 * for the built in regex rules, or null if the rule has no settings
+	 */
+	public Map<String, String> getEffectiveSettings() {
+		return getEffectiveSettings(validationRuleName, settings, defaultRegexEngine);
+	}
+
+	/**
+	 * @param validationRuleName The fully qualified name of the class of the rule
+	 * @param settings The settings of a rule, or null if it has none
+	 * @param defaultRegexEngine The engine defined for the chain or the whole database, or null
+	 * @return The settings with the default regex engine added if the rule is one of the built in
+	 * regex rules and they do not select one, or null if the rule has no settings. Other rules get
+	 * their settings as they are.
+	 */
+	public static Map<String, String> getEffectiveSettings(final String validationRuleName, final Map<String, String> settings, final RegexEngine defaultRegexEngine) {
+		if (settings == null || defaultRegexEngine == null || !REGEX_RULE_NAMES.contains(validationRuleName)
+				|| settings.containsKey(RegexEngine.SETTING_NAME)) {
+			return settings;
+		}
+
+		final Map<String, String> effectiveSettings = new HashMap<String, String>(settings);
+		effectiveSettings.put(RegexEngine.SETTING_NAME, defaultRegexEngine.name().toLowerCase(Locale.ROOT));
+		return effectiveSettings;
+	}
+
 	/**
 	 * Empty default constructor for the serialisation routines
 	 */
@@ -23,6 +23,7 @@
  */
 package com.matthewcasperson.validation.ruledefinitionimpl;
 
+import com.matthewcasperson.validation.regex.RegexEngine;
 import jakarta.xml.bind.annotation.XmlElement;
 import jakarta.xml.bind.annotation.XmlElementWrapper;
 import jakarta.xml.bind.annotation.XmlRootElement;
@@ -45,6 +46,7 @@ public class ParameterValidationDefinitionsImpl {
 
 	private List<ParameterValidationChain> parameterValidationDefinitions;
 	private boolean enforcingMode = false;
+	private String regexEngine;
 
 
 	/**
@@ -103,4 +105,37 @@ public class ParameterValidationDefinitionsImpl {
 		this.enforcingMode = enforcingMode;
 	}
 
+	/**
+	 *
+	 * @return The name of the regex engine (java or linear) used by the chains and rules that
+	 * do not select one themselves, or null to use java.util.regex
+	 */
+	@XmlElement(name="RegexEngine")
+	public String getRegexEngine() {
+		return regexEngine;
+	}
+
+	/**
+	 *
+	 * @param regexEngine The name of the regex engine (java or linear) used by the chains and rules
+	 * that do not select one themselves, or null to use java.util.regex
+	 */
+	public void setRegexEngine(final String regexEngine) {
+		RegexEngine.fromSetting(regexEngine);
+		this.regexEngine = regexEngine;
+	}
+
+	/**
+	 * Passes the regex engine defined for the whole database down to the chains and rules. This
+	 * is called once the configuration has been loaded, as the elements can appear in any order.
+	 */
+	public void applyRegexEngine() {
+		if (parameterValidationDefinitions != null) {
+			final RegexEngine engine = RegexEngine.fromSetting(regexEngine);
+			for (final ParameterValidationChain chain : parameterValidationDefinitions) {
+				chain.applyDefaultRegexEngine(engine);
+			}
+		}
+	}
+
 }
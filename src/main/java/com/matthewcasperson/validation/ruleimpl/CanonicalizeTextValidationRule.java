@@ -25,8 +25,9 @@ package com.matthewcasperson.validation.ruleimpl;
 
 import com.matthewcasperson.validation.exception.ValidationFailedException;
 import com.matthewcasperson.validation.rule.ParameterValidationRuleTemplate;
-import org.owasp.esapi.Encoder;
-import org.owasp.esapi.reference.DefaultEncoder;
+import com.matthewcasperson.validation.rule.DerivedForms;
+import com.matthewcasperson.validation.rule.RuleTraits;
+import com.matthewcasperson.validation.rule.ValidationContext;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -36,6 +37,9 @@ import static com.google.common.base.Preconditions.checkNotNull;
  * of an injection attack. Uses the OWASP ESAPI library.
  * @author mcasperson
  */
+@RuleTraits(
+		shareable = true, pure = true, threadSafe = true, expensive = true,
+		safeCharacters = RuleTraits.LETTERS + RuleTraits.DIGITS + " ,-./:@_")
 public class CanonicalizeTextValidationRule extends ParameterValidationRuleTemplate {
 
 	@Override
@@ -48,6 +52,7 @@ public class CanonicalizeTextValidationRule extends ParameterValidationRuleTempl
 		checkArgument(params.length != 0, "PVF-BUG-0003: params should always have at least one value");
 
 		final String[] retValues = new String[params.length];
+		final DerivedForms derivedForms = ValidationContext.current().getDerivedForms();
 
 		for (int paramIndex = 0, paramLength = params.length; paramIndex < paramLength; ++paramIndex) {
 			final String param = params[paramIndex];
@@ -56,8 +61,7 @@ public class CanonicalizeTextValidationRule extends ParameterValidationRuleTempl
 				retValues[paramIndex] = null;
 			}
 			else {
-				final Encoder encoder = DefaultEncoder.getInstance();
-				final String canonicalized = encoder.canonicalize(param, false);
+				final String canonicalized = derivedForms.canonical(param);
 				retValues[paramIndex] = canonicalized;
 			}
 		}
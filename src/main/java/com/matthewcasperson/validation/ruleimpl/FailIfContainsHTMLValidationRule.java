@@ -24,10 +24,12 @@
 package com.matthewcasperson.validation.ruleimpl;
 
 import com.matthewcasperson.validation.exception.ValidationFailedException;
+import com.matthewcasperson.validation.rule.HTMLEscaper;
 import com.matthewcasperson.validation.rule.ParameterValidationRuleTemplate;
-import org.apache.commons.text.StringEscapeUtils;
+import com.matthewcasperson.validation.rule.DerivedForms;
+import com.matthewcasperson.validation.rule.RuleTraits;
+import com.matthewcasperson.validation.rule.ValidationContext;
 
-import java.text.Normalizer;
 import java.util.Map;
 
 import static com.google.common.base.Preconditions.checkArgument;
@@ -39,6 +41,9 @@ import static com.google.common.base.Preconditions.checkNotNull;
  * HTML characters
  * @author mcasperson
  */
+@RuleTraits(
+		shareable = true, readOnly = true, pure = true, threadSafe = true,
+		safeCharacters = RuleTraits.LETTERS + RuleTraits.DIGITS + " !#$%'()*+,-./:;=?@[\\]^_`{|}~")
 public class FailIfContainsHTMLValidationRule extends ParameterValidationRuleTemplate {
 
     private static final String ELLIPSIS = "…";
@@ -73,6 +78,8 @@ public class FailIfContainsHTMLValidationRule extends ParameterValidationRuleTem
 		checkNotNull(params);
 		checkArgument(params.length != 0, "PVF-BUG-0003: params should always have at least one value");
 
+		final DerivedForms derivedForms = ValidationContext.current().getDerivedForms();
+
 		for (int paramIndex = 0, paramLength = params.length; paramIndex < paramLength; ++paramIndex) {
 			String param = params[paramIndex];
 
@@ -81,19 +88,16 @@ public class FailIfContainsHTMLValidationRule extends ParameterValidationRuleTem
 			}
 
 			if (allowAccents) {
-                param = Normalizer.normalize(param, Normalizer.Form.NFD);
+                param = derivedForms.nfd(param);
             }
 
             if (allowEllipsis) {
                 param = param.replaceAll(ELLIPSIS, "");
             }
 
-			if (param != null) {
-				final String encoded = StringEscapeUtils.escapeHtml4(param);
-
-				if (!encoded.equals(param)) {
-					throw new ValidationFailedException("PVF-SECURITY-0001: Parameter found to have special HTML characters.\nNAME: " + name + "\nVALUE: " + param + "\nURL: " + url);
-				}
+			// The escaped form of the value is only different if it has a character to escape
+			if (param != null && HTMLEscaper.needsEscaping(param)) {
+				throw new ValidationFailedException("PVF-SECURITY-0001: Parameter found to have special HTML characters.\nNAME: " + name + "\nVALUE: " + param + "\nURL: " + url);
 			}
 		}
 
@@ -24,9 +24,11 @@
 package com.matthewcasperson.validation.ruleimpl;
 
 import com.matthewcasperson.validation.exception.ValidationFailedException;
+import com.matthewcasperson.validation.rule.Canonicalizer;
 import com.matthewcasperson.validation.rule.ParameterValidationRuleTemplate;
-import org.owasp.esapi.Encoder;
-import org.owasp.esapi.reference.DefaultEncoder;
+import com.matthewcasperson.validation.rule.DerivedForms;
+import com.matthewcasperson.validation.rule.RuleTraits;
+import com.matthewcasperson.validation.rule.ValidationContext;
 
 import java.util.Map;
 
@@ -39,6 +41,9 @@ import static com.google.common.base.Preconditions.checkNotNull;
  * encoded in some way.
  * @author mcasperson
  */
+@RuleTraits(
+		shareable = true, readOnly = true, pure = true, threadSafe = true, expensive = true,
+		safeCharacters = RuleTraits.LETTERS + RuleTraits.DIGITS + " ,-./:@_")
 public class FailIfNotCanonicalizedValidationRule extends ParameterValidationRuleTemplate {
 
 	private static final String ALLOW_BACK_SLASH = "allowBackSlash";
@@ -60,20 +65,24 @@ public class FailIfNotCanonicalizedValidationRule extends ParameterValidationRul
 		checkNotNull(params);
 		checkArgument(params.length != 0, "PVF-BUG-0003: params should always have at least one value");
 
+		final DerivedForms derivedForms = ValidationContext.current().getDerivedForms();
+
 		for (int paramIndex = 0, paramLength = params.length; paramIndex < paramLength; ++paramIndex) {
 			String param = params[paramIndex];
 
+			// Skip values that have nothing to decode once any allowed backslashes are removed
+			if (param == null || !Canonicalizer.mayBeEncoded(param, allowBackSlash)) {
+				continue;
+			}
+
 			if (allowBackSlash) {
-				param = param.replaceAll("\\\\", "");
+				param = param.replace("\\", "");
 			}
 
-			if (param != null) {
-				final Encoder encoder = DefaultEncoder.getInstance();
-				final String canonicalized = encoder.canonicalize(param, false);
+			final String canonicalized = derivedForms.canonical(param);
 
-				if (!canonicalized.equals(param)) {
-					throw new ValidationFailedException("PVF-SECURITY-0002: Param was found to already be encoded.\nNAME: " + name + "\nVALUE: " + param + "\nURL: " + url);
-				}
+			if (!canonicalized.equals(param)) {
+				throw new ValidationFailedException("PVF-SECURITY-0002: Param was found to already be encoded.\nNAME: " + name + "\nVALUE: " + param + "\nURL: " + url);
 			}
 		}
 
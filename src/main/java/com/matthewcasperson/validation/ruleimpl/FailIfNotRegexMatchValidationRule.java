@@ -24,7 +24,11 @@
 package com.matthewcasperson.validation.ruleimpl;
 
 import com.matthewcasperson.validation.exception.ValidationFailedException;
+import com.matthewcasperson.validation.regex.CompiledRegex;
+import com.matthewcasperson.validation.regex.RegexEngine;
+import com.matthewcasperson.validation.regex.RequiredLiterals;
 import com.matthewcasperson.validation.rule.ParameterValidationRuleTemplate;
+import com.matthewcasperson.validation.rule.RuleTraits;
 
 import java.util.Map;
 import java.util.regex.Pattern;
@@ -35,13 +39,17 @@ import static com.google.common.base.Preconditions.checkState;
 
 
 /**
- * A validation rule that will fail if the param does not match the supplied regex
+ * A validation rule that will fail if the param does not match the supplied regex. The regex
+ * engine can be selected with the regexEngine setting (see RegexEngine).
  * @author mcasperson
  */
+@RuleTraits(shareable = true, readOnly = true, pure = true, threadSafe = true)
 public class FailIfNotRegexMatchValidationRule extends ParameterValidationRuleTemplate {
 
 	private static final String PATTERN_KEY_NAME = "pattern";
 	private Pattern pattern;
+	private CompiledRegex regex;
+	private RequiredLiterals requiredLiterals = RequiredLiterals.NONE;
 
 	/**
 	 *
@@ -57,10 +65,22 @@ public class FailIfNotRegexMatchValidationRule extends ParameterValidationRuleTe
 	 */
 	public void setPattern(final Pattern pattern) {
 		this.pattern = pattern;
+		this.regex = pattern == null ? null : RegexEngine.wrap(pattern);
+		this.requiredLiterals = pattern == null ? RequiredLiterals.NONE : RequiredLiterals.of(pattern);
+	}
+
+	/**
+	 *
+	 * @return The regex compiled from the supplied settings with the selected engine
+	 */
+	public CompiledRegex getRegex() {
+		return regex;
 	}
 
 	public void configure(final Map<String, String> settings) {
-		pattern = Pattern.compile(settings.get(PATTERN_KEY_NAME));
+		regex = RegexEngine.fromSettings(settings).compile(settings.get(PATTERN_KEY_NAME));
+		pattern = regex.toPattern();
+		requiredLiterals = RequiredLiterals.of(pattern);
 	}
 
 	@Override
@@ -72,7 +92,7 @@ public class FailIfNotRegexMatchValidationRule extends ParameterValidationRuleTe
 		checkNotNull(params);
 		checkArgument(params.length != 0, "PVF-BUG-0003: params should always have at least one value");
 
-		checkState(pattern != null, "PVF-CONFIGURATION-0001: The pattern should not be null. Make sure the rule is assigned a valid regex with the setting key " + PATTERN_KEY_NAME + ". e.g \n" +
+		checkState(regex != null, "PVF-CONFIGURATION-0001: The pattern should not be null. Make sure the rule is assigned a valid regex with the setting key " + PATTERN_KEY_NAME + ". e.g \n" +
 				"<ParameterValidationRule>\n" +
                     "<settings>\n" +
                         "<entry>\n" +
@@ -86,8 +106,9 @@ public class FailIfNotRegexMatchValidationRule extends ParameterValidationRuleTe
 		for (int paramIndex = 0, paramLength = params.length; paramIndex < paramLength; ++paramIndex) {
 			final String param = params[paramIndex];
 
-			if (!pattern.matcher(param).find()) {
-				throw new ValidationFailedException("PVF-SECURITY-0003: Param did not find a match with the regex " + pattern.toString() + "\nNAME: " + name + "\nVALUE: " + param + "\nURL: " + url);
+			// A param without any of the literals the regex requires can not match
+			if (!requiredLiterals.mayMatch(param) || !regex.find(param)) {
+				throw new ValidationFailedException("PVF-SECURITY-0003: Param did not find a match with the regex " + regex.toString() + "\nNAME: " + name + "\nVALUE: " + param + "\nURL: " + url);
 			}
 		}
 
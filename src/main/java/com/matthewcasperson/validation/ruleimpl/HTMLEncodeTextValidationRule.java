@@ -25,7 +25,9 @@ package com.matthewcasperson.validation.ruleimpl;
 
 import com.matthewcasperson.validation.exception.ValidationFailedException;
 import com.matthewcasperson.validation.rule.ParameterValidationRuleTemplate;
-import org.apache.commons.text.StringEscapeUtils;
+import com.matthewcasperson.validation.rule.DerivedForms;
+import com.matthewcasperson.validation.rule.RuleTraits;
+import com.matthewcasperson.validation.rule.ValidationContext;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -36,6 +38,9 @@ import static com.google.common.base.Preconditions.checkNotNull;
  * if text is going to be redisplayed in a HTML page. Uses the Apache Commons library.
  * @author mcasperson
  */
+@RuleTraits(
+		shareable = true, pure = true, threadSafe = true,
+		safeCharacters = RuleTraits.LETTERS + RuleTraits.DIGITS + " !#$%'()*+,-./:;=?@[\\]^_`{|}~")
 public class HTMLEncodeTextValidationRule extends ParameterValidationRuleTemplate {
 
 	@Override
@@ -48,6 +53,7 @@ public class HTMLEncodeTextValidationRule extends ParameterValidationRuleTemplat
 		checkArgument(params.length != 0, "PVF-BUG-0003: params should always have at least one value");
 
 		final String[] retValues = new String[params.length];
+		final DerivedForms derivedForms = ValidationContext.current().getDerivedForms();
 
 		for (int paramIndex = 0, paramLength = params.length; paramIndex < paramLength; ++paramIndex) {
 			final String param = params[paramIndex];
@@ -56,7 +62,7 @@ public class HTMLEncodeTextValidationRule extends ParameterValidationRuleTemplat
 				retValues[paramIndex] = null;
 			}
 			else {
-				final String encoded = StringEscapeUtils.escapeHtml4(param);
+				final String encoded = derivedForms.htmlEscaped(param);
 				retValues[paramIndex] = encoded;
 			}
 		}
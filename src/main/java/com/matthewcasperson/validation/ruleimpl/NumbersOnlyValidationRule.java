@@ -25,6 +25,7 @@ package com.matthewcasperson.validation.ruleimpl;
 
 import com.matthewcasperson.validation.exception.ValidationFailedException;
 import com.matthewcasperson.validation.rule.ParameterValidationRuleTemplate;
+import com.matthewcasperson.validation.rule.RuleTraits;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -34,6 +35,9 @@ import static com.google.common.base.Preconditions.checkNotNull;
  * A validation rule that removes any characters that are not numbers (or the negative sign)
  * @author mcasperson
  */
+@RuleTraits(
+		shareable = true, idempotent = true, pure = true, threadSafe = true,
+		safeCharacters = RuleTraits.DIGITS + "-")
 public class NumbersOnlyValidationRule extends ParameterValidationRuleTemplate {
 
 	@Override
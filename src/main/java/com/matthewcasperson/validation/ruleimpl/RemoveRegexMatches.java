@@ -1,10 +1,13 @@
 package com.matthewcasperson.validation.ruleimpl;
 
 import com.matthewcasperson.validation.exception.ValidationFailedException;
+import com.matthewcasperson.validation.regex.CompiledRegex;
+import com.matthewcasperson.validation.regex.RegexEngine;
+import com.matthewcasperson.validation.regex.RequiredLiterals;
 import com.matthewcasperson.validation.rule.ParameterValidationRuleTemplate;
+import com.matthewcasperson.validation.rule.RuleTraits;
 
 import java.util.Map;
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import static com.google.common.base.Preconditions.checkArgument;
@@ -13,14 +16,18 @@ import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
  * Strips out ant text that is matched by the supplied regexes. This is useful
- * for custom sanitisation.
+ * for custom sanitisation. The regex engine can be selected with the regexEngine
+ * setting (see RegexEngine).
  *
  * @author mcasperson
  */
+@RuleTraits(shareable = true, idempotent = true, pure = true, threadSafe = true)
 public class RemoveRegexMatches extends ParameterValidationRuleTemplate {
 	private static final String PATTERN_KEY_NAME = "pattern";
 
 	private Pattern pattern;
+	private CompiledRegex regex;
+	private RequiredLiterals requiredLiterals = RequiredLiterals.NONE;
 
 	/**
 	 *
@@ -36,10 +43,22 @@ public class RemoveRegexMatches extends ParameterValidationRuleTemplate {
 	 */
 	public void setPattern(final Pattern pattern) {
 		this.pattern = pattern;
+		this.regex = pattern == null ? null : RegexEngine.wrap(pattern);
+		this.requiredLiterals = pattern == null ? RequiredLiterals.NONE : RequiredLiterals.of(pattern);
+	}
+
+	/**
+	 *
+	 * @return The regex compiled from the supplied settings with the selected engine
+	 */
+	public CompiledRegex getRegex() {
+		return regex;
 	}
 
 	public void configure(final Map<String, String> settings) {
-		pattern = Pattern.compile(settings.get(PATTERN_KEY_NAME));
+		regex = RegexEngine.fromSettings(settings).compile(settings.get(PATTERN_KEY_NAME));
+		pattern = regex.toPattern();
+		requiredLiterals = RequiredLiterals.of(pattern);
 	}
 
 	@Override
@@ -65,12 +84,14 @@ public class RemoveRegexMatches extends ParameterValidationRuleTemplate {
 				 * matches the regex.
 				 */
 				String fixedString = param;
-				while (true) {
-					final Matcher matcher = pattern.matcher(fixedString);
-					if (!matcher.find()) {
+
+				// The regex can not match once none of the literals it requires are left
+				while (requiredLiterals.mayMatch(fixedString)) {
+					final String match = regex.findFirst(fixedString);
+					if (match == null) {
 						break;
 					}
-					fixedString = fixedString.replace(matcher.group(), "");
+					fixedString = fixedString.replace(match, "");
 				}
 
 				retValues[paramIndex] = fixedString;
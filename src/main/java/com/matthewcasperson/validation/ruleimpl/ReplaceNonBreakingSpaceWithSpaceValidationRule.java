@@ -2,6 +2,7 @@ package com.matthewcasperson.validation.ruleimpl;
 
 import com.matthewcasperson.validation.exception.ValidationFailedException;
 import com.matthewcasperson.validation.rule.ParameterValidationRuleTemplate;
+import com.matthewcasperson.validation.rule.RuleTraits;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -13,6 +14,9 @@ import static com.google.common.base.Preconditions.checkNotNull;
  * @author mcasperson
  *
  */
+@RuleTraits(
+		shareable = true, idempotent = true, pure = true, threadSafe = true,
+		safeCharacters = RuleTraits.LETTERS + RuleTraits.DIGITS + " !\"#$%'()*+,-./:;<=>?@[\\]^_`{|}~")
 public class ReplaceNonBreakingSpaceWithSpaceValidationRule extends ParameterValidationRuleTemplate {
 
 	@Override
@@ -2,6 +2,7 @@ package com.matthewcasperson.validation.ruleimpl;
 
 import com.matthewcasperson.validation.exception.ValidationFailedException;
 import com.matthewcasperson.validation.rule.ParameterValidationRuleTemplate;
+import com.matthewcasperson.validation.rule.RuleTraits;
 import lombok.extern.slf4j.Slf4j;
 import org.owasp.html.Handler;
 import org.owasp.html.HtmlPolicyBuilder;
@@ -17,6 +18,9 @@ import static com.google.common.base.Preconditions.checkNotNull;
 /**
  * Sanitizes html using the OWASP HTML sanitizer with some common defaults
  */
+@RuleTraits(
+        shareable = true, pure = true, threadSafe = true, expensive = true,
+        safeCharacters = RuleTraits.LETTERS + RuleTraits.DIGITS + " ")
 @Slf4j
 public class SanitizeHTMLValidationRule extends ParameterValidationRuleTemplate {
 
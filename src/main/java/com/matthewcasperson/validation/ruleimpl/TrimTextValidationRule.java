@@ -25,6 +25,9 @@ package com.matthewcasperson.validation.ruleimpl;
 
 import com.matthewcasperson.validation.exception.ValidationFailedException;
 import com.matthewcasperson.validation.rule.ParameterValidationRuleTemplate;
+import com.matthewcasperson.validation.rule.DerivedForms;
+import com.matthewcasperson.validation.rule.RuleTraits;
+import com.matthewcasperson.validation.rule.ValidationContext;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -34,6 +37,9 @@ import static com.google.common.base.Preconditions.checkNotNull;
  * A validation rule to trim a parameter
  * @author mcasperson
  */
+@RuleTraits(
+		shareable = true, idempotent = true, pure = true, threadSafe = true,
+		safeCharacters = RuleTraits.LETTERS + RuleTraits.DIGITS + "!\"#$%&'()*+,-./:;<=>?@[\\]^_`{|}~")
 public class TrimTextValidationRule extends ParameterValidationRuleTemplate {
 
 	@Override
@@ -46,6 +52,7 @@ public class TrimTextValidationRule extends ParameterValidationRuleTemplate {
 		checkArgument(params.length != 0, "PVF-BUG-0003: params should always have at least one value");
 
 		final String[] retValues = new String[params.length];
+		final DerivedForms derivedForms = ValidationContext.current().getDerivedForms();
 
 		for (int paramIndex = 0, paramLength = params.length; paramIndex < paramLength; ++paramIndex) {
 			final String param = params[paramIndex];
@@ -54,7 +61,7 @@ public class TrimTextValidationRule extends ParameterValidationRuleTemplate {
 				retValues[paramIndex] = null;
 			}
 			else {
-				retValues[paramIndex] = param.trim();
+				retValues[paramIndex] = derivedForms.trimmed(param);
 			}
 		}
 
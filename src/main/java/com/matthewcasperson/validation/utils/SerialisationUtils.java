@@ -24,6 +24,8 @@
 
 package com.matthewcasperson.validation.utils;
 
+import java.io.InputStream;
+
 /**
  * Util methods for xml serialisation
  * @author mcasperson
@@ -48,4 +50,14 @@ public interface SerialisationUtils {
 	 * @return The Java object constructed from the XML
 	 */
 	<T> T readFromXML(final String xml, final Class<T> klass, final Class<?>... additionalClasses);
+	/**
+	 * 
+	 * @param stream The XML representation of the object, which is decoded with the encoding in
+	 *               its XML declaration. The stream is not closed.
+	 * @param klass The type of object to return
+	 * @param additionalClasses A list of additional classes that might be required to deserialize the object
+	 * @param <T> The type of object we are serialising
+	 * @return The Java object constructed from the XML
+	 */
+	<T> T readFromXML(final InputStream stream, final Class<T> klass, final Class<?>... additionalClasses);
 }
@@ -25,70 +25,101 @@ package com.matthewcasperson.validation.utilsimpl;
 
 import com.matthewcasperson.validation.utils.SerialisationUtils;
 import jakarta.xml.bind.JAXBContext;
+import jakarta.xml.bind.JAXBException;
 import jakarta.xml.bind.Marshaller;
 import jakarta.xml.bind.Unmarshaller;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import javax.xml.transform.stream.StreamSource;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
- * Implementation of the serialisation util interface using JAXB
+ * Implementation of the serialisation util interface using JAXB. A JAXBContext is expensive to
+ * create, so one is kept for each set of classes that has been serialised.
  * @author mcasperson
  *
  */
 public class JaxBSerialisationUtilsImpl implements SerialisationUtils {
 
+	private static final Map<List<Class<?>>, JAXBContext> CONTEXTS = new ConcurrentHashMap<List<Class<?>>, JAXBContext>();
+
 	@Override
 	public <T> String writeToXML(final T object, final Class<T> klass, final Class<?>... additionalClasses) {
 		checkNotNull(object);
 		checkNotNull(klass);
 		
 		try {
-			final ByteArrayOutputStream byteArray = new ByteArrayOutputStream();
-			
-			final List<Class<?>> allClasses = new ArrayList<Class<?>>();
-			allClasses.add(klass);
-			for (final Class<?> additionalClass : additionalClasses) {
-				allClasses.add(additionalClass);
-			}
-			
-			final JAXBContext jaxbContext = JAXBContext.newInstance(allClasses.toArray(new Class[] {}));
-			final Marshaller jaxbMarshaller = jaxbContext.createMarshaller();
+			// Marshalling to a writer avoids the round trip through the platform charset
+			final StringWriter writer = new StringWriter();
+
+			final Marshaller jaxbMarshaller = getContext(klass, additionalClasses).createMarshaller();
 	 
 			// output pretty printed
 			jaxbMarshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
 	 
-			jaxbMarshaller.marshal(object, byteArray);
+			jaxbMarshaller.marshal(object, writer);
 	        
-	        return byteArray.toString();
+	        return writer.toString();
 		} catch (final Exception ex) {
 			return null;
 		}
 	}
 
-	@SuppressWarnings("unchecked")
 	@Override
 	public <T> T readFromXML(final String xml, final Class<T> klass, final Class<?>... additionalClasses) {
 		checkNotNull(xml);
 		checkNotNull(klass);
-		
-		try { 
-			final ByteArrayInputStream byteArray = new ByteArrayInputStream(xml.getBytes());
-			
-			final List<Class<?>> allClasses = new ArrayList<Class<?>>();
-			allClasses.add(klass);
-			for (final Class<?> additionalClass : additionalClasses) {
-				allClasses.add(additionalClass);
-			}
-			
-			final JAXBContext jaxbContext = JAXBContext.newInstance(allClasses.toArray(new Class<?>[] {}));
-			 
-			final Unmarshaller jaxbUnmarshaller = jaxbContext.createUnmarshaller();
-			final Object object = jaxbUnmarshaller.unmarshal(byteArray);
+
+		// The string has already been decoded, so any encoding in the XML declaration is ignored
+		return unmarshal(new StreamSource(new StringReader(xml)), klass, additionalClasses);
+	}
+
+	@Override
+	public <T> T readFromXML(final InputStream stream, final Class<T> klass, final Class<?>... additionalClasses) {
+		checkNotNull(stream);
+		checkNotNull(klass);
+
+		return unmarshal(new StreamSource(stream), klass, additionalClasses);
+	}
+
+	/**
+	 * @param klass The type of object being serialised
+	 * @param additionalClasses A list of additional classes that might be required to serialise the object
+	 * @return The shared context for the classes, which is thread safe
+	 * @throws JAXBException If the context could not be created
+	 */
+	private static JAXBContext getContext(final Class<?> klass, final Class<?>... additionalClasses) throws JAXBException {
+		final List<Class<?>> allClasses = new ArrayList<Class<?>>();
+		allClasses.add(klass);
+		for (final Class<?> additionalClass : additionalClasses) {
+			allClasses.add(additionalClass);
+		}
+
+		final JAXBContext existing = CONTEXTS.get(allClasses);
+		if (existing != null) {
+			return existing;
+		}
+
+		// Two threads may both create a context, but only the first one is kept
+		final JAXBContext jaxbContext = JAXBContext.newInstance(allClasses.toArray(new Class<?>[] {}));
+		final JAXBContext previous = CONTEXTS.putIfAbsent(Collections.unmodifiableList(allClasses), jaxbContext);
+		return previous == null ? jaxbContext : previous;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> T unmarshal(final StreamSource source, final Class<T> klass, final Class<?>... additionalClasses) {
+		try {
+			// Unmarshallers are not thread safe, but are cheap to create from a shared context
+			final Unmarshaller jaxbUnmarshaller = getContext(klass, additionalClasses).createUnmarshaller();
+			final Object object = jaxbUnmarshaller.unmarshal(source);
 			
 			if (klass.isInstance(object)) {
 				return (T)object;
@@ -99,7 +130,6 @@ public class JaxBSerialisationUtilsImpl implements SerialisationUtils {
 		} catch (final Exception ex) {
 			return null;
 		}
-		
 	}
 
 }
@@ -24,11 +24,14 @@
 package com.matthewcasperson.validation.utilsimpl;
 
 import com.matthewcasperson.validation.utils.SerialisationUtils;
+import org.apache.commons.io.input.CloseShieldInputStream;
 
 import java.beans.XMLDecoder;
 import java.beans.XMLEncoder;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
@@ -50,17 +53,25 @@ public class SerialisationUtilsImpl implements SerialisationUtils {
         encoder.writeObject(object);
         encoder.close();
 
-        return byteArray.toString();
+        return byteArray.toString(StandardCharsets.UTF_8);
 	}
 
-	@SuppressWarnings("unchecked")
 	@Override
 	public <T> T readFromXML(final String xml, final Class<T> klass, final Class<?>... additionalClasses) {
 		checkNotNull(xml);
+
+		// The encoder always declares UTF-8
+		return readFromXML(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)), klass, additionalClasses);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public <T> T readFromXML(final InputStream stream, final Class<T> klass, final Class<?>... additionalClasses) {
+		checkNotNull(stream);
 		checkNotNull(klass);
 
-		final ByteArrayInputStream byteArray = new ByteArrayInputStream(xml.getBytes());
-		final XMLDecoder decoder = new XMLDecoder(byteArray);
+		// Closing the decoder closes its stream, which belongs to the caller
+		final XMLDecoder decoder = new XMLDecoder(CloseShieldInputStream.wrap(stream));
 		final Object object = decoder.readObject();
 		decoder.close();
 
@@ -0,0 +1,127 @@
+package com.matthewcasperson.validation.benchmark;
+
+import com.matthewcasperson.validation.config.CompiledValidationConfig;
+import com.matthewcasperson.validation.config.ConfigSnapshot;
+import com.matthewcasperson.validation.config.StaxConfigLoader;
+import com.matthewcasperson.validation.exception.InvalidConfigurationException;
+import com.matthewcasperson.validation.ruleimpl.FailIfContainsHTMLValidationRule;
+import com.matthewcasperson.validation.ruleimpl.FailIfNotRegexMatchValidationRule;
+import com.matthewcasperson.validation.ruleimpl.TrimTextValidationRule;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Compares loading a configuration from its XML with loading it from a snapshot, both eagerly and
+ * lazily, which is the work the filter does when it starts. Loading a snapshot still hashes the
+ * XML to check the snapshot is up to date, and still creates the rules and compiles the regexes,
+ * so the difference is the cost of parsing the XML:
+ *
+ * mvn test-compile dependency:build-classpath -Dmdep.outputFile=target/classpath.txt
+ * java -cp target/test-classes:target/classes:$(cat target/classpath.txt) com.matthewcasperson.validation.benchmark.ConfigLoadBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConfigLoadBenchmark {
+
+	@Param({"100", "1000"})
+	private int chainCount;
+
+	private byte[] configXml;
+	private ByteBuffer snapshot;
+
+	@Setup
+	public void setup() throws InvalidConfigurationException {
+		configXml = config(chainCount).getBytes(StandardCharsets.UTF_8);
+		snapshot = ByteBuffer.wrap(ConfigSnapshot.create(configXml));
+	}
+
+	@Benchmark
+	public CompiledValidationConfig xml() throws InvalidConfigurationException {
+		return StaxConfigLoader.load(new ByteArrayInputStream(configXml), null, false);
+	}
+
+	@Benchmark
+	public CompiledValidationConfig snapshot() throws InvalidConfigurationException {
+		return ConfigSnapshot.load(snapshot, configXml, null, false);
+	}
+
+	@Benchmark
+	public CompiledValidationConfig xmlLazy() throws InvalidConfigurationException {
+		return StaxConfigLoader.load(new ByteArrayInputStream(configXml), null, true);
+	}
+
+	@Benchmark
+	public CompiledValidationConfig snapshotLazy() throws InvalidConfigurationException {
+		return ConfigSnapshot.load(snapshot, configXml, null, true);
+	}
+
+	/**
+	 * A configuration with a chain per section of an application, each with its own param name
+	 * pattern and a regex of its own, so the regexes are not shared between chains
+	 */
+	private static String config(final int chainCount) {
+		final StringBuilder xml = new StringBuilder()
+				.append("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n")
+				.append("<ParameterValidationChainDatabase>\n")
+				.append("    <EnforcingMode>true</EnforcingMode>\n")
+				.append("    <ParameterValidationChains>\n");
+
+		for (int chainIndex = 0; chainIndex < chainCount; ++chainIndex) {
+			xml.append("        <ParameterValidationDefinition>\n")
+					.append("            <ParameterValidationRuleList>\n")
+					.append(rule(TrimTextValidationRule.class.getName(), null))
+					.append(rule(FailIfNotRegexMatchValidationRule.class.getName(), "^[a-z0-9]{1," + (chainIndex + 1) + "}$"))
+					.append(rule(FailIfContainsHTMLValidationRule.class.getName(), null))
+					.append("            </ParameterValidationRuleList>\n")
+					.append("            <paramNamePatternString>")
+					.append(chainIndex % 4 == 0 ? "^(id|ref)" + chainIndex + "[0-9]*$" : "^field" + chainIndex + "$")
+					.append("</paramNamePatternString>\n")
+					.append("            <requestURIPatternString>^/app/section").append(chainIndex).append("/</requestURIPatternString>\n")
+					.append("            <paramNamePatternNegated>false</paramNamePatternNegated>\n")
+					.append("            <requestURIPatternNegated>false</requestURIPatternNegated>\n")
+					.append("        </ParameterValidationDefinition>\n");
+		}
+
+		return xml.append("    </ParameterValidationChains>\n")
+				.append("</ParameterValidationChainDatabase>\n")
+				.toString();
+	}
+
+	private static String rule(final String name, final String pattern) {
+		final StringBuilder xml = new StringBuilder()
+				.append("                <ParameterValidationRule>\n")
+				.append("                    <validationRuleName>").append(name).append("</validationRuleName>\n");
+		if (pattern != null) {
+			xml.append("                    <settings><entry><key>pattern</key><value>").append(pattern).append("</value></entry></settings>\n");
+		}
+		return xml.append("                </ParameterValidationRule>\n").toString();
+	}
+
+	public static void main(final String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder()
+				.include(ConfigLoadBenchmark.class.getSimpleName())
+				.build()).run();
+	}
+}
@@ -0,0 +1,115 @@
+package com.matthewcasperson.validation.benchmark;
+
+import com.matthewcasperson.validation.regex.CompiledRegex;
+import com.matthewcasperson.validation.regex.RegexEngine;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+
+/**
+ * Measures the cost of the pattern tests made for a typical request: every param name and the
+ * request URI are tested against the chain patterns, and the values against an allow list rule.
+ * Run with the GC profiler to compare the allocation per request of a fresh Matcher per test
+ * (the way the filter used to work) with the compiled regexes:
+ *
+ * mvn test-compile dependency:build-classpath -Dmdep.outputFile=target/classpath.txt
+ * java -cp target/test-classes:target/classes:$(cat target/classpath.txt) com.matthewcasperson.validation.benchmark.RegexMatchBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RegexMatchBenchmark {
+
+	private static final String[] CHAIN_PARAM_PATTERNS = {".*", "^(?:id|page|size)$", "^search"};
+	private static final String[] CHAIN_URI_PATTERNS = {".*", "^/api/", "\\.jsp$"};
+	private static final String VALUE_PATTERN = "^[a-zA-Z0-9_ -]*$";
+
+	private static final String URI = "/api/assets/list.jsp";
+	private static final String[] NAMES = {"id", "page", "size", "sort", "searchText", "filter", "locale", "token"};
+	private static final String[] VALUES = {"12345", "3", "50", "name", "news at ten", "archived", "en_GB", "a1b2c3d4e5"};
+
+	@Param({"JAVA", "LINEAR"})
+	public String engine;
+
+	private Pattern[] paramPatterns;
+	private Pattern[] uriPatterns;
+	private Pattern valuePattern;
+
+	private CompiledRegex[] paramRegexes;
+	private CompiledRegex[] uriRegexes;
+	private CompiledRegex valueRegex;
+
+	@Setup
+	public void setup() {
+		final RegexEngine regexEngine = RegexEngine.valueOf(engine);
+
+		paramPatterns = new Pattern[CHAIN_PARAM_PATTERNS.length];
+		uriPatterns = new Pattern[CHAIN_URI_PATTERNS.length];
+		paramRegexes = new CompiledRegex[CHAIN_PARAM_PATTERNS.length];
+		uriRegexes = new CompiledRegex[CHAIN_URI_PATTERNS.length];
+
+		for (int index = 0; index < CHAIN_PARAM_PATTERNS.length; ++index) {
+			paramPatterns[index] = Pattern.compile(CHAIN_PARAM_PATTERNS[index]);
+			uriPatterns[index] = Pattern.compile(CHAIN_URI_PATTERNS[index]);
+			paramRegexes[index] = regexEngine.compile(CHAIN_PARAM_PATTERNS[index]);
+			uriRegexes[index] = regexEngine.compile(CHAIN_URI_PATTERNS[index]);
+		}
+
+		valuePattern = Pattern.compile(VALUE_PATTERN);
+		valueRegex = regexEngine.compile(VALUE_PATTERN);
+	}
+
+	@Benchmark
+	public int freshMatcherPerTest() {
+		int matches = 0;
+		for (int param = 0; param < NAMES.length; ++param) {
+			for (int chain = 0; chain < paramPatterns.length; ++chain) {
+				if (paramPatterns[chain].matcher(NAMES[param]).find() && uriPatterns[chain].matcher(URI).find()
+						&& valuePattern.matcher(VALUES[param]).find()) {
+					++matches;
+				}
+			}
+		}
+		return matches;
+	}
+
+	@Benchmark
+	public int compiledRegex() {
+		int matches = 0;
+		for (int param = 0; param < NAMES.length; ++param) {
+			for (int chain = 0; chain < paramRegexes.length; ++chain) {
+				if (paramRegexes[chain].find(NAMES[param]) && uriRegexes[chain].find(URI)
+						&& valueRegex.find(VALUES[param])) {
+					++matches;
+				}
+			}
+		}
+		return matches;
+	}
+
+	public static void main(final String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder()
+				.include(RegexMatchBenchmark.class.getSimpleName())
+				.addProfiler(GCProfiler.class)
+				.build()).run();
+	}
+}
@@ -0,0 +1,669 @@
+package com.matthewcasperson.validation.test;
+
+import com.matthewcasperson.validation.config.AdaptiveRuleOrder;
+import com.matthewcasperson.validation.config.CompiledChain;
+import com.matthewcasperson.validation.config.CompiledValidationConfig;
+import com.matthewcasperson.validation.config.ConfigAnalyser;
+import com.matthewcasperson.validation.config.ConfigReport;
+import com.matthewcasperson.validation.config.ConfigSnapshot;
+import com.matthewcasperson.validation.config.ConfigSnapshotTool;
+import com.matthewcasperson.validation.config.StaxConfigLoader;
+import com.matthewcasperson.validation.config.ValidationConfigCompiler;
+import com.matthewcasperson.validation.exception.InvalidConfigurationException;
+import com.matthewcasperson.validation.regex.CompiledRegex;
+import com.matthewcasperson.validation.regex.RegexEngine;
+import com.matthewcasperson.validation.rule.ParameterValidationRule;
+import com.matthewcasperson.validation.ruledefinitionimpl.ParameterValidationChain;
+import com.matthewcasperson.validation.ruledefinitionimpl.ParameterValidationDefinitionImpl;
+import com.matthewcasperson.validation.ruledefinitionimpl.ParameterValidationDefinitionsImpl;
+import com.matthewcasperson.validation.ruleimpl.FailIfContainsHTMLValidationRule;
+import com.matthewcasperson.validation.ruleimpl.FailIfNotCanonicalizedValidationRule;
+import com.matthewcasperson.validation.ruleimpl.FailIfNotRegexMatchValidationRule;
+import com.matthewcasperson.validation.ruleimpl.HTMLEncodeTextValidationRule;
+import com.matthewcasperson.validation.ruleimpl.NumbersOnlyValidationRule;
+import com.matthewcasperson.validation.ruleimpl.SanitizeHTMLValidationRule;
+import com.matthewcasperson.validation.ruleimpl.TrimTextValidationRule;
+import com.matthewcasperson.validation.utils.SerialisationUtils;
+import com.matthewcasperson.validation.utilsimpl.JaxBSerialisationUtilsImpl;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+
+/**
+ * Tests of the loaders that turn a configuration file into a CompiledValidationConfig
+ */
+public class ConfigLoaderTest {
+
+	private static final SerialisationUtils JAXB_SERIALISATION_UTILS = new JaxBSerialisationUtilsImpl();
+
+	private static ParameterValidationDefinitionsImpl createDefinitions() {
+		final Map<String, String> settings = new HashMap<String, String>();
+		settings.put("pattern", "[A-Z]*");
+
+		final ParameterValidationDefinitionImpl regexDef = new ParameterValidationDefinitionImpl();
+		regexDef.setValidationRuleName(FailIfNotRegexMatchValidationRule.class.getName());
+		regexDef.setSettings(settings);
+
+		final ParameterValidationDefinitionImpl trimDef = new ParameterValidationDefinitionImpl();
+		trimDef.setValidationRuleName(TrimTextValidationRule.class.getName());
+
+		final ParameterValidationChain chain = new ParameterValidationChain();
+		chain.setParamNamePatternString("hithere");
+		chain.setParamNamePatternNegated(true);
+		chain.setRequestURIPatternString("^/something/else$");
+		chain.setRegexEngine("java");
+		chain.getList().add(regexDef);
+		chain.getList().add(trimDef);
+
+		final ParameterValidationChain chain2 = new ParameterValidationChain();
+		chain2.setParamNamePatternString(".*");
+		chain2.setRequestURIPatternString("\\.jsp$");
+		chain2.setRequestURIPatternNegated(true);
+		chain2.getList().add(regexDef);
+
+		final ParameterValidationDefinitionsImpl definitions = new ParameterValidationDefinitionsImpl();
+		definitions.addRuleDefinition(chain);
+		definitions.addRuleDefinition(chain2);
+		definitions.setEnforcingMode(true);
+		definitions.setRegexEngine("linear");
+		return definitions;
+	}
+
+	private static CompiledValidationConfig load(final String xml, final String charset) throws InvalidConfigurationException {
+		return StaxConfigLoader.load(new ByteArrayInputStream(xml.getBytes(Charset.forName(charset))), null);
+	}
+
+	/*
+	 * The StAX loader has to produce the same snapshot as compiling the JAXB model
+	 */
+	@Test
+	public void testStaxMatchesJaxb() throws InvalidConfigurationException {
+		final String xml = JAXB_SERIALISATION_UTILS.writeToXML(createDefinitions(), ParameterValidationDefinitionsImpl.class, ParameterValidationDefinitionImpl.class);
+
+		final ParameterValidationDefinitionsImpl definitions = JAXB_SERIALISATION_UTILS.readFromXML(xml, ParameterValidationDefinitionsImpl.class, ParameterValidationDefinitionImpl.class);
+		final CompiledValidationConfig jaxbConfig = ValidationConfigCompiler.compile(definitions);
+		final CompiledValidationConfig staxConfig = load(xml, "UTF-8");
+
+		assertTrue(staxConfig.isEnforcingMode());
+		assertEquals(jaxbConfig.isEnforcingMode(), staxConfig.isEnforcingMode());
+		assertEquals(jaxbConfig.getChainCount(), staxConfig.getChainCount());
+
+		for (int chainIndex = 0; chainIndex < jaxbConfig.getChainCount(); ++chainIndex) {
+			final CompiledChain jaxbChain = jaxbConfig.getChain(chainIndex);
+			final CompiledChain staxChain = staxConfig.getChain(chainIndex);
+
+			assertEquals(jaxbChain.getParamNameRegex().pattern(), staxChain.getParamNameRegex().pattern());
+			assertEquals(jaxbChain.getParamNameRegex().getEngine(), staxChain.getParamNameRegex().getEngine());
+			assertEquals(jaxbChain.isParamNamePatternNegated(), staxChain.isParamNamePatternNegated());
+			assertEquals(jaxbChain.getRequestURIRegex().pattern(), staxChain.getRequestURIRegex().pattern());
+			assertEquals(jaxbChain.isRequestURIPatternNegated(), staxChain.isRequestURIPatternNegated());
+			assertEquals(jaxbChain.getRuleCount(), staxChain.getRuleCount());
+
+			for (int ruleIndex = 0; ruleIndex < jaxbChain.getRuleCount(); ++ruleIndex) {
+				assertEquals(jaxbChain.getRuleName(ruleIndex), staxChain.getRuleName(ruleIndex));
+				assertEquals(jaxbChain.getCompiledRule(ruleIndex).getSettings(), staxChain.getCompiledRule(ruleIndex).getSettings());
+			}
+		}
+
+		// The chain selects java, and the second chain gets linear from the database
+		assertEquals(RegexEngine.JAVA, ((FailIfNotRegexMatchValidationRule)staxConfig.getChain(0).getRule(0)).getRegex().getEngine());
+		assertEquals(RegexEngine.LINEAR, ((FailIfNotRegexMatchValidationRule)staxConfig.getChain(1).getRule(0)).getRegex().getEngine());
+		assertEquals(RegexEngine.LINEAR, staxConfig.getChain(1).getParamNameRegex().getEngine());
+	}
+
+	/*
+	 * The file has to be decoded with the encoding in its XML declaration
+	 */
+	@Test
+	public void testDeclaredEncoding() throws InvalidConfigurationException {
+		final String xml =
+				"<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?>\n" +
+				"<ParameterValidationChainDatabase>\n" +
+				"    <ParameterValidationChains>\n" +
+				"        <ParameterValidationDefinition>\n" +
+				"            <paramNamePatternString>caf\u00e9</paramNamePatternString>\n" +
+				"            <requestURIPatternString>.*</requestURIPatternString>\n" +
+				"        </ParameterValidationDefinition>\n" +
+				"    </ParameterValidationChains>\n" +
+				"</ParameterValidationChainDatabase>\n";
+
+		final CompiledValidationConfig config = load(xml, "ISO-8859-1");
+		assertTrue(config.getChain(0).matchesParamName("caf\u00e9"));
+
+		final ParameterValidationDefinitionsImpl definitions = JAXB_SERIALISATION_UTILS.readFromXML(
+				new ByteArrayInputStream(xml.getBytes(StandardCharsets.ISO_8859_1)),
+				ParameterValidationDefinitionsImpl.class);
+		assertEquals("caf\u00e9", definitions.getParameterValidationDefinitions().get(0).getParamNamePatternString());
+	}
+
+	/*
+	 * Elements the loader does not know about are skipped, as they are by JAXB
+	 */
+	@Test
+	public void testUnknownElements() throws InvalidConfigurationException {
+		final String xml =
+				"<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+				"<ParameterValidationChainDatabase>\n" +
+				"    <Comment><Nested>ignored</Nested></Comment>\n" +
+				"    <ParameterValidationChains>\n" +
+				"        <ParameterValidationDefinition>\n" +
+				"            <description>ignored</description>\n" +
+				"            <ParameterValidationRuleList>\n" +
+				"                <ParameterValidationRule>\n" +
+				"                    <validationRuleName>\n" +
+				"                        " + TrimTextValidationRule.class.getName() + "\n" +
+				"                    </validationRuleName>\n" +
+				"                </ParameterValidationRule>\n" +
+				"            </ParameterValidationRuleList>\n" +
+				"            <paramNamePatternString>.*</paramNamePatternString>\n" +
+				"            <requestURIPatternString>.*</requestURIPatternString>\n" +
+				"        </ParameterValidationDefinition>\n" +
+				"    </ParameterValidationChains>\n" +
+				"    <EnforcingMode>1</EnforcingMode>\n" +
+				"</ParameterValidationChainDatabase>\n";
+
+		final CompiledValidationConfig config = load(xml, "UTF-8");
+		assertTrue(config.isEnforcingMode());
+		assertEquals(TrimTextValidationRule.class.getName(), config.getChain(0).getRuleName(0));
+	}
+
+	/*
+	 * Documents with a DTD or the wrong root element are rejected
+	 */
+	@Test
+	public void testInvalidDocuments() {
+		final String[] invalid = {
+				"<?xml version=\"1.0\"?>\n<!DOCTYPE foo [<!ENTITY xxe SYSTEM \"file:///etc/passwd\">]>\n<ParameterValidationChainDatabase><RegexEngine>&xxe;</RegexEngine></ParameterValidationChainDatabase>",
+				"<?xml version=\"1.0\"?>\n<SomethingElse/>",
+				"<?xml version=\"1.0\"?>\n<ParameterValidationChainDatabase><ParameterValidationChains>",
+				"<?xml version=\"1.0\"?>\n<ParameterValidationChainDatabase><RegexEngine>fast</RegexEngine></ParameterValidationChainDatabase>"
+		};
+
+		for (final String xml : invalid) {
+			try {
+				load(xml, "UTF-8");
+				fail("Loaded " + xml);
+			} catch (final InvalidConfigurationException ex) {
+				// expected
+			}
+		}
+	}
+
+	/*
+	 * A snapshot compiles to the same configuration as the XML it was created from
+	 */
+	@Test
+	public void testSnapshotRoundTrip() throws InvalidConfigurationException {
+		final byte[] xml = JAXB_SERIALISATION_UTILS.writeToXML(createDefinitions(), ParameterValidationDefinitionsImpl.class, ParameterValidationDefinitionImpl.class)
+				.getBytes(StandardCharsets.UTF_8);
+
+		final CompiledValidationConfig xmlConfig = StaxConfigLoader.load(new ByteArrayInputStream(xml), null);
+		final CompiledValidationConfig snapshotConfig = ConfigSnapshot.load(ByteBuffer.wrap(ConfigSnapshot.create(xml)), xml, xmlConfig);
+
+		assertEquals(2, snapshotConfig.getVersion());
+		assertEquals(xmlConfig.isEnforcingMode(), snapshotConfig.isEnforcingMode());
+		assertEquals(xmlConfig.getChainCount(), snapshotConfig.getChainCount());
+
+		for (int chainIndex = 0; chainIndex < xmlConfig.getChainCount(); ++chainIndex) {
+			final CompiledChain xmlChain = xmlConfig.getChain(chainIndex);
+			final CompiledChain snapshotChain = snapshotConfig.getChain(chainIndex);
+
+			// Nothing has changed, so everything is carried over from the XML version
+			assertSame(xmlChain.getParamNameRegex(), snapshotChain.getParamNameRegex());
+			assertSame(xmlChain.getRequestURIRegex(), snapshotChain.getRequestURIRegex());
+			assertEquals(xmlChain.isParamNamePatternNegated(), snapshotChain.isParamNamePatternNegated());
+			assertEquals(xmlChain.isRequestURIPatternNegated(), snapshotChain.isRequestURIPatternNegated());
+			assertEquals(xmlChain.getRuleCount(), snapshotChain.getRuleCount());
+
+			for (int ruleIndex = 0; ruleIndex < xmlChain.getRuleCount(); ++ruleIndex) {
+				assertSame(xmlChain.getRule(ruleIndex), snapshotChain.getRule(ruleIndex));
+			}
+		}
+	}
+
+	/*
+	 * Corrupt, truncated and stale snapshots are never loaded
+	 */
+	@Test
+	public void testSnapshotRejected() throws InvalidConfigurationException {
+		final byte[] xml = JAXB_SERIALISATION_UTILS.writeToXML(createDefinitions(), ParameterValidationDefinitionsImpl.class, ParameterValidationDefinitionImpl.class)
+				.getBytes(StandardCharsets.UTF_8);
+		final byte[] snapshot = ConfigSnapshot.create(xml);
+
+		final byte[] corrupt = snapshot.clone();
+		corrupt[corrupt.length - 10] ^= 1;
+
+		final byte[] truncated = Arrays.copyOf(snapshot, snapshot.length - 1);
+
+		// Only whitespace has changed, but the snapshot is still stale
+		final byte[] otherXml = Arrays.copyOf(xml, xml.length + 1);
+		otherXml[xml.length] = '\n';
+
+		final byte[][] invalid = {corrupt, truncated, new byte[0], xml, ConfigSnapshot.create(otherXml)};
+
+		for (final byte[] bytes : invalid) {
+			try {
+				ConfigSnapshot.load(ByteBuffer.wrap(bytes), xml, null);
+				fail();
+			} catch (final InvalidConfigurationException ex) {
+				assertTrue(ex.getMessage().startsWith("PVF-CONFIGURATION-0005"));
+			}
+		}
+	}
+
+	@Test
+	public void testSnapshotTool(@TempDir final Path tempDir) throws Exception {
+		final byte[] xml = JAXB_SERIALISATION_UTILS.writeToXML(createDefinitions(), ParameterValidationDefinitionsImpl.class, ParameterValidationDefinitionImpl.class)
+				.getBytes(StandardCharsets.UTF_8);
+		final Path xmlFile = tempDir.resolve("pvf.xml");
+		final Path snapshotFile = tempDir.resolve("out").resolve("pvf.bin");
+		Files.write(xmlFile, xml);
+
+		final PrintStream err = new PrintStream(new ByteArrayOutputStream(), true, "UTF-8");
+
+		assertEquals(0, ConfigSnapshotTool.run(new String[] {xmlFile.toString(), snapshotFile.toString()}, err));
+		assertEquals(2, ConfigSnapshot.load(ByteBuffer.wrap(Files.readAllBytes(snapshotFile)), xml, null).getChainCount());
+
+		// An invalid configuration does not produce a snapshot
+		Files.write(xmlFile, "<ParameterValidationChainDatabase><RegexEngine>fast</RegexEngine></ParameterValidationChainDatabase>".getBytes(StandardCharsets.UTF_8));
+		assertEquals(1, ConfigSnapshotTool.run(new String[] {xmlFile.toString(), tempDir.resolve("bad.bin").toString()}, err));
+		assertFalse(Files.exists(tempDir.resolve("bad.bin")));
+
+		assertEquals(2, ConfigSnapshotTool.run(new String[0], err));
+	}
+
+	/*
+	 * A lazy chain is compiled once, by whichever thread needs it first
+	 */
+	@Test
+	public void testLazyCompilation() throws Exception {
+		final byte[] xml = JAXB_SERIALISATION_UTILS.writeToXML(createDefinitions(), ParameterValidationDefinitionsImpl.class, ParameterValidationDefinitionImpl.class)
+				.getBytes(StandardCharsets.UTF_8);
+
+		final CompiledValidationConfig config = StaxConfigLoader.load(new ByteArrayInputStream(xml), null, true);
+		final CompiledChain chain = config.getChain(0);
+
+		// Matching the uri does not need the rest of the chain
+		assertTrue(chain.matchesRequestURI("/something/else"));
+		assertFalse(chain.isCompiled());
+
+		// Nothing is known about the rules until they have been compiled
+		assertFalse(config.isPureChain(0));
+		assertEquals(-1, config.getRuleIdentity(0, 0));
+		assertEquals(0, config.getRuleIdentityCount());
+		assertFalse(chain.isCompiled());
+
+		final ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			final List<Future<ParameterValidationRule>> rules = new ArrayList<Future<ParameterValidationRule>>();
+			for (int i = 0; i < 32; ++i) {
+				rules.add(executor.submit(() -> chain.getRule(0)));
+			}
+			for (final Future<ParameterValidationRule> rule : rules) {
+				assertSame(rules.get(0).get(), rule.get());
+			}
+		} finally {
+			executor.shutdown();
+		}
+
+		assertTrue(chain.isCompiled());
+		assertFalse(config.getChain(1).isCompiled());
+
+		// Once compiled, a lazy chain gets the same flags as a chain compiled up front
+		assertTrue(config.isPureChain(0));
+		assertFalse(config.isValidatorChain(0));
+		assertEquals(0, config.getRuleIdentity(0, 0));
+		assertEquals(1, config.getRuleIdentity(0, 1));
+		assertEquals(2, config.getRuleIdentityCount());
+		assertFalse(config.isValidatorChain(1));
+		assertFalse(config.getChain(1).isCompiled());
+
+		// Only the compiled chain has anything to carry over to the next version
+		final CompiledValidationConfig reloaded = StaxConfigLoader.load(new ByteArrayInputStream(xml), config, false);
+		assertSame(chain.getRule(0), reloaded.getChain(0).getRule(0));
+		assertFalse(config.getChain(1).isCompiled());
+	}
+
+	/*
+	 * A lazy chain that can not be compiled fails every time it is used
+	 */
+	@Test
+	public void testLazyCompilationFailure() throws InvalidConfigurationException {
+		final String xml =
+				"<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+				"<ParameterValidationChainDatabase>\n" +
+				"    <ParameterValidationChains>\n" +
+				"        <ParameterValidationDefinition>\n" +
+				"            <ParameterValidationRuleList>\n" +
+				"                <ParameterValidationRule>\n" +
+				"                    <validationRuleName>com.example.DoesNotExist</validationRuleName>\n" +
+				"                </ParameterValidationRule>\n" +
+				"            </ParameterValidationRuleList>\n" +
+				"            <paramNamePatternString>.*</paramNamePatternString>\n" +
+				"            <requestURIPatternString>^/rarely/used</requestURIPatternString>\n" +
+				"        </ParameterValidationDefinition>\n" +
+				"    </ParameterValidationChains>\n" +
+				"</ParameterValidationChainDatabase>\n";
+
+		final CompiledValidationConfig config = StaxConfigLoader.load(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)), null, true);
+
+		for (int i = 0; i < 2; ++i) {
+			try {
+				config.getChain(0).getRuleCount();
+				fail();
+			} catch (final IllegalStateException ex) {
+				assertTrue(ex.getMessage().startsWith("PVF-CONFIGURATION-0006"));
+				assertTrue(ex.getCause() instanceof InvalidConfigurationException);
+			}
+		}
+
+		try {
+			StaxConfigLoader.load(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)), null, false);
+			fail();
+		} catch (final InvalidConfigurationException ex) {
+			// expected
+		}
+	}
+
+	/**
+	 * Not marked as shareable, as the traits of TrimTextValidationRule are not inherited
+	 */
+	public static class UnshareableValidationRule extends TrimTextValidationRule {
+
+	}
+
+	/*
+	 * Identical definitions share one instance, unless the rule class is not shareable
+	 */
+	@Test
+	public void testSharedInstances() throws InvalidConfigurationException {
+		final Map<String, String> settings = new HashMap<String, String>();
+		settings.put("pattern", "^[a-z]+$");
+
+		final ParameterValidationDefinitionsImpl definitions = new ParameterValidationDefinitionsImpl();
+		for (int i = 0; i < 3; ++i) {
+			final ParameterValidationDefinitionImpl regexDef = new ParameterValidationDefinitionImpl();
+			regexDef.setValidationRuleName(FailIfNotRegexMatchValidationRule.class.getName());
+			regexDef.setSettings(new HashMap<String, String>(settings));
+
+			final ParameterValidationDefinitionImpl unshareableDef = new ParameterValidationDefinitionImpl();
+			unshareableDef.setValidationRuleName(UnshareableValidationRule.class.getName());
+
+			final ParameterValidationChain chain = new ParameterValidationChain();
+			chain.setParamNamePatternString("^param" + i + "$");
+			chain.setRequestURIPatternString("^/app/");
+			chain.getList().add(regexDef);
+			chain.getList().add(unshareableDef);
+			definitions.addRuleDefinition(chain);
+		}
+
+		final CompiledValidationConfig config = ValidationConfigCompiler.compile(definitions);
+		assertTrue(config.getChain(0).getCompiledRule(0).isShareable());
+		assertFalse(config.getChain(0).getCompiledRule(1).isShareable());
+
+		for (int chainIndex = 1; chainIndex < 3; ++chainIndex) {
+			assertSame(config.getChain(0).getRequestURIRegex(), config.getChain(chainIndex).getRequestURIRegex());
+			assertSame(config.getChain(0).getRule(0), config.getChain(chainIndex).getRule(0));
+			assertNotSame(config.getChain(0).getRule(1), config.getChain(chainIndex).getRule(1));
+		}
+
+		// On a reload each unshareable instance is still only used by one chain
+		final CompiledValidationConfig reloaded = ValidationConfigCompiler.compile(definitions, config);
+		final Set<ParameterValidationRule> unshareable = Collections.newSetFromMap(new IdentityHashMap<ParameterValidationRule, Boolean>());
+		for (int chainIndex = 0; chainIndex < 3; ++chainIndex) {
+			assertSame(config.getChain(0).getRule(0), reloaded.getChain(chainIndex).getRule(0));
+			assertTrue(unshareable.add(reloaded.getChain(chainIndex).getRule(1)));
+		}
+	}
+
+	/*
+	 * A regex the linear engine hands over to java.util.regex is still reused by a reload
+	 */
+	@Test
+	public void testReusedFallbackRegex() throws InvalidConfigurationException {
+		final ParameterValidationDefinitionImpl ruleDef = new ParameterValidationDefinitionImpl();
+		ruleDef.setValidationRuleName(TrimTextValidationRule.class.getName());
+
+		final ParameterValidationChain chain = new ParameterValidationChain();
+		chain.setParamNamePatternString("^(param)\\1$");
+		chain.setRequestURIPatternString("^/app/");
+		chain.getList().add(ruleDef);
+
+		final ParameterValidationDefinitionsImpl definitions = new ParameterValidationDefinitionsImpl();
+		definitions.setRegexEngine("linear");
+		definitions.addRuleDefinition(chain);
+
+		final CompiledValidationConfig config = ValidationConfigCompiler.compile(definitions);
+		final CompiledRegex paramNameRegex = config.getChain(0).getParamNameRegex();
+		assertEquals(RegexEngine.JAVA, paramNameRegex.getEngine());
+		assertEquals(RegexEngine.LINEAR, paramNameRegex.getRequestedEngine());
+
+		final CompiledValidationConfig reloaded = ValidationConfigCompiler.compile(definitions, config);
+		assertSame(paramNameRegex, reloaded.getChain(0).getParamNameRegex());
+		assertSame(config.getChain(0).getRequestURIRegex(), reloaded.getChain(0).getRequestURIRegex());
+	}
+
+	@Test
+	public void testChainTable() throws InvalidConfigurationException {
+		final ParameterValidationDefinitionsImpl definitions = new ParameterValidationDefinitionsImpl();
+		final String[][] patterns = {
+				{"^param$", "^/app/", "false"},
+				{".*", "\\.jsp$", "true"},
+				{"^p[a-z]+", "admin", "false"}
+		};
+		for (final String[] pattern : patterns) {
+			final ParameterValidationDefinitionImpl trimDef = new ParameterValidationDefinitionImpl();
+			trimDef.setValidationRuleName(TrimTextValidationRule.class.getName());
+
+			final ParameterValidationChain chain = new ParameterValidationChain();
+			chain.setParamNamePatternString(pattern[0]);
+			chain.setRequestURIPatternString(pattern[1]);
+			chain.setRequestURIPatternNegated(Boolean.parseBoolean(pattern[2]));
+			chain.getList().add(trimDef);
+			definitions.addRuleDefinition(chain);
+		}
+
+		final CompiledValidationConfig config = ValidationConfigCompiler.compile(definitions);
+		assertEquals(1, config.getDistinctRuleCount());
+
+		final String[] uris = {"/app/index.jsp", "/app/admin", "/index.html", "/admin/app/", ""};
+		final String[] names = {"param", "param\n", "params", "other", ""};
+		for (final String uri : uris) {
+			final long[] matches = config.matchRequestURI(uri);
+			for (int chainIndex = 0; chainIndex < config.getChainCount(); ++chainIndex) {
+				final CompiledChain chain = config.getChain(chainIndex);
+				assertEquals(chain.matchesRequestURI(uri), (matches[0] & (1L << chainIndex)) != 0, chainIndex + " on " + uri);
+			}
+		}
+		for (final String name : names) {
+			for (int chainIndex = 0; chainIndex < config.getChainCount(); ++chainIndex) {
+				final CompiledChain chain = config.getChain(chainIndex);
+				assertEquals(chain.matchesParamName(name), config.matchesParamName(chainIndex, name), chainIndex + " on " + name);
+				assertEquals(1, config.getRuleCount(chainIndex));
+				assertSame(chain.getCompiledRule(0), config.getCompiledRule(chainIndex, 0));
+			}
+		}
+	}
+
+	private static ParameterValidationChain chain(final String paramNamePattern, final Class<?>... rules) {
+		final ParameterValidationChain chain = new ParameterValidationChain();
+		chain.setParamNamePatternString(paramNamePattern);
+		chain.setRequestURIPatternString(".*");
+		for (final Class<?> rule : rules) {
+			final ParameterValidationDefinitionImpl definition = new ParameterValidationDefinitionImpl();
+			definition.setValidationRuleName(rule.getName());
+			chain.getList().add(definition);
+		}
+		return chain;
+	}
+
+	@Test
+	public void testOptimiser() throws InvalidConfigurationException {
+		final ParameterValidationDefinitionsImpl definitions = new ParameterValidationDefinitionsImpl();
+		definitions.addRuleDefinition(chain("^id$", TrimTextValidationRule.class, TrimTextValidationRule.class, FailIfContainsHTMLValidationRule.class,
+				TrimTextValidationRule.class, FailIfContainsHTMLValidationRule.class));
+		definitions.addRuleDefinition(chain("^name$", TrimTextValidationRule.class));
+		definitions.addRuleDefinition(chain("^id$", TrimTextValidationRule.class, NumbersOnlyValidationRule.class));
+		definitions.addRuleDefinition(chain(".*", HTMLEncodeTextValidationRule.class, HTMLEncodeTextValidationRule.class));
+		definitions.addRuleDefinition(chain("^id$", TrimTextValidationRule.class));
+
+		final CompiledValidationConfig config = ValidationConfigCompiler.compile(definitions);
+		assertEquals(4, config.getChainCount());
+
+		// The third chain moves up past the second, as they never apply to the same param, and the
+		// repeated trims and checks are removed
+		final String[][] expected = {
+				{TrimTextValidationRule.class.getName(), FailIfContainsHTMLValidationRule.class.getName(), NumbersOnlyValidationRule.class.getName()},
+				{TrimTextValidationRule.class.getName()},
+				{HTMLEncodeTextValidationRule.class.getName(), HTMLEncodeTextValidationRule.class.getName()},
+				{TrimTextValidationRule.class.getName()}
+		};
+		for (int chainIndex = 0; chainIndex < expected.length; ++chainIndex) {
+			final CompiledChain chain = config.getChain(chainIndex);
+			assertEquals(expected[chainIndex].length, chain.getRuleCount());
+			for (int ruleIndex = 0; ruleIndex < chain.getRuleCount(); ++ruleIndex) {
+				assertEquals(expected[chainIndex][ruleIndex], chain.getRuleName(ruleIndex));
+			}
+		}
+
+		// A broken configuration is left for the compiler to report against the original chains
+		definitions.addRuleDefinition(new ParameterValidationChain());
+		try {
+			ValidationConfigCompiler.compile(definitions);
+			fail();
+		} catch (final InvalidConfigurationException ex) {
+			assertTrue(ex.getMessage().contains("chain 5"));
+		}
+	}
+
+	@Test
+	public void testConfigAnalyser() throws InvalidConfigurationException {
+		final ParameterValidationDefinitionsImpl definitions = new ParameterValidationDefinitionsImpl();
+		definitions.addRuleDefinition(chain(".*", SanitizeHTMLValidationRule.class));
+
+		final ParameterValidationChain negated = chain("^id$", TrimTextValidationRule.class);
+		negated.setRequestURIPatternNegated(true);
+		definitions.addRuleDefinition(negated);
+
+		final Map<String, String> settings = new HashMap<String, String>();
+		settings.put("pattern", "^(x|xy)*z$");
+		final ParameterValidationDefinitionImpl regexDef = new ParameterValidationDefinitionImpl();
+		regexDef.setValidationRuleName(FailIfNotRegexMatchValidationRule.class.getName());
+		regexDef.setSettings(settings);
+		final ParameterValidationChain backtracking = chain("^(a+)+$");
+		backtracking.setRequestURIPatternString("^/app/");
+		backtracking.getList().add(regexDef);
+		// Only the built in regex rules have their pattern setting analysed
+		final ParameterValidationDefinitionImpl otherDef = new ParameterValidationDefinitionImpl();
+		otherDef.setValidationRuleName(TrimTextValidationRule.class.getName());
+		otherDef.setSettings(settings);
+		backtracking.getList().add(otherDef);
+		definitions.addRuleDefinition(backtracking);
+
+		final ParameterValidationChain linear = chain("^(a+)+$", TrimTextValidationRule.class);
+		linear.setRequestURIPatternString("^/app/");
+		linear.setRegexEngine("linear");
+		definitions.addRuleDefinition(linear);
+
+		definitions.addRuleDefinition(chain(".*", TrimTextValidationRule.class));
+
+		final ConfigReport report = ConfigAnalyser.analyse(ValidationConfigCompiler.compile(definitions));
+
+		final List<String> findings = new ArrayList<String>();
+		for (final ConfigReport.Finding finding : report.getFindings()) {
+			findings.add(finding.getKind() + " " + finding.getChainIndex());
+		}
+		assertEquals(Arrays.asList(
+				"EXPENSIVE_RULE_ON_EVERY_PARAM 0",
+				"NEVER_MATCHES 1",
+				"BACKTRACKING_RISK 2",
+				"BACKTRACKING_RISK 2",
+				"DUPLICATE_CHAIN 4"), findings);
+
+		assertEquals(Arrays.asList("/", "/app/"), new ArrayList<String>(report.getRuleExecutionsPerParam().keySet()));
+		assertEquals(2, report.getRuleExecutionsPerParam().get("/").intValue());
+		assertEquals(5, report.getMaxRuleExecutionsPerParam());
+		assertEquals(0, report.getUncompiledChainCount());
+	}
+
+	@Test
+	public void testAdaptiveRuleOrder() throws InvalidConfigurationException {
+		final ParameterValidationDefinitionsImpl definitions = new ParameterValidationDefinitionsImpl();
+		definitions.addRuleDefinition(chain("^a$",
+				TrimTextValidationRule.class,
+				FailIfNotCanonicalizedValidationRule.class,
+				FailIfContainsHTMLValidationRule.class,
+				NumbersOnlyValidationRule.class));
+		definitions.addRuleDefinition(chain("^b$", TrimTextValidationRule.class, FailIfContainsHTMLValidationRule.class));
+
+		final AdaptiveRuleOrder ruleOrder = new AdaptiveRuleOrder(ValidationConfigCompiler.compile(definitions), Integer.MAX_VALUE);
+		assertArrayEquals(new int[] {0, 1, 2, 3}, ruleOrder.getOrder(0));
+		// A single read only rule has nothing to be reordered with
+		assertNull(ruleOrder.getOrder(1));
+
+		// Not enough runs have been seen to reorder
+		ruleOrder.recordPass(0, 1, 1000);
+		ruleOrder.recordFailure(0, 2, 100);
+		ruleOrder.reorder(0);
+		assertArrayEquals(new int[] {0, 1, 2, 3}, ruleOrder.getOrder(0));
+
+		// The cheaper rule that fails more often moves first, and the transformers stay where they are
+		for (int run = 0; run < 100; ++run) {
+			ruleOrder.recordPass(0, 0, 10);
+			ruleOrder.recordPass(0, 1, 1000);
+			if (run % 2 == 0) {
+				ruleOrder.recordFailure(0, 2, 100);
+			} else {
+				ruleOrder.recordPass(0, 2, 100);
+			}
+		}
+		ruleOrder.reorder(0);
+		assertArrayEquals(new int[] {0, 2, 1, 3}, ruleOrder.getOrder(0));
+		assertEquals(1, ruleOrder.getReorderCount());
+
+		// And moves back once the traffic has changed for long enough
+		for (int round = 0; round < 5; ++round) {
+			for (int run = 0; run < 100; ++run) {
+				ruleOrder.recordFailure(0, 1, 1000);
+				ruleOrder.recordPass(0, 2, 100);
+			}
+			ruleOrder.reorder(0);
+		}
+		assertArrayEquals(new int[] {0, 1, 2, 3}, ruleOrder.getOrder(0));
+
+		// A failure is checked against the rules declared before it that were moved after it
+		assertArrayEquals(new int[] {1}, AdaptiveRuleOrder.getMovedAfter(new int[] {0, 2, 1, 3}, 1));
+		assertArrayEquals(new int[] {1, 2}, AdaptiveRuleOrder.getMovedAfter(new int[] {0, 3, 2, 1}, 1));
+		assertArrayEquals(new int[0], AdaptiveRuleOrder.getMovedAfter(new int[] {0, 2, 1, 3}, 2));
+		assertArrayEquals(new int[0], AdaptiveRuleOrder.getMovedAfter(new int[] {0, 1, 2, 3}, 3));
+	}
+}
@@ -0,0 +1,755 @@
+package com.matthewcasperson.validation.test;
+
+import com.matthewcasperson.validation.config.CompiledValidationConfig;
+import com.matthewcasperson.validation.config.ConfigSnapshot;
+import com.matthewcasperson.validation.config.ValidationConfigCompiler;
+import com.matthewcasperson.validation.exception.InvalidConfigurationException;
+import com.matthewcasperson.validation.exception.ValidationFailedException;
+import com.matthewcasperson.validation.filter.ParameterValidationFilter;
+import com.matthewcasperson.validation.rule.ParameterValidationRule;
+import com.matthewcasperson.validation.rule.ParameterValidationRuleTemplate;
+import com.matthewcasperson.validation.rule.RuleTraits;
+import com.matthewcasperson.validation.ruledefinitionimpl.ParameterValidationChain;
+import com.matthewcasperson.validation.ruledefinitionimpl.ParameterValidationDefinitionImpl;
+import com.matthewcasperson.validation.ruledefinitionimpl.ParameterValidationDefinitionsImpl;
+import com.matthewcasperson.validation.ruleimpl.FailIfContainsHTMLValidationRule;
+import com.matthewcasperson.validation.ruleimpl.FailIfNotCanonicalizedValidationRule;
+import com.matthewcasperson.validation.ruleimpl.SanitizeHTMLValidationRule;
+import com.matthewcasperson.validation.ruleimpl.TrimTextValidationRule;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.FilterConfig;
+import jakarta.servlet.ServletContext;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletRequest;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletRequestWrapper;
+import jakarta.servlet.http.HttpServletResponse;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+
+import javax.management.ObjectName;
+import java.io.ByteArrayInputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+
+/**
+ * Tests of the filter itself, using mocked servlet objects
+ */
+public class ParameterValidationFilterTest {
+
+	private static final String CONFIG =
+			"<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n" +
+			"<ParameterValidationChainDatabase>\n" +
+			"    <EnforcingMode>true</EnforcingMode>\n" +
+			"    <ParameterValidationChains>\n" +
+			"        <ParameterValidationDefinition>\n" +
+			"            <ParameterValidationRuleList>\n" +
+			"                <ParameterValidationRule>\n" +
+			"                    <validationRuleName>%s</validationRuleName>\n" +
+			"                </ParameterValidationRule>\n" +
+			"                <ParameterValidationRule>\n" +
+			"                    <validationRuleName>com.matthewcasperson.validation.ruleimpl.FailIfContainsHTMLValidationRule</validationRuleName>\n" +
+			"                </ParameterValidationRule>\n" +
+			"            </ParameterValidationRuleList>\n" +
+			"            <paramNamePatternString>.*</paramNamePatternString>\n" +
+			"            <requestURIPatternString>.*</requestURIPatternString>\n" +
+			"            <paramNamePatternNegated>false</paramNamePatternNegated>\n" +
+			"            <requestURIPatternNegated>false</requestURIPatternNegated>\n" +
+			"        </ParameterValidationDefinition>\n" +
+			"    </ParameterValidationChains>\n" +
+			"</ParameterValidationChainDatabase>\n";
+
+	private static final String VALID_CONFIG = String.format(CONFIG, TrimTextValidationRule.class.getName());
+
+	static FilterConfig mockFilterConfig(final String xml) {
+		final ServletContext servletContext = mock(ServletContext.class);
+		when(servletContext.getResourceAsStream("/WEB-INF/xml/pvf.xml")).thenReturn(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)));
+
+		final FilterConfig filterConfig = mock(FilterConfig.class);
+		when(filterConfig.getInitParameter("configFile")).thenReturn("/WEB-INF/xml/pvf.xml");
+		when(filterConfig.getServletContext()).thenReturn(servletContext);
+		return filterConfig;
+	}
+
+	static HttpServletRequest mockRequest(final Map<String, String[]> params) {
+		final HttpServletRequest request = mock(HttpServletRequest.class);
+		when(request.getRequestURI()).thenReturn("/app/page.jsp");
+		when(request.getRequestURL()).thenReturn(new StringBuffer("http://localhost/app/page.jsp"));
+		when(request.getParameterNames()).thenReturn(Collections.enumeration(params.keySet()));
+		for (final Map.Entry<String, String[]> entry : params.entrySet()) {
+			when(request.getParameterValues(entry.getKey())).thenReturn(entry.getValue());
+			when(request.getParameter(entry.getKey())).thenReturn(entry.getValue().length == 0 ? null : entry.getValue()[0]);
+		}
+		return request;
+	}
+
+	/**
+	 * @return The names of the filter metrics registered with JMX for a context path and filter name
+	 */
+	private static Set<ObjectName> registeredMetrics(final String contextPath, final String filterName) throws Exception {
+		return ManagementFactory.getPlatformMBeanServer().queryNames(new ObjectName(
+				"com.matthewcasperson.validation:type=ParameterValidationFilter,context=" + ObjectName.quote(contextPath)
+						+ ",name=" + ObjectName.quote(filterName) + ",*"), null);
+	}
+
+	@Test
+	public void testMetricsRegistration() throws Exception {
+		final ParameterValidationFilter[] filters = new ParameterValidationFilter[3];
+		final String[] contextPaths = {"/first", "/second", "/first"};
+		for (int index = 0; index < filters.length; ++index) {
+			final FilterConfig filterConfig = mockFilterConfig(VALID_CONFIG);
+			when(filterConfig.getFilterName()).thenReturn("pvf-metrics");
+			when(filterConfig.getServletContext().getContextPath()).thenReturn(contextPaths[index]);
+
+			filters[index] = new ParameterValidationFilter();
+			filters[index].init(filterConfig);
+		}
+
+		// Each web application has its own metrics, and a second filter with the same name does not replace the first
+		assertEquals(2, registeredMetrics("/first", "pvf-metrics").size());
+		assertEquals(1, registeredMetrics("/second", "pvf-metrics").size());
+
+		// Destroying a filter only removes its own metrics
+		filters[0].destroy();
+		final Set<ObjectName> remaining = registeredMetrics("/first", "pvf-metrics");
+		assertEquals(1, remaining.size());
+		assertEquals("2", remaining.iterator().next().getKeyProperty("instance"));
+		filters[1].destroy();
+		filters[2].destroy();
+		assertTrue(registeredMetrics("/first", "pvf-metrics").isEmpty());
+		assertTrue(registeredMetrics("/second", "pvf-metrics").isEmpty());
+
+		// A filter that fails to start leaves nothing registered
+		final FilterConfig brokenConfig = mockFilterConfig(String.format(CONFIG, "com.example.DoesNotExist"));
+		when(brokenConfig.getFilterName()).thenReturn("pvf-metrics");
+		when(brokenConfig.getServletContext().getContextPath()).thenReturn("/broken");
+		try {
+			new ParameterValidationFilter().init(brokenConfig);
+			fail();
+		} catch (final ServletException ex) {
+
+		}
+		assertTrue(registeredMetrics("/broken", "pvf-metrics").isEmpty());
+	}
+
+	@Test
+	public void testValidRequest() throws Exception {
+		final ParameterValidationFilter filter = new ParameterValidationFilter();
+		filter.init(mockFilterConfig(VALID_CONFIG));
+
+		final Map<String, String[]> params = new HashMap<String, String[]>();
+		params.put("name", new String[] {"  padded  "});
+
+		final FilterChain chain = mock(FilterChain.class);
+		final HttpServletResponse response = mock(HttpServletResponse.class);
+		filter.doFilter(mockRequest(params), response, chain);
+
+		final ArgumentCaptor<ServletRequest> captor = ArgumentCaptor.forClass(ServletRequest.class);
+		verify(chain).doFilter(captor.capture(), any());
+		assertEquals("padded", captor.getValue().getParameter("name"));
+		verify(response, never()).sendError(anyInt(), anyString());
+	}
+
+	@Test
+	public void testInvalidRequest() throws Exception {
+		final ParameterValidationFilter filter = new ParameterValidationFilter();
+		filter.init(mockFilterConfig(VALID_CONFIG));
+
+		final Map<String, String[]> params = new HashMap<String, String[]>();
+		params.put("name", new String[] {"<script>alert()</script>"});
+
+		final FilterChain chain = mock(FilterChain.class);
+		final HttpServletResponse response = mock(HttpServletResponse.class);
+		filter.doFilter(mockRequest(params), response, chain);
+
+		verify(response).sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid parameter data");
+		verify(chain, never()).doFilter(any(), any());
+	}
+
+	@Test
+	public void testBadRuleNameFailsAtInit() {
+		final ParameterValidationFilter filter = new ParameterValidationFilter();
+
+		try {
+			filter.init(mockFilterConfig(String.format(CONFIG, "com.example.DoesNotExist")));
+			fail();
+		} catch (final ServletException ex) {
+			assertTrue(ex.getCause() instanceof InvalidConfigurationException);
+		}
+	}
+
+	/**
+	 * How many times each counting rule class has been run, which is cleared before each test
+	 */
+	static final Map<Class<?>, AtomicInteger> RUNS = new ConcurrentHashMap<Class<?>, AtomicInteger>();
+
+	@BeforeEach
+	public void clearRuns() {
+		RUNS.clear();
+	}
+
+	static int runs(final Class<? extends CountingRule> ruleClass) {
+		final AtomicInteger runs = RUNS.get(ruleClass);
+		return runs == null ? 0 : runs.get();
+	}
+
+	/**
+	 * Runs another rule and counts how many times it has been run under its own class, which
+	 * subclasses annotate with the traits they promise
+	 */
+	public abstract static class CountingRule extends ParameterValidationRuleTemplate {
+		private final ParameterValidationRule rule;
+
+		protected CountingRule(final ParameterValidationRule rule) {
+			this.rule = rule;
+		}
+
+		@Override
+		public void configure(final Map<String, String> settings) {
+			rule.configure(settings);
+		}
+
+		@Override
+		public String[] fixParams(final String name, final String url, final String[] params) throws ValidationFailedException {
+			RUNS.computeIfAbsent(getClass(), ruleClass -> new AtomicInteger()).incrementAndGet();
+			return rule.fixParams(name, url, params);
+		}
+	}
+
+	/**
+	 * Counts how many times it has been run
+	 */
+	public static class CountingValidationRule extends CountingRule {
+		public CountingValidationRule() {
+			super(new TrimTextValidationRule());
+		}
+	}
+
+	/**
+	 * Counts how many times it has been run, and promises that running it again changes nothing
+	 */
+	@RuleTraits(shareable = true, idempotent = true)
+	public static class CountingIdempotentValidationRule extends CountingRule {
+		public CountingIdempotentValidationRule() {
+			super(new TrimTextValidationRule());
+		}
+	}
+
+	@Test
+	public void testRepeatedRulesRunOncePerValue() throws Exception {
+		// The same chain, once for every param and once for the name param
+		final String chain = CONFIG.substring(CONFIG.indexOf("        <ParameterValidationDefinition>"), CONFIG.indexOf("    </ParameterValidationChains>"));
+		final String config = CONFIG.replace(chain, chain + chain.replace("<paramNamePatternString>.*<", "<paramNamePatternString>^name$<"));
+
+		final ParameterValidationFilter filter = new ParameterValidationFilter();
+		filter.init(mockFilterConfig(String.format(config, CountingIdempotentValidationRule.class.getName(), CountingIdempotentValidationRule.class.getName())));
+
+		final Map<String, String[]> params = new HashMap<String, String[]>();
+		params.put("name", new String[] {"  padded  "});
+		params.put("other", new String[] {" other"});
+
+		final FilterChain filterChain = mock(FilterChain.class);
+		filter.doFilter(mockRequest(params), mock(HttpServletResponse.class), filterChain);
+
+		final ArgumentCaptor<ServletRequest> captor = ArgumentCaptor.forClass(ServletRequest.class);
+		verify(filterChain).doFilter(captor.capture(), any());
+		assertEquals("padded", captor.getValue().getParameter("name"));
+		assertEquals("other", captor.getValue().getParameter("other"));
+
+		// The second chain does not run the rule again on the value the first chain left
+		assertEquals(2, runs(CountingIdempotentValidationRule.class));
+	}
+
+	/**
+	 * Counts how many times it has been run, and promises that it only depends on the values
+	 */
+	@RuleTraits(shareable = true, pure = true)
+	public static class CountingPureValidationRule extends CountingRule {
+		public CountingPureValidationRule() {
+			super(new TrimTextValidationRule());
+		}
+	}
+
+	@Test
+	public void testRepeatedValuesRunOncePerRequest() throws Exception {
+		final ParameterValidationFilter filter = new ParameterValidationFilter();
+		filter.init(mockFilterConfig(String.format(CONFIG, CountingPureValidationRule.class.getName())));
+
+		final Map<String, String[]> params = new HashMap<String, String[]>();
+		params.put("first", new String[] {" true "});
+		params.put("second", new String[] {" true "});
+		params.put("third", new String[] {"other"});
+		params.put("fourth", new String[] {"other"});
+
+		for (int request = 1; request <= 2; ++request) {
+			final FilterChain filterChain = mock(FilterChain.class);
+			filter.doFilter(mockRequest(params), mock(HttpServletResponse.class), filterChain);
+
+			final ArgumentCaptor<ServletRequest> captor = ArgumentCaptor.forClass(ServletRequest.class);
+			verify(filterChain).doFilter(captor.capture(), any());
+			assertEquals("true", captor.getValue().getParameter("first"));
+			assertEquals("true", captor.getValue().getParameter("second"));
+			assertEquals("other", captor.getValue().getParameter("fourth"));
+
+			// Each distinct value is run through the chain once, and nothing is carried over to the next request
+			assertEquals(2 * request, runs(CountingPureValidationRule.class));
+		}
+	}
+
+	/**
+	 * Counts how many times it has been run, and only validates
+	 */
+	@RuleTraits(shareable = true, readOnly = true, pure = true)
+	public static class CountingValidatorRule extends CountingRule {
+		public CountingValidatorRule() {
+			super(new FailIfContainsHTMLValidationRule());
+		}
+	}
+
+	@Test
+	public void testVerdictCache() throws Exception {
+		final FilterConfig filterConfig = mockFilterConfig(String.format(CONFIG, CountingValidatorRule.class.getName()));
+		when(filterConfig.getInitParameter("verdictCacheSize")).thenReturn("1024");
+
+		final ParameterValidationFilter filter = new ParameterValidationFilter();
+		filter.init(filterConfig);
+
+		for (int request = 0; request < 2; ++request) {
+			final Map<String, String[]> validParams = new HashMap<String, String[]>();
+			validParams.put("name", new String[] {"value"});
+
+			final FilterChain chain = mock(FilterChain.class);
+			filter.doFilter(mockRequest(validParams), mock(HttpServletResponse.class), chain);
+			verify(chain).doFilter(any(), any());
+
+			final Map<String, String[]> invalidParams = new HashMap<String, String[]>();
+			invalidParams.put("name", new String[] {"<b>value</b>"});
+
+			final HttpServletResponse response = mock(HttpServletResponse.class);
+			filter.doFilter(mockRequest(invalidParams), response, mock(FilterChain.class));
+			verify(response).sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid parameter data");
+		}
+
+		// The second request with each value was answered from the cache
+		assertEquals(2, runs(CountingValidatorRule.class));
+		assertEquals(2, filter.getMetrics().getVerdictCacheHits());
+		assertEquals(2, filter.getMetrics().getVerdictCacheMisses());
+		assertEquals(0.5, filter.getMetrics().getVerdictCacheHitRate());
+
+		// A full cache evicts verdicts to make room
+		final FilterConfig smallConfig = mockFilterConfig(String.format(CONFIG, CountingValidatorRule.class.getName()));
+		when(smallConfig.getInitParameter("verdictCacheSize")).thenReturn("8");
+
+		final ParameterValidationFilter smallFilter = new ParameterValidationFilter();
+		smallFilter.init(smallConfig);
+		for (int request = 0; request < 20; ++request) {
+			final Map<String, String[]> params = new HashMap<String, String[]>();
+			params.put("name", new String[] {"value " + request});
+			smallFilter.doFilter(mockRequest(params), mock(HttpServletResponse.class), mock(FilterChain.class));
+		}
+		assertEquals(12, smallFilter.getMetrics().getVerdictCacheEvictions());
+	}
+
+	/**
+	 * Counts how many times it has been run, and promises to be an expensive, pure transformer
+	 */
+	@RuleTraits(shareable = true, pure = true, threadSafe = true, expensive = true)
+	public static class CountingSanitizeRule extends CountingRule {
+		public CountingSanitizeRule() {
+			super(new SanitizeHTMLValidationRule());
+		}
+	}
+
+	@Test
+	public void testOutputCache() throws Exception {
+		final FilterConfig filterConfig = mockFilterConfig(String.format(CONFIG, CountingSanitizeRule.class.getName()));
+		when(filterConfig.getInitParameter("outputCacheBytes")).thenReturn("4096");
+
+		final ParameterValidationFilter filter = new ParameterValidationFilter();
+		filter.init(filterConfig);
+
+		final String hot = "<script>x</script>hot";
+		final String big = "<script>x</script>" + "y".repeat(960);
+
+		for (int request = 0; request < 3; ++request) {
+			assertEquals("hot", sanitize(filter, hot));
+		}
+
+		// Later requests with the same value get the output the rule gave the first time
+		assertEquals(1, runs(CountingSanitizeRule.class));
+		assertEquals(2, filter.getMetrics().getOutputCacheHits());
+		assertEquals(1, filter.getMetrics().getOutputCacheMisses());
+		assertEquals(1, filter.getMetrics().getOutputCacheEntryCount());
+
+		// A value seen once does not push out a value that keeps coming back
+		assertEquals("y".repeat(960), sanitize(filter, big));
+		assertEquals(1, filter.getMetrics().getOutputCacheEntryCount());
+		assertEquals("hot", sanitize(filter, hot));
+		assertEquals(2, runs(CountingSanitizeRule.class));
+
+		// Once it has been seen more often it takes the place of the other value
+		for (int request = 0; request < 4; ++request) {
+			sanitize(filter, big);
+		}
+		assertEquals(6, runs(CountingSanitizeRule.class));
+		assertEquals(1, filter.getMetrics().getOutputCacheEntryCount());
+		assertTrue(filter.getMetrics().getOutputCacheBytes() > 3900 && filter.getMetrics().getOutputCacheBytes() <= 4096);
+
+		sanitize(filter, big);
+		assertEquals(6, runs(CountingSanitizeRule.class));
+		sanitize(filter, hot);
+		assertEquals(7, runs(CountingSanitizeRule.class));
+	}
+
+	private static String sanitize(final ParameterValidationFilter filter, final String value) throws Exception {
+		final Map<String, String[]> params = new HashMap<String, String[]>();
+		params.put("body", new String[] {value});
+
+		final FilterChain chain = mock(FilterChain.class);
+		filter.doFilter(mockRequest(params), mock(HttpServletResponse.class), chain);
+
+		final ArgumentCaptor<ServletRequest> captor = ArgumentCaptor.forClass(ServletRequest.class);
+		verify(chain).doFilter(captor.capture(), any());
+		return captor.getValue().getParameter("body");
+	}
+
+	@Test
+	public void testRequestOutcomeCache() throws Exception {
+		final FilterConfig filterConfig = mockFilterConfig(String.format(CONFIG, CountingPureValidationRule.class.getName()));
+		when(filterConfig.getInitParameter("requestCacheSize")).thenReturn("16");
+
+		final ParameterValidationFilter filter = new ParameterValidationFilter();
+		filter.init(filterConfig);
+
+		for (int request = 0; request < 2; ++request) {
+			final FilterChain chain = mock(FilterChain.class);
+			filter.doFilter(mockGetRequest("name=%20padded%20", " padded "), mock(HttpServletResponse.class), chain);
+
+			final ArgumentCaptor<ServletRequest> captor = ArgumentCaptor.forClass(ServletRequest.class);
+			verify(chain).doFilter(captor.capture(), any());
+			assertEquals("padded", captor.getValue().getParameter("name"));
+			assertEquals("padded", captor.getValue().getParameterValues("name")[0]);
+
+			final HttpServletResponse response = mock(HttpServletResponse.class);
+			filter.doFilter(mockGetRequest("name=%3Cb%3E", "<b>"), response, mock(FilterChain.class));
+			verify(response).sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid parameter data");
+		}
+
+		// The second request with each query string was handled without running the rules
+		assertEquals(2, runs(CountingPureValidationRule.class));
+		assertEquals(2, filter.getMetrics().getRequestCacheHits());
+		assertEquals(2, filter.getMetrics().getRequestCacheMisses());
+		assertEquals(2, filter.getMetrics().getRequestCacheEntryCount());
+
+		// Requests with a body are always processed
+		final HttpServletRequest post = mockGetRequest("name=%20padded%20", " padded ");
+		when(post.getMethod()).thenReturn("POST");
+		filter.doFilter(post, mock(HttpServletResponse.class), mock(FilterChain.class));
+		assertEquals(3, runs(CountingPureValidationRule.class));
+
+		// As are requests wrapped by an earlier filter, which may have changed their params
+		for (int request = 0; request < 2; ++request) {
+			filter.doFilter(new HttpServletRequestWrapper(mockGetRequest("name=%20padded%20", " padded ")), mock(HttpServletResponse.class), mock(FilterChain.class));
+		}
+		assertEquals(5, runs(CountingPureValidationRule.class));
+
+		// The number of outcomes stays around the size of the cache
+		for (int request = 0; request < 64; ++request) {
+			filter.doFilter(mockGetRequest("name=" + request, Integer.toString(request)), mock(HttpServletResponse.class), mock(FilterChain.class));
+		}
+		assertTrue(filter.getMetrics().getRequestCacheEntryCount() <= 16);
+
+		// As are requests that go through a chain that is not pure
+		final FilterConfig impureConfig = mockFilterConfig(String.format(CONFIG, CountingValidationRule.class.getName()));
+		when(impureConfig.getInitParameter("requestCacheSize")).thenReturn("16");
+
+		final ParameterValidationFilter impureFilter = new ParameterValidationFilter();
+		impureFilter.init(impureConfig);
+
+		for (int request = 0; request < 2; ++request) {
+			impureFilter.doFilter(mockGetRequest("name=value", "value"), mock(HttpServletResponse.class), mock(FilterChain.class));
+		}
+		assertEquals(2, runs(CountingValidationRule.class));
+		assertEquals(0, impureFilter.getMetrics().getRequestCacheEntryCount());
+	}
+
+	private static HttpServletRequest mockGetRequest(final String queryString, final String name) {
+		final Map<String, String[]> params = new HashMap<String, String[]>();
+		params.put("name", new String[] {name});
+
+		final HttpServletRequest request = mockRequest(params);
+		when(request.getMethod()).thenReturn("GET");
+		when(request.getContentLength()).thenReturn(-1);
+		when(request.getQueryString()).thenReturn(queryString);
+		return request;
+	}
+
+	@Test
+	public void testParamWithoutValues() throws Exception {
+		final ParameterValidationFilter filter = new ParameterValidationFilter();
+		filter.init(mockFilterConfig(VALID_CONFIG));
+
+		final Map<String, String[]> params = new HashMap<String, String[]>();
+		params.put("name", new String[0]);
+
+		// The rules are still run on a param without values, and reject it
+		final HttpServletResponse response = mock(HttpServletResponse.class);
+		filter.doFilter(mockRequest(params), response, mock(FilterChain.class));
+		verify(response).sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid parameter data");
+	}
+
+	@Test
+	public void testWarmUp() throws Exception {
+		final FilterConfig filterConfig = mockFilterConfig(String.format(CONFIG, CountingValidationRule.class.getName()));
+		when(filterConfig.getInitParameter("warmUpIterations")).thenReturn("3");
+
+		final ParameterValidationFilter filter = new ParameterValidationFilter();
+		filter.init(filterConfig);
+		assertTrue(runs(CountingValidationRule.class) > 0);
+
+		// The warm up does not change how requests are handled
+		final Map<String, String[]> params = new HashMap<String, String[]>();
+		params.put("name", new String[] {"<script>alert()</script>"});
+
+		final HttpServletResponse response = mock(HttpServletResponse.class);
+		filter.doFilter(mockRequest(params), response, mock(FilterChain.class));
+		verify(response).sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid parameter data");
+	}
+
+	@Test
+	public void testLazyCompilation() throws Exception {
+		final FilterConfig filterConfig = mockFilterConfig(String.format(CONFIG, "com.example.DoesNotExist"));
+		when(filterConfig.getInitParameter("lazyCompilation")).thenReturn("true");
+
+		// The bad rule is not created until a request needs it
+		final ParameterValidationFilter filter = new ParameterValidationFilter();
+		filter.init(filterConfig);
+
+		final Map<String, String[]> params = new HashMap<String, String[]>();
+		params.put("name", new String[] {"value"});
+
+		final FilterChain chain = mock(FilterChain.class);
+		final HttpServletResponse response = mock(HttpServletResponse.class);
+		filter.doFilter(mockRequest(params), response, chain);
+
+		verify(response).sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid parameter data");
+		verify(chain, never()).doFilter(any(), any());
+	}
+
+	@Test
+	public void testAdaptiveRuleOrder() throws Exception {
+		final FilterConfig filterConfig = mockFilterConfig(String.format(CONFIG, FailIfNotCanonicalizedValidationRule.class.getName()));
+		when(filterConfig.getInitParameter("adaptiveRuleOrder")).thenReturn("true");
+
+		final ParameterValidationFilter filter = new ParameterValidationFilter();
+		filter.init(filterConfig);
+
+		// Reordering the read only rules never changes which requests are rejected
+		for (int request = 0; request < 50; ++request) {
+			final Map<String, String[]> params = new HashMap<String, String[]>();
+			params.put("name", new String[] {request % 2 == 0 ? "plain text" : "<b>" + request + "</b>"});
+
+			final HttpServletResponse response = mock(HttpServletResponse.class);
+			filter.doFilter(mockRequest(params), response, mock(FilterChain.class));
+			verify(response, request % 2 == 0 ? never() : times(1)).sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid parameter data");
+		}
+	}
+
+	@Test
+	public void testConfigAnalysis() throws Exception {
+		final ParameterValidationFilter filter = new ParameterValidationFilter();
+		filter.init(mockFilterConfig(VALID_CONFIG));
+		assertTrue(filter.getConfigReport().getFindings().isEmpty());
+		assertEquals(2, filter.getMetrics().getMaxRuleExecutionsPerParam());
+
+		final FilterConfig expensiveConfig = mockFilterConfig(String.format(CONFIG, SanitizeHTMLValidationRule.class.getName()));
+		final ParameterValidationFilter expensiveFilter = new ParameterValidationFilter();
+		expensiveFilter.init(expensiveConfig);
+		assertEquals(1, expensiveFilter.getMetrics().getConfigFindings().length);
+
+		// Configurations over the limits are not loaded
+		final FilterConfig limitedFindings = mockFilterConfig(String.format(CONFIG, SanitizeHTMLValidationRule.class.getName()));
+		when(limitedFindings.getInitParameter("maxConfigFindings")).thenReturn("0");
+		final FilterConfig limitedRules = mockFilterConfig(VALID_CONFIG);
+		when(limitedRules.getInitParameter("maxRuleExecutionsPerParam")).thenReturn("1");
+
+		for (final FilterConfig filterConfig : new FilterConfig[] {limitedFindings, limitedRules}) {
+			try {
+				new ParameterValidationFilter().init(filterConfig);
+				fail();
+			} catch (final ServletException ex) {
+				assertTrue(ex.getCause().getMessage().startsWith("PVF-CONFIGURATION-0008"));
+			}
+		}
+	}
+
+	@Test
+	public void testCompiledConfig() throws InvalidConfigurationException {
+		final ParameterValidationDefinitionImpl validationDef = new ParameterValidationDefinitionImpl();
+		validationDef.setValidationRuleName(TrimTextValidationRule.class.getName());
+
+		final ParameterValidationChain chain = new ParameterValidationChain();
+		chain.setParamNamePatternString("^id$");
+		chain.setParamNamePatternNegated(true);
+		chain.setRequestURIPatternString("^/app/");
+		chain.getList().add(validationDef);
+
+		final ParameterValidationDefinitionsImpl definitions = new ParameterValidationDefinitionsImpl();
+		definitions.addRuleDefinition(chain);
+		definitions.setEnforcingMode(true);
+
+		final CompiledValidationConfig config = ValidationConfigCompiler.compile(definitions);
+		assertTrue(config.isEnforcingMode());
+		assertEquals(1, config.getChainCount());
+		assertEquals(1, config.getChain(0).getRuleCount());
+		assertTrue(config.getChain(0).getRule(0) instanceof TrimTextValidationRule);
+		assertTrue(config.getChain(0).matchesParamName("name"));
+		assertFalse(config.getChain(0).matchesParamName("id"));
+		assertTrue(config.getChain(0).matchesRequestURI("/app/page.jsp"));
+
+		// Unchanged rules and regexes are carried over to the next version
+		final CompiledValidationConfig reloaded = ValidationConfigCompiler.compile(definitions, config);
+		assertEquals(2, reloaded.getVersion());
+		assertSame(config.getChain(0).getRule(0), reloaded.getChain(0).getRule(0));
+		assertSame(config.getChain(0).getParamNameRegex(), reloaded.getChain(0).getParamNameRegex());
+
+		// The snapshot does not see later changes to the model
+		chain.getList().clear();
+		assertEquals(1, config.getChain(0).getRuleCount());
+	}
+
+	@Test
+	public void testMissingPatternFailsToCompile() {
+		final ParameterValidationChain chain = new ParameterValidationChain();
+		chain.setParamNamePatternString(".*");
+
+		final ParameterValidationDefinitionsImpl definitions = new ParameterValidationDefinitionsImpl();
+		definitions.addRuleDefinition(chain);
+
+		try {
+			ValidationConfigCompiler.compile(definitions);
+			fail();
+		} catch (final InvalidConfigurationException ex) {
+			assertTrue(ex.getMessage().startsWith("PVF-CONFIGURATION-0003"));
+		}
+	}
+
+	@Test
+	public void testConfigReload() throws Exception {
+		final String strictConfig = String.format(CONFIG, "com.matthewcasperson.validation.ruleimpl.NumbersOnlyValidationRule");
+
+		final ServletContext servletContext = mock(ServletContext.class);
+		when(servletContext.getResourceAsStream("/WEB-INF/xml/pvf.xml")).thenReturn(
+				new ByteArrayInputStream(VALID_CONFIG.getBytes(StandardCharsets.UTF_8)),
+				new ByteArrayInputStream("<broken".getBytes(StandardCharsets.UTF_8)),
+				new ByteArrayInputStream(strictConfig.getBytes(StandardCharsets.UTF_8)));
+
+		final FilterConfig filterConfig = mock(FilterConfig.class);
+		when(filterConfig.getInitParameter("configFile")).thenReturn("/WEB-INF/xml/pvf.xml");
+		when(filterConfig.getInitParameter("configReloadIntervalSeconds")).thenReturn("1");
+		when(filterConfig.getServletContext()).thenReturn(servletContext);
+
+		final ParameterValidationFilter filter = new ParameterValidationFilter();
+		filter.init(filterConfig);
+
+		try {
+			assertEquals(1, filter.getMetrics().getConfigVersion());
+
+			// The broken file is skipped, and then the strict one is loaded
+			final long deadline = System.currentTimeMillis() + 10000;
+			while (filter.getMetrics().getConfigVersion() < 2 && System.currentTimeMillis() < deadline) {
+				Thread.sleep(100);
+			}
+
+			assertEquals(2, filter.getMetrics().getConfigVersion());
+			assertEquals(1, filter.getMetrics().getConfigReloadCount());
+			assertEquals(1, filter.getMetrics().getConfigReloadFailureCount());
+
+			final Map<String, String[]> params = new HashMap<String, String[]>();
+			params.put("name", new String[] {"abc123"});
+
+			final FilterChain chain = mock(FilterChain.class);
+			final HttpServletResponse response = mock(HttpServletResponse.class);
+			filter.doFilter(mockRequest(params), response, chain);
+
+			final ArgumentCaptor<ServletRequest> captor = ArgumentCaptor.forClass(ServletRequest.class);
+			verify(chain).doFilter(captor.capture(), any());
+			assertEquals("123", captor.getValue().getParameter("name"));
+		} finally {
+			filter.destroy();
+		}
+	}
+
+	@Test
+	public void testConfigSnapshot(@TempDir final Path tempDir) throws Exception {
+		final byte[] configBytes = VALID_CONFIG.getBytes(StandardCharsets.UTF_8);
+		final Path snapshotFile = tempDir.resolve("pvf.bin");
+		Files.write(snapshotFile, ConfigSnapshot.create(configBytes));
+
+		// The snapshot is on disk, so it is mapped rather than read through the servlet context
+		final FilterConfig filterConfig = mockFilterConfig(VALID_CONFIG);
+		final ServletContext servletContext = filterConfig.getServletContext();
+		when(filterConfig.getInitParameter("configSnapshotFile")).thenReturn("/WEB-INF/xml/pvf.bin");
+		when(servletContext.getRealPath("/WEB-INF/xml/pvf.bin")).thenReturn(snapshotFile.toString());
+
+		final ParameterValidationFilter filter = new ParameterValidationFilter();
+		filter.init(filterConfig);
+		verify(servletContext, never()).getResourceAsStream("/WEB-INF/xml/pvf.bin");
+		assertEquals(1, filter.getMetrics().getConfigVersion());
+
+		final Map<String, String[]> params = new HashMap<String, String[]>();
+		params.put("name", new String[] {"<script>alert()</script>"});
+
+		final HttpServletResponse response = mock(HttpServletResponse.class);
+		filter.doFilter(mockRequest(params), response, mock(FilterChain.class));
+		verify(response).sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid parameter data");
+	}
+
+	@Test
+	public void testStaleConfigSnapshot() throws Exception {
+		final byte[] staleSnapshot = ConfigSnapshot.create(String.format(CONFIG, "com.matthewcasperson.validation.ruleimpl.NumbersOnlyValidationRule").getBytes(StandardCharsets.UTF_8));
+
+		final FilterConfig filterConfig = mockFilterConfig(VALID_CONFIG);
+		when(filterConfig.getInitParameter("configSnapshotFile")).thenReturn("/WEB-INF/xml/pvf.bin");
+		when(filterConfig.getServletContext().getResourceAsStream("/WEB-INF/xml/pvf.bin")).thenReturn(new ByteArrayInputStream(staleSnapshot));
+
+		final ParameterValidationFilter filter = new ParameterValidationFilter();
+		filter.init(filterConfig);
+
+		// The XML is loaded instead, so the value is trimmed rather than stripped to numbers
+		final Map<String, String[]> params = new HashMap<String, String[]>();
+		params.put("name", new String[] {" abc123 "});
+
+		final FilterChain chain = mock(FilterChain.class);
+		filter.doFilter(mockRequest(params), mock(HttpServletResponse.class), chain);
+
+		final ArgumentCaptor<ServletRequest> captor = ArgumentCaptor.forClass(ServletRequest.class);
+		verify(chain).doFilter(captor.capture(), any());
+		assertEquals("abc123", captor.getValue().getParameter("name"));
+	}
+}
@@ -0,0 +1,276 @@
+package com.matthewcasperson.validation.test;
+
+import com.matthewcasperson.validation.exception.ValidationFailedException;
+import com.matthewcasperson.validation.regex.BacktrackingRisk;
+import com.matthewcasperson.validation.regex.CompiledRegex;
+import com.matthewcasperson.validation.regex.PatternKind;
+import com.matthewcasperson.validation.regex.RegexEngine;
+import com.matthewcasperson.validation.regex.RequiredLiterals;
+import com.matthewcasperson.validation.ruleimpl.FailIfNotRegexMatchValidationRule;
+import com.matthewcasperson.validation.ruleimpl.RemoveRegexMatches;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+
+public class RegexEngineTest {
+
+	/**
+	 * Patterns that the linear engine is expected to handle itself
+	 */
+	private static final String[] LINEAR_PATTERNS = {
+			"", "a", "abc", "a|b|ab", "ab|a", "a*", "a+?", "a*?b", "(a|ab)(c|bcd)", "(?:ab)+c",
+			"^[a-zA-Z0-9_]+$", "^\\d{1,3}$", "\\w+@\\w+\\.com", "[^<>\"']*", "^$", "a$", "\\Aab\\z",
+			"a\\Z", "x{2,}", "x{0,2}y", "(?<name>a+)b", "[\\s,]+", "\\Q.*\\E+", "[a-c-]", "\\x41\\u0042",
+			".+", "(a|b)*c?$", "^(?:script|javascript:)", "[-.]", "\\t\\n", "a{3}"
+	};
+
+	/**
+	 * Patterns that have to be left to java.util.regex
+	 */
+	private static final String[] FALLBACK_PATTERNS = {
+			"(a)\\1", "(?=a)", "(?i)abc", "a++", "\\bword\\b", "[a-z&&[^c]]", "\\p{Alpha}", "(a*)*b",
+			"(a|^){2}b", "(\\w+?|^){2}\\d+", "(^x{0,}){2}"
+	};
+
+	/**
+	 * Inputs on which the patterns gave a different result when they were run on the linear engine
+	 */
+	private static final String[][] DISAGREEMENTS = {
+			{"(a|^){2}b", "ab"}, {"(\\w+?|^){2}\\d+", "A1?c"}, {"(^x{0,}){2}", "x"}, {"(^x{0,}){2}", "xx"}
+	};
+
+	private static final String ALPHABET = "abcxy@.<>_ 09\r\n\u0085\u2028";
+
+	/**
+	 * Patterns that look like they could be matched without a regex, and the kind they should get
+	 */
+	private static final Object[][] KIND_PATTERNS = {
+			{"", PatternKind.ANY}, {".*", PatternKind.ANY}, {"^.*", PatternKind.ANY}, {"ab", PatternKind.CONTAINS},
+			{"^ab", PatternKind.PREFIX}, {"ab$", PatternKind.SUFFIX}, {"^ab$", PatternKind.EXACT}, {"a\\.b", PatternKind.CONTAINS},
+			{"\\.x$", PatternKind.SUFFIX}, {"^/a_b/", PatternKind.PREFIX}, {"a\\$", PatternKind.CONTAINS}, {"^a\\\\$", PatternKind.EXACT},
+			{"^", PatternKind.REGEX}, {"$", PatternKind.REGEX}, {"^$", PatternKind.REGEX}, {"a.b", PatternKind.REGEX},
+			{"a*", PatternKind.REGEX}, {"\\d", PatternKind.REGEX}, {"a|b", PatternKind.REGEX}, {".*a", PatternKind.REGEX},
+			{"a\n", PatternKind.REGEX}, {"\\", PatternKind.REGEX}
+	};
+
+	@Test
+	public void testLinearPatternsUseLinearEngine() {
+		for (final String pattern : LINEAR_PATTERNS) {
+			assertEquals(RegexEngine.LINEAR, RegexEngine.LINEAR.compile(pattern).getEngine(), pattern);
+		}
+	}
+
+	@Test
+	public void testUnsupportedPatternsFallBack() {
+		for (final String pattern : FALLBACK_PATTERNS) {
+			final CompiledRegex regex = RegexEngine.LINEAR.compile(pattern);
+			assertEquals(RegexEngine.JAVA, regex.getEngine(), pattern);
+			assertEquals(pattern, regex.pattern());
+		}
+	}
+
+	@Test
+	public void testLinearEngineAgreesWithJava() {
+		final Random random = new Random(42);
+
+		for (final String pattern : LINEAR_PATTERNS) {
+			final CompiledRegex linear = RegexEngine.LINEAR.compile(pattern);
+
+			for (int iteration = 0; iteration < 500; ++iteration) {
+				final StringBuilder input = new StringBuilder();
+				final int length = random.nextInt(12);
+				for (int index = 0; index < length; ++index) {
+					input.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+				}
+
+				final Matcher matcher = linear.toPattern().matcher(input);
+				final boolean found = matcher.find();
+				assertEquals(found, linear.find(input), pattern + " on " + input);
+				assertEquals(found ? matcher.group() : null, linear.findFirst(input), pattern + " on " + input);
+			}
+		}
+
+		for (final String[] disagreement : DISAGREEMENTS) {
+			final CompiledRegex regex = RegexEngine.LINEAR.compile(disagreement[0]);
+			final Matcher matcher = Pattern.compile(disagreement[0]).matcher(disagreement[1]);
+			final boolean found = matcher.find();
+			assertEquals(found, regex.find(disagreement[1]), disagreement[0] + " on " + disagreement[1]);
+			assertEquals(found ? matcher.group() : null, regex.findFirst(disagreement[1]), disagreement[0] + " on " + disagreement[1]);
+		}
+	}
+
+	@Test
+	public void testPatternKindsAgreeWithJava() {
+		final Random random = new Random(42);
+
+		for (final Object[] kindPattern : KIND_PATTERNS) {
+			final String pattern = (String)kindPattern[0];
+			final byte kind = PatternKind.classify(pattern);
+			assertEquals(kindPattern[1], kind, pattern);
+
+			if (kind == PatternKind.REGEX) {
+				continue;
+			}
+
+			final Pattern compiled = Pattern.compile(pattern);
+			final String literal = PatternKind.literal(pattern);
+
+			for (int iteration = 0; iteration < 500; ++iteration) {
+				final StringBuilder input = new StringBuilder();
+				final int length = random.nextInt(8);
+				for (int index = 0; index < length; ++index) {
+					// Build most inputs out of the literal so the interesting cases come up
+					if (random.nextBoolean() && literal != null) {
+						input.append(literal);
+					} else {
+						input.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+					}
+				}
+
+				assertEquals(compiled.matcher(input).find(), PatternKind.matches(kind, literal, input.toString()), pattern + " on " + input);
+			}
+		}
+	}
+
+	@Test
+	public void testSupplementaryCharacters() {
+		final CompiledRegex linear = RegexEngine.LINEAR.compile("^.b$");
+		assertTrue(linear.find("\uD83D\uDE00b"));
+		assertEquals("\uD83D\uDE00b", linear.findFirst("\uD83D\uDE00b"));
+	}
+
+	@Test
+	public void testNoCatastrophicBacktracking() {
+		final StringBuilder input = new StringBuilder();
+		for (int index = 0; index < 10000; ++index) {
+			input.append('a');
+		}
+		input.append('!');
+
+		final CompiledRegex linear = RegexEngine.LINEAR.compile("^(a+)+$");
+		assertEquals(RegexEngine.LINEAR, linear.getEngine());
+		assertFalse(linear.find(input));
+		assertEquals(null, linear.findFirst(input));
+	}
+
+	@Test
+	public void testEngineSetting() {
+		assertEquals(RegexEngine.JAVA, RegexEngine.fromSettings(null));
+		assertEquals(RegexEngine.LINEAR, RegexEngine.fromSetting(" Linear "));
+
+		try {
+			RegexEngine.fromSetting("perl");
+			fail();
+		} catch (final IllegalArgumentException ex) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testRulesWithLinearEngine() {
+		final Map<String, String> settings = new HashMap<String, String>();
+		settings.put("pattern", "<[^>]*>");
+		settings.put(RegexEngine.SETTING_NAME, "linear");
+
+		try {
+			final RemoveRegexMatches remove = new RemoveRegexMatches();
+			remove.configure(settings);
+			assertEquals(RegexEngine.LINEAR, remove.getRegex().getEngine());
+			assertEquals("bold", remove.fixParam("test", "test", "<b>bold</b>"));
+
+			final FailIfNotRegexMatchValidationRule match = new FailIfNotRegexMatchValidationRule();
+			match.configure(settings);
+			assertEquals(RegexEngine.LINEAR, match.getRegex().getEngine());
+			assertEquals("<b>", match.fixParam("test", "test", "<b>"));
+		} catch (final ValidationFailedException ex) {
+			fail();
+		}
+
+		try {
+			final FailIfNotRegexMatchValidationRule match = new FailIfNotRegexMatchValidationRule();
+			match.configure(settings);
+			match.fixParam("test", "test", "plain");
+			fail();
+		} catch (final ValidationFailedException ex) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testRequiredLiterals() {
+		assertEquals(Collections.singletonList("<script"), RequiredLiterals.of(Pattern.compile("<script[^>]*>")).getLiterals());
+		assertEquals(Arrays.asList("javascript", "vbscript"), RequiredLiterals.of(Pattern.compile("(?:javascript|vbscript):")).getLiterals());
+		assertEquals(Collections.singletonList("@"), RequiredLiterals.of(Pattern.compile("\\w+@\\w+")).getLiterals());
+		assertEquals(Arrays.asList("a", "b"), RequiredLiterals.of(Pattern.compile("a|b.*")).getLiterals());
+		assertTrue(RequiredLiterals.of(Pattern.compile("[a-z]+")).isEmpty());
+		assertTrue(RequiredLiterals.of(Pattern.compile("a|[bc]")).isEmpty());
+		assertTrue(RequiredLiterals.of(Pattern.compile("(?i)script")).isEmpty());
+		assertTrue(RequiredLiterals.of(Pattern.compile("script", Pattern.CASE_INSENSITIVE)).isEmpty());
+
+		final Random random = new Random(42);
+		for (final String pattern : LINEAR_PATTERNS) {
+			final Pattern compiled = Pattern.compile(pattern);
+			final RequiredLiterals literals = RequiredLiterals.of(compiled);
+
+			for (int iteration = 0; iteration < 500; ++iteration) {
+				final StringBuilder input = new StringBuilder();
+				final int length = random.nextInt(12);
+				for (int index = 0; index < length; ++index) {
+					input.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+				}
+
+				if (!literals.mayMatch(input.toString())) {
+					assertFalse(compiled.matcher(input).find(), pattern + " on " + input);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testRulesWithRequiredLiterals() {
+		final Map<String, String> settings = new HashMap<String, String>();
+		settings.put("pattern", "<script[^>]*>");
+
+		try {
+			final RemoveRegexMatches remove = new RemoveRegexMatches();
+			remove.configure(settings);
+			assertEquals("plain", remove.fixParam("test", "test", "plain"));
+			assertEquals("alert()", remove.fixParam("test", "test", "<script type=x>alert()"));
+		} catch (final ValidationFailedException ex) {
+			fail();
+		}
+
+		try {
+			final FailIfNotRegexMatchValidationRule match = new FailIfNotRegexMatchValidationRule();
+			match.configure(settings);
+			match.fixParam("test", "test", "<scrip>");
+			fail();
+		} catch (final ValidationFailedException ex) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testBacktrackingRisk() {
+		for (final String pattern : new String[] {"^(a+)+$", "(a|ab)*c", "^(\\w+\\s?)*$"}) {
+			assertTrue(BacktrackingRisk.isAtRisk(RegexEngine.JAVA.compile(pattern)), pattern);
+			assertFalse(BacktrackingRisk.isAtRisk(RegexEngine.LINEAR.compile(pattern)), pattern);
+		}
+
+		for (final String pattern : new String[] {".*", "^[a-z]+$", "(a|b)*c", "^(ab)+$", "(a{1,3})+"}) {
+			assertFalse(BacktrackingRisk.isAtRisk(RegexEngine.JAVA.compile(pattern)), pattern);
+		}
+	}
+}
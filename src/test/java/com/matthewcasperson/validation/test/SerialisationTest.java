@@ -24,10 +24,12 @@
 package com.matthewcasperson.validation.test;
 
 import com.matthewcasperson.validation.exception.InvalidConfigurationException;
+import com.matthewcasperson.validation.regex.RegexEngine;
 import com.matthewcasperson.validation.ruledefinitionimpl.ParameterValidationChain;
 import com.matthewcasperson.validation.ruledefinitionimpl.ParameterValidationDefinitionImpl;
 import com.matthewcasperson.validation.ruledefinitionimpl.ParameterValidationDefinitionsImpl;
 import com.matthewcasperson.validation.ruleimpl.FailIfNotRegexMatchValidationRule;
+import com.matthewcasperson.validation.ruleimpl.TrimTextValidationRule;
 import com.matthewcasperson.validation.utils.SerialisationUtils;
 import com.matthewcasperson.validation.utilsimpl.JaxBSerialisationUtilsImpl;
 import com.matthewcasperson.validation.utilsimpl.SerialisationUtilsImpl;
@@ -192,5 +194,51 @@ public class SerialisationTest {
 			fail();
 		}
 	}
-}
 
+	/*
+	 * Test passing the global regex engine through to the chains and rules
+	 */
+	@Test
+	public void testSerialisationJaxbRegexEngine() {
+		final Map<String, String> settings = new HashMap<String, String>();
+		settings.put("pattern", "[A-Z]*");
+
+		final ParameterValidationDefinitionImpl validationDef = new ParameterValidationDefinitionImpl();
+		validationDef.setValidationRuleName("com.matthewcasperson.validation.ruleimpl.FailIfNotRegexMatchValidationRule");
+		validationDef.setSettings(settings);
+
+		final ParameterValidationChain chain = new ParameterValidationChain();
+		chain.setParamNamePatternString("hithere");
+		chain.setRequestURIPatternString("^/something/else$");
+
+		chain.getList().add(validationDef);
+
+		final ParameterValidationDefinitionImpl trimDef = new ParameterValidationDefinitionImpl();
+		trimDef.setValidationRuleName(TrimTextValidationRule.class.getName());
+		trimDef.setSettings(settings);
+		chain.getList().add(trimDef);
+
+		final ParameterValidationDefinitionsImpl conatiner = new ParameterValidationDefinitionsImpl();
+		conatiner.addRuleDefinition(chain);
+		conatiner.setRegexEngine("linear");
+
+		final String xml = JAXB_SERIALISATION_UTILS.writeToXML(conatiner, ParameterValidationDefinitionsImpl.class, ParameterValidationDefinitionImpl.class);
+
+		final ParameterValidationDefinitionsImpl conatiner2 = JAXB_SERIALISATION_UTILS.readFromXML(xml, ParameterValidationDefinitionsImpl.class, ParameterValidationDefinitionImpl.class);
+		conatiner2.applyRegexEngine();
+
+		final ParameterValidationChain chain2 = conatiner2.getParameterValidationDefinitions().get(0);
+		assertEquals(RegexEngine.LINEAR, chain2.getParamNameRegex().getEngine());
+		assertEquals(RegexEngine.LINEAR, chain2.getRequestURIRegex().getEngine());
+
+		try {
+			assertEquals(RegexEngine.LINEAR, ((FailIfNotRegexMatchValidationRule)chain2.getList().get(0).getRule()).getRegex().getEngine());
+		} catch (final InvalidConfigurationException ex) {
+			fail();
+		}
+
+		// Only the built in regex rules are passed the engine
+		assertEquals("linear", chain2.getList().get(0).getEffectiveSettings().get(RegexEngine.SETTING_NAME));
+		assertEquals(settings, chain2.getList().get(1).getEffectiveSettings());
+	}
+}
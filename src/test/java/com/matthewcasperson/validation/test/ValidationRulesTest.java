@@ -23,7 +23,14 @@
  */
 package com.matthewcasperson.validation.test;
 
+import com.matthewcasperson.validation.config.CompiledRule;
 import com.matthewcasperson.validation.exception.ValidationFailedException;
+import com.matthewcasperson.validation.rule.Canonicalizer;
+import com.matthewcasperson.validation.rule.DerivedForms;
+import com.matthewcasperson.validation.rule.HTMLEscaper;
+import com.matthewcasperson.validation.rule.ParameterValidationRule;
+import com.matthewcasperson.validation.rule.RuleTraits;
+import com.matthewcasperson.validation.rule.ValidationContext;
 import com.matthewcasperson.validation.ruleimpl.CanonicalizeTextValidationRule;
 import com.matthewcasperson.validation.ruleimpl.FailIfContainsHTMLValidationRule;
 import com.matthewcasperson.validation.ruleimpl.FailIfNotCanonicalizedValidationRule;
@@ -34,12 +41,20 @@ import com.matthewcasperson.validation.ruleimpl.RemoveRegexMatches;
 import com.matthewcasperson.validation.ruleimpl.ReplaceNonBreakingSpaceWithSpaceValidationRule;
 import com.matthewcasperson.validation.ruleimpl.SanitizeHTMLValidationRule;
 import com.matthewcasperson.validation.ruleimpl.TrimTextValidationRule;
+import org.apache.commons.text.StringEscapeUtils;
 import org.junit.jupiter.api.Test;
+import org.owasp.esapi.reference.DefaultEncoder;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Random;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
 
 
@@ -228,6 +243,138 @@ public class ValidationRulesTest {
 
 	}
 
+	@Test
+	public void testFailEncoded2() {
+		assertFalse(Canonicalizer.mayBeEncoded("a+b c=d", false));
+		assertTrue(Canonicalizer.mayBeEncoded("C:\\dir", false));
+		assertFalse(Canonicalizer.mayBeEncoded("C:\\dir", true));
+		assertTrue(Canonicalizer.mayBeEncoded("C:\\%41", true));
+
+		final FailIfNotCanonicalizedValidationRule rule = new FailIfNotCanonicalizedValidationRule();
+		final Map<String, String> config = new HashMap<String, String>();
+		config.put("allowBackSlash", "true");
+		rule.configure(config);
+
+		try {
+			rule.fixParam("test", "test", "C:\\dir\\x41");
+			rule.fixParam("test", "test", "a+b");
+		} catch (final ValidationFailedException ex) {
+			fail();
+		}
+
+		// Removing the backslashes can leave an encoding behind
+		try {
+			rule.fixParam("test", "test", "%2\\6");
+			fail();
+		} catch (final ValidationFailedException ex) {
+
+		}
+
+		try {
+			new FailIfNotCanonicalizedValidationRule().fixParam("test", "test", "C:\\dir\\x41");
+			fail();
+		} catch (final ValidationFailedException ex) {
+
+		}
+	}
+
+
+	@Test
+	public void testDerivedForms() {
+		final DerivedForms notStarted = ValidationContext.current().getDerivedForms();
+		final String encoded = "%3Cb%3E";
+
+		// Outside of a request every form is worked out again
+		assertEquals("<b>", notStarted.canonical(encoded));
+		assertNotSame(notStarted.canonical(encoded), notStarted.canonical(encoded));
+
+		final ValidationContext context = ValidationContext.begin();
+		try {
+			final DerivedForms derivedForms = ValidationContext.current().getDerivedForms();
+			assertSame(context.getDerivedForms(), derivedForms);
+
+			// Within a request the form is worked out once, even for an equal string
+			final String canonical = derivedForms.canonical(encoded);
+			assertSame(canonical, derivedForms.canonical(new String(encoded)));
+
+			final String escaped = derivedForms.htmlEscaped("<b>");
+			assertEquals("&lt;b&gt;", escaped);
+			assertSame(escaped, derivedForms.htmlEscaped("<b>"));
+
+			final String normalized = derivedForms.nfd("\u00e9");
+			assertEquals("e\u0301", normalized);
+			assertSame(normalized, derivedForms.nfd("\u00e9"));
+
+			assertEquals("value", derivedForms.trimmed(" value "));
+
+			// Rules get the same forms
+			assertEquals("<b>", new CanonicalizeTextValidationRule().fixParam("test", "test", encoded));
+			assertEquals("&lt;b&gt;", new HTMLEncodeTextValidationRule().fixParam("test", "test", "<b>"));
+
+			// A new request starts with nothing remembered
+			assertSame(context, ValidationContext.begin());
+			assertNotSame(canonical, derivedForms.canonical(encoded));
+		} catch (final ValidationFailedException ex) {
+			fail();
+		} finally {
+			ValidationContext.end();
+		}
+
+		// Once the request has ended the thread no longer refers to its context
+		assertSame(notStarted, ValidationContext.current().getDerivedForms());
+		assertNotSame(notStarted.canonical(encoded), notStarted.canonical(encoded));
+	}
+
+	@Test
+	public void testCanonicalizerMatchesEsapi() {
+		// Pieces of the encodings the codecs know, and of the near misses they have to leave alone
+		final String[] pieces = {
+				"&", "&", "#", "#x", "#X", ";", "%", "%", "\\", "\\",
+				"amp", "AMP", "Amp", "lt", "quot", "apos", "nbsp", "notin", "not", "thetasym", "theta", "Kappa",
+				"\u212Aappa", "\u0130", "\u00e9", "\u0661", "\uD835\uDFCE", "\uD83D\uDE00", "\uD800",
+				"0", "2", "3", "7", "8", "9", "00", "1114111", "1114112", "99999999999", "C", "e", "F", "g",
+				"u", "U", "x", "b", "n", "v", "'", "\"", " ", "a",
+				"%26", "%25", "%5C", "%3c", "&#38;", "&#x5c;", "\\x26", "\\u0026", "\\046", "\\777"
+		};
+		final Random random = new Random(42);
+
+		for (int iteration = 0; iteration < 50000; ++iteration) {
+			final StringBuilder value = new StringBuilder();
+			for (int count = random.nextInt(12); count > 0; --count) {
+				value.append(pieces[random.nextInt(pieces.length)]);
+			}
+
+			final String input = value.toString();
+			assertEquals(DefaultEncoder.getInstance().canonicalize(input, false), Canonicalizer.canonicalize(input), input);
+		}
+
+		// Nothing to decode means nothing is copied
+		final String plain = "plain value";
+		assertSame(plain, Canonicalizer.canonicalize(plain));
+		assertEquals("<a&b>", Canonicalizer.canonicalize("%26lt;a&amp;b\\x3e"));
+	}
+
+	@Test
+	public void testHTMLEscaperMatchesCommonsText() {
+		// Every character up to the last one with an entity, plus some surrogates
+		final Random random = new Random(42);
+
+		for (int iteration = 0; iteration < 20000; ++iteration) {
+			final char[] value = new char[random.nextInt(20)];
+			for (int index = 0; index < value.length; ++index) {
+				value[index] = random.nextInt(10) == 0 ? (char)(0xD800 + random.nextInt(0x800)) : (char)random.nextInt(0x2700);
+			}
+
+			final String input = new String(value);
+			assertEquals(StringEscapeUtils.escapeHtml4(input), HTMLEscaper.escape(input));
+			assertEquals(!StringEscapeUtils.escapeHtml4(input).equals(input), HTMLEscaper.needsEscaping(input));
+		}
+
+		// Nothing to escape means nothing is copied
+		final String plain = "plain value";
+		assertSame(plain, HTMLEscaper.escape(plain));
+		assertEquals("a&lt;b&gt;&amp;&quot;'&eacute;&hearts;", HTMLEscaper.escape("a<b>&\"'\u00e9\u2665"));
+	}
 
 	@Test
 	public void testRegex1() {
@@ -343,4 +490,70 @@ public class ValidationRulesTest {
 
 		}
 	}
+
+	@Test
+	public void testRuleTraits() throws ValidationFailedException {
+		final Map<String, String> removeSettings = new HashMap<String, String>();
+		removeSettings.put("pattern", "<[^>]*>|script");
+
+		final ParameterValidationRule[] rules = {
+				new CanonicalizeTextValidationRule(),
+				new FailIfContainsHTMLValidationRule(),
+				new FailIfNotCanonicalizedValidationRule(),
+				new HTMLEncodeTextValidationRule(),
+				new NumbersOnlyValidationRule(),
+				configure(new RemoveRegexMatches(), removeSettings),
+				new ReplaceNonBreakingSpaceWithSpaceValidationRule(),
+				new SanitizeHTMLValidationRule(),
+				new TrimTextValidationRule()
+		};
+
+		// Printable ASCII, with some of the characters the rules react to
+		final String alphabet = " !\"#$%&'()*+,-./0123456789:;<=>?@AZ[\\]^_`az{|}~\u00A0\u00E9";
+		final Random random = new Random(42);
+
+		for (final ParameterValidationRule rule : rules) {
+			final RuleTraits traits = rule.getClass().getAnnotation(RuleTraits.class);
+			assertNotNull(traits, rule.getClass().getName());
+			assertTrue(traits.pure() && traits.threadSafe() && traits.shareable(), rule.getClass().getName());
+
+			final CompiledRule compiledRule = new CompiledRule(rule.getClass().getName(), null, rule);
+			final String safe = traits.safeCharacters();
+
+			for (int iteration = 0; iteration < 500; ++iteration) {
+				// Values of only safe characters pass unchanged
+				if (!safe.isEmpty()) {
+					final String value = randomString(random, safe);
+					assertTrue(compiledRule.passesUnchanged(new String[] {value}));
+					assertEquals(value, rule.fixParam("test", "test", value), rule.getClass().getName());
+				}
+
+				// Running an idempotent rule on its own output changes nothing
+				if (traits.idempotent()) {
+					final String fixed = rule.fixParam("test", "test", randomString(random, alphabet));
+					assertEquals(fixed, rule.fixParam("test", "test", fixed), rule.getClass().getName());
+				}
+			}
+		}
+
+		final CompiledRule trim = new CompiledRule(TrimTextValidationRule.class.getName(), null, new TrimTextValidationRule());
+		assertFalse(trim.passesUnchanged(new String[] {"safe", " unsafe"}));
+		assertFalse(trim.passesUnchanged(new String[] {"\u00E9"}));
+		assertFalse(trim.passesUnchanged(new String[] {null}));
+		assertFalse(trim.passesUnchanged(null));
+		assertFalse(trim.passesUnchanged(new String[0]));
+	}
+
+	private static ParameterValidationRule configure(final ParameterValidationRule rule, final Map<String, String> settings) {
+		rule.configure(settings);
+		return rule;
+	}
+
+	private static String randomString(final Random random, final String alphabet) {
+		final char[] value = new char[random.nextInt(20)];
+		for (int index = 0; index < value.length; ++index) {
+			value[index] = alphabet.charAt(random.nextInt(alphabet.length()));
+		}
+		return new String(value);
+	}
 }